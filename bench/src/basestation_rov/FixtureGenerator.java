@@ -0,0 +1,164 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package basestation_rov;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates the benchmark fixtures in bench/fixtures. The data is synthetic:
+ * the values take a random walk within the range of the real sensors, from a
+ * fixed seed, so the same files come out on every run. Only the framing is
+ * taken from the devices.
+ *
+ * serial_sensors.txt is the byte stream of the serial devices: the IMU and
+ * echo sounder frames of the Arduino, and GGA, RMC and DPT sentences with a
+ * valid checksum, all ending in CR LF. tcp_responses.txt has the answers of
+ * the ROV RPi and the camera RPi to the data requests, one per line.
+ *
+ * Usage, from the project folder:
+ * <pre>
+ * FixtureGenerator [folder]
+ * </pre>
+ */
+public class FixtureGenerator {
+
+    private static final long SEED = 2020;
+    private static final int SERIAL_ROUNDS = 300;
+    private static final int TCP_ROUNDS = 200;
+
+    private final Random random = new Random(SEED);
+
+    /**
+     * Writes the fixtures.
+     *
+     * @param args the folder to write to, bench/fixtures by default
+     */
+    public static void main(String[] args) {
+        Path folder = Paths.get(args.length > 0 ? args[0] : "bench/fixtures");
+        try {
+            FixtureGenerator generator = new FixtureGenerator();
+            generator.writeSerialSensors(folder.resolve("serial_sensors.txt"));
+            generator.writeTcpResponses(folder.resolve("tcp_responses.txt"));
+            System.out.println("Wrote the fixtures to " + folder);
+        } catch (IOException ex) {
+            System.out.println("Could not write the fixtures: " + ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Writes the serial byte stream. The boat moves north east at about 3
+     * knots while roll, pitch, heading and depth drift.
+     *
+     * @param file the file to write
+     * @throws IOException if the file could not be written
+     */
+    private void writeSerialSensors(Path file) throws IOException {
+        double roll = 0;
+        double pitch = 0;
+        double heading = 45;
+        double depth = 40;
+        double latitude = 6326.1234;
+        double longitude = 1023.4567;
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.US_ASCII)) {
+            for (int i = 0; i < SERIAL_ROUNDS; i++) {
+                roll = walk(roll, 1.5, -20, 20);
+                pitch = walk(pitch, 1.0, -20, 20);
+                heading = (walk(heading, 4, -3600, 3600) + 360) % 360;
+                depth = walk(depth, 2, 5, 80);
+                latitude += 0.0011;
+                longitude += 0.0007;
+                String time = String.format(Locale.ROOT, "12%02d%02d.%d", (i / 600) % 60, (i / 10) % 60, i % 10);
+                out.write(String.format(Locale.ROOT, "<Roll:%.2f:Pitch:%.2f:Heading:%d>\r\n",
+                        roll, pitch, (int) heading));
+                out.write(String.format(Locale.ROOT, "<D:%.1f:Temp:%.1f>\r\n",
+                        depth, 8 + random.nextDouble()));
+                out.write(nmea(String.format(Locale.ROOT, "GPGGA,%s,%.4f,N,%.4f,E,1,%02d,0.9,%.1f,M,41.2,M,,",
+                        time, latitude, longitude, 6 + random.nextInt(7), 8 + 4 * random.nextDouble())));
+                out.write(nmea(String.format(Locale.ROOT, "GPRMC,%s,A,%.4f,N,%.4f,E,%.1f,%.1f,161020,,,A",
+                        time, latitude, longitude, 2 + 3 * random.nextDouble(), heading)));
+                out.write(nmea(String.format(Locale.ROOT, "SDDPT,%.1f,0.5", depth)));
+            }
+        }
+    }
+
+    /**
+     * Writes the RPi answers, one from the ROV and one from the camera per
+     * round.
+     *
+     * @param file the file to write
+     * @throws IOException if the file could not be written
+     */
+    private void writeTcpResponses(Path file) throws IOException {
+        double roll = 0;
+        double pitch = 0;
+        double depthBeneath = 20;
+        double depth = 30;
+        double boxTemp = 30;
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.US_ASCII)) {
+            for (int i = 0; i < TCP_ROUNDS; i++) {
+                roll = walk(roll, 1.5, -15, 15);
+                pitch = walk(pitch, 1.0, -10, 10);
+                depthBeneath = walk(depthBeneath, 1, 2, 40);
+                depth = walk(depth, 0.5, 1, 60);
+                boxTemp = walk(boxTemp, 0.2, 20, 45);
+                out.write(String.format(Locale.ROOT, "<Fb_stepperPSPos:%d:Fb_stepperSBPos:%d:Fb_rollAngle:%.2f"
+                        + ":Fb_pitchAngle:%.2f:Fb_depthBeneathROV:%.2f:Fb_tempElBoxFront:%.1f"
+                        + ":Fb_tempElBoxRear:%.1f:Fb_ROVReady:true:ERROR_I2C:false>\n",
+                        random.nextInt(256), random.nextInt(256), roll, pitch, depthBeneath,
+                        boxTemp, boxTemp - 2));
+                out.write(String.format(Locale.ROOT, "<leakAlarm:0:depth:%.3f:pressure:%.1f:outsideTemp:%.2f"
+                        + ":insideTemp:%.2f:humidity:%.1f>\n",
+                        depth, 1013 + depth * 100.5, 8 + random.nextDouble(), 20 + random.nextDouble(),
+                        40 + 5 * random.nextDouble()));
+            }
+        }
+    }
+
+    /**
+     * Takes one step of a random walk, kept within the limits.
+     *
+     * @param value the current value
+     * @param step the largest step
+     * @param min the lowest value
+     * @param max the highest value
+     * @return the new value
+     */
+    private double walk(double value, double step, double min, double max) {
+        double next = value + (random.nextDouble() * 2 - 1) * step;
+        return Math.max(min, Math.min(max, next));
+    }
+
+    /**
+     * Adds the start character, the checksum and the line end to the body of
+     * an NMEA sentence.
+     *
+     * @param body the sentence between $ and *
+     * @return the sentence
+     */
+    private static String nmea(String body) {
+        int checksum = 0;
+        for (int i = 0; i < body.length(); i++) {
+            checksum ^= body.charAt(i);
+        }
+        return String.format(Locale.ROOT, "$%s*%02X\r\n", body, checksum);
+    }
+}
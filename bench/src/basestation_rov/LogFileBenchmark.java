@@ -0,0 +1,78 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package basestation_rov;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import ntnusubsea.gui.Data;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures one logging tick of the LogFileHandler, which writes a line to the
+ * ship position, data and telementry logs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LogFileBenchmark {
+
+    private LogFileHandler logFileHandler;
+    private File logDirectory;
+
+    /**
+     * Points the log files to a temporary directory.
+     *
+     * @throws Exception if the directory could not be made
+     */
+    @Setup
+    public void setup() throws Exception {
+        logDirectory = Files.createTempDirectory("towedrov-bench").toFile();
+        logFileHandler = new LogFileHandler(new Data());
+        logFileHandler.logStorageLocation = logDirectory.getPath() + File.separator;
+    }
+
+    /**
+     * Closes the log files and deletes them.
+     *
+     * @throws Exception if the directory could not be deleted
+     */
+    @TearDown
+    public void tearDown() throws Exception {
+        logFileHandler.closeLog();
+        FileUtils.deleteDirectory(logDirectory);
+    }
+
+    /**
+     * Runs one logging tick.
+     */
+    @Benchmark
+    public void logData() {
+        logFileHandler.run();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package basestation_rov;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import ntnusubsea.gui.Data;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the parsing of the generated GPS, IMU and echo sounder stream in
+ * ReadSerialData, fed in chunks the size of one serial read.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerialFrameBenchmark {
+
+    @Param({"64", "512"})
+    public int chunkSize;
+
+    private ReadSerialData reader;
+    private byte[][] chunks;
+
+    /**
+     * Loads the stream and splits it into chunks.
+     *
+     * @throws Exception if the fixture could not be read
+     */
+    @Setup
+    public void setup() throws Exception {
+        reader = new ReadSerialData(new Data(), "BENCH", 115200, "Bench");
+        byte[] stream = Files.readAllBytes(Paths.get("bench/fixtures/serial_sensors.txt"));
+        chunks = new byte[(stream.length + chunkSize - 1) / chunkSize][];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = Arrays.copyOfRange(stream, i * chunkSize,
+                    Math.min(stream.length, (i + 1) * chunkSize));
+        }
+    }
+
+    /**
+     * Parses the whole stream once.
+     *
+     * @return the number of frames and sentences found
+     */
+    @Benchmark
+    public int parseStream() {
+        int frames = 0;
+        for (byte[] chunk : chunks) {
+            frames += reader.handleData(chunk);
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package ntnusubsea.gui;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures TCPClient.handleDataFromRemote on generated responses from the ROV
+ * RPi and the camera RPi.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TelemetryBenchmark {
+
+    private TCPClient client;
+    private String[] responses;
+
+    /**
+     * Loads the responses.
+     *
+     * @throws Exception if the fixture could not be read
+     */
+    @Setup
+    public void setup() throws Exception {
+        client = new TCPClient("localhost", 0, new Data());
+        List<String> lines = Files.readAllLines(Paths.get("bench/fixtures/tcp_responses.txt"),
+                StandardCharsets.US_ASCII);
+        responses = lines.toArray(new String[lines.size()]);
+    }
+
+    /**
+     * Handles all the responses once.
+     */
+    @Benchmark
+    public void handleDataFromRemote() {
+        for (String response : responses) {
+            client.handleDataFromRemote(response);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package ntnusubsea.gui;
+
+import basestation_rov.IoReactor;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the per frame work of the video path: UDPServer.handleFrame, which
+ * decodes a received JPEG and puts it into Data, and scaling the frame to the
+ * video panel with ImageUtils.resize. The sample frames are made from
+ * TowedROV.jpg, so they are the same on every run.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class VideoFrameBenchmark {
+
+    @Param({"640x480", "1280x720"})
+    public String frameSize;
+
+    private UDPServer server;
+    private Data data;
+    private byte[] receivedData;
+    private BufferedImage frame;
+    private int panelWidth = 1280;
+    private int panelHeight = 720;
+
+    /**
+     * Makes a sample JPEG frame of the given size, and a UDPServer that is not
+     * started, so no socket is opened.
+     *
+     * @throws Exception if the sample image could not be read
+     */
+    @Setup
+    public void setup() throws Exception {
+        String[] size = frameSize.split("x");
+        BufferedImage source = ImageIO.read(new File("src/ntnusubsea/gui/TowedROV.jpg"));
+        BufferedImage sample = new BufferedImage(Integer.parseInt(size[0]),
+                Integer.parseInt(size[1]), BufferedImage.TYPE_INT_RGB);
+        sample.getGraphics().drawImage(source, 0, 0, sample.getWidth(), sample.getHeight(), null);
+        ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+        ImageIO.write(sample, "jpg", jpeg);
+        receivedData = jpeg.toByteArray();
+        frame = ImageIO.read(new ByteArrayInputStream(receivedData));
+        data = new Data();
+        server = new UDPServer(0, data, new IoReactor("Bench"));
+    }
+
+    /**
+     * Handles one received frame the way the decoder thread does.
+     *
+     * @return the decoded frame
+     */
+    @Benchmark
+    public BufferedImage handleFrame() {
+        server.handleFrame(receivedData, System.nanoTime());
+        return data.getVideoImage();
+    }
+
+    /**
+     * Scales one decoded frame to the video panel.
+     *
+     * @return the scaled frame
+     */
+    @Benchmark
+    public BufferedImage resize() {
+        return ImageUtils.resize(frame, panelWidth, panelHeight);
+    }
+}
@@ -0,0 +1,659 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package basestation_rov;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Opens and keeps open the TCP connections of the base station, like the
+ * connections to the ROV RPi and the camera RPi. The connections live on the
+ * IoReactor thread: connects are non-blocking with a timeout, and a lost or
+ * failed connection is tried again after an exponential backoff with jitter,
+ * so the RPis are not flooded with connects when they restart.
+ *
+ * The RPis talk in lines, so every received line is handed to the handler of
+ * the connection, and {@link Connection#send(String)} sends one line from
+ * any thread. Users report a broken protocol with
+ * {@link Connection#failed(String)}, and the connection is made again.
+ */
+public class ConnectionManager {
+
+    /**
+     * The state of a connection.
+     */
+    public enum State {
+        /**
+         * Not opened, or closed by the user.
+         */
+        CLOSED,
+        /**
+         * A connect is in progress.
+         */
+        CONNECTING,
+        /**
+         * Connected, lines are sent and received.
+         */
+        CONNECTED,
+        /**
+         * Waiting for the backoff before connecting again.
+         */
+        WAITING
+    }
+
+    /**
+     * Handles the events of a connection. Called on the reactor thread, so
+     * the methods must not block.
+     */
+    public interface ConnectionHandler {
+
+        /**
+         * Called when the connection is made.
+         */
+        void onConnected();
+
+        /**
+         * Called with every line received, without the line end.
+         *
+         * @param line the received line
+         */
+        void onLine(String line);
+
+        /**
+         * Called when the connection is lost or closed.
+         */
+        void onDisconnected();
+    }
+
+    /**
+     * Is told about every state change of the connections.
+     */
+    public interface StateListener {
+
+        /**
+         * Called on the reactor thread when a connection changes state.
+         *
+         * @param connection the connection
+         * @param oldState the state before the change
+         * @param newState the state after the change
+         */
+        void stateChanged(Connection connection, State oldState, State newState);
+    }
+
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int MAX_LINE_LENGTH = 65536;
+
+    private final IoReactor reactor;
+    private final long connectTimeout;
+    private final long minBackoff;
+    private final long maxBackoff;
+    private final Random random = new Random();
+    private final List<Connection> connections = new ArrayList<>();
+    private final List<StateListener> listeners = new CopyOnWriteArrayList<>();
+    // Only used on the reactor thread
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+    /**
+     * One connection managed by the ConnectionManager.
+     */
+    public final class Connection implements IoReactor.ChannelHandler {
+
+        private final String name;
+        private final String host;
+        private final int port;
+        private final ConnectionHandler handler;
+        private volatile State state = State.CLOSED;
+        private volatile SocketChannel channel;
+        private SelectionKey key;
+        private int failures = 0;
+        private boolean everConnected = false;
+        private int completedAttempts = 0;
+        private int generation = 0;
+        private long reconnects = 0;
+        private byte[] line = new byte[256];
+        private int lineLength = 0;
+        private final ArrayDeque<ByteBuffer> pendingWrites = new ArrayDeque<>();
+
+        /**
+         * Creates a connection.
+         *
+         * @param name the name used in the log
+         * @param host the host to connect to
+         * @param port the port to connect to
+         * @param handler the handler of the connection
+         */
+        private Connection(String name, String host, int port, ConnectionHandler handler) {
+            this.name = name;
+            this.host = host;
+            this.port = port;
+            this.handler = handler;
+        }
+
+        /**
+         * Returns the name of the connection.
+         *
+         * @return the name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the current state of the connection.
+         *
+         * @return the state
+         */
+        public State getState() {
+            return state;
+        }
+
+        /**
+         * Returns true if the connection is connected.
+         *
+         * @return true if connected
+         */
+        public boolean isConnected() {
+            return state == State.CONNECTED;
+        }
+
+        /**
+         * Returns the number of times the connection has been made again
+         * after it was lost.
+         *
+         * @return the number of reconnects
+         */
+        public long getReconnects() {
+            return reconnects;
+        }
+
+        /**
+         * Sends a line. Can be called from any thread. The line is written
+         * at once if the socket buffer has room, if not the rest is written
+         * by the reactor thread.
+         *
+         * @param text the line to send, without the line end
+         * @throws IOException if not connected or the write failed
+         */
+        public void send(String text) throws IOException {
+            SocketChannel current = channel;
+            if (state != State.CONNECTED || current == null) {
+                throw new IOException("Not connected to " + name);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap((text + "\n").getBytes(StandardCharsets.UTF_8));
+            synchronized (pendingWrites) {
+                if (pendingWrites.isEmpty()) {
+                    current.write(buffer);
+                }
+                if (buffer.hasRemaining()) {
+                    pendingWrites.add(buffer);
+                    reactor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (key != null && key.isValid()) {
+                                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                            }
+                        }
+                    });
+                }
+            }
+        }
+
+        /**
+         * Reports that the connection is broken, for example when an answer
+         * did not come. The socket is closed and the connection is made again
+         * after the backoff. Does nothing if the connection is not connected.
+         *
+         * @param reason the reason, for the log
+         */
+        public void failed(final String reason) {
+            reactor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (state == State.CONNECTED) {
+                        lost(Connection.this, reason);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Waits until the connection is connected, or until the first connect
+         * attempt since it was opened has failed.
+         *
+         * @param timeoutMillis the max time to wait
+         * @return true if the connection is connected
+         * @throws InterruptedException if interrupted while waiting
+         */
+        public synchronized boolean awaitConnected(long timeoutMillis) throws InterruptedException {
+            long end = System.currentTimeMillis() + timeoutMillis;
+            while (state != State.CONNECTED && completedAttempts == 0) {
+                long left = end - System.currentTimeMillis();
+                if (left <= 0) {
+                    break;
+                }
+                wait(left);
+            }
+            return state == State.CONNECTED;
+        }
+
+        /**
+         * Handles the events of the channel on the reactor thread.
+         *
+         * @param key the key of the channel
+         */
+        @Override
+        public void ready(SelectionKey key) {
+            try {
+                if (key.isConnectable()) {
+                    if (channel.finishConnect()) {
+                        connected(this);
+                    }
+                    return;
+                }
+                if (key.isWritable()) {
+                    flushWrites();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    read();
+                }
+            } catch (IOException ex) {
+                broken(ex.getMessage());
+            } catch (RuntimeException ex) {
+                // An error in the handler must not leave the connection
+                // connected on a closed channel, so it is handled as a
+                // broken connection and made again after the backoff.
+                broken("error in the handler: " + ex);
+            }
+        }
+
+        /**
+         * Closes the channel after an error, and either counts the failed
+         * connect attempt or reports the lost connection.
+         *
+         * @param reason the reason, for the log
+         */
+        private void broken(String reason) {
+            if (state == State.CONNECTING) {
+                connectFailed(this, reason);
+            } else if (state == State.CONNECTED) {
+                lost(this, reason);
+            }
+        }
+
+        /**
+         * Reads what is available and hands every complete line to the
+         * handler.
+         *
+         * @throws IOException if the read failed or the server closed
+         */
+        private void read() throws IOException {
+            while (state == State.CONNECTED) {
+                readBuffer.clear();
+                int count = channel.read(readBuffer);
+                if (count < 0) {
+                    throw new IOException("Connection closed by the server");
+                }
+                if (count == 0) {
+                    return;
+                }
+                readBuffer.flip();
+                while (readBuffer.hasRemaining()) {
+                    byte b = readBuffer.get();
+                    if (b == '\n') {
+                        int end = lineLength;
+                        if (end > 0 && line[end - 1] == '\r') {
+                            end--;
+                        }
+                        String text = new String(line, 0, end, StandardCharsets.UTF_8);
+                        lineLength = 0;
+                        handler.onLine(text);
+                        if (state != State.CONNECTED) {
+                            return;
+                        }
+                    } else {
+                        if (lineLength == line.length) {
+                            if (line.length >= MAX_LINE_LENGTH) {
+                                throw new IOException("Line longer than " + MAX_LINE_LENGTH + " bytes");
+                            }
+                            line = Arrays.copyOf(line, line.length * 2);
+                        }
+                        line[lineLength++] = b;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Writes the lines the sending threads could not write.
+         *
+         * @throws IOException if the write failed
+         */
+        private void flushWrites() throws IOException {
+            synchronized (pendingWrites) {
+                while (!pendingWrites.isEmpty()) {
+                    ByteBuffer buffer = pendingWrites.peek();
+                    channel.write(buffer);
+                    if (buffer.hasRemaining()) {
+                        return;
+                    }
+                    pendingWrites.poll();
+                }
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+        }
+
+        /**
+         * Sets the state, and tells the listeners and waiting threads.
+         *
+         * @param newState the new state
+         */
+        private void setState(State newState) {
+            State oldState = state;
+            if (oldState == newState) {
+                return;
+            }
+            synchronized (this) {
+                state = newState;
+                notifyAll();
+            }
+            for (StateListener listener : listeners) {
+                try {
+                    listener.stateChanged(this, oldState, newState);
+                } catch (RuntimeException ex) {
+                    System.out.println("Error in connection listener: " + ex);
+                }
+            }
+        }
+
+        /**
+         * Counts a finished connect attempt.
+         */
+        private synchronized void attemptDone() {
+            completedAttempts++;
+            notifyAll();
+        }
+    }
+
+    /**
+     * The constructor of the ConnectionManager class.
+     *
+     * @param reactor the reactor running the connections
+     * @param connectTimeout the max time a connect may take in milliseconds
+     * @param minBackoff the wait after the first failure in milliseconds
+     * @param maxBackoff the max wait between attempts in milliseconds
+     */
+    public ConnectionManager(IoReactor reactor, long connectTimeout, long minBackoff, long maxBackoff) {
+        this.reactor = reactor;
+        this.connectTimeout = connectTimeout;
+        this.minBackoff = minBackoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+    /**
+     * Returns the reactor running the connections.
+     *
+     * @return the reactor
+     */
+    public IoReactor getReactor() {
+        return reactor;
+    }
+
+    /**
+     * Closes all connections.
+     */
+    public void closeAll() {
+        reactor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (Connection connection : new ArrayList<>(connections)) {
+                    closeNow(connection);
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds a listener told about all state changes.
+     *
+     * @param listener the listener
+     */
+    public void addListener(StateListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a state listener.
+     *
+     * @param listener the listener
+     */
+    public void removeListener(StateListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Creates a closed connection. Call {@link #open(Connection)} to
+     * connect it.
+     *
+     * @param name the name used in the log
+     * @param host the host to connect to
+     * @param port the port to connect to
+     * @param handler the handler of the connection
+     * @return the connection
+     */
+    public Connection create(String name, String host, int port, ConnectionHandler handler) {
+        return new Connection(name, host, port, handler);
+    }
+
+    /**
+     * Starts connecting a connection, and keeps it connected until it is
+     * closed. A connection waiting for its backoff is tried at once.
+     *
+     * @param connection the connection to open
+     */
+    public void open(final Connection connection) {
+        synchronized (connection) {
+            connection.completedAttempts = 0;
+        }
+        reactor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!connections.contains(connection)) {
+                    connections.add(connection);
+                }
+                if (connection.state == State.CLOSED || connection.state == State.WAITING) {
+                    connection.failures = 0;
+                    beginConnect(connection);
+                }
+            }
+        });
+    }
+
+    /**
+     * Closes a connection and stops connecting it again.
+     *
+     * @param connection the connection to close
+     */
+    public void close(final Connection connection) {
+        reactor.execute(new Runnable() {
+            @Override
+            public void run() {
+                closeNow(connection);
+            }
+        });
+    }
+
+    /**
+     * Closes a connection on the reactor thread.
+     *
+     * @param connection the connection to close
+     */
+    private void closeNow(Connection connection) {
+        connections.remove(connection);
+        connection.generation++;
+        closeChannel(connection);
+        connection.setState(State.CLOSED);
+        connection.attemptDone();
+    }
+
+    /**
+     * Starts a non-blocking connect, and times it out after the connect
+     * timeout.
+     *
+     * @param connection the connection
+     */
+    private void beginConnect(final Connection connection) {
+        final int attempt = ++connection.generation;
+        connection.setState(State.CONNECTING);
+        try {
+            SocketChannel channel = SocketChannel.open();
+            connection.channel = channel;
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            connection.key = reactor.register(channel, SelectionKey.OP_CONNECT, connection);
+            if (channel.connect(new InetSocketAddress(connection.host, connection.port))) {
+                connected(connection);
+                return;
+            }
+        } catch (IOException | RuntimeException ex) {
+            connectFailed(connection, ex.getMessage());
+            return;
+        }
+        reactor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (connection.generation == attempt && connection.state == State.CONNECTING) {
+                    connectFailed(connection, "timed out");
+                }
+            }
+        }, connectTimeout);
+    }
+
+    /**
+     * Starts reading a connected channel and tells the handler.
+     *
+     * @param connection the connection
+     */
+    private void connected(Connection connection) {
+        connection.key.interestOps(SelectionKey.OP_READ);
+        connection.lineLength = 0;
+        if (connection.everConnected) {
+            connection.reconnects++;
+        }
+        connection.everConnected = true;
+        connection.failures = 0;
+        System.out.println("Success! Connected to " + connection.name
+                + " (" + connection.host + ":" + connection.port + ")");
+        connection.setState(State.CONNECTED);
+        connection.handler.onConnected();
+        connection.attemptDone();
+    }
+
+    /**
+     * Closes a failed connect and schedules a new one.
+     *
+     * @param connection the connection
+     * @param reason the reason, for the log
+     */
+    private void connectFailed(Connection connection, String reason) {
+        closeChannel(connection);
+        if (connection.failures == 0) {
+            System.out.println("Could not connect to " + connection.name
+                    + " (" + connection.host + ":" + connection.port + "): " + reason);
+        }
+        scheduleRetry(connection);
+        connection.attemptDone();
+    }
+
+    /**
+     * Closes a lost connection and schedules a new connect.
+     *
+     * @param connection the connection
+     * @param reason the reason, for the log
+     */
+    private void lost(Connection connection, String reason) {
+        System.out.println("Lost connection to " + connection.name
+                + " (" + connection.host + ":" + connection.port + "): " + reason);
+        closeChannel(connection);
+        scheduleRetry(connection);
+    }
+
+    /**
+     * Waits an exponential backoff with jitter before the next connect. Half
+     * the backoff is fixed and half is random, so several clients do not
+     * reconnect at the same time.
+     *
+     * @param connection the connection
+     */
+    private void scheduleRetry(final Connection connection) {
+        long backoff = minBackoff << Math.min(connection.failures, 20);
+        if (backoff <= 0 || backoff > maxBackoff) {
+            backoff = maxBackoff;
+        }
+        connection.failures++;
+        final int attempt = ++connection.generation;
+        long delay = backoff / 2 + (long) (random.nextDouble() * (backoff / 2));
+        connection.setState(State.WAITING);
+        reactor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (connection.generation == attempt && connection.state == State.WAITING) {
+                    beginConnect(connection);
+                }
+            }
+        }, delay);
+    }
+
+    /**
+     * Closes the channel of a connection, and tells the handler if it was
+     * connected.
+     *
+     * @param connection the connection
+     */
+    private void closeChannel(Connection connection) {
+        boolean wasConnected = connection.state == State.CONNECTED;
+        SocketChannel channel = connection.channel;
+        connection.channel = null;
+        if (connection.key != null) {
+            connection.key.cancel();
+            connection.key = null;
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                System.out.println("Error closing the connection to " + connection.name + ": " + ex.getMessage());
+            }
+        }
+        synchronized (connection.pendingWrites) {
+            connection.pendingWrites.clear();
+        }
+        if (wasConnected) {
+            try {
+                connection.handler.onDisconnected();
+            } catch (RuntimeException ex) {
+                System.out.println("Error in the handler of " + connection.name + ": " + ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,632 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package basestation_rov;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Incremental parser for the "&lt;key:value:key:value&gt;" frames sent by the
+ * Arduinos and the RPis. Bytes can be fed in arbitrary chunks; a frame that is
+ * split over several reads is carried over to the next call, and every
+ * complete frame in a chunk is emitted. The fields of a frame are handed to
+ * the FrameListener first when the closing "&gt;" is received, so a broken
+ * frame never updates half of its values.
+ *
+ * Keys are resolved through a KeyTable, and the value of the current field is
+ * read with the valueAs methods directly from the internal buffer, so no
+ * strings are created while parsing.
+ */
+public class FrameParser {
+
+    /**
+     * The key id given to keys that are not in the key table.
+     */
+    public static final int UNKNOWN_KEY = -1;
+
+    /**
+     * The max number of bytes in one frame, longer frames are dropped.
+     */
+    public static final int MAX_FRAME_LENGTH = 4096;
+
+    private static final byte START_CHAR = '<';
+    private static final byte END_CHAR = '>';
+    private static final byte SEP_CHAR = ':';
+    private static final byte JUNK_CHAR = '?';
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final KeyTable keys;
+    private final FrameListener listener;
+    private final byte[] frame = new byte[MAX_FRAME_LENGTH];
+    private int frameLength = 0;
+    private boolean inFrame = false;
+    private boolean overflow = false;
+
+    private int keyStart;
+    private int keyEnd;
+    private int valueStart;
+    private int valueEnd;
+
+    private long frameCount = 0;
+    private long droppedFrames = 0;
+    private long parseErrors = 0;
+
+    /**
+     * Receives the fields of the complete frames found by the FrameParser.
+     */
+    public interface FrameListener {
+
+        /**
+         * Called once for every key/value pair in a complete frame. The value
+         * is only valid during the call, and is read from the parser.
+         *
+         * @param key the id of the key in the key table, or UNKNOWN_KEY
+         * @param parser the parser holding the current key and value
+         */
+        void onField(int key, FrameParser parser);
+
+        /**
+         * Called when all the fields of a frame has been handed over.
+         */
+        void onFrameEnd();
+    }
+
+    /**
+     * The constructor of the FrameParser class.
+     *
+     * @param keys the key table used to resolve keys, or null if only
+     * UNKNOWN_KEY should be given to the listener
+     * @param listener the listener receiving the fields of each frame
+     */
+    public FrameParser(KeyTable keys, FrameListener listener) {
+        this.keys = keys;
+        this.listener = listener;
+    }
+
+    /**
+     * Feeds a chunk of received bytes to the parser.
+     *
+     * @param buffer the buffer holding the bytes
+     * @param offset the index of the first byte to read
+     * @param length the number of bytes to read
+     * @return the number of complete frames found in this chunk
+     */
+    public int feed(byte[] buffer, int offset, int length) {
+        int frames = 0;
+        for (int i = offset; i < offset + length; i++) {
+            if (accept(buffer[i])) {
+                frames++;
+            }
+        }
+        return frames;
+    }
+
+    /**
+     * Feeds a chunk of received bytes to the parser.
+     *
+     * @param buffer the bytes to read, null is ignored
+     * @return the number of complete frames found in this chunk
+     */
+    public int feed(byte[] buffer) {
+        if (buffer == null) {
+            return 0;
+        }
+        return feed(buffer, 0, buffer.length);
+    }
+
+    /**
+     * Feeds a received line of text to the parser. The characters are
+     * expected to be ASCII.
+     *
+     * @param text the text to read, null is ignored
+     * @return the number of complete frames found in this text
+     */
+    public int feed(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        int frames = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (accept((byte) text.charAt(i))) {
+                frames++;
+            }
+        }
+        return frames;
+    }
+
+    /**
+     * Throws away any partial frame held by the parser.
+     */
+    public void reset() {
+        inFrame = false;
+        overflow = false;
+        frameLength = 0;
+    }
+
+    /**
+     * Returns true if the parser holds the start of a frame which has not
+     * been completed yet.
+     *
+     * @return true if a partial frame is held
+     */
+    public boolean hasPartialFrame() {
+        return inFrame;
+    }
+
+    /**
+     * Handles one byte of input.
+     *
+     * @param b the byte to handle
+     * @return true if the byte completed a frame
+     */
+    private boolean accept(byte b) {
+        if (b == START_CHAR) {
+            if (inFrame) {
+                // A new frame started before the last one was closed
+                droppedFrames++;
+            }
+            inFrame = true;
+            overflow = false;
+            frameLength = 0;
+            return false;
+        }
+        if (!inFrame) {
+            return false;
+        }
+        if (b == END_CHAR) {
+            inFrame = false;
+            if (overflow) {
+                droppedFrames++;
+                return false;
+            }
+            dispatchFrame();
+            return true;
+        }
+        if (b == JUNK_CHAR || b == '\r' || b == '\n') {
+            return false;
+        }
+        if (frameLength == frame.length) {
+            overflow = true;
+            return false;
+        }
+        frame[frameLength++] = b;
+        return false;
+    }
+
+    /**
+     * Splits the buffered frame into key/value pairs and hands them to the
+     * listener.
+     */
+    private void dispatchFrame() {
+        frameCount++;
+        int tokenStart = 0;
+        boolean isKey = true;
+        for (int i = 0; i <= frameLength; i++) {
+            if (i == frameLength || frame[i] == SEP_CHAR) {
+                if (isKey) {
+                    keyStart = tokenStart;
+                    keyEnd = i;
+                } else {
+                    valueStart = tokenStart;
+                    valueEnd = i;
+                    dispatchField();
+                }
+                isKey = !isKey;
+                tokenStart = i + 1;
+            }
+        }
+        listener.onFrameEnd();
+    }
+
+    /**
+     * Hands the current key/value pair to the listener.
+     */
+    private void dispatchField() {
+        while (keyStart < keyEnd && frame[keyStart] <= ' ') {
+            keyStart++;
+        }
+        while (keyEnd > keyStart && frame[keyEnd - 1] <= ' ') {
+            keyEnd--;
+        }
+        while (valueStart < valueEnd && frame[valueStart] <= ' ') {
+            valueStart++;
+        }
+        while (valueEnd > valueStart && frame[valueEnd - 1] <= ' ') {
+            valueEnd--;
+        }
+        int key = keys == null ? UNKNOWN_KEY : keys.lookup(frame, keyStart, keyEnd);
+        try {
+            listener.onField(key, this);
+        } catch (NumberFormatException ex) {
+            parseErrors++;
+        }
+    }
+
+    /**
+     * Returns true if the key of the current field contains the given ASCII
+     * text.
+     *
+     * @param text the text to search for
+     * @return true if the key contains the text
+     */
+    public boolean keyContains(String text) {
+        int length = text.length();
+        for (int i = keyStart; i <= keyEnd - length; i++) {
+            int j = 0;
+            while (j < length && frame[i + j] == (byte) text.charAt(j)) {
+                j++;
+            }
+            if (j == length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the value of the current field as a double.
+     *
+     * @return the value as a double
+     * @throws NumberFormatException if the value is not a number
+     */
+    public double valueAsDouble() {
+        return parseDouble(frame, valueStart, valueEnd);
+    }
+
+    /**
+     * Parses a decimal number from the given region of the buffer without
+     * creating any objects.
+     *
+     * @param buffer the buffer holding the ASCII number
+     * @param start the index of the first byte
+     * @param end the index after the last byte
+     * @return the number
+     * @throws NumberFormatException if the region is not a number
+     */
+    static double parseDouble(byte[] buffer, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+            negative = buffer[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean anyDigit = false;
+        boolean pastPoint = false;
+        for (; i < end; i++) {
+            byte b = buffer[i];
+            if (b >= '0' && b <= '9') {
+                anyDigit = true;
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (mantissa != 0) {
+                        digits++;
+                    }
+                    if (pastPoint) {
+                        scale--;
+                    }
+                } else if (!pastPoint) {
+                    scale++;
+                }
+            } else if (b == '.' && !pastPoint) {
+                pastPoint = true;
+            } else if (b == 'e' || b == 'E') {
+                break;
+            } else {
+                throw new NumberFormatException();
+            }
+        }
+        if (!anyDigit) {
+            throw new NumberFormatException();
+        }
+        if (i < end) {
+            // Exponent
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+                negativeExponent = buffer[i] == '-';
+                i++;
+            }
+            if (i == end) {
+                throw new NumberFormatException();
+            }
+            int exponent = 0;
+            for (; i < end; i++) {
+                byte b = buffer[i];
+                if (b < '0' || b > '9') {
+                    throw new NumberFormatException();
+                }
+                exponent = Math.min(exponent * 10 + (b - '0'), 9999);
+            }
+            scale += negativeExponent ? -exponent : exponent;
+        }
+        double value = mantissa;
+        if (scale < 0) {
+            value = -scale < POWERS_OF_TEN.length
+                    ? value / POWERS_OF_TEN[-scale] : value * Math.pow(10, scale);
+        } else if (scale > 0) {
+            value = scale < POWERS_OF_TEN.length
+                    ? value * POWERS_OF_TEN[scale] : value * Math.pow(10, scale);
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Returns the value of the current field as a float.
+     *
+     * @return the value as a float
+     * @throws NumberFormatException if the value is not a number
+     */
+    public float valueAsFloat() {
+        return (float) valueAsDouble();
+    }
+
+    /**
+     * Returns the value of the current field as an int.
+     *
+     * @return the value as an int
+     * @throws NumberFormatException if the value is not an integer
+     */
+    public int valueAsInt() {
+        return parseInt(frame, valueStart, valueEnd);
+    }
+
+    /**
+     * Parses an integer from the given region of the buffer without creating
+     * any objects.
+     *
+     * @param buffer the buffer holding the ASCII number
+     * @param start the index of the first byte
+     * @param end the index after the last byte
+     * @return the number
+     * @throws NumberFormatException if the region is not an integer
+     */
+    static int parseInt(byte[] buffer, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+            negative = buffer[i] == '-';
+            i++;
+        }
+        if (i == end) {
+            throw new NumberFormatException();
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            byte b = buffer[i];
+            if (b < '0' || b > '9') {
+                throw new NumberFormatException();
+            }
+            value = value * 10 + (b - '0');
+            if (value > Integer.MAX_VALUE + 1L) {
+                throw new NumberFormatException();
+            }
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            throw new NumberFormatException();
+        }
+        return (int) value;
+    }
+
+    /**
+     * Returns the value of the current field as a boolean, following the
+     * rules of Boolean.parseBoolean.
+     *
+     * @return true if the value is "true", ignoring case
+     */
+    public boolean valueAsBoolean() {
+        return valueEquals("true", true);
+    }
+
+    /**
+     * Returns true if the value of the current field equals the given ASCII
+     * text.
+     *
+     * @param text the text to compare with
+     * @return true if the value equals the text
+     */
+    public boolean valueEquals(String text) {
+        return valueEquals(text, false);
+    }
+
+    /**
+     * Compares the value of the current field with the given ASCII text.
+     *
+     * @param text the text to compare with
+     * @param ignoreCase true if the case of letters should be ignored
+     * @return true if the value equals the text
+     */
+    private boolean valueEquals(String text, boolean ignoreCase) {
+        if (valueEnd - valueStart != text.length()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            int a = frame[valueStart + i];
+            int b = text.charAt(i);
+            if (ignoreCase) {
+                a = Character.toLowerCase(a);
+                b = Character.toLowerCase(b);
+            }
+            if (a != b) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the key of the current field as a new string. Only meant for
+     * logging and debugging.
+     *
+     * @return the key of the current field
+     */
+    public String keyAsString() {
+        return new String(frame, keyStart, keyEnd - keyStart, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Returns the value of the current field as a new string. Only meant for
+     * logging and debugging.
+     *
+     * @return the value of the current field
+     */
+    public String valueAsString() {
+        return new String(frame, valueStart, valueEnd - valueStart, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Returns the number of complete frames parsed.
+     *
+     * @return the number of complete frames
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Returns the number of frames dropped because they were broken or too
+     * long.
+     *
+     * @return the number of dropped frames
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * Returns the number of fields whose value could not be parsed.
+     *
+     * @return the number of parse errors
+     */
+    public long getParseErrors() {
+        return parseErrors;
+    }
+
+    /**
+     * A precomputed perfect hash table from keys to key ids. The id of a key
+     * is its index in the list given to the constructor. The hash seed and
+     * table size are searched for when the table is built, so every key gets
+     * its own slot and a lookup is one hash and one compare.
+     */
+    public static final class KeyTable {
+
+        private final byte[][] slotKeys;
+        private final int[] slotIds;
+        private final int mask;
+        private final int seed;
+
+        /**
+         * The constructor of the KeyTable class.
+         *
+         * @param keys the ASCII keys of the table, the index of each key is
+         * its id
+         */
+        public KeyTable(String... keys) {
+            byte[][] keyBytes = new byte[keys.length][];
+            for (int i = 0; i < keys.length; i++) {
+                keyBytes[i] = keys[i].getBytes(StandardCharsets.US_ASCII);
+            }
+            int size = Integer.highestOneBit(Math.max(1, keys.length * 2 - 1)) << 1;
+            while (true) {
+                for (int s = 1; s <= 1024; s++) {
+                    int[] ids = tryBuild(keyBytes, size, s);
+                    if (ids != null) {
+                        this.slotIds = ids;
+                        this.slotKeys = new byte[size][];
+                        for (int slot = 0; slot < size; slot++) {
+                            if (ids[slot] != UNKNOWN_KEY) {
+                                slotKeys[slot] = keyBytes[ids[slot]];
+                            }
+                        }
+                        this.mask = size - 1;
+                        this.seed = s;
+                        return;
+                    }
+                }
+                size <<= 1;
+            }
+        }
+
+        /**
+         * Tries to place all the keys in a table of the given size with the
+         * given seed.
+         *
+         * @param keyBytes the keys to place
+         * @param size the size of the table
+         * @param seed the hash seed
+         * @return the slot to id table, or null if two keys collided
+         */
+        private static int[] tryBuild(byte[][] keyBytes, int size, int seed) {
+            int[] ids = new int[size];
+            Arrays.fill(ids, UNKNOWN_KEY);
+            for (int i = 0; i < keyBytes.length; i++) {
+                int slot = hash(keyBytes[i], 0, keyBytes[i].length, seed) & (size - 1);
+                if (ids[slot] != UNKNOWN_KEY) {
+                    if (Arrays.equals(keyBytes[ids[slot]], keyBytes[i])) {
+                        throw new IllegalArgumentException("Duplicate key: "
+                                + new String(keyBytes[i], StandardCharsets.US_ASCII));
+                    }
+                    return null;
+                }
+                ids[slot] = i;
+            }
+            return ids;
+        }
+
+        /**
+         * Seeded FNV-1a hash of the given bytes.
+         *
+         * @param buffer the buffer holding the bytes
+         * @param start the index of the first byte
+         * @param end the index after the last byte
+         * @param seed the hash seed
+         * @return the hash
+         */
+        private static int hash(byte[] buffer, int start, int end, int seed) {
+            int h = 0x811C9DC5 ^ (seed * 0x9E3779B9);
+            for (int i = start; i < end; i++) {
+                h = (h ^ buffer[i]) * 0x01000193;
+            }
+            return h ^ (h >>> 16);
+        }
+
+        /**
+         * Returns the id of the key in the given region of the buffer.
+         *
+         * @param buffer the buffer holding the key
+         * @param start the index of the first byte of the key
+         * @param end the index after the last byte of the key
+         * @return the id of the key, or UNKNOWN_KEY
+         */
+        public int lookup(byte[] buffer, int start, int end) {
+            int slot = hash(buffer, start, end, seed) & mask;
+            byte[] key = slotKeys[slot];
+            if (key == null || key.length != end - start) {
+                return UNKNOWN_KEY;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != buffer[start + i]) {
+                    return UNKNOWN_KEY;
+                }
+            }
+            return slotIds[slot];
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package basestation_rov;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The single I/O thread of the base station. All the TCP and UDP channels to
+ * the RPis are registered with one Selector, and their handlers are called on
+ * this thread when a channel can be read, written or connected. The handlers
+ * only decode the data and hand it on, the slow work like decoding video is
+ * done by worker threads, so more RPis can be added without more threads.
+ *
+ * Tasks and timers from other threads are run on the reactor thread, so the
+ * handlers never need locks for their own state.
+ */
+public class IoReactor implements Runnable {
+
+    /**
+     * Handles the events of a registered channel.
+     */
+    public interface ChannelHandler {
+
+        /**
+         * Called on the reactor thread when the channel is ready for one of
+         * its interest operations.
+         *
+         * @param key the selection key of the channel
+         * @throws IOException if the channel failed, the channel is then
+         * closed
+         */
+        void ready(SelectionKey key) throws IOException;
+    }
+
+    private static final long MAX_SELECT_MILLIS = 1000;
+
+    /**
+     * A timer waiting to run on the reactor thread.
+     */
+    private static final class Timer implements Comparable<Timer> {
+
+        private final long time;
+        private final long order;
+        private final Runnable task;
+
+        /**
+         * Creates a timer.
+         *
+         * @param time the time to run at in milliseconds
+         * @param order the order the timer was made in, for equal times
+         * @param task the task to run
+         */
+        private Timer(long time, long order, Runnable task) {
+            this.time = time;
+            this.order = order;
+            this.task = task;
+        }
+
+        /**
+         * Orders the timers by time.
+         *
+         * @param other the other timer
+         * @return the order of the timers
+         */
+        @Override
+        public int compareTo(Timer other) {
+            if (time != other.time) {
+                return time < other.time ? -1 : 1;
+            }
+            return order < other.order ? -1 : (order == other.order ? 0 : 1);
+        }
+    }
+
+    private final String name;
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+    private long timerCount = 0;
+    private volatile boolean running = false;
+    private volatile Thread thread;
+
+    /**
+     * The constructor of the IoReactor class.
+     *
+     * @param name the name of the reactor thread
+     */
+    public IoReactor(String name) {
+        this.name = name;
+        try {
+            this.selector = Selector.open();
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Could not open a selector", ex);
+        }
+    }
+
+    /**
+     * Starts the reactor thread, if it is not running.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this);
+        thread.setName(name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the reactor thread and closes all registered channels.
+     */
+    public synchronized void stop() {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                for (SelectionKey key : selector.keys()) {
+                    closeChannel(key);
+                }
+                running = false;
+            }
+        });
+    }
+
+    /**
+     * Returns true if called on the reactor thread.
+     *
+     * @return true on the reactor thread
+     */
+    public boolean inReactorThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Runs a task on the reactor thread as soon as possible. Starts the
+     * reactor if needed.
+     *
+     * @param task the task to run
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        start();
+        selector.wakeup();
+    }
+
+    /**
+     * Runs a task on the reactor thread after a delay.
+     *
+     * @param task the task to run
+     * @param delayMillis the delay in milliseconds
+     */
+    public void schedule(final Runnable task, long delayMillis) {
+        final long time = System.currentTimeMillis() + delayMillis;
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                timers.add(new Timer(time, timerCount++, task));
+            }
+        });
+    }
+
+    /**
+     * Registers a channel with the selector. Must be called on the reactor
+     * thread, from a task or a handler.
+     *
+     * @param channel the channel, it is made non-blocking
+     * @param ops the interest operations
+     * @param handler the handler of the channel
+     * @return the selection key of the channel
+     * @throws IOException if the channel could not be registered
+     */
+    public SelectionKey register(SelectableChannel channel, int ops, ChannelHandler handler) throws IOException {
+        if (!inReactorThread()) {
+            throw new IllegalStateException("Channels must be registered on the reactor thread");
+        }
+        channel.configureBlocking(false);
+        return channel.register(selector, ops, handler);
+    }
+
+    /**
+     * Runs the reactor thread. Runs the tasks and timers, waits for the
+     * channels and calls their handlers.
+     */
+    @Override
+    public void run() {
+        while (running) {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                runSafely(task);
+            }
+            long now = System.currentTimeMillis();
+            while (!timers.isEmpty() && timers.peek().time <= now) {
+                runSafely(timers.poll().task);
+            }
+            if (!running) {
+                break;
+            }
+            long wait = MAX_SELECT_MILLIS;
+            if (!timers.isEmpty()) {
+                wait = Math.max(1, Math.min(wait, timers.peek().time - now));
+            }
+            try {
+                selector.select(wait);
+            } catch (IOException ex) {
+                System.out.println("Error in " + name + ": " + ex.getMessage());
+                continue;
+            }
+            for (SelectionKey key : selector.selectedKeys()) {
+                if (!key.isValid()) {
+                    continue;
+                }
+                try {
+                    ((ChannelHandler) key.attachment()).ready(key);
+                } catch (IOException | RuntimeException ex) {
+                    System.out.println("Error in " + name + ", closing the channel: " + ex);
+                    closeChannel(key);
+                }
+            }
+            selector.selectedKeys().clear();
+        }
+    }
+
+    /**
+     * Runs a task, and logs it if it fails so the reactor keeps running.
+     *
+     * @param task the task
+     */
+    private void runSafely(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException ex) {
+            System.out.println("Error in " + name + " task: " + ex);
+        }
+    }
+
+    /**
+     * Closes the channel of a key.
+     *
+     * @param key the key
+     */
+    private static void closeChannel(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ex) {
+            System.out.println("Error closing a channel: " + ex.getMessage());
+        }
+    }
+}
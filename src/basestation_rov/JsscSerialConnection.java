@@ -0,0 +1,109 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package basestation_rov;
+
+import java.io.IOException;
+import jssc.SerialPort;
+import jssc.SerialPortException;
+
+/**
+ * A SerialConnection to a real com port, using jSSC.
+ */
+public class JsscSerialConnection implements SerialConnection {
+
+    /**
+     * Creates connections to the real com ports.
+     */
+    public static final SerialConnection.Factory FACTORY = new SerialConnection.Factory() {
+        @Override
+        public SerialConnection create(String portName) {
+            return new JsscSerialConnection(portName);
+        }
+    };
+
+    private final SerialPort serialPort;
+
+    /**
+     * The constructor of the JsscSerialConnection class.
+     *
+     * @param portName the name of the com port
+     */
+    public JsscSerialConnection(String portName) {
+        this.serialPort = new SerialPort(portName);
+    }
+
+    @Override
+    public void open(int baudRate) throws IOException {
+        try {
+            serialPort.openPort();
+            serialPort.setParams(baudRate, 8, 1, 0);
+        } catch (SerialPortException ex) {
+            close();
+            throw new IOException(ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public byte[] readBytes() throws IOException {
+        try {
+            return serialPort.readBytes();
+        } catch (SerialPortException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Reads the bytes received into a buffer. jSSC only returns the bytes in
+     * a new array, so they are copied from it.
+     *
+     * @param buffer the buffer to read into
+     * @return the number of bytes read, 0 if nothing is received
+     * @throws IOException if the port could not be read
+     */
+    @Override
+    public int read(byte[] buffer) throws IOException {
+        try {
+            int count = Math.min(serialPort.getInputBufferBytesCount(), buffer.length);
+            if (count <= 0) {
+                return 0;
+            }
+            byte[] bytes = serialPort.readBytes(count);
+            System.arraycopy(bytes, 0, buffer, 0, bytes.length);
+            return bytes.length;
+        } catch (SerialPortException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return serialPort.isOpened();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (serialPort.isOpened()) {
+                serialPort.closePort();
+            }
+        } catch (SerialPortException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public String getPortName() {
+        return serialPort.getPortName();
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package basestation_rov;
+
+import java.util.Arrays;
+
+/**
+ * Round trip statistics of a link over a sliding window of probes: the
+ * percentiles of the round trip time, the jitter and the loss. The state of
+ * the link is decided from the statistics with hysteresis, so one slow or
+ * lost probe does not change it:
+ * <ul>
+ * <li>DOWN after a number of lost probes in a row, or when half the window is
+ * lost</li>
+ * <li>UP again only after a number of answered probes in a row</li>
+ * <li>DEGRADED when the loss or the 95th percentile is above the limits, and
+ * back to UP when they are well below them</li>
+ * </ul>
+ */
+public class LinkStatistics {
+
+    /**
+     * The state of a link.
+     */
+    public enum State {
+        /**
+         * No probe has been answered yet.
+         */
+        UNKNOWN,
+        /**
+         * The link works.
+         */
+        UP,
+        /**
+         * The link works, but with high latency or loss.
+         */
+        DEGRADED,
+        /**
+         * The link is lost.
+         */
+        DOWN
+    }
+
+    private static final long LOST = -1;
+
+    private final long[] window;
+    private final long[] sorted;
+    private final int downAfterLosses;
+    private final int upAfterSuccesses;
+    private final double degradedLoss;
+    private final long degradedRttNanos;
+
+    private int next = 0;
+    private int samples = 0;
+    private int consecutiveLosses = 0;
+    private int consecutiveSuccesses = 0;
+    private long lastRtt = LOST;
+    private double jitterNanos = 0;
+    private State state = State.UNKNOWN;
+
+    /**
+     * The constructor of the LinkStatistics class.
+     *
+     * @param windowSize the number of probes in the window
+     * @param downAfterLosses the number of lost probes in a row before the
+     * link is down
+     * @param upAfterSuccesses the number of answered probes in a row before a
+     * link which is down is up again
+     * @param degradedLoss the loss ratio, from 0 to 1, at which the link is
+     * degraded
+     * @param degradedRttMillis the 95th percentile at which the link is
+     * degraded
+     */
+    public LinkStatistics(int windowSize, int downAfterLosses, int upAfterSuccesses,
+            double degradedLoss, double degradedRttMillis) {
+        this.window = new long[windowSize];
+        this.sorted = new long[windowSize];
+        this.downAfterLosses = downAfterLosses;
+        this.upAfterSuccesses = upAfterSuccesses;
+        this.degradedLoss = degradedLoss;
+        this.degradedRttNanos = (long) (degradedRttMillis * 1000000);
+    }
+
+    /**
+     * Adds an answered probe.
+     *
+     * @param rttNanos the round trip time in nanoseconds
+     */
+    public synchronized void addSample(long rttNanos) {
+        if (lastRtt != LOST) {
+            // The interarrival jitter estimator of RFC 3550
+            jitterNanos += (Math.abs(rttNanos - lastRtt) - jitterNanos) / 16;
+        }
+        lastRtt = rttNanos;
+        consecutiveLosses = 0;
+        consecutiveSuccesses++;
+        add(rttNanos);
+    }
+
+    /**
+     * Adds a lost probe.
+     */
+    public synchronized void addLoss() {
+        consecutiveSuccesses = 0;
+        consecutiveLosses++;
+        add(LOST);
+    }
+
+    /**
+     * Adds a probe to the window and updates the state.
+     *
+     * @param rttNanos the round trip time, or LOST
+     */
+    private void add(long rttNanos) {
+        window[next] = rttNanos;
+        next = (next + 1) % window.length;
+        samples = Math.min(samples + 1, window.length);
+        updateState();
+    }
+
+    /**
+     * Decides the state of the link from the statistics.
+     */
+    private void updateState() {
+        double loss = getLossRatio();
+        switch (state) {
+            case UNKNOWN:
+                if (consecutiveSuccesses > 0) {
+                    state = State.UP;
+                }
+                break;
+            case UP:
+            case DEGRADED:
+                if (consecutiveLosses >= downAfterLosses
+                        || (samples >= window.length / 2 && loss >= 0.5)) {
+                    state = State.DOWN;
+                } else if (state == State.UP
+                        && (loss >= degradedLoss || getPercentileNanos(95) >= degradedRttNanos)) {
+                    state = State.DEGRADED;
+                } else if (state == State.DEGRADED && loss < degradedLoss / 2
+                        && getPercentileNanos(95) < degradedRttNanos * 8 / 10) {
+                    state = State.UP;
+                }
+                break;
+            case DOWN:
+                if (consecutiveSuccesses >= upAfterSuccesses) {
+                    state = loss >= degradedLoss ? State.DEGRADED : State.UP;
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Returns the state of the link.
+     *
+     * @return the state
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Returns a percentile of the round trip time of the answered probes in
+     * the window.
+     *
+     * @param percentile the percentile, from 0 to 100
+     * @return the round trip time in nanoseconds, or -1 if no probe is
+     * answered
+     */
+    public synchronized long getPercentileNanos(double percentile) {
+        int count = 0;
+        for (int i = 0; i < samples; i++) {
+            if (window[i] != LOST) {
+                sorted[count++] = window[i];
+            }
+        }
+        if (count == 0) {
+            return -1;
+        }
+        Arrays.sort(sorted, 0, count);
+        int index = (int) Math.ceil(count * percentile / 100) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+
+    /**
+     * Returns a percentile of the round trip time in milliseconds.
+     *
+     * @param percentile the percentile, from 0 to 100
+     * @return the round trip time in milliseconds, or -1 if no probe is
+     * answered
+     */
+    public double getPercentileMillis(double percentile) {
+        long nanos = getPercentileNanos(percentile);
+        return nanos < 0 ? -1 : nanos / 1e6;
+    }
+
+    /**
+     * Returns the smoothed jitter of the round trip time.
+     *
+     * @return the jitter in milliseconds
+     */
+    public synchronized double getJitterMillis() {
+        return jitterNanos / 1e6;
+    }
+
+    /**
+     * Returns the ratio of lost probes in the window.
+     *
+     * @return the loss ratio, from 0 to 1
+     */
+    public synchronized double getLossRatio() {
+        if (samples == 0) {
+            return 0;
+        }
+        int lost = 0;
+        for (int i = 0; i < samples; i++) {
+            if (window[i] == LOST) {
+                lost++;
+            }
+        }
+        return (double) lost / samples;
+    }
+
+    /**
+     * Returns the round trip time of the last answered probe.
+     *
+     * @return the round trip time in milliseconds, or -1 if none is answered
+     */
+    public synchronized double getLastRttMillis() {
+        return lastRtt == LOST ? -1 : lastRtt / 1e6;
+    }
+
+    /**
+     * Clears the statistics and sets the state back to UNKNOWN.
+     */
+    public synchronized void reset() {
+        next = 0;
+        samples = 0;
+        consecutiveLosses = 0;
+        consecutiveSuccesses = 0;
+        lastRtt = LOST;
+        jitterNanos = 0;
+        state = State.UNKNOWN;
+    }
+}
@@ -231,6 +231,15 @@ public class LogFileHandler implements Runnable {
 //        }
 //
 //    }
+    /**
+     * Returns the directory the log files are written to.
+     *
+     * @return the log directory
+     */
+    public String getLogStorageLocation() {
+        return logStorageLocation;
+    }
+
     /**
      * Closes the BufferedWriter for each log file.
      */
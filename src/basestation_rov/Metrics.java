@@ -0,0 +1,214 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package basestation_rov;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Collects the latency histograms, counters and gauges of each stage from
+ * the sensors to the screen, like the age of the telemetry, the time from a
+ * video frame is received until it is painted, the parse failures and the GC
+ * pauses. The metrics are named "stage.name" and are created the first time
+ * they are used. They are shown in the DiagnosticsFrame and can be exported
+ * to a CSV file.
+ */
+public class Metrics {
+
+    /**
+     * A value which is read when the metrics are shown, like a queue length.
+     */
+    public interface Gauge {
+
+        /**
+         * Returns the current value.
+         *
+         * @return the current value
+         */
+        long getValue();
+    }
+
+    private static final String GC_NOTIFICATION = "com.sun.management.gc.notification";
+
+    private final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+    private boolean gcMonitorStarted = false;
+
+    /**
+     * Returns the histogram with the given name, creating it if needed.
+     *
+     * @param name the name of the histogram
+     * @return the histogram
+     */
+    public LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histograms.putIfAbsent(name, new LatencyHistogram());
+            histogram = histograms.get(name);
+        }
+        return histogram;
+    }
+
+    /**
+     * Returns the counter with the given name, creating it if needed.
+     *
+     * @param name the name of the counter
+     * @return the counter
+     */
+    public AtomicLong counter(String name) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            counters.putIfAbsent(name, new AtomicLong());
+            counter = counters.get(name);
+        }
+        return counter;
+    }
+
+    /**
+     * Adds a gauge, replacing any gauge with the same name.
+     *
+     * @param name the name of the gauge
+     * @param gauge the gauge
+     */
+    public void gauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Starts recording the GC pauses in the "gc.pause" histogram. Only works
+     * on JVMs which send GC notifications, like HotSpot and OpenJ9.
+     */
+    public synchronized void startGcMonitor() {
+        if (gcMonitorStarted) {
+            return;
+        }
+        gcMonitorStarted = true;
+        final LatencyHistogram pauses = histogram("gc.pause");
+        final AtomicLong collections = counter("gc.collections");
+        NotificationListener listener = new NotificationListener() {
+            @Override
+            public void handleNotification(Notification notification, Object handback) {
+                if (!GC_NOTIFICATION.equals(notification.getType())) {
+                    return;
+                }
+                CompositeData info = (CompositeData) notification.getUserData();
+                String name = String.valueOf(info.get("gcName"));
+                // The concurrent cycles run next to the application
+                if (name.contains("Concurrent") || name.contains("Cycles")) {
+                    return;
+                }
+                long duration = (Long) ((CompositeData) info.get("gcInfo")).get("duration");
+                pauses.recordMicros(duration * 1000);
+                collections.incrementAndGet();
+            }
+        };
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter) {
+                ((NotificationEmitter) gc).addNotificationListener(listener, null, null);
+            }
+        }
+    }
+
+    /**
+     * Returns a row for each metric, sorted by name: the name, the count, the
+     * 50, 90, 99 and 99.9 percentiles, the max and the mean in milliseconds.
+     * Counters and gauges only have the name and the value.
+     *
+     * @return the rows
+     */
+    public List<String[]> getRows() {
+        TreeMap<String, String[]> rows = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> e : histograms.entrySet()) {
+            LatencyHistogram h = e.getValue();
+            rows.put(e.getKey(), new String[]{e.getKey(), String.valueOf(h.getCount()),
+                millis(h.getPercentile(50)), millis(h.getPercentile(90)),
+                millis(h.getPercentile(99)), millis(h.getPercentile(99.9)),
+                millis(h.getMax()), millis((long) h.getMean())});
+        }
+        for (Map.Entry<String, AtomicLong> e : counters.entrySet()) {
+            rows.put(e.getKey(), new String[]{e.getKey(), String.valueOf(e.getValue().get()),
+                "", "", "", "", "", ""});
+        }
+        for (Map.Entry<String, Gauge> e : gauges.entrySet()) {
+            String value;
+            try {
+                value = String.valueOf(e.getValue().getValue());
+            } catch (Exception ex) {
+                value = "error";
+            }
+            rows.put(e.getKey(), new String[]{e.getKey(), value, "", "", "", "", "", ""});
+        }
+        return new ArrayList<>(rows.values());
+    }
+
+    /**
+     * Clears the histograms and counters. The gauges are not changed.
+     */
+    public void reset() {
+        for (LatencyHistogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+        for (AtomicLong counter : counters.values()) {
+            counter.set(0);
+        }
+    }
+
+    /**
+     * Writes the metrics to a CSV file.
+     *
+     * @param file the file to write
+     * @throws IOException if the file could not be written
+     */
+    public void writeTo(File file) throws IOException {
+        SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS");
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(file))) {
+            out.write("# Towed ROV metrics " + formatter.format(new Date()));
+            out.newLine();
+            out.write("metric,count or value,p50 ms,p90 ms,p99 ms,p99.9 ms,max ms,mean ms");
+            out.newLine();
+            for (String[] row : getRows()) {
+                out.write(String.join(",", row));
+                out.newLine();
+            }
+        }
+    }
+
+    /**
+     * Formats microseconds as milliseconds.
+     *
+     * @param micros the value in microseconds
+     * @return the value in milliseconds with three decimals
+     */
+    private static String millis(long micros) {
+        return String.format(Locale.ROOT, "%.3f", micros / 1000.0);
+    }
+}
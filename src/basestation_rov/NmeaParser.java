@@ -0,0 +1,401 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package basestation_rov;
+
+/**
+ * Incremental parser for NMEA 0183 sentences sent directly by the GPS and the
+ * echo sounder. Supports GGA, RMC, VTG, HDT, DBT and DPT from any talker.
+ * Sentences without a valid checksum are dropped. Like the FrameParser, bytes
+ * can be fed in arbitrary chunks and the fields are decoded straight from the
+ * internal buffer, so no objects are created per sentence.
+ */
+public class NmeaParser {
+
+    /**
+     * The max length of a sentence. The standard allows 82 characters, some
+     * receivers send a little more.
+     */
+    public static final int MAX_SENTENCE_LENGTH = 128;
+
+    private static final int MAX_FIELDS = 32;
+    private static final double KMH_TO_KNOTS = 1 / 1.852;
+
+    private final NmeaListener listener;
+    private final byte[] sentence = new byte[MAX_SENTENCE_LENGTH];
+    private final int[] fieldStart = new int[MAX_FIELDS];
+    private final int[] fieldEnd = new int[MAX_FIELDS];
+    private int fieldCount = 0;
+    private int length = 0;
+    private boolean inSentence = false;
+    private boolean overflow = false;
+
+    private long sentenceCount = 0;
+    private long checksumErrors = 0;
+    private long droppedSentences = 0;
+
+    /**
+     * Receives the values decoded from the NMEA sentences.
+     */
+    public interface NmeaListener {
+
+        /**
+         * Called with a valid position from GGA or RMC.
+         *
+         * @param latitude the latitude in decimal degrees, negative is south
+         * @param longitude the longitude in decimal degrees, negative is west
+         */
+        void onPosition(double latitude, double longitude);
+
+        /**
+         * Called with the number of satellites in use from GGA.
+         *
+         * @param satellites the number of satellites
+         */
+        void onSatellites(int satellites);
+
+        /**
+         * Called with the antenna altitude above mean sea level from GGA.
+         *
+         * @param altitude the altitude in meters
+         */
+        void onAltitude(double altitude);
+
+        /**
+         * Called with the speed over ground from RMC or VTG.
+         *
+         * @param knots the speed in knots
+         */
+        void onSpeedOverGround(double knots);
+
+        /**
+         * Called with the true course over ground from RMC or VTG.
+         *
+         * @param degrees the course in degrees
+         */
+        void onCourseOverGround(double degrees);
+
+        /**
+         * Called with the true heading from HDT.
+         *
+         * @param degrees the heading in degrees
+         */
+        void onHeading(double degrees);
+
+        /**
+         * Called with the depth below the transducer from DBT or DPT.
+         *
+         * @param meters the depth in meters
+         */
+        void onDepthBelowTransducer(double meters);
+    }
+
+    /**
+     * The constructor of the NmeaParser class.
+     *
+     * @param listener the listener receiving the decoded values
+     */
+    public NmeaParser(NmeaListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Feeds a chunk of received bytes to the parser.
+     *
+     * @param buffer the buffer holding the bytes
+     * @param offset the index of the first byte to read
+     * @param count the number of bytes to read
+     * @return the number of valid sentences found in this chunk
+     */
+    public int feed(byte[] buffer, int offset, int count) {
+        int sentences = 0;
+        for (int i = offset; i < offset + count; i++) {
+            if (accept(buffer[i])) {
+                sentences++;
+            }
+        }
+        return sentences;
+    }
+
+    /**
+     * Feeds a chunk of received bytes to the parser.
+     *
+     * @param buffer the bytes to read, null is ignored
+     * @return the number of valid sentences found in this chunk
+     */
+    public int feed(byte[] buffer) {
+        if (buffer == null) {
+            return 0;
+        }
+        return feed(buffer, 0, buffer.length);
+    }
+
+    /**
+     * Handles one byte of input.
+     *
+     * @param b the byte to handle
+     * @return true if the byte completed a valid sentence
+     */
+    private boolean accept(byte b) {
+        if (b == '$' || b == '!') {
+            if (inSentence) {
+                droppedSentences++;
+            }
+            inSentence = true;
+            overflow = false;
+            length = 0;
+            return false;
+        }
+        if (!inSentence) {
+            return false;
+        }
+        if (b == '\r' || b == '\n') {
+            inSentence = false;
+            if (overflow) {
+                droppedSentences++;
+                return false;
+            }
+            return handleSentence();
+        }
+        if (length == sentence.length) {
+            overflow = true;
+            return false;
+        }
+        sentence[length++] = b;
+        return false;
+    }
+
+    /**
+     * Validates the checksum of the buffered sentence, splits it into fields
+     * and decodes it.
+     *
+     * @return true if the sentence was valid
+     */
+    private boolean handleSentence() {
+        int star = -1;
+        int checksum = 0;
+        for (int i = 0; i < length; i++) {
+            if (sentence[i] == '*') {
+                star = i;
+                break;
+            }
+            checksum ^= sentence[i];
+        }
+        if (star < 0 || star + 3 != length
+                || hexValue(sentence[star + 1]) * 16 + hexValue(sentence[star + 2]) != checksum) {
+            checksumErrors++;
+            return false;
+        }
+
+        fieldCount = 0;
+        int start = 0;
+        for (int i = 0; i <= star && fieldCount < MAX_FIELDS; i++) {
+            if (i == star || sentence[i] == ',') {
+                fieldStart[fieldCount] = start;
+                fieldEnd[fieldCount] = i;
+                fieldCount++;
+                start = i + 1;
+            }
+        }
+        if (fieldEnd[0] - fieldStart[0] < 5) {
+            droppedSentences++;
+            return false;
+        }
+        sentenceCount++;
+        try {
+            decode();
+        } catch (NumberFormatException ex) {
+            checksumErrors++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the buffered sentence based on its type, ignoring the talker.
+     */
+    private void decode() {
+        if (sentence[0] == 'P') {
+            // Proprietary sentences
+            return;
+        }
+        int type = fieldEnd[0] - 3;
+        if (typeIs(type, 'G', 'G', 'A')) {
+            // GGA: time, lat, N/S, lon, E/W, quality, satellites, hdop, alt
+            if (!isEmpty(6) && sentence[fieldStart[6]] != '0') {
+                position(2, 4);
+            }
+            if (!isEmpty(7)) {
+                listener.onSatellites(FrameParser.parseInt(sentence, fieldStart[7], fieldEnd[7]));
+            }
+            if (!isEmpty(9)) {
+                listener.onAltitude(number(9));
+            }
+        } else if (typeIs(type, 'R', 'M', 'C')) {
+            // RMC: time, status, lat, N/S, lon, E/W, speed knots, course
+            if (!isEmpty(2) && sentence[fieldStart[2]] == 'A') {
+                position(3, 5);
+                if (!isEmpty(7)) {
+                    listener.onSpeedOverGround(number(7));
+                }
+                if (!isEmpty(8)) {
+                    listener.onCourseOverGround(number(8));
+                }
+            }
+        } else if (typeIs(type, 'V', 'T', 'G')) {
+            // VTG: course true, T, course magnetic, M, knots, N, km/h, K
+            if (!isEmpty(1)) {
+                listener.onCourseOverGround(number(1));
+            }
+            if (!isEmpty(5)) {
+                listener.onSpeedOverGround(number(5));
+            } else if (!isEmpty(7)) {
+                listener.onSpeedOverGround(number(7) * KMH_TO_KNOTS);
+            }
+        } else if (typeIs(type, 'H', 'D', 'T')) {
+            // HDT: heading, T
+            if (!isEmpty(1)) {
+                listener.onHeading(number(1));
+            }
+        } else if (typeIs(type, 'D', 'B', 'T')) {
+            // DBT: feet, f, meters, M, fathoms, F
+            if (!isEmpty(3)) {
+                listener.onDepthBelowTransducer(number(3));
+            } else if (!isEmpty(1)) {
+                listener.onDepthBelowTransducer(number(1) * 0.3048);
+            }
+        } else if (typeIs(type, 'D', 'P', 'T')) {
+            // DPT: depth below transducer in meters, offset
+            if (!isEmpty(1)) {
+                listener.onDepthBelowTransducer(number(1));
+            }
+        }
+    }
+
+    /**
+     * Decodes a ddmm.mmmm/dddmm.mmmm position pair and hands it to the
+     * listener.
+     *
+     * @param latField the index of the latitude field, followed by N/S
+     * @param lonField the index of the longitude field, followed by E/W
+     */
+    private void position(int latField, int lonField) {
+        if (isEmpty(latField) || isEmpty(latField + 1)
+                || isEmpty(lonField) || isEmpty(lonField + 1)) {
+            return;
+        }
+        double latitude = degrees(number(latField));
+        double longitude = degrees(number(lonField));
+        if (sentence[fieldStart[latField + 1]] == 'S') {
+            latitude = -latitude;
+        }
+        if (sentence[fieldStart[lonField + 1]] == 'W') {
+            longitude = -longitude;
+        }
+        listener.onPosition(latitude, longitude);
+    }
+
+    /**
+     * Converts a degrees and minutes value to decimal degrees.
+     *
+     * @param degreesMinutes the value on the form dddmm.mmmm
+     * @return the value in decimal degrees
+     */
+    private static double degrees(double degreesMinutes) {
+        double degrees = Math.floor(degreesMinutes / 100);
+        return degrees + (degreesMinutes - degrees * 100) / 60;
+    }
+
+    /**
+     * Returns the given field as a number.
+     *
+     * @param field the index of the field
+     * @return the value of the field
+     */
+    private double number(int field) {
+        return FrameParser.parseDouble(sentence, fieldStart[field], fieldEnd[field]);
+    }
+
+    /**
+     * Returns true if the given field is missing or empty.
+     *
+     * @param field the index of the field
+     * @return true if the field has no value
+     */
+    private boolean isEmpty(int field) {
+        return field >= fieldCount || fieldStart[field] == fieldEnd[field];
+    }
+
+    /**
+     * Returns true if the three letters at the given index matches the given
+     * sentence type.
+     *
+     * @param index the index of the first letter
+     * @param a the first letter of the type
+     * @param b the second letter of the type
+     * @param c the third letter of the type
+     * @return true if the type matches
+     */
+    private boolean typeIs(int index, char a, char b, char c) {
+        return sentence[index] == a && sentence[index + 1] == b && sentence[index + 2] == c;
+    }
+
+    /**
+     * Returns the value of a hex digit, or a value that never matches a
+     * checksum if the byte is not a hex digit.
+     *
+     * @param b the hex digit
+     * @return the value of the digit
+     */
+    private static int hexValue(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        }
+        if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        }
+        if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        }
+        return 4096;
+    }
+
+    /**
+     * Returns the number of valid sentences decoded.
+     *
+     * @return the number of valid sentences
+     */
+    public long getSentenceCount() {
+        return sentenceCount;
+    }
+
+    /**
+     * Returns the number of sentences dropped because of a bad checksum or a
+     * malformed field.
+     *
+     * @return the number of checksum errors
+     */
+    public long getChecksumErrors() {
+        return checksumErrors;
+    }
+
+    /**
+     * Returns the number of sentences dropped because they were broken or too
+     * long.
+     *
+     * @return the number of dropped sentences
+     */
+    public long getDroppedSentences() {
+        return droppedSentences;
+    }
+}
@@ -13,12 +13,8 @@
  */
 package basestation_rov;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import jssc.SerialPort;
-import jssc.SerialPortList;
-import jssc.SerialPortException;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
 import ntnusubsea.gui.Data;
 
 /**
@@ -26,14 +22,50 @@ import ntnusubsea.gui.Data;
  * base station.
  * @author Towed ROV 2019 https://ntnuopen.ntnu.no/ntnu-xmlui/handle/11250/2564356
  */
-public class ReadSerialData implements Runnable {
+public class ReadSerialData implements Runnable, FrameParser.FrameListener,
+        NmeaParser.NmeaListener {
+
+    private static final int KEY_SATELLITES = 0;
+    private static final int KEY_ALTITUDE = 1;
+    private static final int KEY_GPS_ANGLE = 2;
+    private static final int KEY_SPEED = 3;
+    private static final int KEY_LATITUDE = 4;
+    private static final int KEY_LONGITUDE = 5;
+    private static final int KEY_DEPTH = 6;
+    private static final int KEY_TEMP = 7;
+    private static final int KEY_ROLL = 8;
+    private static final int KEY_PITCH = 9;
+    private static final int KEY_HEADING = 10;
+    private static final int KEY_VOLTAGE = 11;
+    private static final int KEY_TEST_DEPTH = 12;
+
+    /**
+     * The keys sent by the Arduinos, in the order of the KEY_ ids above.
+     */
+    private static final FrameParser.KeyTable SERIAL_KEYS = new FrameParser.KeyTable(
+            "Satellites", "Altitude", "GPSAngle", "Speed", "Latitude",
+            "Longitude", "D", "Temp", "Roll", "Pitch", "Heading", "Voltage",
+            "TestDepth");
+
+    // Larger than the receive buffer of the serial driver
+    private static final int READ_BUFFER_SIZE = 8192;
 
     boolean portIsOpen = false;
+    private volatile boolean running = true;
+    private volatile long lastDataTime = 0;
+    private volatile long readInterval = 100;
+    private final SerialConnection.Factory connectionFactory;
+    private final LatencyHistogram parseLatency;
+    private final LatencyHistogram readIntervalHistogram;
+    private final AtomicLong bytesRead;
+    private long lastReadTime = 0;
     String comPort = "";
     String myName = "";
     int baudRate = 0;
     Data data = null;
-    public HashMap<String, String> incommingData = new HashMap<>();
+    private final FrameParser parser = new FrameParser(SERIAL_KEYS, this);
+    private final NmeaParser nmeaParser = new NmeaParser(this);
+    private final byte[] readBuffer = new byte[READ_BUFFER_SIZE];
     private static volatile double depth;
     private static volatile double tempC;
 
@@ -46,11 +78,43 @@ public class ReadSerialData implements Runnable {
      * @param myName the name of the com port
      */
     public ReadSerialData(Data data, String comPort, int baudRate, String myName) {
+        this(data, comPort, baudRate, myName, JsscSerialConnection.FACTORY);
+    }
+
+    /**
+     * The constructor of the ReadSerialData class, reading from connections
+     * made by the given factory, like a ReplaySerialConnection.
+     *
+     * @param data the shared resource Data class
+     * @param comPort the given com port to read from
+     * @param baudRate the given baud rate
+     * @param myName the name of the com port
+     * @param connectionFactory creates the connection to the com port
+     */
+    public ReadSerialData(Data data, String comPort, int baudRate, String myName,
+            SerialConnection.Factory connectionFactory) {
         this.myName = myName;
 
         this.comPort = comPort;
         this.baudRate = baudRate;
         this.data = data;
+        this.connectionFactory = connectionFactory;
+        Metrics metrics = data.getMetrics();
+        this.parseLatency = metrics.histogram("serial." + myName + ".readToData");
+        this.readIntervalHistogram = metrics.histogram("serial." + myName + ".readInterval");
+        this.bytesRead = metrics.counter("serial." + myName + ".bytes");
+        metrics.gauge("serial." + myName + ".parseErrors", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return parser.getParseErrors() + nmeaParser.getChecksumErrors();
+            }
+        });
+        metrics.gauge("serial." + myName + ".droppedFrames", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return parser.getDroppedFrames() + nmeaParser.getDroppedSentences();
+            }
+        });
     }
 
     /**
@@ -59,39 +123,66 @@ public class ReadSerialData implements Runnable {
      */
     @Override
     public void run() {
-        while (true) {
-            try {
+        try {
+            readData(comPort, baudRate);
+        } catch (Exception e) {
+            System.out.println("Lost connection to " + myName + "    Ex: " + e);
+        }
+        running = false;
+    }
 
-                readData(comPort, baudRate);
-            } catch (Exception e) {
-            }
+    /**
+     * Stops the reader. The thread closes the com port and ends within one
+     * read interval.
+     */
+    public void stop() {
+        running = false;
+    }
 
-        }
+    /**
+     * Returns true until the reader has been stopped or has lost the com port.
+     *
+     * @return true if the reader is running
+     */
+    public boolean isRunning() {
+        return running;
     }
 
     /**
-     * Returns the available com ports
+     * Returns the time the last complete frame or sentence was received.
      *
-     * @return the available com ports
+     * @return the time in milliseconds, or 0 if nothing is received yet
      */
-    public String[] getAvailableComPorts() {
-        String[] portNames = SerialPortList.getPortNames();
+    public long getLastDataTime() {
+        return lastDataTime;
+    }
 
-        if (portNames.length == 0) {
-            // System.out.println("There are no serial-ports available!");
-            // System.out.println("Press enter to exit...");
+    /**
+     * Sets how often the com port is read. The default of 100 ms is plenty
+     * for the sensors, replays at a higher speed need a shorter interval.
+     *
+     * @param readInterval the time between each read in milliseconds
+     */
+    public void setReadInterval(long readInterval) {
+        this.readInterval = readInterval;
+    }
 
-            try {
-                System.in.read();
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
+    /**
+     * Returns the number of complete frames and NMEA sentences parsed.
+     *
+     * @return the number of frames and sentences
+     */
+    public long getFrameCount() {
+        return parser.getFrameCount() + nmeaParser.getSentenceCount();
+    }
 
-        for (int i = 0; i < portNames.length; i++) {
-            //System.out.println(portNames[i]);
-        }
-        return portNames;
+    /**
+     * Returns the available com ports
+     *
+     * @return the available com ports
+     */
+    public String[] getAvailableComPorts() {
+        return SerialPortEnumerator.getPortNames();
     }
 
     /**
@@ -116,142 +207,209 @@ public class ReadSerialData implements Runnable {
      */
     public void readData(String comPort, int baudRate) {
 
-        // long lastTime = System.nanoTime();
-        // ConcurrentHashMap<String, String> SerialDataList = new ConcurrentHashMap<>();
-        boolean recievedData = false;
-        //Declare special symbol used in serial data stream from Arduino
-        String startChar = "<";
-        String endChar = ">";
-        String seperationChar = ":";
+        SerialConnection serialPort = connectionFactory.create(comPort);
 
-        SerialPort serialPort = new SerialPort(comPort);
-
-        if (!portIsOpen) {
-            try {
-                serialPort.openPort();
-                portIsOpen = true;
-                // System.out.println(comPort + " is open");
-            } catch (SerialPortException ex) {
-                System.out.println(ex.getMessage());
-            }
+        try {
+            serialPort.open(baudRate);
+            portIsOpen = true;
+            // System.out.println(comPort + " is open");
+        } catch (IOException ex) {
+            System.out.println(ex.getMessage());
+            return;
         }
 
-        while (recievedData == false) {
+        try {
+            while (running) {
+                try {
+                    Thread.sleep(readInterval);
+                } catch (InterruptedException ex) {
+                    break;
+                }
+
+                handleData(readBuffer, 0, serialPort.read(readBuffer));
+            }
+        } catch (IOException ex) {
+            System.out.println("Lost connection to " + myName + "    Ex: " + ex);
+        } finally {
             try {
-                Thread.sleep(100);
-            } catch (Exception ex) {
+                serialPort.close();
+            } catch (IOException ex) {
             }
-            String buffer;
+            portIsOpen = false;
+        }
+    }
 
-            try {
-                serialPort.setParams(baudRate, 8, 1, 0);
-                buffer = serialPort.readString();
-
-                // System.out.println(buffer);
-                boolean dataNotNull = false;
-                boolean dataHasFormat = false;
-
-                if ((buffer != null)) {
-                    dataHasFormat = true;
-                } else {
-                    dataHasFormat = false;
-                    dataNotNull = false;
-                }
-                if (dataHasFormat) {
-                    if (buffer.contains("<") && buffer.contains(">")) {
-                        String dataStream = buffer;
-                        dataStream = dataStream.substring(dataStream.indexOf(startChar) + 1);
-                        dataStream = dataStream.substring(0, dataStream.indexOf(endChar));
-                        //dataStream = dataStream.replace("?", "");
-                        String[] data = dataStream.split(seperationChar);
-
-                        for (int i = 0; i < data.length; i = i + 2) {
-                            //this.data.data.put(data[i], data[i + 1]);
-                            incommingData.put(data[i], data[i + 1]);
-                        }
-                        //recievedData = true;
-                        //this.data.handleDataFromRemote();
-                        sendIncommingDataToDataHandler();
-                    }
-                }
+    /**
+     * Parses a chunk of bytes played back from a recorded session. Partial
+     * frames are kept by the parsers until the next chunk.
+     *
+     * @param buffer the bytes read, null is ignored
+     * @return the number of complete frames and sentences in the chunk
+     */
+    public int handleData(byte[] buffer) {
+        return handleData(buffer, 0, buffer == null ? 0 : buffer.length);
+    }
 
-//            if (elapsedTimer != 0)
-//            {
-//                System.out.println("Data is recieved in: " + elapsedTimer + " millis"
-//                        + " or with: " + 1000 / elapsedTimer + " Hz");
-//            } else
-//            {
-//                System.out.println("Data is recieved in: " + elapsedTimer + " millis"
-//                        + " or with: unlimited Hz!");
-//            }
-            } catch (Exception ex) {
-                System.out.println("Lost connection to " + myName + "    Ex: " + ex);
-            }
+    /**
+     * Parses a chunk of bytes read from the com port. Partial frames are kept
+     * by the parsers until the next chunk. The Arduino frames and NMEA
+     * sentences never share start characters, so a port can speak either.
+     * The bytes are only read during the call, so the buffer is reused for
+     * every read.
+     *
+     * @param buffer the buffer holding the bytes read
+     * @param offset the index of the first byte
+     * @param length the number of bytes, 0 if nothing was read
+     * @return the number of complete frames and sentences in the chunk
+     */
+    public int handleData(byte[] buffer, int offset, int length) {
+        long start = System.nanoTime();
+        if (lastReadTime != 0) {
+            // The longest a byte can have waited in the serial driver
+            readIntervalHistogram.record(start - lastReadTime);
+        }
+        lastReadTime = start;
+        if (length == 0) {
+            return 0;
         }
+        data.getSessionRecorder().recordSerial(myName, buffer, offset, length);
+        int frames = parser.feed(buffer, offset, length) + nmeaParser.feed(buffer, offset, length);
+        if (frames > 0) {
+            lastDataTime = System.currentTimeMillis();
+        }
+        bytesRead.addAndGet(length);
+        parseLatency.record(System.nanoTime() - start);
+        return frames;
     }
 
     /**
      * Compare keys to control values coming in from remote, and puts the
      * correct value to correct variable in the shared resource Data class.
+     *
+     * @param key the id of the key in SERIAL_KEYS
+     * @param parser the parser holding the value
      */
-    private void sendIncommingDataToDataHandler() {
-        for (Map.Entry e : incommingData.entrySet()) {
-            String key = (String) e.getKey();
-            String value = (String) e.getValue();
-
-            switch (key) {
-                case "Satellites":
-                    data.setSatellites(Integer.parseInt(value));
-                    // setSatellites(Integer.parseInt(value));
-                    break;
-                case "Altitude":
-                    data.setAltitude(Float.parseFloat(value));
-                    //setAltitude(Float.parseFloat(value));
-                    break;
-                case "GPSAngle":
-                    data.setGPSAngle(Double.parseDouble(value));
-                    //setAngle(Float.parseFloat(value));
-                    break;
-                case "Speed":
-                    data.setSpeed(Float.parseFloat(value));
-                    //setSpeed(Float.parseFloat(value));
-                    break;
-                case "Latitude":
-                    data.setLatitude(Float.parseFloat(value));
-                    //setLatitude(Float.parseFloat(value));
-                    break;
-                case "Longitude":
-                    data.setLongitude(Float.parseFloat(value));
-                    //setLongitude(Float.parseFloat(value));
-                    break;
-                case "D":
-                    double doubleDepth = Double.parseDouble(value) * -1;
-                    data.setDepthBeneathBoat(doubleDepth);
-                    //setDepth(Float.parseFloat(value));
-                    break;
-                case "Temp":
-                    data.setTemperature(Float.parseFloat(value));
-                    //setTemperature(Float.parseFloat(value));
-                    break;
-                case "Roll":
-                    data.setRoll(Double.parseDouble(value));
-                    //setRoll(Integer.parseInt(value));
-                    break;
-                case "Pitch":
-                    data.setPitch(Double.parseDouble(value));
-                    //setPitch(Integer.parseInt(value));
-                    break;
-                case "Heading":
-//                    data.setHeading(Integer.parseInt(value));
-                    //setHeading(Integer.parseInt(value));
-                    break;
-                case "Voltage":
-                    data.setVoltage(Double.parseDouble(value));
-                    break;
-                case "TestDepth":
-                    data.setTestDepth(Double.parseDouble(value));
-                    break;
-            }
+    @Override
+    public void onField(int key, FrameParser parser) {
+        switch (key) {
+            case KEY_SATELLITES:
+                data.setSatellites(parser.valueAsInt());
+                break;
+            case KEY_ALTITUDE:
+                data.setAltitude(parser.valueAsFloat());
+                break;
+            case KEY_GPS_ANGLE:
+                data.setGPSAngle(parser.valueAsDouble());
+                break;
+            case KEY_SPEED:
+                data.setSpeed(parser.valueAsFloat());
+                break;
+            case KEY_LATITUDE:
+                data.setLatitude(parser.valueAsFloat());
+                break;
+            case KEY_LONGITUDE:
+                data.setLongitude(parser.valueAsFloat());
+                break;
+            case KEY_DEPTH:
+                data.setDepthBeneathBoat(parser.valueAsDouble() * -1);
+                break;
+            case KEY_TEMP:
+                data.setTemperature(parser.valueAsFloat());
+                break;
+            case KEY_ROLL:
+                data.setRoll(parser.valueAsDouble());
+                break;
+            case KEY_PITCH:
+                data.setPitch(parser.valueAsDouble());
+                break;
+            case KEY_HEADING:
+//                data.setHeading(parser.valueAsInt());
+                break;
+            case KEY_VOLTAGE:
+                data.setVoltage(parser.valueAsDouble());
+                break;
+            case KEY_TEST_DEPTH:
+                data.setTestDepth(parser.valueAsDouble());
+                break;
         }
     }
+
+    /**
+     * Called when a complete frame has been handled.
+     */
+    @Override
+    public void onFrameEnd() {
+    }
+
+    /**
+     * Sets the GPS position to the shared resource Data class
+     *
+     * @param latitude the latitude in decimal degrees
+     * @param longitude the longitude in decimal degrees
+     */
+    @Override
+    public void onPosition(double latitude, double longitude) {
+        data.setLatitude((float) latitude);
+        data.setLongitude((float) longitude);
+    }
+
+    /**
+     * Sets the number of GPS satellites to the shared resource Data class
+     *
+     * @param satellites the number of satellites
+     */
+    @Override
+    public void onSatellites(int satellites) {
+        data.setSatellites(satellites);
+    }
+
+    /**
+     * Sets the GPS altitude to the shared resource Data class
+     *
+     * @param altitude the altitude in meters
+     */
+    @Override
+    public void onAltitude(double altitude) {
+        data.setAltitude((float) altitude);
+    }
+
+    /**
+     * Sets the GPS speed to the shared resource Data class
+     *
+     * @param knots the speed over ground in knots
+     */
+    @Override
+    public void onSpeedOverGround(double knots) {
+        data.setSpeed((float) knots);
+    }
+
+    /**
+     * Sets the GPS angle to the shared resource Data class
+     *
+     * @param degrees the course over ground in degrees
+     */
+    @Override
+    public void onCourseOverGround(double degrees) {
+        data.setGPSAngle(degrees);
+    }
+
+    /**
+     * Sets the heading to the shared resource Data class
+     *
+     * @param degrees the true heading in degrees
+     */
+    @Override
+    public void onHeading(double degrees) {
+        data.setHeading((float) degrees);
+    }
+
+    /**
+     * Sets the depth beneath the boat to the shared resource Data class
+     *
+     * @param meters the depth below the transducer in meters
+     */
+    @Override
+    public void onDepthBelowTransducer(double meters) {
+        data.setDepthBeneathBoat(meters * -1);
+    }
 }
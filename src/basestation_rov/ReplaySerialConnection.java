@@ -0,0 +1,239 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package basestation_rov;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A SerialConnection backed by an in-memory pipe instead of a com port. The
+ * bytes written to the output stream are returned by readBytes, like a serial
+ * driver buffers the bytes from a device. When the buffer is full the new
+ * bytes are lost and counted as an overrun, as on a real UART.
+ *
+ * The connection also measures how long the bytes wait in the buffer before
+ * they are read, which is the latency the polling of the reader adds.
+ */
+public class ReplaySerialConnection implements SerialConnection {
+
+    /**
+     * The default size of the receive buffer.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final String portName;
+    private final byte[] buffer;
+    private int length = 0;
+    private long oldestByteTime = 0;
+    private boolean open = false;
+    private int baudRate = 0;
+
+    private long bytesWritten = 0;
+    private long bytesRead = 0;
+    private long overruns = 0;
+    private long reads = 0;
+    private long totalLatency = 0;
+    private long maxLatency = 0;
+
+    private final OutputStream outputStream = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int count) throws IOException {
+            ReplaySerialConnection.this.write(bytes, offset, count);
+        }
+    };
+
+    /**
+     * The constructor of the ReplaySerialConnection class.
+     *
+     * @param portName the name of the simulated port
+     */
+    public ReplaySerialConnection(String portName) {
+        this(portName, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * The constructor of the ReplaySerialConnection class.
+     *
+     * @param portName the name of the simulated port
+     * @param bufferSize the size of the receive buffer
+     */
+    public ReplaySerialConnection(String portName, int bufferSize) {
+        this.portName = portName;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Returns the stream the simulated device writes to.
+     *
+     * @return the output stream of the device
+     */
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * Adds bytes from the simulated device to the receive buffer. Bytes
+     * written while the port is closed are lost, like on a real port.
+     *
+     * @param bytes the bytes to add
+     * @param offset the index of the first byte
+     * @param count the number of bytes
+     */
+    private synchronized void write(byte[] bytes, int offset, int count) {
+        bytesWritten += count;
+        if (!open) {
+            return;
+        }
+        int room = buffer.length - length;
+        if (count > room) {
+            overruns += count - room;
+            count = room;
+        }
+        if (count == 0) {
+            return;
+        }
+        if (length == 0) {
+            oldestByteTime = System.nanoTime();
+        }
+        System.arraycopy(bytes, offset, buffer, length, count);
+        length += count;
+    }
+
+    @Override
+    public synchronized void open(int baudRate) throws IOException {
+        if (open) {
+            throw new IOException("Port busy: " + portName);
+        }
+        this.baudRate = baudRate;
+        this.length = 0;
+        this.open = true;
+    }
+
+    @Override
+    public synchronized byte[] readBytes() throws IOException {
+        if (!open) {
+            throw new IOException("Port not opened: " + portName);
+        }
+        if (length == 0) {
+            return null;
+        }
+        long latency = System.nanoTime() - oldestByteTime;
+        reads++;
+        totalLatency += latency;
+        maxLatency = Math.max(maxLatency, latency);
+        byte[] bytes = new byte[length];
+        System.arraycopy(buffer, 0, bytes, 0, length);
+        bytesRead += length;
+        length = 0;
+        return bytes;
+    }
+
+    @Override
+    public synchronized int read(byte[] target) throws IOException {
+        if (!open) {
+            throw new IOException("Port not opened: " + portName);
+        }
+        if (length == 0) {
+            return 0;
+        }
+        long latency = System.nanoTime() - oldestByteTime;
+        reads++;
+        totalLatency += latency;
+        maxLatency = Math.max(maxLatency, latency);
+        int count = Math.min(length, target.length);
+        System.arraycopy(buffer, 0, target, 0, count);
+        // The bytes left are newer than the ones read, so the oldest byte
+        // time is kept for them
+        System.arraycopy(buffer, count, buffer, 0, length - count);
+        bytesRead += count;
+        length -= count;
+        return count;
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() {
+        open = false;
+        length = 0;
+    }
+
+    @Override
+    public String getPortName() {
+        return portName;
+    }
+
+    /**
+     * Returns the baud rate the port was last opened with.
+     *
+     * @return the baud rate
+     */
+    public synchronized int getBaudRate() {
+        return baudRate;
+    }
+
+    /**
+     * Returns the number of bytes written by the simulated device.
+     *
+     * @return the number of bytes written
+     */
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Returns the number of bytes read by the reader.
+     *
+     * @return the number of bytes read
+     */
+    public synchronized long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Returns the number of bytes lost because the buffer was full.
+     *
+     * @return the number of bytes lost
+     */
+    public synchronized long getOverruns() {
+        return overruns;
+    }
+
+    /**
+     * Returns the average time the oldest byte of a read waited in the
+     * buffer.
+     *
+     * @return the average latency in milliseconds
+     */
+    public synchronized double getAverageLatencyMillis() {
+        return reads == 0 ? 0 : totalLatency / 1e6 / reads;
+    }
+
+    /**
+     * Returns the longest time a byte waited in the buffer.
+     *
+     * @return the max latency in milliseconds
+     */
+    public synchronized double getMaxLatencyMillis() {
+        return maxLatency / 1e6;
+    }
+}
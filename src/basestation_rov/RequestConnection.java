@@ -0,0 +1,284 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package basestation_rov;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A connection to an RPi shared by all its users, like the TCPClient polling
+ * the telemetry, the command channel and the link monitor of the ROV RPi. The
+ * RPi servers serve one client at a time, and every user on the same
+ * connection also sees the same link.
+ *
+ * The server reads one line at a time and answers each with one line, so the
+ * answers come in the order the requests were sent, and each answer is handed
+ * to the oldest request waiting. A request not answered within the reply
+ * timeout would shift every answer after it, so the connection is failed and
+ * made again instead. The requests waiting when the connection is lost are
+ * told there was no answer.
+ */
+public class RequestConnection implements ConnectionManager.ConnectionHandler {
+
+    /**
+     * The default time the server has to answer a request in milliseconds.
+     */
+    public static final long DEFAULT_REPLY_TIMEOUT = 2000;
+
+    /**
+     * Receives the answer to one request. Called on the IoReactor thread, so
+     * the methods must not block.
+     */
+    public interface ReplyHandler {
+
+        /**
+         * Called with the answer to the request.
+         *
+         * @param line the answer, without the line end
+         */
+        void onReply(String line);
+
+        /**
+         * Called if the connection is lost before the answer came, also when
+         * it is failed because an answer is late.
+         */
+        void onNoReply();
+    }
+
+    /**
+     * Is told when the connection is made and lost. Called on the IoReactor
+     * thread, so the methods must not block.
+     */
+    public interface Listener {
+
+        /**
+         * Called when the connection is made.
+         */
+        void onConnected();
+
+        /**
+         * Called when the connection is lost or closed, after the requests
+         * waiting are told there was no answer.
+         */
+        void onDisconnected();
+    }
+
+    /**
+     * A request waiting for its answer.
+     */
+    private static final class Pending {
+
+        private final ReplyHandler handler;
+        private volatile boolean answered = false;
+
+        /**
+         * The constructor of the Pending class.
+         *
+         * @param handler the handler of the answer
+         */
+        Pending(ReplyHandler handler) {
+            this.handler = handler;
+        }
+    }
+
+    private final String name;
+    private final long replyTimeout;
+    private final ConnectionManager connectionManager;
+    private final ConnectionManager.Connection connection;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    // Sent and waiting for the answer, oldest first. The connected flag is
+    // only changed under the same lock, so no request is queued after the
+    // queue of a lost connection is emptied
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    private volatile boolean connected = false;
+
+    /**
+     * The constructor of the RequestConnection class. The connection is not
+     * opened.
+     *
+     * @param connectionManager the manager making the connection
+     * @param name the name used in the log
+     * @param host the host to connect to
+     * @param port the port to connect to
+     * @param replyTimeout the time the server has to answer in milliseconds
+     */
+    public RequestConnection(ConnectionManager connectionManager, String name, String host, int port,
+            long replyTimeout) {
+        this.name = name;
+        this.replyTimeout = replyTimeout;
+        this.connectionManager = connectionManager;
+        this.connection = connectionManager.create(name, host, port, this);
+    }
+
+    /**
+     * Starts connecting, and keeps the connection until it is closed. Does
+     * nothing if it is already open.
+     */
+    public void open() {
+        connectionManager.open(connection);
+    }
+
+    /**
+     * Closes the connection for all its users.
+     */
+    public void close() {
+        connectionManager.close(connection);
+    }
+
+    /**
+     * Returns true if the connection is connected.
+     *
+     * @return true if connected
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * Waits until the connection is connected, or the first connect attempt
+     * has failed.
+     *
+     * @param timeoutMillis the max time to wait
+     * @return true if connected
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitConnected(long timeoutMillis) throws InterruptedException {
+        return connection.awaitConnected(timeoutMillis);
+    }
+
+    /**
+     * Returns the reactor running the connection.
+     *
+     * @return the reactor
+     */
+    public IoReactor getReactor() {
+        return connectionManager.getReactor();
+    }
+
+    /**
+     * Returns the connection, for the state and the reconnect count.
+     *
+     * @return the connection
+     */
+    public ConnectionManager.Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Adds a listener told when the connection is made and lost.
+     *
+     * @param listener the listener
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Sends a request. Can be called from any thread. The answer is handed to
+     * the handler on the IoReactor thread.
+     *
+     * @param line the request, without the line end
+     * @param handler the handler of the answer
+     * @throws IOException if not connected or the write failed
+     */
+    public void send(String line, ReplyHandler handler) throws IOException {
+        final Pending request = new Pending(handler);
+        // Sent and queued under one lock, so the queue has the order of the
+        // requests on the wire
+        synchronized (pending) {
+            if (!connected) {
+                throw new IOException("Not connected to " + name);
+            }
+            connection.send(line);
+            pending.add(request);
+        }
+        getReactor().schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (!request.answered) {
+                    connection.failed("no answer within " + replyTimeout + " ms");
+                }
+            }
+        }, replyTimeout);
+    }
+
+    /**
+     * Reports that the connection is broken, so it is made again.
+     *
+     * @param reason the reason, for the log
+     */
+    public void failed(String reason) {
+        connection.failed(reason);
+    }
+
+    /**
+     * Called by the ConnectionManager when connected.
+     */
+    @Override
+    public void onConnected() {
+        synchronized (pending) {
+            connected = true;
+        }
+        for (Listener listener : listeners) {
+            listener.onConnected();
+        }
+    }
+
+    /**
+     * Called on the IoReactor thread with every line from the server, and
+     * hands it to the oldest request waiting.
+     *
+     * @param line the line received
+     */
+    @Override
+    public void onLine(String line) {
+        Pending request;
+        synchronized (pending) {
+            request = pending.poll();
+        }
+        if (request == null) {
+            System.out.println("Dropped a line from " + name + " nobody asked for: " + line);
+            return;
+        }
+        request.answered = true;
+        request.handler.onReply(line);
+    }
+
+    /**
+     * Called by the ConnectionManager when the connection is lost or closed.
+     * The requests waiting get no answer.
+     */
+    @Override
+    public void onDisconnected() {
+        synchronized (pending) {
+            connected = false;
+        }
+        while (true) {
+            Pending request;
+            synchronized (pending) {
+                request = pending.poll();
+            }
+            if (request == null) {
+                break;
+            }
+            request.answered = true;
+            request.handler.onNoReply();
+        }
+        for (Listener listener : listeners) {
+            listener.onDisconnected();
+        }
+    }
+}
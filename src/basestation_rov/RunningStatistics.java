@@ -0,0 +1,117 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package basestation_rov;
+
+/**
+ * Statistics of a value which are updated with every sample, without keeping
+ * the samples: the count, the mean and the standard deviation of all samples
+ * (Welford's method), the min and the max, and an exponentially weighted mean
+ * which follows the recent samples.
+ */
+public class RunningStatistics {
+
+    private final double smoothing;
+    private long count = 0;
+    private double mean = 0;
+    private double squares = 0;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+    private double recentMean = Double.NaN;
+
+    /**
+     * The constructor of the RunningStatistics class.
+     *
+     * @param smoothing the weight of a new sample in the recent mean, from 0
+     * to 1
+     */
+    public RunningStatistics(double smoothing) {
+        this.smoothing = smoothing;
+    }
+
+    /**
+     * Adds a sample.
+     *
+     * @param value the value
+     */
+    public synchronized void add(double value) {
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        squares += delta * (value - mean);
+        if (count == 1) {
+            min = value;
+            max = value;
+            recentMean = value;
+        } else {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            recentMean += smoothing * (value - recentMean);
+        }
+    }
+
+    /**
+     * Returns the number of samples.
+     *
+     * @return the number of samples
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the mean of all samples.
+     *
+     * @return the mean, or NaN if there are no samples
+     */
+    public synchronized double getMean() {
+        return count == 0 ? Double.NaN : mean;
+    }
+
+    /**
+     * Returns the standard deviation of all samples.
+     *
+     * @return the standard deviation, or NaN if there are less than two
+     * samples
+     */
+    public synchronized double getStandardDeviation() {
+        return count < 2 ? Double.NaN : Math.sqrt(squares / (count - 1));
+    }
+
+    /**
+     * Returns the smallest sample.
+     *
+     * @return the min, or NaN if there are no samples
+     */
+    public synchronized double getMin() {
+        return min;
+    }
+
+    /**
+     * Returns the largest sample.
+     *
+     * @return the max, or NaN if there are no samples
+     */
+    public synchronized double getMax() {
+        return max;
+    }
+
+    /**
+     * Returns the exponentially weighted mean of the recent samples.
+     *
+     * @return the recent mean, or NaN if there are no samples
+     */
+    public synchronized double getRecentMean() {
+        return recentMean;
+    }
+}
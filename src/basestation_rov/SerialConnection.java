@@ -0,0 +1,85 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package basestation_rov;
+
+import java.io.IOException;
+
+/**
+ * A serial port the sensors are read from. The normal implementation is the
+ * JsscSerialConnection, while the ReplaySerialConnection plays back recorded
+ * sensor data, so the readers can be tested without the hardware.
+ */
+public interface SerialConnection {
+
+    /**
+     * Creates the connections to the com ports.
+     */
+    interface Factory {
+
+        /**
+         * Creates a connection to the given com port. The port is not opened.
+         *
+         * @param portName the name of the com port
+         * @return the connection
+         */
+        SerialConnection create(String portName);
+    }
+
+    /**
+     * Opens the port with 8 data bits, 1 stop bit and no parity.
+     *
+     * @param baudRate the baud rate
+     * @throws IOException if the port could not be opened
+     */
+    void open(int baudRate) throws IOException;
+
+    /**
+     * Returns the bytes received since the last call, without blocking.
+     *
+     * @return the bytes received, or null if nothing is received
+     * @throws IOException if the port could not be read
+     */
+    byte[] readBytes() throws IOException;
+
+    /**
+     * Reads the bytes received since the last call into a buffer, without
+     * blocking. Bytes which do not fit are left for the next call.
+     *
+     * @param buffer the buffer to read into
+     * @return the number of bytes read, 0 if nothing is received
+     * @throws IOException if the port could not be read
+     */
+    int read(byte[] buffer) throws IOException;
+
+    /**
+     * Returns true if the port is open.
+     *
+     * @return true if the port is open
+     */
+    boolean isOpen();
+
+    /**
+     * Closes the port.
+     *
+     * @throws IOException if the port could not be closed
+     */
+    void close() throws IOException;
+
+    /**
+     * Returns the name of the port.
+     *
+     * @return the name of the port
+     */
+    String getPortName();
+}
@@ -14,10 +14,23 @@
 package basestation_rov;
 
 import ntnusubsea.gui.Data;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map.Entry;
-import jssc.SerialPort;
-import jssc.SerialPortList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Responsible for finding and storing the com ports connected.
@@ -25,14 +38,18 @@ import jssc.SerialPortList;
  */
 public class SerialDataHandler {
 
+    private static final int[] BAUD_RATES = {115200, 4800};
+    private static final long PROBE_TIMEOUT = 3000;
+    private static final long PROBE_INTERVAL = 50;
+    private static final long DISCOVERY_TIMEOUT = 10000;
+    private static final String PORT_CACHE_FILE = "ComPorts.txt";
+
     private HashMap<String, String> portNamesList = new HashMap<>();
+    private HashMap<String, Integer> portBaudRates = new HashMap<>();
     String comPort = "";
-    SerialPort serialPort;
     Data data;
-    String start_char = "<";
-    String end_char = ">";
-    String sep_char = ":";
     int comCheck = 0;
+    private final SerialConnection.Factory connectionFactory;
 
     /**
      * The constructor of the SerialDataHandler
@@ -40,7 +57,19 @@ public class SerialDataHandler {
      * @param data the shared resource Data class
      */
     public SerialDataHandler(Data data) {
+        this(data, JsscSerialConnection.FACTORY);
+    }
+
+    /**
+     * The constructor of the SerialDataHandler, probing connections made by
+     * the given factory, like a ReplaySerialConnection.
+     *
+     * @param data the shared resource Data class
+     * @param connectionFactory creates the connections to the com ports
+     */
+    public SerialDataHandler(Data data, SerialConnection.Factory connectionFactory) {
         this.data = data;
+        this.connectionFactory = connectionFactory;
     }
 
     /**
@@ -54,122 +83,335 @@ public class SerialDataHandler {
      * Saves the usable com ports found.
      */
     private void saveUsableComPorts() {
+        comCheck = 0;
         for (Entry e : portNamesList.entrySet()) {
             String comPortKey = (String) e.getKey();
             String comPortValue = (String) e.getValue();
-            if (!comPortValue.contains("Unknown")) {
+            if (!comPortValue.contains("Unknown") && !comPortValue.contains("Unreadable")) {
                 data.comPortList.put(comPortKey, comPortValue);
                 comCheck++;
             }
         }
         if (comCheck < 3) {
             //Not all comports was found
-            System.out.println("ERROR: Not all com ports was found, trying again...");
-            findComPorts();
+            System.out.println("ERROR: Not all com ports was found");
         }
     }
 
     /**
-     * Finds the com ports available.
+     * Finds the com ports available. All ports are probed at the same time,
+     * and each port stops probing as soon as it has sent a frame which tells
+     * what it is. Ports known from the last run are tried at their cached
+     * baud rate first.
      */
     public void findComPorts() {
-        int baudrate = 0;
-        int searchRuns = 0;
-        while (searchRuns != 2) {
-            String[] portNames = getAvailableComPorts();
-            for (int i = 0; i < portNames.length; i++) {
-                if (portNames[i].contains("COM")) {
-                    portNamesList.put(portNames[i], "Unknown");
+        probePorts(Arrays.asList(getAvailableComPorts()));
+    }
+
+    /**
+     * Probes the given com ports at the same time and saves the devices found
+     * to the shared resource Data class.
+     *
+     * @param comPorts the com ports to probe
+     * @return the com ports identified by this call, with their device names
+     */
+    public HashMap<String, String> probePorts(List<String> comPorts) {
+        HashMap<String, String> found = new HashMap<>();
+        if (comPorts.isEmpty()) {
+            return found;
+        }
+        HashMap<String, String[]> cache = loadPortCache();
+        List<Callable<String[]>> probes = new ArrayList<>();
+        for (String comPort : comPorts) {
+            portNamesList.put(comPort, "Unknown");
+            probes.add(new PortProbe(comPort, connectionFactory, cache.get(SerialPortEnumerator.getStableId(comPort))));
+        }
+
+        ExecutorService probeExecutor = Executors.newFixedThreadPool(probes.size());
+        try {
+            List<Future<String[]>> results = probeExecutor.invokeAll(probes,
+                    DISCOVERY_TIMEOUT, TimeUnit.MILLISECONDS);
+            for (Future<String[]> result : results) {
+                try {
+                    String[] port = result.get();
+                    portNamesList.put(port[0], port[1]);
+                    if (port.length > 2) {
+                        portBaudRates.put(port[0], Integer.parseInt(port[2]));
+                        found.put(port[0], port[1]);
+                    }
+                } catch (CancellationException | ExecutionException ex) {
+                    // The port did not answer within the discovery timeout
                 }
             }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            probeExecutor.shutdownNow();
+        }
+        saveUsableComPorts();
+        savePortCache();
+        return found;
+    }
 
-            if (searchRuns == 0) {
-                baudrate = 115200;
+    /**
+     * Takes the device and baud rate of the given com ports from the port
+     * cache of the last run, without opening the ports. The readers can then
+     * be started at once, and a port is only probed if its reader does not
+     * get any frames.
+     *
+     * @param comPorts the com ports present
+     * @return the com ports found in the cache, with their device names
+     */
+    public HashMap<String, String> useCachedPorts(List<String> comPorts) {
+        HashMap<String, String> found = new HashMap<>();
+        HashMap<String, String[]> cache = loadPortCache();
+        for (String comPort : comPorts) {
+            String[] cached = cache.get(SerialPortEnumerator.getStableId(comPort));
+            if (cached == null) {
+                continue;
             }
-            if (searchRuns == 1) {
-                baudrate = 4800;
+            try {
+                portBaudRates.put(comPort, Integer.parseInt(cached[1]));
+            } catch (NumberFormatException ex) {
+                continue;
             }
+            portNamesList.put(comPort, cached[0]);
+            data.comPortList.put(comPort, cached[0]);
+            found.put(comPort, cached[0]);
+        }
+        return found;
+    }
 
-            for (Entry e : portNamesList.entrySet()) {
-                String comPortKey = (String) e.getKey();
-                String comPortValue = (String) e.getValue();
+    /**
+     * Forgets the device found on the given com port, so it is probed again
+     * if it comes back.
+     *
+     * @param comPort the com port which has disappeared
+     */
+    public void removeComPort(String comPort) {
+        portNamesList.remove(comPort);
+        data.comPortList.remove(comPort);
+    }
 
-                if (comPortValue.contains("Unknown")) {
-                    serialPort = new SerialPort(comPortKey);
+    /**
+     * Forgets the cached device and baud rate of the given com port, after
+     * its reader got no frames with them. The port is then probed, and the
+     * cache is written again with what the probe finds.
+     *
+     * @param comPort the com port with the wrong cached setting
+     */
+    public void rejectCachedPort(String comPort) {
+        removeComPort(comPort);
+        portBaudRates.remove(comPort);
+    }
+
+    /**
+     * Reads the com ports found in the last run from the port cache file.
+     *
+     * @return the cached device and baud rate of each com port
+     */
+    private HashMap<String, String[]> loadPortCache() {
+        HashMap<String, String[]> cache = new HashMap<>();
+        File cacheFile = new File(PORT_CACHE_FILE);
+        if (!cacheFile.exists()) {
+            return cache;
+        }
+        try (BufferedReader br = new BufferedReader(new FileReader(cacheFile))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] entry = line.split(",");
+                if (entry.length == 3) {
+                    cache.put(entry[0], new String[]{entry[1], entry[2]});
                 }
+            }
+        } catch (Exception ex) {
+            System.out.println("Error reading the com port cache: " + ex.getMessage());
+        }
+        return cache;
+    }
+
+    /**
+     * Writes the com ports found to the port cache file, so the next start can
+     * try the right baud rate first.
+     */
+    private void savePortCache() {
+        try (PrintWriter pw = new PrintWriter(new FileWriter(PORT_CACHE_FILE))) {
+            for (Entry<String, Integer> e : portBaudRates.entrySet()) {
+                pw.println(SerialPortEnumerator.getStableId(e.getKey()) + ","
+                        + portNamesList.get(e.getKey()) + "," + e.getValue());
+            }
+        } catch (Exception ex) {
+            System.out.println("Error writing the com port cache: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Returns the baud rate the given com port was found at
+     *
+     * @param comPort the given com port
+     * @param defaultBaudRate the baud rate to use if the port was not found
+     * @return the baud rate of the com port
+     */
+    public int getBaudRate(String comPort, int defaultBaudRate) {
+        Integer baudRate = portBaudRates.get(comPort);
+        return baudRate != null ? baudRate : defaultBaudRate;
+    }
+
+    /**
+     * Returns the available com ports
+     *
+     * @return the available com ports
+     */
+    private String[] getAvailableComPorts() {
+        // getting serial ports list into the array
+        String[] portNames = SerialPortEnumerator.getPortNames();
+
+        if (portNames.length == 0) {
+            System.out.println("No com ports is connected...");
+        }
+        return portNames;
+    }
+
+    /**
+     * Probes one com port at the known baud rates until it sends a frame
+     * which tells what device it is.
+     */
+    private static class PortProbe implements Callable<String[]> {
+
+        private final String portName;
+        private final SerialConnection.Factory connectionFactory;
+        private final String[] cached;
+
+        /**
+         * The constructor of the PortProbe class.
+         *
+         * @param portName the com port to probe
+         * @param connectionFactory creates the connection to the port
+         * @param cached the cached device and baud rate, or null
+         */
+        PortProbe(String portName, SerialConnection.Factory connectionFactory, String[] cached) {
+            this.portName = portName;
+            this.connectionFactory = connectionFactory;
+            this.cached = cached;
+        }
+
+        /**
+         * Probes the port.
+         *
+         * @return the port name, the device and the baud rate, or the port
+         * name and "Unknown"/"Unreadable" if no device was found
+         */
+        @Override
+        public String[] call() {
+            List<Integer> baudRates = new ArrayList<>();
+            if (cached != null) {
                 try {
-                    serialPort.openPort();
-                    serialPort.setParams(baudrate, 8, 1, 0);
-                    String buffer = "";
-                    Thread.sleep(5000);
-                    buffer = serialPort.readString();
-
-                    if (buffer != null) {
-                        if (buffer.contains("<") && buffer.contains(">")) {
-                            buffer = buffer.substring(buffer.indexOf(start_char) + 1);
-                            buffer = buffer.substring(0, buffer.indexOf(end_char));
-                            // buffer = buffer.replace("?", "");
-                            String[] data = buffer.split(sep_char);
-
-                            for (int i = 0; i < data.length; i = i + 2) {
-                                if (data[i].contains("Roll")) {
-                                    String key = (String) e.getKey();
-                                    portNamesList.put(key, "IMU");
-                                }
-                                if (data[i].contains("GPS")) {
-                                    String key = (String) e.getKey();
-                                    portNamesList.put(key, "GPS");
-                                }
-                                if (data[i].contains("EchoSounder")) {
-                                    String key = (String) e.getKey();
-                                    portNamesList.put(key, "EchoSounder");
-                                }
-                                if (data[i].contains("ROVDummy") || data[i].contains("Test")) {
-                                    String key = (String) e.getKey();
-                                    portNamesList.put(key, "ROVDummy");
-                                }
-                            }
-                        }
+                    baudRates.add(Integer.parseInt(cached[1]));
+                } catch (NumberFormatException ex) {
+                }
+            }
+            for (int baudRate : BAUD_RATES) {
+                if (!baudRates.contains(baudRate)) {
+                    baudRates.add(baudRate);
+                }
+            }
+            for (int baudRate : baudRates) {
+                SerialConnection serialPort = connectionFactory.create(portName);
+                try {
+                    serialPort.open(baudRate);
+                    PortIdentifier identifier = new PortIdentifier();
+                    FrameParser frameParser = new FrameParser(null, identifier);
+                    NmeaParser nmeaParser = new NmeaParser(identifier);
+                    long deadline = System.currentTimeMillis() + PROBE_TIMEOUT;
+                    while (identifier.device == null && System.currentTimeMillis() < deadline) {
+                        Thread.sleep(PROBE_INTERVAL);
+                        byte[] buffer = serialPort.readBytes();
+                        frameParser.feed(buffer);
+                        nmeaParser.feed(buffer);
+                    }
+                    if (identifier.device != null) {
+                        return new String[]{portName, identifier.device, String.valueOf(baudRate)};
                     }
-                    serialPort.closePort();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return new String[]{portName, "Unknown"};
                 } catch (Exception ex) {
                     System.out.println("Error: " + ex);
-                    portNamesList.put(comPortKey, "Unreadable");
+                    return new String[]{portName, "Unreadable"};
+                } finally {
                     try {
-                        serialPort.closePort();
-
+                        serialPort.close();
                     } catch (Exception exe) {
                         System.out.println("Error: Failed to close port " + exe);
                     }
                 }
             }
-            saveUsableComPorts();
-            searchRuns++;
+            return new String[]{portName, "Unknown"};
         }
     }
 
     /**
-     * Returns the available com ports
-     *
-     * @return the available com ports
+     * Identifies the device on a com port from the keys of the frames it
+     * sends, or from the NMEA sentences it sends.
      */
-    private String[] getAvailableComPorts() {
-        // getting serial ports list into the array
-        String[] portNames = SerialPortList.getPortNames();
+    private static class PortIdentifier implements FrameParser.FrameListener,
+            NmeaParser.NmeaListener {
 
-        if (portNames.length == 0) {
-            System.out.println("No com ports is connected...");
-            try {
-                System.in.read();
-            } catch (Exception e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
+        private String device = null;
+
+        @Override
+        public void onField(int key, FrameParser parser) {
+            if (parser.keyContains("Roll")) {
+                device = "IMU";
+            }
+            if (parser.keyContains("GPS")) {
+                device = "GPS";
+            }
+            if (parser.keyContains("EchoSounder")) {
+                device = "EchoSounder";
+            }
+            if (parser.keyContains("ROVDummy") || parser.keyContains("Test")) {
+                device = "ROVDummy";
             }
         }
-//        for (int i = 0; i < portNames.length; i++)
-//        {
-//            System.out.println(portNames[i]);
-//        }
-        return portNames;
+
+        @Override
+        public void onFrameEnd() {
+        }
+
+        @Override
+        public void onPosition(double latitude, double longitude) {
+            device = "GPS";
+        }
+
+        @Override
+        public void onSatellites(int satellites) {
+            device = "GPS";
+        }
+
+        @Override
+        public void onAltitude(double altitude) {
+            device = "GPS";
+        }
+
+        @Override
+        public void onSpeedOverGround(double knots) {
+            device = "GPS";
+        }
+
+        @Override
+        public void onCourseOverGround(double degrees) {
+            device = "GPS";
+        }
+
+        @Override
+        public void onHeading(double degrees) {
+            device = "GPS";
+        }
+
+        @Override
+        public void onDepthBelowTransducer(double meters) {
+            device = "EchoSounder";
+        }
     }
 }
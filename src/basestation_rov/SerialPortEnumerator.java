@@ -0,0 +1,122 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package basestation_rov;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import jssc.SerialPortList;
+
+/**
+ * Lists the serial ports the sensors can be connected to, on Windows, Linux
+ * and macOS. Built in and virtual ports like /dev/ttyS0 are left out, so they
+ * are not probed. On Linux each USB port is also given a stable id made from
+ * the vendor, product and serial number of the device, like udev does, so a
+ * device is recognised even if it gets a new ttyUSB number.
+ */
+public final class SerialPortEnumerator {
+
+    private static final Pattern USABLE_PORT = Pattern.compile(
+            "COM\\d+"
+            + "|/dev/tty(USB|ACM)\\d+"
+            + "|/dev/(tty|cu)\\.(usbserial|usbmodem|SLAB_USBtoUART|wchusbserial).*");
+    private static final String SYS_TTY = "/sys/class/tty/";
+
+    /**
+     * The class only has static methods.
+     */
+    private SerialPortEnumerator() {
+    }
+
+    /**
+     * Returns the serial ports which can have a sensor connected. Never
+     * blocks, and returns an empty array if nothing is connected.
+     *
+     * @return the names of the serial ports
+     */
+    public static String[] getPortNames() {
+        String[] portNames;
+        try {
+            portNames = SerialPortList.getPortNames();
+        } catch (Exception | UnsatisfiedLinkError ex) {
+            System.out.println("Error listing the serial ports: " + ex);
+            return new String[0];
+        }
+        List<String> usable = new ArrayList<>();
+        for (String portName : portNames) {
+            if (USABLE_PORT.matcher(portName).matches()) {
+                usable.add(portName);
+            }
+        }
+        return usable.toArray(new String[usable.size()]);
+    }
+
+    /**
+     * Returns an id for the device on the given port which stays the same
+     * when the device is plugged in again. On Linux this is
+     * "vendor:product:serial", or "vendor:product@usbpath" for devices
+     * without a serial number. On other systems the port name is returned.
+     *
+     * @param portName the name of the port
+     * @return the stable id of the device
+     */
+    public static String getStableId(String portName) {
+        if (!portName.startsWith("/dev/tty")) {
+            return portName;
+        }
+        try {
+            Path device = Paths.get(SYS_TTY + portName.substring("/dev/".length()), "device");
+            if (!Files.exists(device)) {
+                return portName;
+            }
+            // The USB device is a parent of the interface the tty belongs to
+            Path dir = device.toRealPath();
+            for (int i = 0; i < 4 && dir != null; i++) {
+                if (Files.exists(dir.resolve("idVendor"))) {
+                    String id = readAttribute(dir, "idVendor") + ":" + readAttribute(dir, "idProduct");
+                    String serial = readAttribute(dir, "serial");
+                    if (serial != null && !serial.isEmpty()) {
+                        return id + ":" + serial.replace(',', '_');
+                    }
+                    return id + "@" + dir.getFileName();
+                }
+                dir = dir.getParent();
+            }
+        } catch (Exception ex) {
+            System.out.println("Error reading the id of " + portName + ": " + ex.getMessage());
+        }
+        return portName;
+    }
+
+    /**
+     * Reads a sysfs attribute of a device.
+     *
+     * @param dir the sysfs directory of the device
+     * @param name the name of the attribute
+     * @return the value of the attribute, or null if it does not exist
+     * @throws IOException if the attribute could not be read
+     */
+    private static String readAttribute(Path dir, String name) throws IOException {
+        Path attribute = dir.resolve(name);
+        if (!Files.exists(attribute)) {
+            return null;
+        }
+        return new String(Files.readAllBytes(attribute), StandardCharsets.US_ASCII).trim();
+    }
+}
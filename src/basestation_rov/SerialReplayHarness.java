@@ -0,0 +1,177 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package basestation_rov;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import ntnusubsea.gui.Data;
+
+/**
+ * Replays a recorded sensor stream through ReadSerialData and reports the
+ * parser throughput and the latency, without any hardware connected. By
+ * default the stream goes through an in-memory ReplaySerialConnection. With
+ * --pty and --port it is written to one end of a pseudo terminal pair and
+ * read from the other end through jSSC, like a real com port.
+ *
+ * Usage:
+ * <pre>
+ * SerialReplayHarness [options] recording
+ * --speed N      how much faster than real time to play, 0 for max (1)
+ * --baud N       the baud rate of the recorded device (115200)
+ * --loops N      how many times to play the recording (1)
+ * --interval MS  the read interval of ReadSerialData (100)
+ * --pty PATH     write the stream to this pseudo terminal
+ * --port NAME    read the stream from this com port
+ * </pre>
+ * For example, 100 times real time from the benchmark fixtures:
+ * <pre>
+ * SerialReplayHarness --speed 100 --loops 50 --interval 5 bench/fixtures/serial_sensors.txt
+ * </pre>
+ * That fixture is generated, not recorded, and is written evenly one line at
+ * a time. It shows the parser keeps up, but not how it copes with the bursts
+ * and gaps of a real device. Capture the port of the device for that, for
+ * example with {@code stty -F /dev/ttyUSB0 4800 raw} and
+ * {@code cat /dev/ttyUSB0 > capture.txt}, and replay the file with the same
+ * --baud.
+ */
+public class SerialReplayHarness {
+
+    private static final String REPLAY_PORT = "REPLAY";
+
+    /**
+     * Runs the replay.
+     *
+     * @param args the command line options
+     */
+    public static void main(String[] args) {
+        double speed = 1;
+        int baudRate = 115200;
+        int loops = 1;
+        long interval = 100;
+        String pty = null;
+        String port = null;
+        String recordingFile = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--speed":
+                        speed = Double.parseDouble(args[++i]);
+                        break;
+                    case "--baud":
+                        baudRate = Integer.parseInt(args[++i]);
+                        break;
+                    case "--loops":
+                        loops = Integer.parseInt(args[++i]);
+                        break;
+                    case "--interval":
+                        interval = Long.parseLong(args[++i]);
+                        break;
+                    case "--pty":
+                        pty = args[++i];
+                        break;
+                    case "--port":
+                        port = args[++i];
+                        break;
+                    default:
+                        recordingFile = args[i];
+                        break;
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+            recordingFile = null;
+        }
+        if (recordingFile == null || (pty == null) != (port == null)) {
+            System.out.println("Usage: SerialReplayHarness [--speed N] [--baud N] [--loops N] "
+                    + "[--interval MS] [--pty PATH --port NAME] recording");
+            System.exit(1);
+        }
+
+        try {
+            byte[] recording = Files.readAllBytes(Paths.get(recordingFile));
+            run(recording, speed, baudRate, loops, interval, pty, port);
+        } catch (IOException ex) {
+            System.out.println("Replay failed: " + ex.getMessage());
+            System.exit(1);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Replays the recording and prints the results.
+     *
+     * @param recording the recorded bytes
+     * @param speed how much faster than real time to play
+     * @param baudRate the baud rate of the recorded device
+     * @param loops how many times to play the recording
+     * @param interval the read interval of ReadSerialData
+     * @param pty the pseudo terminal to write to, or null for in-memory
+     * @param port the com port to read from, or null for in-memory
+     * @throws IOException if the pseudo terminal could not be opened
+     * @throws InterruptedException if interrupted while waiting for the replay
+     */
+    private static void run(byte[] recording, double speed, int baudRate, int loops,
+            long interval, String pty, String port) throws IOException, InterruptedException {
+        final ReplaySerialConnection connection = new ReplaySerialConnection(REPLAY_PORT);
+        ReadSerialData reader;
+        OutputStream out;
+        if (pty == null) {
+            reader = new ReadSerialData(new Data(), REPLAY_PORT, baudRate, "Replay",
+                    new SerialConnection.Factory() {
+                @Override
+                public SerialConnection create(String portName) {
+                    return connection;
+                }
+            });
+            out = connection.getOutputStream();
+        } else {
+            reader = new ReadSerialData(new Data(), port, baudRate, "Replay");
+            out = new FileOutputStream(pty);
+        }
+        reader.setReadInterval(interval);
+
+        Thread readerThread = new Thread(reader);
+        readerThread.setName("ReplayReader");
+        readerThread.start();
+        // Let the reader open the port before the device starts sending
+        Thread.sleep(Math.max(200, 2 * interval));
+
+        SerialReplayer replayer = new SerialReplayer(recording, out, baudRate, speed, loops);
+        replayer.run();
+        // Let the reader pick up the last bytes
+        Thread.sleep(3 * interval);
+        reader.stop();
+        readerThread.join();
+        out.close();
+
+        double seconds = replayer.getElapsedMillis() / 1000;
+        System.out.println("Replayed " + replayer.getBytesWritten() + " bytes in "
+                + String.format("%.3f", seconds) + " s ("
+                + String.format("%.1f", replayer.getBytesWritten() * 10.0 / baudRate / seconds)
+                + "x real time at " + baudRate + " baud)");
+        System.out.println("Frames and sentences parsed: " + reader.getFrameCount()
+                + " (" + String.format("%.0f", reader.getFrameCount() / seconds) + "/s)");
+        if (pty == null) {
+            System.out.println("Bytes read: " + connection.getBytesRead()
+                    + ", lost to overruns: " + connection.getOverruns());
+            System.out.println("Latency from arrival to read: average "
+                    + String.format("%.2f", connection.getAverageLatencyMillis()) + " ms, max "
+                    + String.format("%.2f", connection.getMaxLatencyMillis()) + " ms");
+        }
+    }
+}
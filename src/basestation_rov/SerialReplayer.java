@@ -0,0 +1,127 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package basestation_rov;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Plays back a recorded sensor byte stream, as a simulated GPS, IMU or echo
+ * sounder. The recording is written one line at a time, paced like the bytes
+ * would arrive on a serial line at the given baud rate, optionally sped up.
+ * The stream can be a ReplaySerialConnection, or a pseudo terminal made with
+ * for example "socat pty,raw,echo=0,link=/tmp/ttyV0 pty,raw,echo=0,link=/tmp/ttyV1".
+ */
+public class SerialReplayer implements Runnable {
+
+    private final byte[] recording;
+    private final OutputStream out;
+    private final int baudRate;
+    private final double speed;
+    private final int loops;
+    private volatile boolean running = true;
+    private volatile long bytesWritten = 0;
+    private volatile long elapsedNanos = 0;
+
+    /**
+     * The constructor of the SerialReplayer class.
+     *
+     * @param recording the recorded bytes
+     * @param out the stream to write the bytes to
+     * @param baudRate the baud rate of the recorded device, used for pacing
+     * @param speed how much faster than real time to play, 0 for as fast as
+     * possible
+     * @param loops how many times to play the recording
+     */
+    public SerialReplayer(byte[] recording, OutputStream out, int baudRate, double speed, int loops) {
+        this.recording = recording;
+        this.out = out;
+        this.baudRate = baudRate;
+        this.speed = speed;
+        this.loops = loops;
+    }
+
+    /**
+     * Plays the recording until it has been played the given number of times
+     * or the replayer is stopped.
+     */
+    @Override
+    public void run() {
+        // A serial byte is a start bit, 8 data bits and a stop bit
+        double nanosPerByte = speed > 0 ? 10 * 1e9 / baudRate / speed : 0;
+        long start = System.nanoTime();
+        long written = 0;
+        try {
+            for (int loop = 0; loop < loops && running; loop++) {
+                int lineStart = 0;
+                while (lineStart < recording.length && running) {
+                    int lineEnd = lineStart;
+                    while (lineEnd < recording.length && recording[lineEnd++] != '\n') {
+                    }
+                    // Wait until the last byte of the line would have arrived
+                    long due = start + (long) ((written + lineEnd - lineStart) * nanosPerByte);
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                    }
+                    out.write(recording, lineStart, lineEnd - lineStart);
+                    written += lineEnd - lineStart;
+                    bytesWritten = written;
+                    lineStart = lineEnd;
+                }
+            }
+            out.flush();
+        } catch (IOException ex) {
+            System.out.println("Error replaying serial data: " + ex.getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        elapsedNanos = System.nanoTime() - start;
+        running = false;
+    }
+
+    /**
+     * Stops the replay after the current line.
+     */
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Returns true until the replay is done or stopped.
+     *
+     * @return true if the replay is running
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Returns the number of bytes written so far.
+     *
+     * @return the number of bytes written
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Returns how long the replay took.
+     *
+     * @return the time in milliseconds, or 0 while it is running
+     */
+    public double getElapsedMillis() {
+        return elapsedNanos / 1e6;
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package basestation_rov;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads the session files written by the SessionRecorder, one record at a
+ * time. If the file has a footer, seek uses its index to jump to a point in
+ * time; otherwise seek reads the file from the start.
+ */
+public class SessionReader implements Closeable {
+
+    private static final int HEADER_SIZE = SessionRecorder.MAGIC.length + 2 + 8;
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final FileChannel channel;
+    private final long startTime;
+    private final long dataEnd;
+    private final List<String> channelNames = new ArrayList<>();
+    private final List<long[]> index = new ArrayList<>();
+    private DataInputStream in;
+    private long position;
+    private Record pending = null;
+
+    /**
+     * One record of a session.
+     */
+    public static class Record {
+
+        private final byte type;
+        private final String channel;
+        private final long time;
+        private final byte[] payload;
+
+        /**
+         * The constructor of the Record class.
+         *
+         * @param type the type of the record, one of the SessionRecorder
+         * TYPE_ constants
+         * @param channel the name of the channel
+         * @param time the time since the start of the session in nanoseconds
+         * @param payload the payload
+         */
+        Record(byte type, String channel, long time, byte[] payload) {
+            this.type = type;
+            this.channel = channel;
+            this.time = time;
+            this.payload = payload;
+        }
+
+        /**
+         * Returns the type of the record, one of the SessionRecorder TYPE_
+         * constants.
+         *
+         * @return the type of the record
+         */
+        public byte getType() {
+            return type;
+        }
+
+        /**
+         * Returns the name of the channel.
+         *
+         * @return the name of the channel
+         */
+        public String getChannel() {
+            return channel;
+        }
+
+        /**
+         * Returns the time since the start of the session.
+         *
+         * @return the time in nanoseconds
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * Returns the payload.
+         *
+         * @return the payload
+         */
+        public byte[] getPayload() {
+            return payload;
+        }
+
+        /**
+         * Returns the payload as text, for commands and responses.
+         *
+         * @return the payload as text
+         */
+        public String getText() {
+            return new String(payload, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Opens a session file.
+     *
+     * @param file the session file
+     * @throws IOException if the file could not be read or is not a session
+     * file
+     */
+    public SessionReader(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(header, 0);
+            byte[] magic = new byte[SessionRecorder.MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, SessionRecorder.MAGIC)) {
+                throw new IOException("Not a session file: " + file);
+            }
+            int version = header.getShort();
+            if (version != SessionRecorder.VERSION) {
+                throw new IOException("Unsupported session file version " + version);
+            }
+            startTime = header.getLong();
+            dataEnd = readFooter();
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+        openAt(HEADER_SIZE);
+    }
+
+    /**
+     * Reads the channel names and the index from the footer.
+     *
+     * @return the position of the footer, or the size of the file if it has
+     * no footer
+     * @throws IOException if the file could not be read
+     */
+    private long readFooter() throws IOException {
+        long size = channel.size();
+        int magicLength = SessionRecorder.INDEX_MAGIC.length;
+        if (size < HEADER_SIZE + 8 + magicLength) {
+            return size;
+        }
+        ByteBuffer tail = ByteBuffer.allocate(8 + magicLength);
+        readFully(tail, size - tail.capacity());
+        long footerPosition = tail.getLong();
+        byte[] magic = new byte[magicLength];
+        tail.get(magic);
+        if (!Arrays.equals(magic, SessionRecorder.INDEX_MAGIC)
+                || footerPosition < HEADER_SIZE || footerPosition > size) {
+            return size;
+        }
+        DataInputStream footer = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(channel.position(footerPosition))));
+        int channelCount = footer.readUnsignedShort();
+        for (int i = 0; i < channelCount; i++) {
+            channelNames.add(footer.readUTF());
+        }
+        int entries = footer.readInt();
+        for (int i = 0; i < entries; i++) {
+            index.add(new long[]{footer.readLong(), footer.readLong()});
+        }
+        return footerPosition;
+    }
+
+    /**
+     * Fills the buffer from the given position in the file.
+     *
+     * @param buffer the buffer to fill
+     * @param filePosition the position to read from
+     * @throws IOException if the file is too short
+     */
+    private void readFully(ByteBuffer buffer, long filePosition) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, filePosition + buffer.position()) < 0) {
+                throw new EOFException("The session file is too short");
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Starts reading records from the given position.
+     *
+     * @param filePosition the position of a record
+     * @throws IOException if the file could not be read
+     */
+    private void openAt(long filePosition) throws IOException {
+        channel.position(filePosition);
+        in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE));
+        position = filePosition;
+        pending = null;
+    }
+
+    /**
+     * Returns the next record.
+     *
+     * @return the next record, or null at the end of the session
+     * @throws IOException if the file could not be read
+     */
+    public Record next() throws IOException {
+        if (pending != null) {
+            Record record = pending;
+            pending = null;
+            return record;
+        }
+        while (position + SessionRecorder.RECORD_HEADER_SIZE <= dataEnd) {
+            byte[] payload;
+            byte type;
+            int channelId;
+            long time;
+            try {
+                type = in.readByte();
+                channelId = in.readUnsignedShort();
+                time = in.readLong();
+                int length = in.readInt();
+                if (length < 0 || position + SessionRecorder.RECORD_HEADER_SIZE + length > dataEnd) {
+                    // A record cut off by a crash
+                    return null;
+                }
+                payload = new byte[length];
+                in.readFully(payload);
+                position += SessionRecorder.RECORD_HEADER_SIZE + length;
+            } catch (EOFException ex) {
+                return null;
+            }
+            if (type == SessionRecorder.TYPE_CHANNEL) {
+                if (channelId == channelNames.size()) {
+                    channelNames.add(new String(payload, StandardCharsets.UTF_8));
+                }
+                continue;
+            }
+            String name = channelId < channelNames.size() ? channelNames.get(channelId) : "?" + channelId;
+            return new Record(type, name, time, payload);
+        }
+        return null;
+    }
+
+    /**
+     * Moves to the first record at or after the given time.
+     *
+     * @param time the time since the start of the session in nanoseconds
+     * @throws IOException if the file could not be read
+     */
+    public void seek(long time) throws IOException {
+        long filePosition = HEADER_SIZE;
+        for (long[] entry : index) {
+            if (entry[0] > time) {
+                break;
+            }
+            filePosition = entry[1];
+        }
+        openAt(filePosition);
+        Record record;
+        while ((record = next()) != null && record.getTime() < time) {
+        }
+        pending = record;
+    }
+
+    /**
+     * Returns the wall clock time the session started.
+     *
+     * @return the time in milliseconds since the epoch
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Returns the names of the channels known so far. For a file with a
+     * footer these are all the channels.
+     *
+     * @return the names of the channels
+     */
+    public List<String> getChannelNames() {
+        return Collections.unmodifiableList(channelNames);
+    }
+
+    /**
+     * Returns true if the file has an index, so seek does not need to read
+     * the file from the start.
+     *
+     * @return true if the file has an index
+     */
+    public boolean hasIndex() {
+        return !index.isEmpty();
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws IOException if the file could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
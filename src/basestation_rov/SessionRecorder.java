@@ -0,0 +1,310 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package basestation_rov;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Records everything that goes in and out of the base station during a dive
+ * into one session file: the responses from the RPis, the commands sent to
+ * them, the video frames and the raw serial data. Every record has a
+ * monotonic timestamp from the same clock, so the session can be played back
+ * with the SessionPlayer exactly as it happened.
+ *
+ * The file starts with a header, followed by the records. When the recording
+ * is stopped a footer is added with the channel names and an index of the
+ * file position of every second, so the SessionReader can seek. A file from
+ * a crashed recording has no footer, but can still be read from the start.
+ */
+public class SessionRecorder {
+
+    /**
+     * The first bytes of a session file.
+     */
+    public static final byte[] MAGIC = "TROVSESS".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The last bytes of a session file with a footer.
+     */
+    public static final byte[] INDEX_MAGIC = "TROVINDX".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The version of the file format.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Defines a channel. The payload is the name of the channel.
+     */
+    public static final byte TYPE_CHANNEL = 0;
+
+    /**
+     * A command sent to an RPi with TCPClient.sendCommand.
+     */
+    public static final byte TYPE_COMMAND = 1;
+
+    /**
+     * A response line received from an RPi.
+     */
+    public static final byte TYPE_RESPONSE = 2;
+
+    /**
+     * A JPEG frame received by the UDPServer.
+     */
+    public static final byte TYPE_VIDEO = 3;
+
+    /**
+     * Bytes read from a com port.
+     */
+    public static final byte TYPE_SERIAL = 4;
+
+    /**
+     * The size of the record header: type, channel, time and length.
+     */
+    public static final int RECORD_HEADER_SIZE = 1 + 2 + 8 + 4;
+
+    /**
+     * The time between each entry in the index.
+     */
+    public static final long INDEX_INTERVAL_NANOS = 1000000000L;
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private DataOutputStream out = null;
+    private File file = null;
+    private long startNanos = 0;
+    private long position = 0;
+    private long records = 0;
+    private long nextIndexTime = 0;
+    private final HashMap<String, Integer> channels = new HashMap<>();
+    private final List<String> channelNames = new ArrayList<>();
+    private final List<long[]> index = new ArrayList<>();
+
+    /**
+     * Starts recording to a new file in the given directory. A recording in
+     * progress is stopped first.
+     *
+     * @param directory the directory to put the session file in
+     * @return the session file
+     * @throws IOException if the file could not be created
+     */
+    public synchronized File start(File directory) throws IOException {
+        SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd_HHmmss");
+        return startFile(new File(directory, "Session_" + formatter.format(new Date()) + ".trs"));
+    }
+
+    /**
+     * Starts recording to the given file. A recording in progress is stopped
+     * first.
+     *
+     * @param sessionFile the file to record to
+     * @return the session file
+     * @throws IOException if the file could not be created
+     */
+    public synchronized File startFile(File sessionFile) throws IOException {
+        stop();
+        File directory = sessionFile.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.exists()) {
+            directory.mkdirs();
+        }
+        out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(sessionFile), BUFFER_SIZE));
+        file = sessionFile;
+        channels.clear();
+        channelNames.clear();
+        index.clear();
+        records = 0;
+        startNanos = System.nanoTime();
+        nextIndexTime = 0;
+        out.write(MAGIC);
+        out.writeShort(VERSION);
+        out.writeLong(System.currentTimeMillis());
+        position = MAGIC.length + 2 + 8;
+        System.out.println("Recording session to " + sessionFile);
+        return sessionFile;
+    }
+
+    /**
+     * Stops the recording and writes the footer. Does nothing if nothing is
+     * being recorded.
+     */
+    public synchronized void stop() {
+        if (out == null) {
+            return;
+        }
+        try {
+            long footerPosition = position;
+            out.writeShort(channelNames.size());
+            for (String name : channelNames) {
+                out.writeUTF(name);
+            }
+            out.writeInt(index.size());
+            for (long[] entry : index) {
+                out.writeLong(entry[0]);
+                out.writeLong(entry[1]);
+            }
+            out.writeLong(footerPosition);
+            out.write(INDEX_MAGIC);
+            out.close();
+            System.out.println("Session recorded: " + records + " records in " + file);
+        } catch (IOException ex) {
+            System.out.println("Error closing the session file: " + ex.getMessage());
+        }
+        out = null;
+    }
+
+    /**
+     * Returns true while recording.
+     *
+     * @return true if recording
+     */
+    public synchronized boolean isRecording() {
+        return out != null;
+    }
+
+    /**
+     * Records a command sent to an RPi.
+     *
+     * @param channel the address of the RPi
+     * @param command the command sent
+     */
+    public void recordCommand(String channel, String command) {
+        if (out != null) {
+            byte[] bytes = command.getBytes(StandardCharsets.UTF_8);
+            record(TYPE_COMMAND, channel, bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Records a response from an RPi.
+     *
+     * @param channel the address of the RPi
+     * @param response the response line
+     */
+    public void recordResponse(String channel, String response) {
+        if (out != null && response != null) {
+            byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+            record(TYPE_RESPONSE, channel, bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Records a video frame.
+     *
+     * @param channel the name of the stream
+     * @param frame the buffer holding the frame
+     * @param length the length of the frame
+     */
+    public void recordVideo(String channel, byte[] frame, int length) {
+        if (out != null) {
+            record(TYPE_VIDEO, channel, frame, 0, length);
+        }
+    }
+
+    /**
+     * Records bytes read from a com port.
+     *
+     * @param channel the name of the device
+     * @param bytes the bytes read, null is ignored
+     */
+    public void recordSerial(String channel, byte[] bytes) {
+        if (out != null && bytes != null) {
+            record(TYPE_SERIAL, channel, bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Records bytes read from a com port.
+     *
+     * @param channel the name of the device
+     * @param buffer the buffer holding the bytes read
+     * @param offset the index of the first byte
+     * @param length the number of bytes
+     */
+    public void recordSerial(String channel, byte[] buffer, int offset, int length) {
+        if (out != null && length > 0) {
+            record(TYPE_SERIAL, channel, buffer, offset, length);
+        }
+    }
+
+    /**
+     * Writes a record. Recording is stopped if the file can not be written.
+     *
+     * @param type the type of the record
+     * @param channel the name of the channel
+     * @param payload the buffer holding the payload
+     * @param offset the index of the first byte of the payload
+     * @param length the length of the payload
+     */
+    private synchronized void record(byte type, String channel, byte[] payload, int offset, int length) {
+        if (out == null) {
+            return;
+        }
+        long time = System.nanoTime() - startNanos;
+        try {
+            Integer channelId = channels.get(channel);
+            if (channelId == null) {
+                channelId = channelNames.size();
+                channels.put(channel, channelId);
+                channelNames.add(channel);
+                byte[] name = channel.getBytes(StandardCharsets.UTF_8);
+                writeRecord(TYPE_CHANNEL, channelId, time, name, 0, name.length);
+            }
+            if (time >= nextIndexTime) {
+                index.add(new long[]{time, position});
+                nextIndexTime = time - time % INDEX_INTERVAL_NANOS + INDEX_INTERVAL_NANOS;
+            }
+            writeRecord(type, channelId, time, payload, offset, length);
+            records++;
+        } catch (IOException ex) {
+            System.out.println("Error writing the session file, recording stopped: " + ex.getMessage());
+            try {
+                out.close();
+            } catch (IOException exe) {
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * Writes the header and the payload of a record.
+     *
+     * @param type the type of the record
+     * @param channelId the id of the channel
+     * @param time the time since the start in nanoseconds
+     * @param payload the buffer holding the payload
+     * @param offset the index of the first byte of the payload
+     * @param length the length of the payload
+     * @throws IOException if the file could not be written
+     */
+    private void writeRecord(byte type, int channelId, long time, byte[] payload,
+            int offset, int length) throws IOException {
+        out.writeByte(type);
+        out.writeShort(channelId);
+        out.writeLong(time);
+        out.writeInt(length);
+        out.write(payload, offset, length);
+        position += RECORD_HEADER_SIZE + length;
+    }
+}
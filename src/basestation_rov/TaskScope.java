@@ -0,0 +1,338 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package basestation_rov;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A named group of tasks which block, like reading a serial port, waiting for
+ * a socket or playing a sound. Each task gets its own thread, named after the
+ * scope and the task, so a blocking task can never starve a shared pool.
+ * Closing the scope cancels and interrupts all its tasks and the tasks of its
+ * child scopes, so the lifetime of the threads follows the lifetime of what
+ * they serve, like a connection or a log session.
+ *
+ * Tasks must stop when interrupted. Periodic tasks are run with
+ * {@link #repeat(String, Runnable, long)}.
+ */
+public class TaskScope {
+
+    private final String name;
+    private final TaskScope parent;
+    private final List<Task> tasks = new ArrayList<>();
+    private final List<TaskScope> children = new ArrayList<>();
+    private boolean closed = false;
+
+    /**
+     * A task running in a scope.
+     */
+    public final class Task implements Runnable {
+
+        private final String taskName;
+        private final Runnable body;
+        private final long periodMillis;
+        private final Thread thread;
+        private volatile boolean cancelled = false;
+
+        /**
+         * Creates a task.
+         *
+         * @param taskName the name of the task
+         * @param body the code to run
+         * @param periodMillis the period for a repeated task, or 0 to run once
+         */
+        private Task(String taskName, Runnable body, long periodMillis) {
+            this.taskName = taskName;
+            this.body = body;
+            this.periodMillis = periodMillis;
+            this.thread = new Thread(this);
+            thread.setName(name + "-" + taskName);
+            thread.setDaemon(true);
+        }
+
+        /**
+         * Runs the task once, or at a fixed rate until cancelled. A repeated
+         * task which takes longer than its period skips the runs it missed.
+         */
+        @Override
+        public void run() {
+            try {
+                if (periodMillis <= 0) {
+                    body.run();
+                    return;
+                }
+                long next = System.currentTimeMillis();
+                while (!cancelled) {
+                    try {
+                        body.run();
+                    } catch (RuntimeException ex) {
+                        System.out.println("Exception in " + thread.getName() + ": " + ex);
+                    }
+                    long now = System.currentTimeMillis();
+                    next += periodMillis;
+                    if (next < now) {
+                        next = now;
+                    }
+                    Thread.sleep(next - now);
+                }
+            } catch (InterruptedException ex) {
+                // Cancelled
+            } catch (RuntimeException ex) {
+                System.out.println("Exception in " + thread.getName() + ": " + ex);
+            } finally {
+                removeTask(this);
+            }
+        }
+
+        /**
+         * Returns the name of the task.
+         *
+         * @return the name
+         */
+        public String getName() {
+            return taskName;
+        }
+
+        /**
+         * Returns true while the task is running.
+         *
+         * @return true if running
+         */
+        public boolean isAlive() {
+            return thread.isAlive();
+        }
+
+        /**
+         * Cancels the task and interrupts it.
+         */
+        public void cancel() {
+            cancelled = true;
+            thread.interrupt();
+        }
+
+        /**
+         * Returns true if the task has been cancelled.
+         *
+         * @return true if cancelled
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Waits for the task to finish.
+         *
+         * @param timeoutMillis the max time to wait
+         * @return true if the task has finished
+         * @throws InterruptedException if interrupted while waiting
+         */
+        public boolean join(long timeoutMillis) throws InterruptedException {
+            thread.join(timeoutMillis);
+            return !thread.isAlive();
+        }
+    }
+
+    /**
+     * Creates a top level scope.
+     *
+     * @param name the name of the scope, used in the thread names
+     */
+    public TaskScope(String name) {
+        this(null, name);
+    }
+
+    /**
+     * Creates a scope which is closed when its parent is closed.
+     *
+     * @param parent the parent scope, or null
+     * @param name the name of the scope, used in the thread names
+     */
+    public TaskScope(TaskScope parent, String name) {
+        this.parent = parent;
+        this.name = parent == null ? name : parent.name + "/" + name;
+        if (parent != null) {
+            parent.addChild(this);
+        }
+    }
+
+    /**
+     * Starts a task which runs once.
+     *
+     * @param taskName the name of the task
+     * @param body the code to run
+     * @return the task
+     * @throws IllegalStateException if the scope is closed
+     */
+    public Task fork(String taskName, Runnable body) {
+        return start(new Task(taskName, body, 0));
+    }
+
+    /**
+     * Starts a task which runs at a fixed rate until it is cancelled or the
+     * scope is closed.
+     *
+     * @param taskName the name of the task
+     * @param body the code to run
+     * @param periodMillis the period in milliseconds
+     * @return the task
+     * @throws IllegalStateException if the scope is closed
+     */
+    public Task repeat(String taskName, Runnable body, long periodMillis) {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("The period must be larger than 0");
+        }
+        return start(new Task(taskName, body, periodMillis));
+    }
+
+    /**
+     * Adds a task to the scope and starts it.
+     *
+     * @param task the task
+     * @return the task
+     */
+    private Task start(Task task) {
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("The task scope " + name + " is closed");
+            }
+            tasks.add(task);
+        }
+        task.thread.start();
+        return task;
+    }
+
+    /**
+     * Cancels all tasks of the scope and its children. No new tasks can be
+     * started.
+     */
+    public void close() {
+        List<Task> running;
+        List<TaskScope> childScopes;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            running = new ArrayList<>(tasks);
+            childScopes = new ArrayList<>(children);
+            children.clear();
+        }
+        for (TaskScope child : childScopes) {
+            child.close();
+        }
+        for (Task task : running) {
+            task.cancel();
+        }
+        if (parent != null) {
+            parent.removeChild(this);
+        }
+    }
+
+    /**
+     * Waits for all tasks of the scope to finish, after it is closed.
+     *
+     * @param timeoutMillis the max time to wait
+     * @return true if all tasks have finished
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitTermination(long timeoutMillis) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeoutMillis;
+        for (Task task : getTasks()) {
+            long left = end - System.currentTimeMillis();
+            if (left <= 0 || !task.join(left)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the name of the scope.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns true if the scope is closed.
+     *
+     * @return true if closed
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Returns the number of running tasks in the scope and its children.
+     *
+     * @return the number of running tasks
+     */
+    public int getActiveCount() {
+        int count;
+        List<TaskScope> childScopes;
+        synchronized (this) {
+            count = tasks.size();
+            childScopes = new ArrayList<>(children);
+        }
+        for (TaskScope child : childScopes) {
+            count += child.getActiveCount();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the running tasks of the scope.
+     *
+     * @return the tasks
+     */
+    private synchronized List<Task> getTasks() {
+        return new ArrayList<>(tasks);
+    }
+
+    /**
+     * Removes a finished task.
+     *
+     * @param task the task
+     */
+    private synchronized void removeTask(Task task) {
+        tasks.remove(task);
+    }
+
+    /**
+     * Adds a child scope, or closes it at once if this scope is closed.
+     *
+     * @param child the child scope
+     */
+    private void addChild(TaskScope child) {
+        synchronized (this) {
+            if (!closed) {
+                children.add(child);
+                return;
+            }
+        }
+        child.close();
+    }
+
+    /**
+     * Removes a closed child scope.
+     *
+     * @param child the child scope
+     */
+    private synchronized void removeChild(TaskScope child) {
+        children.remove(child);
+    }
+}
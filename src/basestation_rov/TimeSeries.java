@@ -0,0 +1,274 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package basestation_rov;
+
+import java.util.Arrays;
+
+/**
+ * A fixed size series of samples over time, kept in a ring buffer of
+ * primitive arrays. A sample has one or more values, like the latitude,
+ * longitude and depth of a position, which share the time. The samples are
+ * in time order, so the samples around a time are found by binary search.
+ * The oldest samples are overwritten when the buffer is full.
+ */
+public class TimeSeries {
+
+    private final long[] times;
+    private final double[] values;
+    private final int width;
+    private int next = 0;
+    private int size = 0;
+
+    /**
+     * The constructor of the TimeSeries class, for one value per sample.
+     *
+     * @param capacity the max number of samples kept
+     */
+    public TimeSeries(int capacity) {
+        this(capacity, 1);
+    }
+
+    /**
+     * The constructor of the TimeSeries class.
+     *
+     * @param capacity the max number of samples kept
+     * @param width the number of values per sample
+     */
+    public TimeSeries(int capacity, int width) {
+        if (capacity < 1 || width < 1) {
+            throw new IllegalArgumentException("The capacity and width must be at least 1");
+        }
+        this.times = new long[capacity];
+        this.values = new double[capacity * width];
+        this.width = width;
+    }
+
+    /**
+     * Adds a sample with one value. The samples must be added in time order.
+     *
+     * @param timeMillis the time of the sample in milliseconds
+     * @param value the value
+     */
+    public synchronized void add(long timeMillis, double value) {
+        times[next] = timeMillis;
+        values[next * width] = value;
+        for (int i = 1; i < width; i++) {
+            values[next * width + i] = Double.NaN;
+        }
+        advance();
+    }
+
+    /**
+     * Adds a sample. The samples must be added in time order.
+     *
+     * @param timeMillis the time of the sample in milliseconds
+     * @param sample the values of the sample, as many as the width
+     */
+    public synchronized void add(long timeMillis, double... sample) {
+        if (sample.length != width) {
+            throw new IllegalArgumentException("The sample has " + sample.length + " values, not " + width);
+        }
+        times[next] = timeMillis;
+        System.arraycopy(sample, 0, values, next * width, width);
+        advance();
+    }
+
+    /**
+     * Returns the number of samples kept.
+     *
+     * @return the number of samples
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns the time of a sample.
+     *
+     * @param index the index of the sample, 0 is the oldest
+     * @return the time in milliseconds
+     */
+    public synchronized long getTime(int index) {
+        return times[indexOf(index)];
+    }
+
+    /**
+     * Returns the first value of a sample.
+     *
+     * @param index the index of the sample, 0 is the oldest
+     * @return the value
+     */
+    public synchronized double getValue(int index) {
+        return getValue(index, 0);
+    }
+
+    /**
+     * Returns a value of a sample.
+     *
+     * @param index the index of the sample, 0 is the oldest
+     * @param column the value in the sample, 0 is the first
+     * @return the value
+     */
+    public synchronized double getValue(int index, int column) {
+        return values[indexOf(index) * width + column];
+    }
+
+    /**
+     * Returns the newest value.
+     *
+     * @return the first value of the newest sample, or NaN if there are no
+     * samples
+     */
+    public synchronized double getLast() {
+        return size == 0 ? Double.NaN : getValue(size - 1);
+    }
+
+    /**
+     * Returns the median of the newest values.
+     *
+     * @param count the max number of samples to use
+     * @return the median of the first values, or NaN if there are no samples
+     */
+    public synchronized double getMedian(int count) {
+        int n = Math.min(count, size);
+        if (n == 0) {
+            return Double.NaN;
+        }
+        double[] newest = new double[n];
+        for (int i = 0; i < n; i++) {
+            newest[i] = getValue(size - n + i);
+        }
+        Arrays.sort(newest);
+        return n % 2 == 1 ? newest[n / 2] : (newest[n / 2 - 1] + newest[n / 2]) / 2.0;
+    }
+
+    /**
+     * Returns the smallest value in a time window.
+     *
+     * @param fromMillis the start of the window
+     * @param toMillis the end of the window
+     * @param column the value in the sample, 0 is the first
+     * @return the smallest value, or NaN if there are no samples in the
+     * window
+     */
+    public synchronized double getMin(long fromMillis, long toMillis, int column) {
+        double min = Double.NaN;
+        for (int i = search(fromMillis - 1); i < size; i++) {
+            int index = indexOf(i);
+            if (times[index] > toMillis) {
+                break;
+            }
+            double value = values[index * width + column];
+            if (Double.isNaN(min) || value < min) {
+                min = value;
+            }
+        }
+        return min;
+    }
+
+    /**
+     * Returns the sample nearest a time.
+     *
+     * @param timeMillis the time in milliseconds
+     * @param maxGap the max time in milliseconds from the sample
+     * @return the index of the sample, 0 is the oldest, or -1 if there is no
+     * sample within the max gap
+     */
+    public synchronized int getNearest(long timeMillis, long maxGap) {
+        int after = search(timeMillis);
+        int before = after - 1;
+        int nearest;
+        if (before < 0) {
+            nearest = after;
+        } else if (after >= size) {
+            nearest = before;
+        } else {
+            nearest = timeMillis - times[indexOf(before)] <= times[indexOf(after)] - timeMillis ? before : after;
+        }
+        if (nearest < 0 || nearest >= size || Math.abs(timeMillis - times[indexOf(nearest)]) > maxGap) {
+            return -1;
+        }
+        return nearest;
+    }
+
+    /**
+     * Returns a value at a time, on the line between the samples around it.
+     * If the samples around it are more than twice the max gap apart, the
+     * value of the nearest sample within the max gap is used.
+     *
+     * @param timeMillis the time in milliseconds
+     * @param column the value in the sample, 0 is the first
+     * @param maxGap the max time in milliseconds from a sample
+     * @return the value, or NaN if there is no sample within the max gap
+     */
+    public synchronized double getInterpolated(long timeMillis, int column, long maxGap) {
+        int after = search(timeMillis);
+        int before = after - 1;
+        if (before >= 0 && after < size) {
+            long beforeTime = times[indexOf(before)];
+            long afterTime = times[indexOf(after)];
+            if (afterTime - beforeTime <= 2 * maxGap) {
+                double fraction = (timeMillis - beforeTime) / (double) (afterTime - beforeTime);
+                double from = getValue(before, column);
+                return from + fraction * (getValue(after, column) - from);
+            }
+        }
+        int nearest = getNearest(timeMillis, maxGap);
+        return nearest < 0 ? Double.NaN : getValue(nearest, column);
+    }
+
+    /**
+     * Finds the first sample after a time.
+     *
+     * @param timeMillis the time in milliseconds
+     * @return the index of the sample, 0 is the oldest, or the size if all
+     * samples are at or before the time
+     */
+    private int search(long timeMillis) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (times[indexOf(middle)] <= timeMillis) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Moves to the next slot after a sample is written.
+     */
+    private void advance() {
+        next = (next + 1) % times.length;
+        if (size < times.length) {
+            size++;
+        }
+    }
+
+    /**
+     * Converts an index from the oldest sample to an index in the arrays.
+     *
+     * @param index the index of the sample, 0 is the oldest
+     * @return the index in the arrays
+     */
+    private int indexOf(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        return (next - size + index + times.length) % times.length;
+    }
+}
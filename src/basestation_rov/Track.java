@@ -0,0 +1,162 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package basestation_rov;
+
+/**
+ * The track of the ROV: position, depth and heading, kept in a ring buffer
+ * indexed by time, so things which arrive later, like the photos from the
+ * camera, can be tagged with where the ROV was when they were taken. The
+ * samples are kept in a TimeSeries with four values each.
+ */
+public class Track {
+
+    /**
+     * A position of the ROV at one time.
+     */
+    public static final class Position {
+
+        private final long time;
+        private final double latitude;
+        private final double longitude;
+        private final double depth;
+        private final double heading;
+
+        /**
+         * The constructor of the Position class.
+         *
+         * @param time the time in milliseconds
+         * @param latitude the latitude in degrees
+         * @param longitude the longitude in degrees
+         * @param depth the depth in meters
+         * @param heading the heading in degrees
+         */
+        public Position(long time, double latitude, double longitude, double depth, double heading) {
+            this.time = time;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.depth = depth;
+            this.heading = heading;
+        }
+
+        /**
+         * Returns the time of the position.
+         *
+         * @return the time in milliseconds
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * Returns the latitude.
+         *
+         * @return the latitude in degrees
+         */
+        public double getLatitude() {
+            return latitude;
+        }
+
+        /**
+         * Returns the longitude.
+         *
+         * @return the longitude in degrees
+         */
+        public double getLongitude() {
+            return longitude;
+        }
+
+        /**
+         * Returns the depth.
+         *
+         * @return the depth in meters
+         */
+        public double getDepth() {
+            return depth;
+        }
+
+        /**
+         * Returns the heading.
+         *
+         * @return the heading in degrees
+         */
+        public double getHeading() {
+            return heading;
+        }
+    }
+
+    private static final int LATITUDE = 0;
+    private static final int LONGITUDE = 1;
+    private static final int DEPTH = 2;
+    private static final int HEADING = 3;
+
+    private final TimeSeries samples;
+    private final long maxGap;
+
+    /**
+     * The constructor of the Track class.
+     *
+     * @param capacity the max number of samples kept
+     * @param maxGap the max time in milliseconds from a sample a position is
+     * given for
+     */
+    public Track(int capacity, long maxGap) {
+        this.samples = new TimeSeries(capacity, 4);
+        this.maxGap = maxGap;
+    }
+
+    /**
+     * Adds a sample. The samples must be added in time order.
+     *
+     * @param timeMillis the time of the sample in milliseconds
+     * @param latitude the latitude in degrees
+     * @param longitude the longitude in degrees
+     * @param depth the depth in meters
+     * @param heading the heading in degrees
+     */
+    public void add(long timeMillis, double latitude, double longitude, double depth, double heading) {
+        samples.add(timeMillis, latitude, longitude, depth, heading);
+    }
+
+    /**
+     * Returns the position at the given time, between the two samples
+     * around it. The heading is the heading of the nearest sample.
+     *
+     * @param timeMillis the time in milliseconds
+     * @return the position, or null if there is no sample within the max
+     * gap of the time
+     */
+    public Position getPosition(long timeMillis) {
+        // Held across the lookups so they all see the same samples
+        synchronized (samples) {
+            int nearest = samples.getNearest(timeMillis, maxGap);
+            if (nearest < 0) {
+                return null;
+            }
+            return new Position(timeMillis,
+                    samples.getInterpolated(timeMillis, LATITUDE, maxGap),
+                    samples.getInterpolated(timeMillis, LONGITUDE, maxGap),
+                    samples.getInterpolated(timeMillis, DEPTH, maxGap),
+                    samples.getValue(nearest, HEADING));
+        }
+    }
+
+    /**
+     * Returns the number of samples kept.
+     *
+     * @return the number of samples
+     */
+    public int size() {
+        return samples.size();
+    }
+}
@@ -1,9 +1,9 @@
 /*
  * This code is for the bachelor thesis named "Towed-ROV".
  * The purpose is to build a ROV which will be towed behind a surface vessel
- * and act as a multi-sensor platform, were it shall be easy to place new 
+ * and act as a multi-sensor platform, were it shall be easy to place new
  * sensors. There will also be a video stream from the ROV.
- * 
+ *
  * The system consists of two Raspberry Pis in the ROV that is connected to
  * several Arduino micro controllers. These micro controllers are connected to
  * feedback from the actuators, the echo sounder and extra optional sensors.
@@ -13,143 +13,258 @@
  */
 package basestation_rov.calibrationClasses;
 
+import basestation_rov.TaskScope;
+import java.util.Observable;
+import java.util.Observer;
 import ntnusubsea.gui.*;
 
 /**
- * Responsible for calibrating the actuators. Not currently in use/finished.
+ * Responsible for calibrating the actuators. The calibration is a state
+ * machine: both steppers are sent to the min position, then to the max
+ * position, and then back to the middle. It moves on when the feedback from
+ * the ROV shows both steppers in position, or when the time for a position
+ * change has run out. The feedback is handled as it arrives from the ROV, and
+ * a timer checks the timeouts, so nothing waits in a loop. Every position
+ * received is kept in the trace of the result.
+ *
  * @author Towed ROV 2019 https://ntnuopen.ntnu.no/ntnu-xmlui/handle/11250/2564356
  */
-public class ActuatorCalibration implements Runnable {
+public class ActuatorCalibration implements Observer {
 
-    private final static String stepperEndPos = "100";
-    private final static String stepperMiddlePos = "50";
-    private final static String stepperStartPos = "1";
+    /**
+     * Is told when the calibration is done.
+     */
+    public interface Listener {
+
+        /**
+         * Called when the calibration is done, on the thread which handled
+         * the last feedback or timeout.
+         *
+         * @param result the result of the calibration
+         */
+        void calibrationDone(CalibrationResult result);
+    }
+
+    /**
+     * The states of the calibration.
+     */
+    private enum State {
+        IDLE, MOVING_TO_MIN, MOVING_TO_MAX, DONE
+    }
+
+    private final static int stepperStartPos = 1;
+    private final static int stepperEndPos = 254;
+    private final static int stepperMiddlePos = 127;
     private final static int accuracy = 4;
-    private int posChangeTime = 8000;  // millisecond
-    private int lastStepperPSPos = 0;
-    private int lastStepperSBPos = 0;
-    private boolean findingMinPS = true;
-    private boolean findingMinSB = true;
-    private boolean findingMaxPS = true;
-    private boolean findingMaxSB = true;
-    private long currentTime = 0;
-    private long lastTimePS = 0;
-    private long lastTimeSB = 0;
-    private long PSStepperMaxToMinTime = 0;
-    private long SBStepperMaxToMinTime = 0;
-
-    //Error List
-    //PS actuator
-    private boolean Error_PSActuatorNotInMinPos = false;
-    private boolean Error_PSActuatorNotInMaxPos = false;
-    private boolean Error_PSActuatorTooSlow = false;
-
-    //SB actuator
-    private boolean Error_SBActuatorNotInMinPos = false;
-    private boolean Error_SBActuatorNotInMaxPos = false;
-    private boolean Error_SBActuatorTooSlow = false;
-
-    private Data data;
-    private TCPClient client_ROV;
+    private final static int posChangeTime = 8000;  // millisecond
+    private final static long timerPeriod = 100;  // millisecond
+
+    private final Data data;
+    private final CommandChannel commandChannel;
+    private final Listener listener;
+    private final CalibrationResult result = new CalibrationResult(stepperEndPos - stepperStartPos);
+    private State state = State.IDLE;
+    private TaskScope timerScope;
+    private long startTime = 0;
+    private long stateTime = 0;
+    private boolean PSInPosition = false;
+    private boolean SBInPosition = false;
+    private long lastRecordTime = 0;
+    private int lastPSPos = -1;
+    private int lastSBPos = -1;
 
     /**
      * The constructor of the ActuatorCalibration class.
      *
      * @param data the shared resource Data class
-     * @param client_ROV The ROV TCP client
+     * @param commandChannel the command channel to the ROV RPi
+     * @param listener told when the calibration is done, or null
      */
-    public ActuatorCalibration(Data data, TCPClient client_ROV) {
+    public ActuatorCalibration(Data data, CommandChannel commandChannel, Listener listener) {
         this.data = data;
-        this.client_ROV = client_ROV;
+        this.commandChannel = commandChannel;
+        this.listener = listener;
+    }
+
+    /**
+     * Starts the calibration. Returns at once.
+     */
+    public synchronized void start() {
+        if (state != State.IDLE) {
+            return;
+        }
+        startTime = System.currentTimeMillis();
+        data.addObserver(this);
+        timerScope = new TaskScope("calibration");
+        timerScope.repeat("ActuatorCalibration", new Runnable() {
+            @Override
+            public void run() {
+                step(false);
+            }
+        }, timerPeriod);
+        enter(State.MOVING_TO_MIN);
     }
 
     /**
-     * Runs the ActuatorCalibration thread.
+     * Stops the calibration before it is done. The listener is not told.
+     */
+    public synchronized void cancel() {
+        if (state == State.MOVING_TO_MIN || state == State.MOVING_TO_MAX) {
+            stop();
+        }
+    }
+
+    /**
+     * Returns true while the calibration runs.
+     *
+     * @return true if running
+     */
+    public synchronized boolean isRunning() {
+        return state == State.MOVING_TO_MIN || state == State.MOVING_TO_MAX;
+    }
+
+    /**
+     * Called with every update of the Data, like new stepper feedback.
+     *
+     * @param o the Data
+     * @param arg not used
      */
     @Override
-    public void run() {
-        calibrateMinPos();
-        speedFromMinToMax();
+    public void update(Observable o, Object arg) {
+        step(true);
     }
 
     /**
-     * Calibrates the minimum position of the actuator.
+     * Moves to a new state and sends the steppers to its position.
+     *
+     * @param newState the new state
      */
-    private void calibrateMinPos() {
-        try {
-            client_ROV.sendCommand("<cmd_stepperPS:" + stepperStartPos + ">");
-            client_ROV.sendCommand("<cmd_stepperSB:" + stepperStartPos + ">");
-            boolean waitingForPSPosChange = true;
-            boolean waitingForSBPosChange = true;
-            lastTimePS = System.currentTimeMillis();
-            lastTimeSB = System.currentTimeMillis();
-            while (waitingForPSPosChange || waitingForSBPosChange) {
-                if (System.currentTimeMillis() - lastTimePS >= posChangeTime || !waitingForPSPosChange) {
-                    client_ROV.sendCommand("<cmd_stepperPS:" + data.getFb_stepperPSPos() + ">");
-                    System.out.println("Error: PS_Stepper did not reach min pos in time");
-                    waitingForPSPosChange = false;
-                    Error_PSActuatorNotInMinPos = true;
-                }
-                if (data.getFb_stepperPSPos() < 3) {
-                    System.out.println("PS stepper in position");
-                    waitingForPSPosChange = false;
-                }
-
-                if (System.currentTimeMillis() - lastTimeSB >= posChangeTime || !waitingForPSPosChange) {
-                    client_ROV.sendCommand("<cmd_stepperSB:" + data.getFb_stepperSBPos() + ">");
-                    System.out.println("Error: SB_Stepper did not reach min pos in time");
-                    waitingForSBPosChange = false;
-                    Error_PSActuatorNotInMinPos = true;
-                }
-                if (data.getFb_stepperSBPos() < 3) {
-                    System.out.println("SB stepper in position");
-                    waitingForSBPosChange = false;
-                }
+    private void enter(State newState) {
+        state = newState;
+        stateTime = System.currentTimeMillis();
+        PSInPosition = false;
+        SBInPosition = false;
+        int target = newState == State.MOVING_TO_MIN ? stepperStartPos : stepperEndPos;
+        System.out.println("Calibration: moving steppers to " + target);
+        commandChannel.submit("cmd_actuatorPS:" + target, CommandChannel.Priority.NORMAL);
+        commandChannel.submit("cmd_actuatorSB:" + target, CommandChannel.Priority.NORMAL);
+    }
+
+    /**
+     * Handles new feedback or a timer tick.
+     *
+     * @param feedback true if called with new feedback from the ROV
+     */
+    private synchronized void step(boolean feedback) {
+        if (state != State.MOVING_TO_MIN && state != State.MOVING_TO_MAX) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        int PSPos = data.getFb_stepperPSPos();
+        int SBPos = data.getFb_stepperSBPos();
+        // Data tells about every value, so only keep the changes
+        if (feedback && (PSPos != lastPSPos || SBPos != lastSBPos || now - lastRecordTime >= timerPeriod)) {
+            result.getPS().record(now - startTime, PSPos);
+            result.getSB().record(now - startTime, SBPos);
+            lastRecordTime = now;
+            lastPSPos = PSPos;
+            lastSBPos = SBPos;
+        }
+
+        boolean toMax = state == State.MOVING_TO_MAX;
+        int target = toMax ? stepperEndPos : stepperStartPos;
+        if (!PSInPosition && Math.abs(PSPos - target) <= accuracy) {
+            PSInPosition = true;
+            inPosition(result.getPS(), now);
+        }
+        if (!SBInPosition && Math.abs(SBPos - target) <= accuracy) {
+            SBInPosition = true;
+            inPosition(result.getSB(), now);
+        }
+
+        if (now - stateTime >= posChangeTime) {
+            CalibrationResult.Error error = toMax
+                    ? CalibrationResult.Error.NOT_IN_MAX_POS : CalibrationResult.Error.NOT_IN_MIN_POS;
+            // Stop the stepper where it is
+            if (!PSInPosition) {
+                System.out.println("Error: PS_Stepper did not reach " + target + " in time");
+                commandChannel.submit("cmd_actuatorPS:" + PSPos, CommandChannel.Priority.NORMAL);
+                result.getPS().addError(error);
+                PSInPosition = true;
             }
+            if (!SBInPosition) {
+                System.out.println("Error: SB_Stepper did not reach " + target + " in time");
+                commandChannel.submit("cmd_actuatorSB:" + SBPos, CommandChannel.Priority.NORMAL);
+                result.getSB().addError(error);
+                SBInPosition = true;
+            }
+        }
 
-        } catch (Exception e) {
+        if (PSInPosition && SBInPosition) {
+            if (toMax) {
+                finish();
+            } else {
+                enter(State.MOVING_TO_MAX);
+            }
         }
     }
 
     /**
-     * Finds the speed from minimum to maximum position.
+     * Handles a stepper which has reached the position of the state.
+     *
+     * @param stepper the result of the stepper
+     * @param now the current time
      */
-    private void speedFromMinToMax() {
-        try {
-
-            client_ROV.sendCommand("<cmd_stepperPS:" + stepperEndPos + ">");
-            client_ROV.sendCommand("<cmd_stepperSB:" + stepperEndPos + ">");
-
-            boolean waitingForPSPosChange = true;
-            boolean waitingForSBPosChange = true;
-            lastTimePS = System.currentTimeMillis();
-            lastTimeSB = System.currentTimeMillis();
-            while (waitingForPSPosChange || waitingForSBPosChange) {
-                if (System.currentTimeMillis() - lastTimePS >= posChangeTime || !waitingForPSPosChange) {
-                    client_ROV.sendCommand("<cmd_stepperPS:" + data.getFb_stepperPSPos() + ">");
-                    System.out.println("Error: PS_Stepper did not reach max pos in time");
-                    waitingForPSPosChange = false;
-                    Error_PSActuatorNotInMaxPos = true;
-                }
-                if (data.getFb_stepperPSPos() > 250) {
-                    data.setPSStepperMaxToMinTime(System.currentTimeMillis() - lastTimePS);
-                    System.out.println("PS stepper in position");
-                    waitingForPSPosChange = false;
-                }
-
-                if (System.currentTimeMillis() - lastTimeSB >= posChangeTime || !waitingForSBPosChange) {
-                    client_ROV.sendCommand("<cmd_stepperSB:" + data.getFb_stepperSBPos() + ">");
-                    System.out.println("Error: SB_Stepper did not reach max pos in time");
-                    waitingForSBPosChange = false;
-                    Error_SBActuatorNotInMaxPos = true;
-                }
-                if (data.getFb_stepperSBPos() > 250) {
-                    data.setSBStepperMaxToMinTime(System.currentTimeMillis() - lastTimeSB);
-                    System.out.println("SB stepper in position");
-                    waitingForPSPosChange = false;
-                }
-            }
-        } catch (Exception e) {
+    private void inPosition(CalibrationResult.StepperResult stepper, long now) {
+        System.out.println(stepper.getName() + " stepper in position");
+        if (state == State.MOVING_TO_MAX) {
+            stepper.setTravelTime(now - stateTime);
+        }
+    }
+
+    /**
+     * Checks the speed against the last calibration, stores the travel times
+     * and tells the listener.
+     */
+    private void finish() {
+        checkSpeed(result.getPS(), data.getPSStepperMaxToMinTime());
+        checkSpeed(result.getSB(), data.getSBStepperMaxToMinTime());
+        if (result.getPS().getTravelTime() > 0) {
+            data.setPSStepperMaxToMinTime(result.getPS().getTravelTime());
+        }
+        if (result.getSB().getTravelTime() > 0) {
+            data.setSBStepperMaxToMinTime(result.getSB().getTravelTime());
         }
+        commandChannel.submit("cmd_actuatorPS:" + stepperMiddlePos, CommandChannel.Priority.NORMAL);
+        commandChannel.submit("cmd_actuatorSB:" + stepperMiddlePos, CommandChannel.Priority.NORMAL);
+        System.out.println("Calibration done: " + result);
+        stop();
+        if (listener != null) {
+            listener.calibrationDone(result);
+        }
+    }
+
+    /**
+     * Flags a stepper which is slower than the last calibration allows.
+     *
+     * @param stepper the result of the stepper
+     * @param lastTravelTime the travel time of the last calibration, or 0
+     */
+    private void checkSpeed(CalibrationResult.StepperResult stepper, long lastTravelTime) {
+        long travelTime = stepper.getTravelTime();
+        if (travelTime > 0 && lastTravelTime > 0
+                && travelTime * 100 > lastTravelTime * (100 + data.getActuatorTolerableSpeedLoss())) {
+            System.out.println("Error: " + stepper.getName() + "_Stepper is too slow");
+            stepper.addError(CalibrationResult.Error.TOO_SLOW);
+        }
+    }
+
+    /**
+     * Stops listening for feedback and stops the timer.
+     */
+    private void stop() {
+        state = State.DONE;
+        data.deleteObserver(this);
+        timerScope.close();
     }
 }
@@ -0,0 +1,241 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package basestation_rov.calibrationClasses;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+
+/**
+ * The result of an actuator calibration: the position of each stepper over
+ * time, the measured travel time and speed, and the errors found.
+ */
+public class CalibrationResult {
+
+    /**
+     * An error found by the calibration.
+     */
+    public enum Error {
+        /**
+         * The stepper did not reach the min position in time.
+         */
+        NOT_IN_MIN_POS,
+        /**
+         * The stepper did not reach the max position in time.
+         */
+        NOT_IN_MAX_POS,
+        /**
+         * The stepper was slower than the last calibration allows.
+         */
+        TOO_SLOW
+    }
+
+    /**
+     * The result for one stepper.
+     */
+    public static final class StepperResult {
+
+        private final String name;
+        private final int travel;
+        private long[] times = new long[64];
+        private int[] positions = new int[64];
+        private int count = 0;
+        private long travelTime = -1;
+        private final EnumSet<Error> errors = EnumSet.noneOf(Error.class);
+
+        /**
+         * Creates the result of a stepper.
+         *
+         * @param name the name of the stepper, like "PS"
+         * @param travel the distance from the min to the max position
+         */
+        StepperResult(String name, int travel) {
+            this.name = name;
+            this.travel = travel;
+        }
+
+        /**
+         * Adds a position to the trace.
+         *
+         * @param timeMillis the time since the calibration started
+         * @param position the position of the stepper
+         */
+        void record(long timeMillis, int position) {
+            if (count == times.length) {
+                times = Arrays.copyOf(times, count * 2);
+                positions = Arrays.copyOf(positions, count * 2);
+            }
+            times[count] = timeMillis;
+            positions[count] = position;
+            count++;
+        }
+
+        /**
+         * Sets the time the stepper used from the min to the max position.
+         *
+         * @param travelTime the time in milliseconds
+         */
+        void setTravelTime(long travelTime) {
+            this.travelTime = travelTime;
+        }
+
+        /**
+         * Adds an error.
+         *
+         * @param error the error
+         */
+        void addError(Error error) {
+            errors.add(error);
+        }
+
+        /**
+         * Returns the name of the stepper.
+         *
+         * @return the name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the number of positions in the trace.
+         *
+         * @return the number of positions
+         */
+        public int getTraceLength() {
+            return count;
+        }
+
+        /**
+         * Returns the time of a position in the trace.
+         *
+         * @param index the index in the trace
+         * @return the time in milliseconds since the calibration started
+         */
+        public long getTraceTime(int index) {
+            return times[index];
+        }
+
+        /**
+         * Returns a position in the trace.
+         *
+         * @param index the index in the trace
+         * @return the position of the stepper
+         */
+        public int getTracePosition(int index) {
+            return positions[index];
+        }
+
+        /**
+         * Returns the time the stepper used from the min to the max position.
+         *
+         * @return the time in milliseconds, or -1 if it did not get there
+         */
+        public long getTravelTime() {
+            return travelTime;
+        }
+
+        /**
+         * Returns the speed of the stepper from the min to the max position.
+         *
+         * @return the speed in positions per second, or 0 if not measured
+         */
+        public double getSpeed() {
+            return travelTime > 0 ? travel * 1000.0 / travelTime : 0;
+        }
+
+        /**
+         * Returns the errors found.
+         *
+         * @return the errors, empty if none
+         */
+        public EnumSet<Error> getErrors() {
+            return EnumSet.copyOf(errors);
+        }
+
+        /**
+         * Returns true if no errors were found.
+         *
+         * @return true if ok
+         */
+        public boolean isOk() {
+            return errors.isEmpty();
+        }
+    }
+
+    private final StepperResult ps;
+    private final StepperResult sb;
+
+    /**
+     * The constructor of the CalibrationResult class.
+     *
+     * @param travel the distance from the min to the max position
+     */
+    CalibrationResult(int travel) {
+        this.ps = new StepperResult("PS", travel);
+        this.sb = new StepperResult("SB", travel);
+    }
+
+    /**
+     * Returns the result of the PS stepper.
+     *
+     * @return the PS result
+     */
+    public StepperResult getPS() {
+        return ps;
+    }
+
+    /**
+     * Returns the result of the SB stepper.
+     *
+     * @return the SB result
+     */
+    public StepperResult getSB() {
+        return sb;
+    }
+
+    /**
+     * Returns true if no errors were found on any stepper.
+     *
+     * @return true if ok
+     */
+    public boolean isOk() {
+        return ps.isOk() && sb.isOk();
+    }
+
+    /**
+     * Returns a summary of the result, for the log.
+     *
+     * @return the summary
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (StepperResult stepper : new StepperResult[]{ps, sb}) {
+            if (text.length() > 0) {
+                text.append(", ");
+            }
+            text.append(stepper.name).append(": ");
+            if (stepper.travelTime > 0) {
+                text.append(stepper.travelTime).append(" ms, ")
+                        .append(String.format("%.1f", stepper.getSpeed())).append(" pos/s");
+            } else {
+                text.append("not measured");
+            }
+            if (!stepper.errors.isEmpty()) {
+                text.append(" ").append(stepper.errors);
+            }
+        }
+        return text.toString();
+    }
+}
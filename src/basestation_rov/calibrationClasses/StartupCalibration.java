@@ -22,9 +22,8 @@ import ntnusubsea.gui.*;
  */
 public class StartupCalibration {
 
-    private static Thread actuatorCalibrationThread;
     Data data = null;
-    TCPClient client_ROV = null;
+    CommandChannel commandChannel = null;
     TCPClient client_Camera = null;
     long currentTime = 0;
     long lastTimePS = 0;
@@ -34,11 +33,11 @@ public class StartupCalibration {
      * The constructor of the StartupCalibration class.
      *
      * @param data the shared resource Data class
-     * @param client_ROV the ROV TCP client
+     * @param commandChannel the command channel to the ROV RPi
      */
-    public StartupCalibration(Data data, TCPClient client_ROV) {
+    public StartupCalibration(Data data, CommandChannel commandChannel) {
         this.data = data;
-        this.client_ROV = client_ROV;
+        this.commandChannel = commandChannel;
         this.client_Camera = client_Camera;
 
     }
@@ -66,9 +65,7 @@ public class StartupCalibration {
      * Calibrates the actuators
      */
     public void calibrateActuators() {
-        actuatorCalibrationThread = new Thread(new ActuatorCalibration(data, client_ROV));
-        actuatorCalibrationThread.start();
-        actuatorCalibrationThread.setName("actuatorCalibrationThread");
+        new ActuatorCalibration(data, commandChannel, null).start();
     }
 
 //    Test lights
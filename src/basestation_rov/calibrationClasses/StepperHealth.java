@@ -0,0 +1,708 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package basestation_rov.calibrationClasses;
+
+import basestation_rov.LatencyHistogram;
+import basestation_rov.Metrics;
+import basestation_rov.RunningStatistics;
+import basestation_rov.TimeSeries;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.EnumSet;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.atomic.AtomicLong;
+import ntnusubsea.gui.CommandChannel;
+import ntnusubsea.gui.Data;
+
+/**
+ * Follows the health of the PS and SB steppers, from every calibration and
+ * every move during a dive. A move starts when an actuator command is
+ * delivered to the ROV, and is followed with the position feedback:
+ * <ul>
+ * <li>the lag is the time until the stepper starts moving towards the
+ * target</li>
+ * <li>the response time is the time until it is in position</li>
+ * <li>the speed is measured on every run of at least MIN_SEGMENT positions in
+ * one direction</li>
+ * </ul>
+ * The statistics are updated with every sample and the samples are kept in
+ * time series. The speed is compared with a baseline, the median of the last
+ * calibrations, or the movement time without oil if there are none. A
+ * stepper gets a warning when it is slower than the baseline by more than
+ * the tolerable speed loss, when it starts late, or when a move stops or
+ * takes too long.
+ *
+ * The calibrations are kept in a file, so the baseline is there before the
+ * first calibration of a dive and a stepper which gets slower from day to
+ * day is found. Delete the file after a stepper is replaced.
+ */
+public class StepperHealth implements Observer, CommandChannel.DeliveryListener {
+
+    /**
+     * The health of a stepper.
+     */
+    public enum State {
+        /**
+         * Nothing is measured yet.
+         */
+        UNKNOWN,
+        /**
+         * The stepper works as expected.
+         */
+        OK,
+        /**
+         * The stepper is slow, late or has stopped.
+         */
+        WARNING
+    }
+
+    private static final int FULL_TRAVEL = 253;
+    private static final int ACCURACY = 4;
+    // The shortest run in one direction used for the speed
+    private static final int MIN_SEGMENT = 30;
+    // A run ends when the position has not changed for this long
+    private static final long SEGMENT_GAP = 300;
+    private static final long STALL_TIME = 1500;
+    private static final long MAX_LAG = 1000;
+    // The number of samples before the recent speed or lag can warn
+    private static final int MIN_SAMPLES = 3;
+    private static final double SMOOTHING = 0.2;
+    private static final int SERIES_CAPACITY = 2000;
+    private static final int BASELINE_RUNS = 10;
+    private static final String HISTORY_HEADER = "Time,PS travel time (ms),SB travel time (ms),PS errors,SB errors";
+
+    /**
+     * The health of one stepper.
+     */
+    public static final class Stepper {
+
+        private final String name;
+        private final long fullTravelTime;
+        private final int tolerableSpeedLoss;
+        private final RunningStatistics lag = new RunningStatistics(SMOOTHING);
+        private final RunningStatistics response = new RunningStatistics(SMOOTHING);
+        private final RunningStatistics speed = new RunningStatistics(SMOOTHING);
+        private final TimeSeries lagSeries = new TimeSeries(SERIES_CAPACITY);
+        private final TimeSeries responseSeries = new TimeSeries(SERIES_CAPACITY);
+        private final TimeSeries speedSeries = new TimeSeries(SERIES_CAPACITY);
+        private final TimeSeries calibrationSeries = new TimeSeries(SERIES_CAPACITY);
+        private final LatencyHistogram lagHistogram;
+        private final LatencyHistogram responseHistogram;
+        private final AtomicLong failedMoves;
+
+        private volatile State state = State.UNKNOWN;
+        private volatile String warning = "";
+        private String calibrationWarning = null;
+        private String failure = null;
+
+        private int lastPos = -1;
+        private long lastChange = 0;
+        private int target = -1;
+        private boolean moving = false;
+        private long moveStart = 0;
+        private int moveStartPos = 0;
+        private boolean lagMeasured = false;
+        private int segmentDirection = 0;
+        private long segmentStartTime = 0;
+        private int segmentStartPos = 0;
+        private long segmentEndTime = 0;
+        private int segmentEndPos = 0;
+
+        /**
+         * Creates the health of a stepper.
+         *
+         * @param name the name of the stepper, like "PS"
+         * @param fullTravelTime the time from max to min without oil
+         * @param tolerableSpeedLoss the speed loss allowed, in percent
+         * @param metrics the metrics to put the statistics in
+         */
+        Stepper(String name, long fullTravelTime, int tolerableSpeedLoss, Metrics metrics) {
+            this.name = name;
+            this.fullTravelTime = fullTravelTime;
+            this.tolerableSpeedLoss = tolerableSpeedLoss;
+            this.lagHistogram = metrics.histogram("stepper." + name + ".lag");
+            this.responseHistogram = metrics.histogram("stepper." + name + ".response");
+            this.failedMoves = metrics.counter("stepper." + name + ".failedMoves");
+            metrics.gauge("stepper." + name + ".speed", new Metrics.Gauge() {
+                @Override
+                public long getValue() {
+                    double value = speed.getRecentMean();
+                    return Double.isNaN(value) ? -1 : Math.round(value);
+                }
+            });
+            metrics.gauge("stepper." + name + ".baseline", new Metrics.Gauge() {
+                @Override
+                public long getValue() {
+                    return Math.round(getBaselineSpeed());
+                }
+            });
+        }
+
+        /**
+         * Handles a command delivered to the ROV.
+         *
+         * @param newTarget the position commanded
+         * @param now the current time
+         */
+        synchronized void commanded(int newTarget, long now) {
+            int oldTarget = target;
+            target = newTarget;
+            if (lastPos < 0) {
+                return;
+            }
+            if (moving && (newTarget - lastPos) * (oldTarget - lastPos) > 0) {
+                // Further in the same direction, still the same move
+                return;
+            }
+            boolean reversed = moving;
+            moving = false;
+            if (Math.abs(newTarget - lastPos) > ACCURACY) {
+                moving = true;
+                moveStart = now;
+                moveStartPos = lastPos;
+                lastChange = now;
+                // The lag of a reversal is only the braking
+                lagMeasured = reversed;
+            }
+        }
+
+        /**
+         * Handles the position feedback from the ROV.
+         *
+         * @param pos the position of the stepper
+         * @param now the current time
+         * @param connected false if commands can not be delivered
+         */
+        synchronized void feedback(int pos, long now, boolean connected) {
+            if (lastPos >= 0 && pos != lastPos) {
+                int direction = pos > lastPos ? 1 : -1;
+                if (direction != segmentDirection) {
+                    endSegment();
+                    segmentDirection = direction;
+                    segmentStartTime = now;
+                    segmentStartPos = pos;
+                }
+                segmentEndTime = now;
+                segmentEndPos = pos;
+                lastChange = now;
+                if (moving && !lagMeasured && (pos - moveStartPos) * (target - moveStartPos) > 0) {
+                    lagMeasured = true;
+                    record(lag, lagSeries, lagHistogram, now - moveStart, now);
+                }
+            } else if (segmentDirection != 0 && now - lastChange > SEGMENT_GAP) {
+                endSegment();
+            }
+            lastPos = pos;
+            if (!moving) {
+                return;
+            }
+            if (!connected) {
+                // The stepper can not be blamed for a lost link
+                moving = false;
+                endSegment();
+            } else if (Math.abs(pos - target) <= ACCURACY) {
+                moving = false;
+                failure = null;
+                endSegment();
+                record(response, responseSeries, responseHistogram, now - moveStart, now);
+            } else if (now - lastChange > STALL_TIME) {
+                fail("stopped at " + pos + " on the way to " + target);
+            } else if (now - moveStart > getMoveTimeLimit(Math.abs(target - moveStartPos))) {
+                fail("too slow to " + target + ", at " + pos + " after " + (now - moveStart) + " ms");
+            }
+        }
+
+        /**
+         * Handles the result of a calibration.
+         *
+         * @param result the result of the stepper
+         * @param now the current time
+         */
+        synchronized void calibrated(CalibrationResult.StepperResult result, long now) {
+            double baseline = getBaselineSpeed();
+            EnumSet<CalibrationResult.Error> errors = result.getErrors();
+            StringBuilder text = new StringBuilder();
+            if (errors.contains(CalibrationResult.Error.NOT_IN_MIN_POS)) {
+                text.append("did not reach min in calibration");
+            }
+            if (errors.contains(CalibrationResult.Error.NOT_IN_MAX_POS)) {
+                append(text, "did not reach max in calibration");
+            }
+            if (result.getTravelTime() > 0) {
+                calibrationSeries.add(now, result.getSpeed());
+                if (result.getSpeed() < getSpeedLimit(baseline)) {
+                    append(text, String.format("calibrated at %.1f pos/s, %.1f expected",
+                            result.getSpeed(), baseline));
+                }
+            }
+            calibrationWarning = text.length() > 0 ? text.toString() : null;
+            evaluate();
+        }
+
+        /**
+         * Adds a calibration from the history file.
+         *
+         * @param time the time of the calibration
+         * @param travelTime the time from min to max, or -1
+         */
+        synchronized void loadCalibration(long time, long travelTime) {
+            if (travelTime > 0) {
+                calibrationSeries.add(time, FULL_TRAVEL * 1000.0 / travelTime);
+            }
+        }
+
+        /**
+         * Adds a sample to the statistics.
+         *
+         * @param statistics the statistics
+         * @param series the time series
+         * @param histogram the histogram in the metrics
+         * @param millis the sample in milliseconds
+         * @param now the current time
+         */
+        private void record(RunningStatistics statistics, TimeSeries series,
+                LatencyHistogram histogram, long millis, long now) {
+            statistics.add(millis);
+            series.add(now, millis);
+            histogram.recordMicros(millis * 1000);
+            evaluate();
+        }
+
+        /**
+         * Ends the current run in one direction, and measures the speed if it
+         * was long enough.
+         */
+        private void endSegment() {
+            if (segmentDirection == 0) {
+                return;
+            }
+            segmentDirection = 0;
+            int distance = Math.abs(segmentEndPos - segmentStartPos);
+            long time = segmentEndTime - segmentStartTime;
+            if (distance >= MIN_SEGMENT && time > 0) {
+                double value = distance * 1000.0 / time;
+                speed.add(value);
+                speedSeries.add(segmentEndTime, value);
+                evaluate();
+            }
+        }
+
+        /**
+         * Gives up a move which did not reach its target.
+         *
+         * @param message what went wrong
+         */
+        private void fail(String message) {
+            moving = false;
+            endSegment();
+            failure = message;
+            failedMoves.incrementAndGet();
+            System.out.println("Error: " + name + "_Stepper " + message);
+            evaluate();
+        }
+
+        /**
+         * Decides the state of the stepper from the statistics.
+         */
+        private void evaluate() {
+            double baseline = getBaselineSpeed();
+            StringBuilder text = new StringBuilder();
+            if (speed.getCount() >= MIN_SAMPLES && speed.getRecentMean() < getSpeedLimit(baseline)) {
+                text.append(String.format("moves at %.1f pos/s, %.1f expected",
+                        speed.getRecentMean(), baseline));
+            }
+            if (lag.getCount() >= MIN_SAMPLES && lag.getRecentMean() > MAX_LAG) {
+                append(text, String.format("starts %.0f ms after the command", lag.getRecentMean()));
+            }
+            if (calibrationWarning != null) {
+                append(text, calibrationWarning);
+            }
+            if (failure != null) {
+                append(text, failure);
+            }
+            State newState;
+            if (text.length() > 0) {
+                newState = State.WARNING;
+            } else if (speed.getCount() > 0 || response.getCount() > 0 || calibrationSeries.size() > 0) {
+                newState = State.OK;
+            } else {
+                newState = State.UNKNOWN;
+            }
+            String newWarning = text.toString();
+            if (newState != state || !newWarning.equals(warning)) {
+                if (newState == State.WARNING) {
+                    System.out.println("Warning: " + name + "_Stepper " + newWarning);
+                } else if (state == State.WARNING) {
+                    System.out.println(name + "_Stepper is healthy again");
+                }
+            }
+            warning = newWarning;
+            state = newState;
+        }
+
+        /**
+         * Returns the slowest speed allowed.
+         *
+         * @param baseline the expected speed
+         * @return the speed in positions per second
+         */
+        private double getSpeedLimit(double baseline) {
+            return baseline * (100 - tolerableSpeedLoss) / 100.0;
+        }
+
+        /**
+         * Returns the longest time allowed for a move, twice the time at the
+         * baseline speed plus the lag.
+         *
+         * @param distance the distance of the move
+         * @return the time in milliseconds
+         */
+        private long getMoveTimeLimit(int distance) {
+            return MAX_LAG + Math.round(2000.0 * distance / getBaselineSpeed());
+        }
+
+        /**
+         * Appends a warning to the text.
+         *
+         * @param text the text
+         * @param message the warning
+         */
+        private static void append(StringBuilder text, String message) {
+            if (text.length() > 0) {
+                text.append(", ");
+            }
+            text.append(message);
+        }
+
+        /**
+         * Returns the name of the stepper.
+         *
+         * @return the name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the health of the stepper.
+         *
+         * @return the state
+         */
+        public State getState() {
+            return state;
+        }
+
+        /**
+         * Returns what is wrong with the stepper.
+         *
+         * @return the warning, empty if none
+         */
+        public String getWarning() {
+            return warning;
+        }
+
+        /**
+         * Returns the expected speed: the median of the last calibrations, or
+         * the speed without oil if there are none.
+         *
+         * @return the speed in positions per second
+         */
+        public double getBaselineSpeed() {
+            double median = calibrationSeries.getMedian(BASELINE_RUNS);
+            return Double.isNaN(median) ? FULL_TRAVEL * 1000.0 / fullTravelTime : median;
+        }
+
+        /**
+         * Returns the statistics of the lag, in milliseconds.
+         *
+         * @return the lag statistics
+         */
+        public RunningStatistics getLag() {
+            return lag;
+        }
+
+        /**
+         * Returns the statistics of the response time, in milliseconds.
+         *
+         * @return the response time statistics
+         */
+        public RunningStatistics getResponse() {
+            return response;
+        }
+
+        /**
+         * Returns the statistics of the speed, in positions per second.
+         *
+         * @return the speed statistics
+         */
+        public RunningStatistics getSpeed() {
+            return speed;
+        }
+
+        /**
+         * Returns the lag of every move.
+         *
+         * @return the lags in milliseconds
+         */
+        public TimeSeries getLagSeries() {
+            return lagSeries;
+        }
+
+        /**
+         * Returns the response time of every move.
+         *
+         * @return the response times in milliseconds
+         */
+        public TimeSeries getResponseSeries() {
+            return responseSeries;
+        }
+
+        /**
+         * Returns the speed of every run.
+         *
+         * @return the speeds in positions per second
+         */
+        public TimeSeries getSpeedSeries() {
+            return speedSeries;
+        }
+
+        /**
+         * Returns the speed of every calibration, also from the history file.
+         *
+         * @return the speeds in positions per second
+         */
+        public TimeSeries getCalibrationSeries() {
+            return calibrationSeries;
+        }
+
+        /**
+         * Returns the number of moves which stopped or took too long.
+         *
+         * @return the number of failed moves
+         */
+        public long getFailedMoves() {
+            return failedMoves.get();
+        }
+
+        /**
+         * Returns a summary of the statistics, for the log and the GUI.
+         *
+         * @return the summary
+         */
+        public String getSummary() {
+            StringBuilder text = new StringBuilder(name).append(": ");
+            if (speed.getCount() > 0) {
+                text.append(String.format("%.1f pos/s", speed.getRecentMean()));
+            } else {
+                text.append("speed not measured");
+            }
+            text.append(String.format(" (baseline %.1f)", getBaselineSpeed()));
+            if (lag.getCount() > 0) {
+                text.append(String.format(", lag %.0f ms", lag.getMean()));
+            }
+            if (response.getCount() > 0) {
+                text.append(String.format(", response %.0f ms", response.getMean()));
+            }
+            text.append(", ").append(getFailedMoves()).append(" failed moves");
+            return text.toString();
+        }
+    }
+
+    private final Data data;
+    private final CommandChannel commandChannel;
+    private final File historyFile;
+    private final Stepper ps;
+    private final Stepper sb;
+    private final SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+    /**
+     * The constructor of the StepperHealth class. Reads the calibrations
+     * from the history file. Add it as an observer of the Data to follow the
+     * feedback.
+     *
+     * @param data the shared resource Data class
+     * @param commandChannel the command channel to the ROV RPi
+     * @param historyFile the file the calibrations are kept in
+     */
+    public StepperHealth(Data data, CommandChannel commandChannel, File historyFile) {
+        this.data = data;
+        this.commandChannel = commandChannel;
+        this.historyFile = historyFile;
+        this.ps = new Stepper("PS", data.getActuatorPSInitialMovementTime(),
+                data.getActuatorTolerableSpeedLoss(), data.getMetrics());
+        this.sb = new Stepper("SB", data.getActuatorSBInitialMovementTime(),
+                data.getActuatorTolerableSpeedLoss(), data.getMetrics());
+        readHistory();
+        commandChannel.addDeliveryListener(this);
+    }
+
+    /**
+     * Returns the health of the PS stepper.
+     *
+     * @return the PS stepper
+     */
+    public Stepper getPS() {
+        return ps;
+    }
+
+    /**
+     * Returns the health of the SB stepper.
+     *
+     * @return the SB stepper
+     */
+    public Stepper getSB() {
+        return sb;
+    }
+
+    /**
+     * Returns true if a stepper has a warning.
+     *
+     * @return true if a stepper has a warning
+     */
+    public boolean hasWarning() {
+        return ps.getState() == State.WARNING || sb.getState() == State.WARNING;
+    }
+
+    /**
+     * Called on the IoReactor thread with every command delivered to the
+     * ROV. Actuator commands start a move.
+     *
+     * @param cmd the command
+     */
+    @Override
+    public void commandDelivered(String cmd) {
+        Stepper stepper;
+        if (cmd.startsWith("cmd_actuatorPS:")) {
+            stepper = ps;
+        } else if (cmd.startsWith("cmd_actuatorSB:")) {
+            stepper = sb;
+        } else {
+            return;
+        }
+        try {
+            int target = Integer.parseInt(cmd.substring(cmd.indexOf(':') + 1).trim());
+            stepper.commanded(target, System.currentTimeMillis());
+        } catch (NumberFormatException ex) {
+            System.out.println("Not an actuator position: " + cmd);
+        }
+    }
+
+    /**
+     * Called with every update of the Data, like new stepper feedback.
+     *
+     * @param o the Data
+     * @param arg not used
+     */
+    @Override
+    public void update(Observable o, Object arg) {
+        long now = System.currentTimeMillis();
+        boolean connected = commandChannel.isConnected();
+        ps.feedback(data.getFb_stepperPSPos(), now, connected);
+        sb.feedback(data.getFb_stepperSBPos(), now, connected);
+    }
+
+    /**
+     * Adds the result of a calibration, and appends it to the history file.
+     *
+     * @param result the result of the calibration
+     */
+    public synchronized void addCalibration(CalibrationResult result) {
+        long now = System.currentTimeMillis();
+        ps.calibrated(result.getPS(), now);
+        sb.calibrated(result.getSB(), now);
+        boolean header = !historyFile.exists();
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(historyFile, true))) {
+            if (header) {
+                writer.write(HISTORY_HEADER);
+                writer.newLine();
+            }
+            writer.write(formatter.format(now) + ","
+                    + result.getPS().getTravelTime() + ","
+                    + result.getSB().getTravelTime() + ","
+                    + toText(result.getPS().getErrors()) + ","
+                    + toText(result.getSB().getErrors()));
+            writer.newLine();
+        } catch (IOException ex) {
+            System.out.println("Could not write the stepper history: " + ex.getMessage());
+        }
+        System.out.println("Stepper health: " + ps.getSummary() + "; " + sb.getSummary());
+    }
+
+    /**
+     * Reads the calibrations from the history file, and sets the travel
+     * times of the last calibration in the Data if not measured yet.
+     */
+    private synchronized void readHistory() {
+        if (!historyFile.exists()) {
+            return;
+        }
+        long lastPSTime = -1;
+        long lastSBTime = -1;
+        try (BufferedReader reader = new BufferedReader(new FileReader(historyFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.equals(HISTORY_HEADER)) {
+                    continue;
+                }
+                String[] fields = line.split(",");
+                try {
+                    long time = formatter.parse(fields[0]).getTime();
+                    long psTime = Long.parseLong(fields[1]);
+                    long sbTime = Long.parseLong(fields[2]);
+                    ps.loadCalibration(time, psTime);
+                    sb.loadCalibration(time, sbTime);
+                    lastPSTime = psTime > 0 ? psTime : lastPSTime;
+                    lastSBTime = sbTime > 0 ? sbTime : lastSBTime;
+                } catch (ParseException | NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+                    System.out.println("Bad line in the stepper history: " + line);
+                }
+            }
+        } catch (IOException ex) {
+            System.out.println("Could not read the stepper history: " + ex.getMessage());
+        }
+        if (lastPSTime > 0 && data.getPSStepperMaxToMinTime() <= 0) {
+            data.setPSStepperMaxToMinTime(lastPSTime);
+        }
+        if (lastSBTime > 0 && data.getSBStepperMaxToMinTime() <= 0) {
+            data.setSBStepperMaxToMinTime(lastSBTime);
+        }
+    }
+
+    /**
+     * Converts the errors to the text in the history file.
+     *
+     * @param errors the errors
+     * @return the errors separated by spaces, or "OK"
+     */
+    private static String toText(EnumSet<CalibrationResult.Error> errors) {
+        if (errors.isEmpty()) {
+            return "OK";
+        }
+        StringBuilder text = new StringBuilder();
+        for (CalibrationResult.Error error : errors) {
+            if (text.length() > 0) {
+                text.append(' ');
+            }
+            text.append(error.name());
+        }
+        return text.toString();
+    }
+}
@@ -16,9 +16,8 @@ package InputController;
 import com.exlumina.j360.Controller;
 import com.exlumina.j360.ValueListener;
 import com.exlumina.j360.ButtonListener;
-import java.io.IOException;
+import ntnusubsea.gui.CommandChannel;
 import ntnusubsea.gui.Data;
-import ntnusubsea.gui.TCPClient;
 
 /**
  * This class is responsible for handling the inputs from the Xbox controller.
@@ -35,28 +34,23 @@ public class InputController implements Runnable {
 
     private static int lastAngle = 0;
     private static float lastVal = 0;
-    private int oldPS = 0;
-    private int oldSB = 0;
 
-    private String ipAddress = "";
-    private int sendPort = 0;
-    private Data data;
-    private TCPClient client_ROV;
+    private final JoystickControl control;
 
     /**
      * The constructor of the InputController class.
      *
      * @param data the Data object
-     * @param client_ROV The ROV TCP client
+     * @param commandChannel the command channel to the ROV RPi
      */
-    public InputController(Data data, TCPClient client_ROV) {
-        this.data = data;
-        this.client_ROV = client_ROV;
+    public InputController(Data data, CommandChannel commandChannel) {
+        this.control = new JoystickControl(data, commandChannel);
     }
 
     /**
-     * Runs the InputController thread. Sends the input values to the ROV TCP
-     * client to run the actuators.
+     * Runs the InputController thread. Registers the stick listeners and runs
+     * the control ticks, which send the stick values to the ROV, until
+     * interrupted.
      *
      */
     @Override
@@ -72,47 +66,34 @@ public class InputController implements Runnable {
         //c1.leftThumbX.addValueChangedListener(Lx);
         //c1.rightThumbY.addValueChangedListener(Ry);
         c1.rightThumbX.addValueChangedListener(Rx);
-        
 
+        long next = System.currentTimeMillis();
         for (;;) {
             try {
-                if (data.isControllerEnabled() && data.isManualMode()) {
-//                    int ps = 0;
-//                    int sb = 0;
-//                    if (btnLy <= 127)
-//                    {
-//                        ps = btnLy + btnRx;
-//                        sb = btnLy - btnRx;
-//                    }
-//                    if (btnLy > 127)
-//                    {
-//                        ps = btnLy - (btnRx);
-//                        sb = btnLy;
-//                    }
-
-                    int ps = btnLy;
-                    int sb = btnLy;
-                    if (ps != oldPS) {
-                        this.client_ROV.sendCommand("cmd_actuatorPS:" + String.valueOf(ps));
-                        oldPS = ps;
-                    }
-                    if (sb != oldSB) {
-                        this.client_ROV.sendCommand("cmd_actuatorSB:" + String.valueOf(sb));
-                        oldSB = sb;
-                    }
-
-                }
-                Thread.sleep(10);
-            } catch (InterruptedException ex) {
-                System.out.println("InterruptedException: " + ex.getMessage());
-            } catch (IOException ex) {
-                System.out.println("IOException: " + ex.getMessage());
+                control.run();
             } catch (Exception ex) {
                 System.out.println("Exception: " + ex.getMessage());
             }
+            long now = System.currentTimeMillis();
+            next = Math.max(next + JoystickControl.CONTROL_PERIOD, now);
+            try {
+                Thread.sleep(next - now);
+            } catch (InterruptedException ex) {
+                // Stopped
+                return;
+            }
         }
     }
 
+    /**
+     * Returns the control stage the stick values are sent through.
+     *
+     * @return the control stage
+     */
+    public JoystickControl getControl() {
+        return control;
+    }
+
     /**
      * Calculates the angle by the given x and y point.
      *
@@ -148,6 +129,7 @@ public class InputController implements Runnable {
     public void setBtnLy(int btnLy) {
         this.btnLy = btnLy;
         this.btnLyGUI = (double) (this.btnLy / 100.0);
+        control.setThrottle(btnLy);
         //System.out.println("L_Y: " + btnLy);
     }
 
@@ -0,0 +1,141 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package InputController;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import ntnusubsea.gui.CommandChannel;
+import ntnusubsea.gui.Data;
+
+/**
+ * The control stage between the Xbox controller and the actuators. The stick
+ * listeners only store the latest value, and every control tick the value is
+ * put through a deadband and a slew limit, and the PS and SB commands are
+ * queued on the command channel as control commands. Values which arrive
+ * between two ticks replace each other, and nothing is sent if the output has
+ * not changed. Queuing never blocks, and the channel has its own socket, so
+ * the time from the stick to the wings is at most one tick plus the network,
+ * and does not depend on the telemetry polls.
+ */
+public class JoystickControl implements Runnable {
+
+    /**
+     * The time between two control ticks in milliseconds.
+     */
+    public static final long CONTROL_PERIOD = 20;
+
+    /**
+     * The actuator value with the stick centered.
+     */
+    public static final int NEUTRAL = 127;
+
+    private static final int MIN_OUTPUT = 1;
+    private static final int MAX_OUTPUT = 254;
+    // Stick values this close to the center are centered
+    private static final int THROTTLE_DEADBAND = 12;
+    // The max change of the output per tick, full travel takes about 160 ms
+    private static final int MAX_STEP = 16;
+
+    private final Data data;
+    private final CommandChannel commandChannel;
+
+    private volatile int throttle = NEUTRAL;
+    private volatile long throttleTime = 0;
+    private final AtomicInteger updates = new AtomicInteger();
+
+    private int output = NEUTRAL;
+    private int sentPS = -1;
+    private int sentSB = -1;
+    private long sentThrottleTime = 0;
+
+    /**
+     * The constructor of the JoystickControl class.
+     *
+     * @param data the Data object
+     * @param commandChannel the command channel to the ROV RPi
+     */
+    public JoystickControl(Data data, CommandChannel commandChannel) {
+        this.data = data;
+        this.commandChannel = commandChannel;
+    }
+
+    /**
+     * Sets the latest value of the throttle stick. Called by the stick
+     * listener, never blocks.
+     *
+     * @param value the value from 1 to 254, 127 is centered
+     */
+    public void setThrottle(int value) {
+        throttle = value;
+        throttleTime = System.nanoTime();
+        updates.incrementAndGet();
+    }
+
+    /**
+     * Returns the throttle after the deadband.
+     *
+     * @return the throttle from 1 to 254
+     */
+    public int getThrottle() {
+        int value = throttle;
+        if (Math.abs(value - NEUTRAL) < THROTTLE_DEADBAND) {
+            return NEUTRAL;
+        }
+        return Math.max(MIN_OUTPUT, Math.min(MAX_OUTPUT, value));
+    }
+
+    /**
+     * Returns the output after the slew limit, as last sent to the ROV.
+     *
+     * @return the output from 1 to 254
+     */
+    public int getOutput() {
+        return output;
+    }
+
+    /**
+     * Runs one control tick. Moves the output towards the stick and sends it
+     * if it has changed.
+     */
+    @Override
+    public void run() {
+        int events = updates.getAndSet(0);
+        if (events > 1) {
+            data.getMetrics().counter("joystick.coalesced").addAndGet(events - 1);
+        }
+        if (!data.isControllerEnabled() || !data.isManualMode() || !commandChannel.isConnected()) {
+            // Send the output again when the controller is back in use
+            sentPS = -1;
+            sentSB = -1;
+            return;
+        }
+
+        int target = getThrottle();
+        output += Math.max(-MAX_STEP, Math.min(MAX_STEP, target - output));
+        int ps = output;
+        int sb = output;
+        if (ps == sentPS && sb == sentSB) {
+            return;
+        }
+        commandChannel.submit("cmd_actuatorPS:" + ps, CommandChannel.Priority.CONTROL);
+        commandChannel.submit("cmd_actuatorSB:" + sb, CommandChannel.Priority.CONTROL);
+        sentPS = ps;
+        sentSB = sb;
+        long time = throttleTime;
+        if (time != 0 && time != sentThrottleTime) {
+            // From the stick moved until the first command is queued
+            data.getMetrics().histogram("joystick.toCommand").record(System.nanoTime() - time);
+            sentThrottleTime = time;
+        }
+    }
+}
@@ -41,11 +41,8 @@ class LeftThumbYListener implements ValueListener {
     @Override
     public void value(int newValue) {
         newValue = map(newValue, -32768, 32768, 254, 1);
-        if (newValue > 115 && newValue < 139) {
-            newValue = 127;
-        }
+        // The deadband is applied by the JoystickControl
         this.ic.setBtnLy(newValue);
-        System.out.printf("Ly: " + "%6d\n", newValue);
     }
 
     /**
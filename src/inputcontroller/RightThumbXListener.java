@@ -41,11 +41,8 @@ class RightThumbXListener implements ValueListener {
     @Override
     public void value(int newValue) {
         newValue = map(newValue, -32768, 32768, 126, -126);
-        if (newValue > -17 && newValue < 12) {
-            newValue = 0;
-        }
+        // Only used for the stick angle, no deadband is applied
         this.ic.setBtnRx(newValue);
-        System.out.printf("Rx: " + "%6d\n", newValue);
     }
 
     /**
@@ -0,0 +1,249 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package ntnusubsea.gui;
+
+import basestation_rov.LinkStatistics;
+import basestation_rov.Metrics;
+import basestation_rov.calibrationClasses.StepperHealth;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Evaluates the alarm rules on a fixed tick of its own, so an alarm is raised
+ * at most the debounce time plus one tick after the telemetry shows it, no
+ * matter how busy the GUI is. Every tick a snapshot of the telemetry is taken
+ * and all rules are evaluated against it, in priority order. The state of
+ * every alarm is kept in completeAlarmListDh in the Data.
+ *
+ * While an emergency alarm is raised the ROV is kept in emergency mode, and
+ * the listeners are told each time the emergency mode starts, also after the
+ * operator has left it while the alarm is still raised. The emergency tone
+ * is played while the ROV is in emergency mode, also when it was started
+ * with the emergency button, and the warning tone once for every warning
+ * raised.
+ */
+public class AlarmEngine implements Runnable {
+
+    /**
+     * The time between two ticks in milliseconds.
+     */
+    public static final long TICK_PERIOD = 100;
+
+    private static final double MIN_VOLTAGE = 28.0;
+    private static final double VOLTAGE_HYSTERESIS = 0.5;
+    // Below this the voltage is not measured yet
+    private static final double NO_VOLTAGE = 25.0;
+
+    /**
+     * Is told about the alarms. Called on the thread of the engine, must not
+     * block.
+     */
+    public interface Listener {
+
+        /**
+         * Called when an alarm is raised or cleared.
+         *
+         * @param rule the rule of the alarm
+         */
+        void alarmChanged(AlarmRule rule);
+
+        /**
+         * Called when the engine puts the ROV in emergency mode.
+         *
+         * @param cause the emergency alarm which is raised
+         */
+        void emergencyStarted(AlarmRule cause);
+    }
+
+    private final Data data;
+    private final LinkMonitor linkMonitor;
+    private final StepperHealth stepperHealth;
+    private final Sounder sounder;
+    private final List<AlarmRule> rules = new CopyOnWriteArrayList<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private boolean sounding = false;
+
+    /**
+     * The constructor of the AlarmEngine class. Adds the rules for leak, I2C
+     * error, low voltage, lost link and stepper health.
+     *
+     * @param data the shared resource Data class
+     * @param linkMonitor the monitor of the link to the ROV RPi
+     * @param stepperHealth the health of the steppers
+     * @param sounder the alarm sounder
+     */
+    public AlarmEngine(Data data, LinkMonitor linkMonitor, StepperHealth stepperHealth, Sounder sounder) {
+        this.data = data;
+        this.linkMonitor = linkMonitor;
+        this.stepperHealth = stepperHealth;
+        this.sounder = sounder;
+        addRule(new AlarmRule("Leak", AlarmRule.Priority.EMERGENCY, new AlarmRule.Signal() {
+            @Override
+            public double read(TelemetrySnapshot snapshot) {
+                return snapshot.isLeak() ? 1 : 0;
+            }
+        }, 1, 0, 200));
+        addRule(new AlarmRule("I2C error", AlarmRule.Priority.EMERGENCY, new AlarmRule.Signal() {
+            @Override
+            public double read(TelemetrySnapshot snapshot) {
+                return snapshot.isI2cError() ? 1 : 0;
+            }
+        }, 1, 0, 500));
+        addRule(new AlarmRule("Low voltage", AlarmRule.Priority.EMERGENCY, new AlarmRule.Signal() {
+            @Override
+            public double read(TelemetrySnapshot snapshot) {
+                double voltage = snapshot.getVoltage();
+                return voltage < NO_VOLTAGE ? Double.NaN : voltage;
+            }
+        }, MIN_VOLTAGE, MIN_VOLTAGE + VOLTAGE_HYSTERESIS, 2000));
+        // The link state already has hysteresis, DOWN only after several
+        // lost probes in a row
+        addRule(new AlarmRule("Lost connection", AlarmRule.Priority.EMERGENCY, new AlarmRule.Signal() {
+            @Override
+            public double read(TelemetrySnapshot snapshot) {
+                LinkStatistics.State state = snapshot.getLinkState();
+                if (state == LinkStatistics.State.UNKNOWN) {
+                    return Double.NaN;
+                }
+                return state == LinkStatistics.State.DOWN ? 1 : 0;
+            }
+        }, 1, 0, 0));
+        addRule(new AlarmRule("Stepper health", AlarmRule.Priority.WARNING, new AlarmRule.Signal() {
+            @Override
+            public double read(TelemetrySnapshot snapshot) {
+                return snapshot.isStepperWarning() ? 1 : 0;
+            }
+        }, 1, 0, 0));
+        data.getMetrics().gauge("alarms.active", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getActiveAlarms().size();
+            }
+        });
+    }
+
+    /**
+     * Adds a rule. The rules are kept in priority order.
+     *
+     * @param rule the rule
+     */
+    public final synchronized void addRule(AlarmRule rule) {
+        List<AlarmRule> sorted = new ArrayList<>(rules);
+        sorted.add(rule);
+        Collections.sort(sorted, new Comparator<AlarmRule>() {
+            @Override
+            public int compare(AlarmRule a, AlarmRule b) {
+                return a.getPriority().compareTo(b.getPriority());
+            }
+        });
+        rules.clear();
+        rules.addAll(sorted);
+        data.completeAlarmListDh.put(rule.getName(), false);
+    }
+
+    /**
+     * Adds a listener which is told about the alarms.
+     *
+     * @param listener the listener
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Returns the rules in priority order.
+     *
+     * @return the rules
+     */
+    public List<AlarmRule> getRules() {
+        return Collections.unmodifiableList(rules);
+    }
+
+    /**
+     * Returns the alarms which are raised, the most important first.
+     *
+     * @return the raised alarms
+     */
+    public List<AlarmRule> getActiveAlarms() {
+        List<AlarmRule> active = new ArrayList<>();
+        for (AlarmRule rule : rules) {
+            if (rule.isActive()) {
+                active.add(rule);
+            }
+        }
+        return active;
+    }
+
+    /**
+     * Runs one tick. Evaluates all rules against a new snapshot, keeps the
+     * ROV in emergency mode while an emergency alarm is raised, and starts
+     * and stops the alarm tones.
+     */
+    @Override
+    public synchronized void run() {
+        long start = System.nanoTime();
+        TelemetrySnapshot snapshot = takeSnapshot();
+        AlarmRule emergency = null;
+        for (AlarmRule rule : rules) {
+            if (rule.evaluate(snapshot)) {
+                data.completeAlarmListDh.put(rule.getName(), rule.isActive());
+                if (rule.isActive()) {
+                    System.out.println("Alarm: " + rule.getName() + " (" + rule.getValue() + ")");
+                    data.getMetrics().counter("alarms.raised").incrementAndGet();
+                    if (rule.getPriority() == AlarmRule.Priority.WARNING) {
+                        sounder.play(Sounder.Tone.WARNING, false);
+                    }
+                } else {
+                    System.out.println("Alarm cleared: " + rule.getName());
+                }
+                for (Listener listener : listeners) {
+                    listener.alarmChanged(rule);
+                }
+            }
+            if (emergency == null && rule.isActive() && rule.getPriority() == AlarmRule.Priority.EMERGENCY) {
+                emergency = rule;
+            }
+        }
+        if (emergency != null && !data.isEmergencyMode()) {
+            data.setEmergencyMode(true);
+            for (Listener listener : listeners) {
+                listener.emergencyStarted(emergency);
+            }
+        }
+        if (data.isEmergencyMode() != sounding) {
+            sounding = data.isEmergencyMode();
+            if (sounding) {
+                sounder.play(Sounder.Tone.EMERGENCY, true);
+            } else {
+                sounder.stop();
+            }
+        }
+        data.getMetrics().histogram("alarms.tick").record(System.nanoTime() - start);
+    }
+
+    /**
+     * Copies the values the rules use.
+     *
+     * @return the snapshot
+     */
+    private TelemetrySnapshot takeSnapshot() {
+        LinkStatistics.State linkState = linkMonitor.isRunning()
+                ? linkMonitor.getStatistics().getState() : LinkStatistics.State.UNKNOWN;
+        return new TelemetrySnapshot(System.currentTimeMillis(), data.getLeakStatus(),
+                data.isI2cError(), data.getVoltage(), linkState, stepperHealth.hasWarning());
+    }
+}
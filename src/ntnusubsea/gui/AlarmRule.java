@@ -0,0 +1,171 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package ntnusubsea.gui;
+
+/**
+ * An alarm on one value of the telemetry, evaluated by the AlarmEngine. The
+ * alarm is raised when the value passes the raise level, and cleared when it
+ * is back past the clear level. The levels give the hysteresis: a high alarm
+ * has the raise level above the clear level, a low alarm has it below. The
+ * value must stay past the level for the debounce time before the alarm
+ * changes, so a single bad sample does not raise it. A value which is not
+ * known, like before the first telemetry, does not change the alarm.
+ */
+public class AlarmRule {
+
+    /**
+     * The priority of an alarm, the first is the most important.
+     */
+    public enum Priority {
+        /**
+         * The ROV is put in emergency mode and surfaces.
+         */
+        EMERGENCY,
+        /**
+         * The operator is told, the ROV is not stopped.
+         */
+        WARNING
+    }
+
+    /**
+     * Reads the value of the rule from a snapshot of the telemetry.
+     */
+    public interface Signal {
+
+        /**
+         * Returns the value.
+         *
+         * @param snapshot the snapshot of the telemetry
+         * @return the value, or NaN if not known
+         */
+        double read(TelemetrySnapshot snapshot);
+    }
+
+    private final String name;
+    private final Priority priority;
+    private final Signal signal;
+    private final double raiseLevel;
+    private final double clearLevel;
+    private final long debounceMillis;
+    private final boolean high;
+
+    private volatile boolean active = false;
+    private volatile double value = Double.NaN;
+    private volatile long changeTime = 0;
+    private long pendingSince = -1;
+
+    /**
+     * The constructor of the AlarmRule class. For a yes or no value, like a
+     * leak, use 1 as the raise level and 0 as the clear level.
+     *
+     * @param name the name of the alarm, shown to the operator
+     * @param priority the priority of the alarm
+     * @param signal reads the value
+     * @param raiseLevel the value at which the alarm is raised
+     * @param clearLevel the value at which the alarm is cleared
+     * @param debounceMillis the time the value must stay past a level
+     */
+    public AlarmRule(String name, Priority priority, Signal signal,
+            double raiseLevel, double clearLevel, long debounceMillis) {
+        if (raiseLevel == clearLevel) {
+            throw new IllegalArgumentException("The raise and clear levels of " + name + " must differ");
+        }
+        this.name = name;
+        this.priority = priority;
+        this.signal = signal;
+        this.raiseLevel = raiseLevel;
+        this.clearLevel = clearLevel;
+        this.debounceMillis = debounceMillis;
+        this.high = raiseLevel > clearLevel;
+    }
+
+    /**
+     * Evaluates the rule against a snapshot. Called by the AlarmEngine on
+     * every tick.
+     *
+     * @param snapshot the snapshot of the telemetry
+     * @return true if the alarm was raised or cleared
+     */
+    boolean evaluate(TelemetrySnapshot snapshot) {
+        double newValue = signal.read(snapshot);
+        value = newValue;
+        if (Double.isNaN(newValue)) {
+            pendingSince = -1;
+            return false;
+        }
+        boolean past = active
+                ? (high ? newValue <= clearLevel : newValue >= clearLevel)
+                : (high ? newValue >= raiseLevel : newValue <= raiseLevel);
+        if (!past) {
+            pendingSince = -1;
+            return false;
+        }
+        long time = snapshot.getTime();
+        if (pendingSince < 0) {
+            pendingSince = time;
+        }
+        if (time - pendingSince < debounceMillis) {
+            return false;
+        }
+        pendingSince = -1;
+        active = !active;
+        changeTime = time;
+        return true;
+    }
+
+    /**
+     * Returns the name of the alarm.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the priority of the alarm.
+     *
+     * @return the priority
+     */
+    public Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Returns true while the alarm is raised.
+     *
+     * @return true if raised
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Returns the value at the last evaluation.
+     *
+     * @return the value, or NaN if not known
+     */
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * Returns the time the alarm was last raised or cleared.
+     *
+     * @return the time in milliseconds, or 0 if never
+     */
+    public long getChangeTime() {
+        return changeTime;
+    }
+}
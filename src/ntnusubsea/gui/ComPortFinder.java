@@ -15,100 +15,285 @@ package ntnusubsea.gui;
 
 import basestation_rov.ReadSerialData;
 import basestation_rov.SerialDataHandler;
+import basestation_rov.SerialPortEnumerator;
+import basestation_rov.TaskScope;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 /**
- * The constructor of the ComPortFinder class.
+ * Finds the com ports connected and supervises the threads reading them. The
+ * com ports are scanned again every few seconds, so a device which is
+ * unplugged and plugged back in gets its reader restarted, and new devices
+ * are found while the application is running. Readers which stop or go
+ * silent are restarted with an increasing delay. Each reader runs as a task
+ * in the serial scope, which is closed when the finder stops. The health of
+ * each device is kept in the serialDeviceHealth list in the shared resource
+ * class Data.
+ *
+ * At start the readers of the ports known from the last run are started at
+ * once with the cached device and baud rate, and only the other ports are
+ * probed. A cached reader which gets no frames within VERIFY_TIMEOUT is
+ * stopped and its port probed like a new one.
+ *
  * @author Towed ROV 2019 https://ntnuopen.ntnu.no/ntnu-xmlui/handle/11250/2564356
  */
 public class ComPortFinder implements Runnable {
 
-    private static Thread imuThread;
-    private static Thread gpsThread;
-    private static Thread echoSounderThread;
-    private static Thread stepperArduinoThread;
-    private static Thread ROVDummyThread;
+    private static final long RESCAN_INTERVAL = 2000;
+    private static final long STALE_TIMEOUT = 5000;
+    private static final long MIN_RESTART_DELAY = 1000;
+    private static final long MAX_RESTART_DELAY = 30000;
+    private static final long VERIFY_TIMEOUT = 3000;
+
     private SerialDataHandler sdh;
     private Data data;
+    private final HashMap<String, SerialDevice> devices = new HashMap<>();
+    private final HashSet<String> probedPorts = new HashSet<>();
+    private final TaskScope serialScope;
+    private volatile boolean running = true;
 
     /**
      * The constructor of the ComPortFinder class.
      *
      * @param sdh the given SerialDataHandler
      * @param data the shared resource class Data
+     * @param parent the scope the serial scope of the readers is created in
      */
-    public ComPortFinder(SerialDataHandler sdh, Data data) {
+    public ComPortFinder(SerialDataHandler sdh, Data data, TaskScope parent) {
         this.sdh = sdh;
         this.data = data;
+        this.serialScope = new TaskScope(parent, "serial");
     }
 
     /**
      * Runs the ComPortFinder thread. Starts the necessary threads based on the
-     * com ports connected.
+     * com ports connected, and keeps supervising them until stopped.
      */
     @Override
     public void run() {
+        List<String> present = Arrays.asList(SerialPortEnumerator.getPortNames());
+        probedPorts.addAll(present);
+        HashMap<String, String> cached = sdh.useCachedPorts(present);
+        for (Map.Entry<String, String> e : cached.entrySet()) {
+            startDevice(e.getKey(), e.getValue(), true);
+        }
 
-        // Start searching for com ports:
-        long timeDifference = 0;
-        long lastTime = 0;
-        long timeDelay = 5000;
-        boolean connected = false;
-        boolean foundComPort = false;
-        boolean listedCom = false;
-
-        //while (true) {
-        if (!foundComPort) {
+        List<String> uncached = new ArrayList<>();
+        for (String comPort : present) {
+            if (!cached.containsKey(comPort)) {
+                uncached.add(comPort);
+            }
+        }
+        if (!uncached.isEmpty()) {
             System.out.println("Searching for com ports...");
-            sdh.findComPorts();
-            foundComPort = true;
+            for (Map.Entry<String, String> e : sdh.probePorts(uncached).entrySet()) {
+                startDevice(e.getKey(), e.getValue(), false);
+            }
         }
 
-        if (!listedCom) {
-            System.out.println("Com ports found:");
+        System.out.println("Com ports found:");
+        if (data.comPortList.isEmpty()) {
+            System.out.println("None");
+        } else {
+            for (Map.Entry<String, String> e : data.comPortList.entrySet()) {
+                System.out.println(e.getKey() + " (" + SerialPortEnumerator.getStableId(e.getKey())
+                        + ") : " + e.getValue() + (cached.containsKey(e.getKey()) ? " (cached)" : ""));
+            }
+        }
+        System.out.println("--End of com list--");
 
-            if (data.comPortList.isEmpty()) {
-                System.out.println("None");
-            } else {
-                for (Map.Entry e : data.comPortList.entrySet()) {
-                    String comPortKey = (String) e.getKey();
-                    String comPortValue = (String) e.getValue();
-                    System.out.println(comPortKey + " : " + comPortValue);
-                }
+        while (running) {
+            try {
+                Thread.sleep(RESCAN_INTERVAL);
+            } catch (InterruptedException ex) {
+                break;
             }
-            System.out.println("--End of com list--");
-            listedCom = true;
-
-            for (Map.Entry e : data.comPortList.entrySet()) {
-                String comPortKey = (String) e.getKey();
-                String comPortValue = (String) e.getValue();
-                if (comPortValue.contains("IMU")) {
-                    imuThread = new Thread(new ReadSerialData(data, comPortKey, 115200, comPortValue));
-                    imuThread.start();
-                    imuThread.setName(comPortValue);
-                }
-                if (comPortValue.contains("GPS")) {
-                    gpsThread = new Thread(new ReadSerialData(data, comPortKey, 115200, comPortValue));
-                    gpsThread.start();
-                    gpsThread.setName(comPortValue);
-                }
-                if (comPortValue.contains("EchoSounder")) {
-                    echoSounderThread = new Thread(new ReadSerialData(data, comPortKey, 4800, comPortValue));
-                    echoSounderThread.start();
-                    echoSounderThread.setName(comPortValue);
-                }
-                if (comPortValue.contains("StepperArduino")) {
-                    stepperArduinoThread = new Thread(new ReadSerialData(data, comPortKey, 128000, comPortValue));
-                    stepperArduinoThread.start();
-                    stepperArduinoThread.setName(comPortValue);
+            superviseDevices();
+        }
+
+        for (SerialDevice device : devices.values()) {
+            device.reader.stop();
+        }
+        serialScope.close();
+    }
+
+    /**
+     * Stops the supervision and all the readers.
+     */
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Checks the com ports present against the devices known, and restarts,
+     * stops or starts readers as needed.
+     */
+    private void superviseDevices() {
+        HashSet<String> present = new HashSet<>(Arrays.asList(SerialPortEnumerator.getPortNames()));
+        long now = System.currentTimeMillis();
+
+        Iterator<SerialDevice> it = devices.values().iterator();
+        while (it.hasNext()) {
+            SerialDevice device = it.next();
+            if (device.rejected) {
+                // Probed once the reader has let go of the port
+                if (!device.task.isAlive()) {
+                    it.remove();
+                    probedPorts.remove(device.comPort);
                 }
-                if (comPortValue.contains("ROVDummy")) {
-                    ROVDummyThread = new Thread(new ReadSerialData(data, comPortKey, 115200, comPortValue));
-                    ROVDummyThread.start();
-                    ROVDummyThread.setName(comPortValue);
+            } else if (!present.contains(device.comPort)) {
+                System.out.println(device.name + " disconnected from " + device.comPort);
+                device.reader.stop();
+                sdh.removeComPort(device.comPort);
+                data.serialDeviceHealth.put(device.name, device.comPort + ": Disconnected");
+                it.remove();
+            } else if (!device.verified && device.reader.getLastDataTime() > device.startTime) {
+                device.verified = true;
+                data.serialDeviceHealth.put(device.name, device.comPort + ": Running");
+            } else if (!device.verified && now - device.startTime > VERIFY_TIMEOUT) {
+                System.out.println("No frames from " + device.name + " on " + device.comPort
+                        + " with the cached setting, probing the port");
+                device.rejected = true;
+                device.reader.stop();
+                sdh.rejectCachedPort(device.comPort);
+                data.serialDeviceHealth.put(device.name, device.comPort + ": Probing");
+            } else if (!device.task.isAlive() || !device.reader.isRunning()) {
+                if (now >= device.nextRestartTime) {
+                    device.restart(now);
+                } else {
+                    data.serialDeviceHealth.put(device.name, device.comPort + ": Restarting in "
+                            + (device.nextRestartTime - now) / 1000 + " s");
                 }
+            } else if (now - device.lastActivityTime() > STALE_TIMEOUT) {
+                System.out.println("No data from " + device.name + " on " + device.comPort
+                        + ", restarting reader");
+                device.reader.stop();
+                device.nextRestartTime = now + device.restartDelay;
+                data.serialDeviceHealth.put(device.name, device.comPort + ": No data");
+            } else if (device.reader.getLastDataTime() > device.startTime) {
+                // Only data since the last start shows the device is healthy,
+                // else a silent device would never back off
+                device.restartDelay = MIN_RESTART_DELAY;
+                data.serialDeviceHealth.put(device.name, device.comPort + ": Running");
+            } else {
+                data.serialDeviceHealth.put(device.name, device.comPort + ": Waiting for data");
+            }
+        }
+
+        // Forget ports which are gone, so they are probed when they come back
+        probedPorts.retainAll(present);
+        List<String> newPorts = new ArrayList<>();
+        for (String comPort : present) {
+            if (!probedPorts.contains(comPort)) {
+                newPorts.add(comPort);
             }
         }
-        //}
+        if (!newPorts.isEmpty()) {
+            probedPorts.addAll(newPorts);
+            HashMap<String, String> found = sdh.probePorts(newPorts);
+            for (Map.Entry<String, String> e : found.entrySet()) {
+                System.out.println(e.getValue() + " connected on " + e.getKey());
+                startDevice(e.getKey(), e.getValue(), false);
+            }
+        }
+    }
+
+    /**
+     * Starts a reader for the given device if it is one the base station
+     * reads.
+     *
+     * @param comPort the com port of the device
+     * @param name the name of the device
+     * @param fromCache true if the device is taken from the port cache, and
+     * has to be verified by its frames
+     */
+    private void startDevice(String comPort, String name, boolean fromCache) {
+        int defaultBaudRate;
+        if (name.contains("EchoSounder")) {
+            defaultBaudRate = 4800;
+        } else if (name.contains("StepperArduino")) {
+            defaultBaudRate = 128000;
+        } else if (name.contains("IMU") || name.contains("GPS") || name.contains("ROVDummy")) {
+            defaultBaudRate = 115200;
+        } else {
+            return;
+        }
+        SerialDevice device = new SerialDevice(name, comPort, sdh.getBaudRate(comPort, defaultBaudRate));
+        device.verified = !fromCache;
+        device.start();
+        devices.put(comPort, device);
+        data.serialDeviceHealth.put(name, comPort + ": Starting");
+    }
+
+    /**
+     * A device on a com port and the task reading it.
+     */
+    private class SerialDevice {
+
+        private final String name;
+        private final String comPort;
+        private final int baudRate;
+        private ReadSerialData reader;
+        private TaskScope.Task task;
+        private long startTime;
+        private long restartDelay = MIN_RESTART_DELAY;
+        private long nextRestartTime = 0;
+        private int restarts = 0;
+        // False until a device taken from the port cache has sent a frame
+        private boolean verified = true;
+        // Set when the cached setting failed, until the reader has stopped
+        private boolean rejected = false;
+
+        /**
+         * The constructor of the SerialDevice class.
+         *
+         * @param name the name of the device
+         * @param comPort the com port of the device
+         * @param baudRate the baud rate of the device
+         */
+        SerialDevice(String name, String comPort, int baudRate) {
+            this.name = name;
+            this.comPort = comPort;
+            this.baudRate = baudRate;
+        }
+
+        /**
+         * Starts a new reader task for the device.
+         */
+        void start() {
+            reader = new ReadSerialData(data, comPort, baudRate, name);
+            task = serialScope.fork(name, reader);
+            startTime = System.currentTimeMillis();
+        }
+
+        /**
+         * Starts the reader again, and doubles the delay before the next
+         * restart.
+         *
+         * @param now the current time
+         */
+        void restart(long now) {
+            restarts++;
+            System.out.println("Restarting " + name + " on " + comPort + " (restart " + restarts + ")");
+            start();
+            restartDelay = Math.min(restartDelay * 2, MAX_RESTART_DELAY);
+            nextRestartTime = now + restartDelay;
+            data.serialDeviceHealth.put(name, comPort + ": Restarted " + restarts + " times");
+        }
+
+        /**
+         * Returns the last time the device sent data, or the time the reader
+         * was started if it has not sent anything yet.
+         *
+         * @return the time in milliseconds
+         */
+        long lastActivityTime() {
+            return Math.max(startTime, reader.getLastDataTime());
+        }
     }
 }
@@ -0,0 +1,522 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package ntnusubsea.gui;
+
+import basestation_rov.IoReactor;
+import basestation_rov.LatencyHistogram;
+import basestation_rov.Metrics;
+import basestation_rov.RequestConnection;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A prioritized command channel to the ROV RPi. It sends on the connection
+ * the TCPClient polls the telemetry on, since the RPi serves one client at a
+ * time. Commands are queued by priority: safety commands like the emergency
+ * stop go before everything else, then the actuator commands, then the rest.
+ * Safety and normal commands are sent one at a time, each waiting for the
+ * answer to the one before. Control commands are sent at once, without
+ * waiting for earlier answers, so the actuators follow the stick at the rate
+ * it moves and not one command per round trip. They only wait while a safety
+ * command is being delivered. A queued control command is replaced by a
+ * newer one for the same actuator.
+ *
+ * The RPi answers every line with one line, in the order of the lines, and
+ * the connection hands each answer to the command it belongs to. The RPi
+ * echoes a command it has taken, like "&lt;cmd_lights:50&gt;", and answers
+ * "not ready" while it is starting. A command answered with "not ready" is
+ * not delivered. Any other answer delivers the command, like it always has
+ * for the TCPClient, and answers which are not the echo are counted in
+ * command.otherReplies.
+ *
+ * A safety command which is not delivered is sent again, with a doubling
+ * delay, at most MAX_SAFETY_ATTEMPTS times, and then given up. A command
+ * not answered within the reply timeout of the connection fails the
+ * connection, which is made again, so an outage is logged once by the
+ * ConnectionManager and not once for every command.
+ *
+ * The time from submit to delivery is kept in the metrics as
+ * command.safety.latency, command.control.latency and command.normal.latency.
+ */
+public class CommandChannel implements RequestConnection.Listener {
+
+    /**
+     * The priority of a command, the first is sent first.
+     */
+    public enum Priority {
+        /**
+         * Commands which keep the ROV safe. Sent again until delivered, at
+         * most MAX_SAFETY_ATTEMPTS times.
+         */
+        SAFETY,
+        /**
+         * Actuator commands. A newer command for the same actuator replaces
+         * a queued one.
+         */
+        CONTROL,
+        /**
+         * All other commands.
+         */
+        NORMAL
+    }
+
+    /**
+     * Is told about every command delivered to the RPi.
+     */
+    public interface DeliveryListener {
+
+        /**
+         * Called on the IoReactor thread when the RPi has answered a command.
+         * Must not block.
+         *
+         * @param cmd the command, without the brackets
+         */
+        void commandDelivered(String cmd);
+    }
+
+    private static final int MAX_SAFETY_ATTEMPTS = 5;
+    private static final long RETRY_DELAY = 250;
+    private static final String NOT_READY = "not ready";
+
+    private final String IP;
+    private final int port;
+    private final Data data;
+    private final IoReactor reactor;
+    private final RequestConnection connection;
+    private final String recordChannel;
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile boolean connected = false;
+    private final List<DeliveryListener> deliveryListeners = new CopyOnWriteArrayList<>();
+
+    // Looked up once, so sending does not build metric names
+    private final LatencyHistogram[] latencyHistograms = new LatencyHistogram[Priority.values().length];
+    private final AtomicLong replacedCounter;
+    private final AtomicLong failedCounter;
+    private final AtomicLong retriesCounter;
+    private final AtomicLong notReadyCounter;
+    private final AtomicLong otherRepliesCounter;
+
+    // Only used on the reactor thread
+    private final PriorityQueue<Command> queue = new PriorityQueue<>(16, new Comparator<Command>() {
+        @Override
+        public int compare(Command a, Command b) {
+            if (a.priority != b.priority) {
+                return a.priority.compareTo(b.priority);
+            }
+            return Long.compare(a.sequence, b.sequence);
+        }
+    });
+    // The safety or normal command being delivered
+    private Command inFlight = null;
+    // True while the in flight command waits for the delay before it is
+    // sent again
+    private boolean retryPending = false;
+
+    /**
+     * A command submitted to the channel.
+     */
+    public static final class Command {
+
+        private final String cmd;
+        private final Priority priority;
+        private final long sequence;
+        private final long submitTime = System.nanoTime();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile boolean delivered = false;
+        private volatile long latency = -1;
+        private int attempts = 0;
+
+        /**
+         * Creates a command.
+         *
+         * @param cmd the command, without the brackets
+         * @param priority the priority
+         * @param sequence the order the command was submitted in
+         */
+        private Command(String cmd, Priority priority, long sequence) {
+            this.cmd = cmd;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        /**
+         * Returns the command.
+         *
+         * @return the command, without the brackets
+         */
+        public String getCommand() {
+            return cmd;
+        }
+
+        /**
+         * Returns the priority of the command.
+         *
+         * @return the priority
+         */
+        public Priority getPriority() {
+            return priority;
+        }
+
+        /**
+         * Waits until the command is delivered or given up.
+         *
+         * @param timeoutMillis the max time to wait
+         * @return true if the command was delivered
+         * @throws InterruptedException if interrupted while waiting
+         */
+        public boolean awaitDelivered(long timeoutMillis) throws InterruptedException {
+            done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+            return delivered;
+        }
+
+        /**
+         * Returns true if the RPi has confirmed the command.
+         *
+         * @return true if delivered
+         */
+        public boolean isDelivered() {
+            return delivered;
+        }
+
+        /**
+         * Returns the time from submit until the command was delivered.
+         *
+         * @return the latency in nanoseconds, or -1 if not delivered
+         */
+        public long getLatency() {
+            return latency;
+        }
+
+        /**
+         * Returns the name of the value the command sets, like
+         * "cmd_actuatorPS".
+         *
+         * @return the name of the command
+         */
+        private String getName() {
+            int separator = cmd.indexOf(':');
+            return separator < 0 ? cmd : cmd.substring(0, separator);
+        }
+    }
+
+    /**
+     * The constructor of the CommandChannel class.
+     *
+     * @param IP the IP of the ROV RPi
+     * @param port the command port of the ROV RPi
+     * @param data the shared resource Data class
+     * @param connection the connection to the ROV RPi, shared with the
+     * TCPClient
+     */
+    public CommandChannel(String IP, int port, Data data, RequestConnection connection) {
+        this.IP = IP;
+        this.port = port;
+        this.data = data;
+        this.connection = connection;
+        this.reactor = connection.getReactor();
+        // A channel of its own, so the replay does not take a command for a
+        // reply of the TCPClient on the same port
+        this.recordChannel = "commands@" + IP + ":" + port;
+        Metrics metrics = data.getMetrics();
+        for (Priority priority : Priority.values()) {
+            latencyHistograms[priority.ordinal()] = metrics.histogram(
+                    "command." + priority.name().toLowerCase() + ".latency");
+        }
+        this.replacedCounter = metrics.counter("command.replaced");
+        this.failedCounter = metrics.counter("command.failed");
+        this.retriesCounter = metrics.counter("command.retries");
+        this.notReadyCounter = metrics.counter("command.notReady");
+        this.otherRepliesCounter = metrics.counter("command.otherReplies");
+        connection.addListener(this);
+    }
+
+    /**
+     * Starts connecting to the ROV RPi. The connection is made again if lost,
+     * until {@link #stop()} is called.
+     */
+    public void start() {
+        connection.open();
+    }
+
+    /**
+     * Closes the connection, which is shared with the TCPClient. Commands not
+     * delivered are given up.
+     */
+    public void stop() {
+        connection.close();
+        reactor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (inFlight != null) {
+                    giveUp(inFlight);
+                    inFlight = null;
+                }
+                while (!queue.isEmpty()) {
+                    giveUp(queue.poll());
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns true if the channel is connected.
+     *
+     * @return true if connected
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * Adds a listener which is told about every command delivered.
+     *
+     * @param listener the listener
+     */
+    public void addDeliveryListener(DeliveryListener listener) {
+        deliveryListeners.add(listener);
+    }
+
+    /**
+     * Queues a command. Never blocks.
+     *
+     * @param cmd the command, without the brackets
+     * @param priority the priority of the command
+     * @return the command, to wait for the delivery
+     */
+    public Command submit(String cmd, Priority priority) {
+        final Command command = new Command(cmd, priority, sequence.incrementAndGet());
+        data.getSessionRecorder().recordCommand(recordChannel, cmd);
+        reactor.execute(new Runnable() {
+            @Override
+            public void run() {
+                enqueue(command);
+                sendNext();
+            }
+        });
+        return command;
+    }
+
+    /**
+     * Adds a command to the queue, replacing a queued control command for
+     * the same actuator.
+     *
+     * @param command the command
+     */
+    private void enqueue(Command command) {
+        if (command.priority == Priority.CONTROL) {
+            String name = command.getName();
+            Iterator<Command> it = queue.iterator();
+            while (it.hasNext()) {
+                Command queued = it.next();
+                if (queued.priority == Priority.CONTROL && queued.getName().equals(name)) {
+                    it.remove();
+                    queued.done.countDown();
+                    replacedCounter.incrementAndGet();
+                }
+            }
+        }
+        queue.add(command);
+    }
+
+    /**
+     * Sends the queued control commands, unless a safety command is being
+     * delivered, and the next safety or normal command if none is being
+     * delivered.
+     */
+    private void sendNext() {
+        while (connected && !queue.isEmpty()) {
+            Command next = queue.peek();
+            if (next.priority == Priority.CONTROL) {
+                if (inFlight != null && inFlight.priority == Priority.SAFETY) {
+                    return;
+                }
+                send(queue.poll());
+            } else if (inFlight == null) {
+                inFlight = queue.poll();
+                send(inFlight);
+                return;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sends a command. The answer comes on the reactor thread.
+     *
+     * @param command the command
+     */
+    private void send(final Command command) {
+        try {
+            connection.send("<" + command.cmd + ">", new RequestConnection.ReplyHandler() {
+                @Override
+                public void onReply(String line) {
+                    answered(command, line);
+                }
+
+                @Override
+                public void onNoReply() {
+                    notDelivered(command);
+                }
+            });
+            command.attempts++;
+        } catch (IOException ex) {
+            // Not connected. A command in flight is sent when connected
+            // again, a control command is stale by then
+            if (command != inFlight) {
+                giveUp(command);
+            }
+        }
+    }
+
+    /**
+     * Handles the answer of the RPi to a command.
+     *
+     * @param command the command
+     * @param line the answer
+     */
+    private void answered(Command command, String line) {
+        if (line.contains(NOT_READY)) {
+            notReadyCounter.incrementAndGet();
+            notDelivered(command);
+            return;
+        }
+        if (!isEcho(line, command.cmd)) {
+            otherRepliesCounter.incrementAndGet();
+        }
+        if (command == inFlight) {
+            inFlight = null;
+        }
+        delivered(command);
+        sendNext();
+    }
+
+    /**
+     * Handles a command which was refused, or not answered before the
+     * connection was lost. A safety command is sent again after a delay
+     * which doubles for every attempt, until it has been sent
+     * MAX_SAFETY_ATTEMPTS times. Other commands are given up.
+     *
+     * @param command the command
+     */
+    private void notDelivered(final Command command) {
+        if (command != inFlight) {
+            giveUp(command);
+            return;
+        }
+        if (command.priority == Priority.SAFETY && command.attempts < MAX_SAFETY_ATTEMPTS) {
+            retriesCounter.incrementAndGet();
+            retryPending = true;
+            reactor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (inFlight == command && retryPending) {
+                        retryPending = false;
+                        // If not connected it is sent when connected again
+                        if (connected) {
+                            send(command);
+                        }
+                    }
+                }
+            }, RETRY_DELAY << (command.attempts - 1));
+            return;
+        }
+        if (command.priority == Priority.SAFETY) {
+            System.out.println("Gave up " + command.cmd + " after " + command.attempts + " attempts");
+        }
+        giveUp(command);
+        inFlight = null;
+        sendNext();
+    }
+
+    /**
+     * Returns true if a line is the echo of a command, without building the
+     * echo.
+     *
+     * @param line the line received
+     * @param cmd the command, without the brackets
+     * @return true if the line is "&lt;" + cmd + "&gt;"
+     */
+    private static boolean isEcho(String line, String cmd) {
+        return line.length() == cmd.length() + 2 && line.charAt(0) == '<'
+                && line.charAt(line.length() - 1) == '>' && line.regionMatches(1, cmd, 0, cmd.length());
+    }
+
+    /**
+     * Marks a command as not delivered.
+     *
+     * @param command the command
+     */
+    private void giveUp(Command command) {
+        if (command.done.getCount() == 0) {
+            return;
+        }
+        failedCounter.incrementAndGet();
+        command.done.countDown();
+    }
+
+    /**
+     * Marks a command as delivered and tells the listeners.
+     *
+     * @param command the command answered by the RPi
+     */
+    private void delivered(Command command) {
+        command.latency = System.nanoTime() - command.submitTime;
+        command.delivered = true;
+        command.done.countDown();
+        latencyHistograms[command.priority.ordinal()].record(command.latency);
+        for (DeliveryListener listener : deliveryListeners) {
+            listener.commandDelivered(command.cmd);
+        }
+    }
+
+    /**
+     * Called when the connection is made. A command which was in flight when
+     * the connection was lost is sent again, unless it waits for its retry
+     * delay.
+     */
+    @Override
+    public void onConnected() {
+        connected = true;
+        if (inFlight != null && !retryPending) {
+            send(inFlight);
+        }
+        sendNext();
+    }
+
+    /**
+     * Called when the connection is lost or closed, after the commands
+     * waiting for an answer are handled. Queued control commands are stale
+     * after a reconnect, so they are dropped.
+     */
+    @Override
+    public void onDisconnected() {
+        connected = false;
+        Iterator<Command> it = queue.iterator();
+        while (it.hasNext()) {
+            Command queued = it.next();
+            if (queued.priority == Priority.CONTROL) {
+                it.remove();
+                giveUp(queued);
+            }
+        }
+    }
+}
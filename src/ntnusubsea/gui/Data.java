@@ -13,6 +13,8 @@
  */
 package ntnusubsea.gui;
 
+import basestation_rov.Metrics;
+import basestation_rov.SessionRecorder;
 import java.awt.image.BufferedImage;
 import java.io.BufferedReader;
 import java.io.File;
@@ -22,10 +24,12 @@ import java.io.InputStreamReader;
 import java.net.URI;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Observable;
+import java.util.Observer;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -42,8 +46,14 @@ import javax.swing.JOptionPane;
  */
 public final class Data extends Observable {
 
-    public HashMap<String, String> comPortList = new HashMap<>();
+    public ConcurrentHashMap<String, String> comPortList = new ConcurrentHashMap<>();
+    public ConcurrentHashMap<String, String> serialDeviceHealth = new ConcurrentHashMap<>();
     public ConcurrentHashMap<String, Boolean> completeAlarmListDh = new ConcurrentHashMap<>();
+    private final SessionRecorder sessionRecorder = new SessionRecorder();
+    private final Metrics metrics = new Metrics();
+    private volatile long videoImageTime = 0;
+    // Replaced on every change, so a notification reads it without a copy
+    private Observer[] observers = new Observer[0];
 
     //------------------------
     //Do not change the times, this is measured movement time without oil
@@ -615,12 +625,33 @@ public final class Data extends Observable {
      * @param image New image in the video stream
      */
     public synchronized void setVideoImage(BufferedImage image) {
+        setVideoImage(image, System.nanoTime());
+    }
+
+    /**
+     * Updates the image of the video stream and notifies observers
+     *
+     * @param image New image in the video stream
+     * @param receivedTime the System.nanoTime the image was received
+     */
+    public synchronized void setVideoImage(BufferedImage image, long receivedTime) {
         videoImage = null;
         videoImage = image;
+        videoImageTime = receivedTime;
         setChanged();
         notifyObservers();
     }
 
+    /**
+     * Returns the time the video image was received
+     *
+     * @return the System.nanoTime the image was received, or 0 if none is
+     * received
+     */
+    public long getVideoImageTime() {
+        return videoImageTime;
+    }
+
     /**
      * Updates the status of the actuators. 1 if they are currently running and
      * 0 if they are currently idle.
@@ -655,9 +686,6 @@ public final class Data extends Observable {
      */
     public synchronized void setLeakStatus(boolean leak) {
         leakStatus = leak;
-        if (!leak) {
-            setEmergencyMode(false);
-        }
         setChanged();
         notifyObservers();
     }
@@ -1248,7 +1276,7 @@ public final class Data extends Observable {
      *
      * @return the ROV depth
      */
-    public Double getRovDepth() {
+    public double getRovDepth() {
         return rovDepth;
     }
 
@@ -1257,7 +1285,7 @@ public final class Data extends Observable {
      *
      * @param rovDepth the ROV depth
      */
-    public void setRovDepth(Double rovDepth) {
+    public void setRovDepth(double rovDepth) {
         this.rovDepth = rovDepth;
     }
 
@@ -1297,6 +1325,8 @@ public final class Data extends Observable {
      */
     public void setFb_stepperSBPos(int fb_stepperSBPos) {
         this.fb_stepperSBPos = fb_stepperSBPos;
+        setChanged();
+        notifyObservers();
     }
 
 
@@ -1410,6 +1440,34 @@ public final class Data extends Observable {
         this.fb_tempElBoxRear = fb_tempElBoxRear;
     }
 
+    /**
+     * Returns the time the PS actuator used from max to min without oil
+     *
+     * @return the PS initial movement time in milliseconds
+     */
+    public long getActuatorPSInitialMovementTime() {
+        return actuatorPSInitialMovementTime;
+    }
+
+    /**
+     * Returns the time the SB actuator used from max to min without oil
+     *
+     * @return the SB initial movement time in milliseconds
+     */
+    public long getActuatorSBInitialMovementTime() {
+        return actuatorSBInitialMovementTime;
+    }
+
+    /**
+     * Returns how much slower than at the last calibration the actuators may
+     * be
+     *
+     * @return the tolerable speed loss in percent
+     */
+    public int getActuatorTolerableSpeedLoss() {
+        return actuatorTolerableSpeedLoss;
+    }
+
     /**
      * Returns PS the stepper max-to-min time
      *
@@ -1526,4 +1584,111 @@ public final class Data extends Observable {
         this.TestDepth = TestDepth;
         this.setRovDepth(TestDepth);
     }
+
+    /**
+     * Returns the recorder of the session, which records all traffic to and
+     * from the base station while it is started.
+     *
+     * @return the session recorder
+     */
+    public SessionRecorder getSessionRecorder() {
+        return sessionRecorder;
+    }
+
+    /**
+     * Returns the latency histograms, counters and gauges of the base
+     * station.
+     *
+     * @return the metrics
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Adds an observer, if it is not already added.
+     *
+     * @param o the observer to add
+     */
+    @Override
+    public synchronized void addObserver(Observer o) {
+        if (o == null) {
+            throw new NullPointerException();
+        }
+        for (Observer observer : observers) {
+            if (observer == o) {
+                return;
+            }
+        }
+        observers = Arrays.copyOf(observers, observers.length + 1);
+        observers[observers.length - 1] = o;
+    }
+
+    /**
+     * Removes an observer.
+     *
+     * @param o the observer to remove
+     */
+    @Override
+    public synchronized void deleteObserver(Observer o) {
+        for (int i = 0; i < observers.length; i++) {
+            if (observers[i] == o) {
+                Observer[] remaining = new Observer[observers.length - 1];
+                System.arraycopy(observers, 0, remaining, 0, i);
+                System.arraycopy(observers, i + 1, remaining, i, remaining.length - i);
+                observers = remaining;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes all observers.
+     */
+    @Override
+    public synchronized void deleteObservers() {
+        observers = new Observer[0];
+    }
+
+    /**
+     * Returns the number of observers.
+     *
+     * @return the number of observers
+     */
+    @Override
+    public synchronized int countObservers() {
+        return observers.length;
+    }
+
+    /**
+     * Notifies the observers if the data has changed, newest observer first
+     * like Observable. Observable copies its list of observers on every
+     * call, which is one allocation for every value set by the sensor and
+     * TCP readers. The observers are kept in an array which is replaced when
+     * an observer is added or removed instead, so it is read without a copy.
+     *
+     * @param arg the argument passed to the observers
+     */
+    @Override
+    public void notifyObservers(Object arg) {
+        Observer[] current;
+        synchronized (this) {
+            if (!hasChanged()) {
+                return;
+            }
+            current = observers;
+            clearChanged();
+        }
+        for (int i = current.length - 1; i >= 0; i--) {
+            current[i].update(this, arg);
+        }
+    }
+
+    /**
+     * Notifies the observers if the data has changed.
+     */
+    @Override
+    public void notifyObservers() {
+        notifyObservers(null);
+    }
 }
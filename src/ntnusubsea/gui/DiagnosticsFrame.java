@@ -0,0 +1,169 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package ntnusubsea.gui;
+
+import basestation_rov.Metrics;
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.FlowLayout;
+import java.awt.Font;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import javax.swing.JButton;
+import javax.swing.JFileChooser;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.Timer;
+import javax.swing.table.DefaultTableModel;
+
+/**
+ * Shows the metrics of the base station: the latency of each stage from the
+ * sensors to the screen, the counters and the gauges. The top line tells if
+ * the video is live. The metrics can be exported to a CSV file.
+ *
+ * @author Towed ROV 2019 https://ntnuopen.ntnu.no/ntnu-xmlui/handle/11250/2564356
+ */
+public class DiagnosticsFrame extends JFrame {
+
+    private static final int REFRESH_INTERVAL = 1000;
+    private static final long STALE_VIDEO_MILLIS = 1000;
+    private static final String[] COLUMNS = {"Metric", "Count / value", "p50 ms",
+        "p90 ms", "p99 ms", "p99.9 ms", "Max ms", "Mean ms"};
+
+    private final Data data;
+    private final DefaultTableModel tableModel = new DefaultTableModel(COLUMNS, 0) {
+        @Override
+        public boolean isCellEditable(int row, int column) {
+            return false;
+        }
+    };
+    private final JLabel videoStatusLabel = new JLabel();
+    private final Timer refreshTimer;
+
+    /**
+     * Creates the diagnostics frame.
+     *
+     * @param data the shared resource Data class
+     */
+    public DiagnosticsFrame(Data data) {
+        super("Diagnostics");
+        this.data = data;
+        setDefaultCloseOperation(JFrame.HIDE_ON_CLOSE);
+        setSize(900, 500);
+
+        videoStatusLabel.setFont(videoStatusLabel.getFont().deriveFont(Font.BOLD, 16f));
+        videoStatusLabel.setOpaque(true);
+        videoStatusLabel.setForeground(Color.WHITE);
+        add(videoStatusLabel, BorderLayout.NORTH);
+
+        JTable table = new JTable(tableModel);
+        table.setAutoCreateRowSorter(true);
+        table.getColumnModel().getColumn(0).setPreferredWidth(260);
+        add(new JScrollPane(table), BorderLayout.CENTER);
+
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        JButton resetButton = new JButton("Reset");
+        resetButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                DiagnosticsFrame.this.data.getMetrics().reset();
+                refresh();
+            }
+        });
+        JButton exportButton = new JButton("Export...");
+        exportButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                export();
+            }
+        });
+        buttons.add(resetButton);
+        buttons.add(exportButton);
+        add(buttons, BorderLayout.SOUTH);
+
+        refreshTimer = new Timer(REFRESH_INTERVAL, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                refresh();
+            }
+        });
+    }
+
+    /**
+     * Shows or hides the frame. The metrics are only refreshed while the frame
+     * is visible.
+     *
+     * @param visible true to show the frame
+     */
+    @Override
+    public void setVisible(boolean visible) {
+        if (visible) {
+            refresh();
+            refreshTimer.start();
+        } else {
+            refreshTimer.stop();
+        }
+        super.setVisible(visible);
+    }
+
+    /**
+     * Updates the table and the video status.
+     */
+    private void refresh() {
+        tableModel.setRowCount(0);
+        for (String[] row : data.getMetrics().getRows()) {
+            tableModel.addRow(row);
+        }
+        long imageTime = data.getVideoImageTime();
+        long age = imageTime == 0 ? -1 : (System.nanoTime() - imageTime) / 1000000;
+        if (data.getMetrics().counter("video.received").get() == 0 || age < 0) {
+            videoStatusLabel.setText(" Video: no frames received");
+            videoStatusLabel.setBackground(Color.GRAY);
+        } else if (age > STALE_VIDEO_MILLIS) {
+            videoStatusLabel.setText(" Video: STALE, last frame " + age + " ms ago");
+            videoStatusLabel.setBackground(new Color(180, 0, 0));
+        } else {
+            videoStatusLabel.setText(" Video: LIVE, last frame " + age + " ms ago");
+            videoStatusLabel.setBackground(new Color(0, 130, 0));
+        }
+    }
+
+    /**
+     * Asks for a file and exports the metrics to it as CSV.
+     */
+    private void export() {
+        SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd_HHmmss");
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File("Metrics_" + formatter.format(new Date()) + ".csv"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        try {
+            data.getMetrics().writeTo(chooser.getSelectedFile());
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(this,
+                    "Could not export the metrics: " + ex.getMessage(),
+                    "Export error",
+                    JOptionPane.ERROR_MESSAGE);
+        }
+    }
+}
@@ -24,8 +24,6 @@ import java.text.DecimalFormat;
 import java.util.Iterator;
 import java.util.Observable;
 import java.util.Observer;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
@@ -246,7 +244,7 @@ public class EchoSounderFrame extends javax.swing.JFrame implements Runnable, Ob
     }//GEN-LAST:event_jMenuItem2ActionPerformed
 
     /**
-     * Runs the EchoSounderFrame thread.
+     * Runs the EchoSounderFrame thread, until it is interrupted.
      */
     @Override
     public void run() {
@@ -311,7 +309,8 @@ public class EchoSounderFrame extends javax.swing.JFrame implements Runnable, Ob
                 this.plot.setDataset(createDatasetLive());
 
             } catch (InterruptedException ex) {
-                Logger.getLogger(EchoSounderFrame.class.getName()).log(Level.SEVERE, null, ex);
+                // The task is cancelled
+                return;
             }
         }
     }
@@ -0,0 +1,133 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new 
+ * sensors. There will also be a video stream from the ROV.
+ * 
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package ntnusubsea.gui;
+
+import basestation_rov.Metrics;
+import basestation_rov.TaskScope;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The vehicles run from this base station. The telemetry of every vehicle is
+ * polled by its own DataUpdater task, since a poll blocks while it waits for
+ * the response of the ROV. The link probes of a connected vehicle run in a
+ * scope of their own, which is closed on disconnect. The first vehicle is the
+ * one shown in the ROVFrame, which connects it from the connect menu. The
+ * extra vehicles are connected with {@link #connect(Vehicle)}, and their
+ * state is shown in the diagnostics.
+ */
+public class Fleet {
+
+    private final TaskScope scope;
+    private final long dataUpdatePeriod;
+    private final Metrics metrics;
+    private final List<Vehicle> vehicles = new ArrayList<>();
+    private final Map<Vehicle, TaskScope> vehicleScopes = new HashMap<>();
+
+    /**
+     * The constructor of the Fleet class.
+     *
+     * @param scope the scope the tasks of the vehicles run in
+     * @param dataUpdatePeriod the time between telemetry polls in
+     * milliseconds
+     * @param metrics the metrics the state of the vehicles is shown in
+     */
+    public Fleet(TaskScope scope, long dataUpdatePeriod, Metrics metrics) {
+        this.scope = scope;
+        this.dataUpdatePeriod = dataUpdatePeriod;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Adds a vehicle and starts polling its telemetry. Nothing is polled
+     * before the vehicle is connected.
+     *
+     * @param vehicle the vehicle to add
+     */
+    public synchronized void add(final Vehicle vehicle) {
+        vehicles.add(vehicle);
+        scope.repeat("DataUpdater-" + vehicle.getName(), vehicle.getDataUpdater(), dataUpdatePeriod);
+        String prefix = "vehicle." + vehicle.getName();
+        metrics.gauge(prefix + ".connected", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return vehicle.getConnectedCount();
+            }
+        });
+        metrics.gauge(prefix + ".frameAgeMs", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                long imageTime = vehicle.getData().getVideoImageTime();
+                return imageTime == 0 ? -1 : (System.nanoTime() - imageTime) / 1000000;
+            }
+        });
+    }
+
+    /**
+     * Connects a vehicle and starts probing its link.
+     *
+     * @param vehicle the vehicle to connect
+     */
+    public synchronized void connect(Vehicle vehicle) {
+        if (vehicleScopes.containsKey(vehicle)) {
+            return;
+        }
+        System.out.println("Connecting to vehicle " + vehicle.getConfig());
+        vehicle.connect();
+        LinkMonitor linkMonitor = vehicle.getLinkMonitor();
+        TaskScope vehicleScope = new TaskScope(scope, vehicle.getName());
+        vehicleScope.repeat("LinkMonitor", linkMonitor, linkMonitor.getProbeInterval());
+        vehicleScopes.put(vehicle, vehicleScope);
+    }
+
+    /**
+     * Disconnects a vehicle connected with {@link #connect(Vehicle)}.
+     *
+     * @param vehicle the vehicle to disconnect
+     */
+    public synchronized void disconnect(Vehicle vehicle) {
+        TaskScope vehicleScope = vehicleScopes.remove(vehicle);
+        if (vehicleScope != null) {
+            vehicleScope.close();
+        }
+        vehicle.disconnect();
+    }
+
+    /**
+     * Returns the vehicle with the given name.
+     *
+     * @param name the name of the vehicle
+     * @return the vehicle, or null if there is none with that name
+     */
+    public synchronized Vehicle get(String name) {
+        for (Vehicle vehicle : vehicles) {
+            if (vehicle.getName().equals(name)) {
+                return vehicle;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns all vehicles, the first vehicle first.
+     *
+     * @return the vehicles
+     */
+    public synchronized List<Vehicle> getVehicles() {
+        return Collections.unmodifiableList(new ArrayList<>(vehicles));
+    }
+}
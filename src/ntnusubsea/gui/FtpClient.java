@@ -16,14 +16,13 @@ package ntnusubsea.gui;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.Arrays;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.stream.Collectors;
-import org.apache.commons.net.PrintCommandListener;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.commons.net.ftp.FTP;
 import org.apache.commons.net.ftp.FTPClient;
 import org.apache.commons.net.ftp.FTPFile;
@@ -31,16 +30,61 @@ import org.apache.commons.net.ftp.FTPReply;
 
 /**
  * Creates an instance of the FtpClient class. It has the responsibility of
- * retrieving the images from the camera RPi.
+ * retrieving the images from the camera RPi. One FtpClient is one session
+ * with the FTP server; the FtpDownloader runs several of them in parallel.
  * @author Towed ROV 2019 https://ntnuopen.ntnu.no/ntnu-xmlui/handle/11250/2564356
  */
-public class FtpClient implements Runnable {
+public class FtpClient {
+
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final int DATA_TIMEOUT = 15000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * A negative reply from the FTP server to a command, as opposed to an
+     * error of the connection.
+     */
+    public static class ReplyException extends IOException {
+
+        private final int replyCode;
+
+        /**
+         * Creates the exception.
+         *
+         * @param message the message
+         * @param replyCode the reply code of the server
+         */
+        public ReplyException(String message, int replyCode) {
+            super(message);
+            this.replyCode = replyCode;
+        }
+
+        /**
+         * Returns the reply code of the server.
+         *
+         * @return the reply code
+         */
+        public int getReplyCode() {
+            return replyCode;
+        }
+
+        /**
+         * Returns true if the server will give the same reply if asked
+         * again, like 550 for a file which is gone.
+         *
+         * @return true for a 5xx reply
+         */
+        public boolean isPermanent() {
+            return FTPReply.isNegativePermanent(replyCode);
+        }
+    }
 
     private String server;
     private int port;
     private String user;
     private String password;
     private FTPClient ftp;
+    private long bandwidthLimit = 0;
 
     /**
      * Constructor used to create the FtpClient.
@@ -56,82 +100,187 @@ public class FtpClient implements Runnable {
     }
 
     /**
-     * Runs the FtpClient thread.
+     * Opens a connection to the FTP server, logs in and sets binary passive
+     * transfers.
+     *
+     * @throws IOException if the server can not be reached or the login fails
      */
-    @Override
-    public void run() {
-        //this.open();
-        while (true) {
-            // be alive
+    public void open() throws IOException {
+        ftp = new FTPClient();
+        ftp.setConnectTimeout(CONNECT_TIMEOUT);
+        ftp.setDefaultTimeout(DATA_TIMEOUT);
+        ftp.setDataTimeout(DATA_TIMEOUT);
+        ftp.setBufferSize(BUFFER_SIZE);
+        ftp.connect(server, port);
+        int reply = ftp.getReplyCode();
+        if (!FTPReply.isPositiveCompletion(reply)) {
+            disconnect();
+            throw new IOException("Exception in connecting to FTP Server");
+        }
+        if (!ftp.login(user, password)) {
+            disconnect();
+            throw new IOException("Login to the FTP server failed: " + ftp.getReplyString().trim());
         }
+        ftp.enterLocalPassiveMode();
+        ftp.setFileType(FTP.BINARY_FILE_TYPE);
     }
 
     /**
-     * Opens a connection to the FTP server.
+     * Limits the speed of the downloads, so they leave room for other
+     * traffic on the link.
+     *
+     * @param bytesPerSecond the max speed in bytes per second, or 0 for no
+     * limit
      */
-    public void open() {
-        try {
-            ftp = new FTPClient();
-
-            ftp.addProtocolCommandListener(new PrintCommandListener(new PrintWriter(System.out)));
-
-            ftp.connect(server, port);
-            int reply = ftp.getReplyCode();
-            if (!FTPReply.isPositiveCompletion(reply)) {
-                ftp.disconnect();
-                throw new IOException("Exception in connecting to FTP Server");
-            }
+    public void setBandwidthLimit(long bytesPerSecond) {
+        this.bandwidthLimit = bytesPerSecond;
+    }
 
-            ftp.login(user, password);
-        } catch (IOException ex) {
-            System.out.println("IOException in FtpClient.open(): " + ex.getMessage());
+    /**
+     * Returns the time the file was last modified, from the MDTM command,
+     * which has better resolution than the file list.
+     *
+     * @param path the path of the file on the server
+     * @return the time in milliseconds, or -1 if the server did not tell
+     * @throws IOException if the command could not be sent
+     */
+    public long getModificationTime(String path) throws IOException {
+        FTPFile file = ftp.mdtmFile(path);
+        if (file == null || file.getTimestamp() == null) {
+            return -1;
         }
+        return file.getTimestamp().getTimeInMillis();
+    }
 
+    /**
+     * Returns true while connected to the FTP server.
+     *
+     * @return true if connected
+     */
+    public boolean isConnected() {
+        return ftp != null && ftp.isConnected();
     }
 
     /**
      * Returns a list of all the files in the given path.
      *
      * @param path the path to list from
-     * @return a list of all the files in the given path.
+     * @return a list of all the files in the given path, or null if the list
+     * could not be read
      */
     public Collection<String> getFileList(String path) {
-        Collection<String> fileList = null;
         try {
-            FTPFile[] files = ftp.listFiles(path);
-            fileList = Arrays.stream(files)
-                    .map(FTPFile::getName)
-                    .collect(Collectors.toList());
+            List<String> fileList = new ArrayList<>();
+            for (FTPFile file : listFiles(path)) {
+                fileList.add(file.getName());
+            }
+            return fileList;
+        } catch (IOException ex) {
+            System.out.println("IOException in FtpClient.getFileList(): " + ex.getMessage());
+            return null;
+        }
+    }
 
-        } catch (Exception ex) {
-            System.out.println(ex.getMessage());
+    /**
+     * Returns the files in the given path, with their sizes. Folders are not
+     * included.
+     *
+     * @param path the path to list from
+     * @return the files
+     * @throws IOException if the list could not be read
+     */
+    public List<FTPFile> listFiles(String path) throws IOException {
+        FTPFile[] files = ftp.listFiles(path);
+        if (!FTPReply.isPositiveCompletion(ftp.getReplyCode())) {
+            throw new ReplyException("Could not list " + path + ": " + ftp.getReplyString().trim(),
+                    ftp.getReplyCode());
+        }
+        List<FTPFile> fileList = new ArrayList<>();
+        for (FTPFile file : files) {
+            if (file != null && file.isFile()) {
+                fileList.add(file);
+            }
         }
         return fileList;
     }
 
     /**
-     * Downloads every file from the given folder path.
+     * Downloads a file. If the destination already has some of the file, the
+     * transfer is restarted at its end (REST) and the rest is appended. The
+     * speed is kept below the bandwidth limit, if set.
      *
-     * @param source the source
-     * @param destination the destination path of the image
-     * @param folderPath the folder path of the images
+     * @param source the path of the file on the server
+     * @param destination the local file
+     * @param transferred counts the bytes received, may be null
+     * @return the number of bytes received
+     * @throws ReplyException if the server refuses the file
+     * @throws IOException if the transfer fails
+     * @throws InterruptedIOException if the thread is interrupted
      */
-    public void downloadFile(String source, String destination, String folderPath) {
-        try {
-            Path destinationPath = Paths.get(folderPath);
-            if (Files.notExists(destinationPath)) {
-                boolean success = (new File(folderPath)).mkdirs();
-                if (!success) {
-                    System.out.println("Directory creation failed!");
-                } else {
-                    System.out.println("Directory created at " + destination);
+    public long downloadFile(String source, File destination, AtomicLong transferred) throws IOException {
+        File folder = destination.getAbsoluteFile().getParentFile();
+        if (folder != null && !folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Directory creation failed: " + folder);
+        }
+        long offset = destination.length();
+        ftp.setRestartOffset(offset);
+        long received = 0;
+        try (OutputStream out = new FileOutputStream(destination, offset > 0)) {
+            InputStream in = ftp.retrieveFileStream(source);
+            if (in == null) {
+                throw new ReplyException("Could not download " + source + ": " + ftp.getReplyString().trim(),
+                        ftp.getReplyCode());
+            }
+            try {
+                long limit = bandwidthLimit;
+                // Small reads when limited, so the traffic is spread evenly
+                byte[] buffer = new byte[limit > 0 ? (int) Math.max(1024, Math.min(BUFFER_SIZE, limit / 20))
+                        : BUFFER_SIZE];
+                long start = System.nanoTime();
+                int length;
+                while ((length = in.read(buffer)) != -1) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedIOException("Download of " + source + " interrupted");
+                    }
+                    out.write(buffer, 0, length);
+                    received += length;
+                    if (transferred != null) {
+                        transferred.addAndGet(length);
+                    }
+                    if (limit > 0) {
+                        throttle(start, received, limit);
+                    }
                 }
+            } finally {
+                in.close();
+            }
+        } finally {
+            ftp.setRestartOffset(0);
+        }
+        if (!ftp.completePendingCommand()) {
+            throw new ReplyException("Download of " + source + " failed: " + ftp.getReplyString().trim(),
+                    ftp.getReplyCode());
+        }
+        return received;
+    }
+
+    /**
+     * Sleeps until the bytes received are within the limit.
+     *
+     * @param start the time the download started, from System.nanoTime()
+     * @param received the bytes received
+     * @param limit the max speed in bytes per second
+     * @throws InterruptedIOException if the thread is interrupted
+     */
+    private static void throttle(long start, long received, long limit) throws InterruptedIOException {
+        long ahead = received * 1000 / limit - (System.nanoTime() - start) / 1000000;
+        if (ahead > 0) {
+            try {
+                Thread.sleep(ahead);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Download interrupted");
             }
-            ftp.setFileType(FTP.BINARY_FILE_TYPE);
-            FileOutputStream out = new FileOutputStream(destination);
-            ftp.retrieveFile(source, out);
-        } catch (IOException ex) {
-            System.out.println(ex.getMessage());
         }
     }
 
@@ -140,25 +289,26 @@ public class FtpClient implements Runnable {
      *
      */
     public void disconnect() {
-        if (ftp.isConnected()) {
+        if (ftp != null && ftp.isConnected()) {
             try {
                 ftp.disconnect();
-            } catch (Exception ex) {
+            } catch (IOException ex) {
                 System.out.println(ex.getMessage());
             }
         }
     }
 
     /**
-     * Closes the FTP connection.
-     *
-     * @throws IOException
+     * Logs out and closes the FTP connection.
      */
-    public void close() throws IOException {
-        try {
-            ftp.disconnect();
-        } catch (Exception ex) {
-            System.out.println(ex.getMessage());
+    public void close() {
+        if (ftp != null && ftp.isConnected()) {
+            try {
+                ftp.logout();
+            } catch (IOException ex) {
+                // Closed below anyway
+            }
         }
+        disconnect();
     }
 }
@@ -0,0 +1,463 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package ntnusubsea.gui;
+
+import basestation_rov.Metrics;
+import basestation_rov.TaskScope;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.net.ftp.FTPFile;
+
+/**
+ * Downloads all images in a folder on the camera RPi over several FTP
+ * sessions in parallel. Files which are already in the local folder with the
+ * same size are skipped. A file is downloaded to a ".part" file next to it,
+ * and renamed when its size is the size on the server, so a transfer which
+ * is cut off is resumed where it stopped, also in a later download.
+ *
+ * The progress is given to the listeners twice a second.
+ */
+public class FtpDownloader implements Runnable {
+
+    /**
+     * The number of parallel sessions if not given.
+     */
+    public static final int DEFAULT_SESSIONS = 4;
+
+    /**
+     * The folder the camera RPi saves the photos in.
+     */
+    public static final String CAMERA_FOLDER = "/home/pi/Pictures/";
+
+    /**
+     * The folder the photos from the camera are saved in.
+     */
+    public static final String PHOTO_FOLDER = "D://TowedRovPicture/Camera/";
+
+    /**
+     * The end of the name of a file which is being downloaded.
+     */
+    public static final String PART = ".part";
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_DELAY = 1000;
+    private static final long PROGRESS_PERIOD = 500;
+
+    /**
+     * Is told about the progress. Called on the thread of the downloader.
+     */
+    public interface Listener {
+
+        /**
+         * Called twice a second while downloading, and once when done.
+         *
+         * @param progress the progress
+         */
+        void progress(Progress progress);
+    }
+
+    /**
+     * The progress of a download, at one time.
+     */
+    public static final class Progress {
+
+        private final int filesTotal;
+        private final int filesDone;
+        private final int filesSkipped;
+        private final int filesFailed;
+        private final long bytesTotal;
+        private final long bytesDone;
+        private final long bytesPerSecond;
+        private final long elapsedMillis;
+        private final boolean finished;
+
+        /**
+         * The constructor of the Progress class.
+         *
+         * @param filesTotal the number of files on the server
+         * @param filesDone the number of files downloaded
+         * @param filesSkipped the number of files already downloaded before
+         * @param filesFailed the number of files which could not be downloaded
+         * @param bytesTotal the number of bytes to download
+         * @param bytesDone the number of bytes downloaded
+         * @param bytesPerSecond the throughput the last period
+         * @param elapsedMillis the time since the download started
+         * @param finished true if the download has stopped
+         */
+        Progress(int filesTotal, int filesDone, int filesSkipped, int filesFailed, long bytesTotal,
+                long bytesDone, long bytesPerSecond, long elapsedMillis, boolean finished) {
+            this.filesTotal = filesTotal;
+            this.filesDone = filesDone;
+            this.filesSkipped = filesSkipped;
+            this.filesFailed = filesFailed;
+            this.bytesTotal = bytesTotal;
+            this.bytesDone = bytesDone;
+            this.bytesPerSecond = bytesPerSecond;
+            this.elapsedMillis = elapsedMillis;
+            this.finished = finished;
+        }
+
+        /**
+         * Returns the number of files on the server.
+         *
+         * @return the number of files
+         */
+        public int getFilesTotal() {
+            return filesTotal;
+        }
+
+        /**
+         * Returns the number of files downloaded.
+         *
+         * @return the number of files
+         */
+        public int getFilesDone() {
+            return filesDone;
+        }
+
+        /**
+         * Returns the number of files which were already downloaded.
+         *
+         * @return the number of files
+         */
+        public int getFilesSkipped() {
+            return filesSkipped;
+        }
+
+        /**
+         * Returns the number of files which could not be downloaded.
+         *
+         * @return the number of files
+         */
+        public int getFilesFailed() {
+            return filesFailed;
+        }
+
+        /**
+         * Returns the number of bytes to download, not counting the files
+         * skipped and the parts downloaded before, and counting the files
+         * downloaded again after a wrong size.
+         *
+         * @return the number of bytes
+         */
+        public long getBytesTotal() {
+            return bytesTotal;
+        }
+
+        /**
+         * Returns the number of bytes downloaded.
+         *
+         * @return the number of bytes
+         */
+        public long getBytesDone() {
+            return bytesDone;
+        }
+
+        /**
+         * Returns the throughput the last period.
+         *
+         * @return the throughput in bytes per second
+         */
+        public long getBytesPerSecond() {
+            return bytesPerSecond;
+        }
+
+        /**
+         * Returns the time since the download started.
+         *
+         * @return the time in milliseconds
+         */
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /**
+         * Returns true if the download has stopped.
+         *
+         * @return true if finished
+         */
+        public boolean isFinished() {
+            return finished;
+        }
+
+        /**
+         * Returns the done part of the download.
+         *
+         * @return the part, from 0 to 1
+         */
+        public double getFraction() {
+            if (bytesTotal > 0) {
+                return Math.min(1.0, bytesDone / (double) bytesTotal);
+            }
+            return filesTotal == 0 || finished ? 1.0
+                    : (filesDone + filesSkipped + filesFailed) / (double) filesTotal;
+        }
+
+        /**
+         * Returns the progress as a line of text.
+         *
+         * @return the text
+         */
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            text.append(filesDone + filesSkipped).append('/').append(filesTotal).append(" files");
+            if (filesSkipped > 0) {
+                text.append(" (").append(filesSkipped).append(" already downloaded)");
+            }
+            text.append(String.format(Locale.US, ", %.1f/%.1f MB, %.1f MB/s",
+                    bytesDone / 1e6, bytesTotal / 1e6, bytesPerSecond / 1e6));
+            if (filesFailed > 0) {
+                text.append(", ").append(filesFailed).append(" failed");
+            }
+            long average = elapsedMillis > 0 ? bytesDone * 1000 / elapsedMillis : 0;
+            if (!finished && average > 0 && bytesTotal > bytesDone) {
+                text.append(", ").append((bytesTotal - bytesDone) / average + 1).append(" s left");
+            }
+            return text.toString();
+        }
+    }
+
+    private final String IP;
+    private final String remoteFolder;
+    private final File localFolder;
+    private final int sessions;
+    private final Metrics metrics;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private final ConcurrentLinkedQueue<FTPFile> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong bytesDone = new AtomicLong();
+    private final AtomicInteger filesDone = new AtomicInteger();
+    private final AtomicInteger filesFailed = new AtomicInteger();
+    private int filesTotal = 0;
+    private int filesSkipped = 0;
+    private final AtomicLong bytesTotal = new AtomicLong();
+    private long startTime;
+    private volatile Progress progress = new Progress(0, 0, 0, 0, 0, 0, 0, 0, false);
+
+    /**
+     * The constructor of the FtpDownloader class.
+     *
+     * @param IP the IP of the camera RPi
+     * @param remoteFolder the folder on the camera RPi to download
+     * @param localFolder the folder to put the files in
+     * @param sessions the number of parallel FTP sessions
+     * @param metrics the metrics to count the transfers in
+     */
+    public FtpDownloader(String IP, String remoteFolder, File localFolder, int sessions, Metrics metrics) {
+        if (sessions < 1) {
+            throw new IllegalArgumentException("At least one session is needed");
+        }
+        this.IP = IP;
+        this.remoteFolder = remoteFolder.endsWith("/") ? remoteFolder : remoteFolder + "/";
+        this.localFolder = localFolder;
+        this.sessions = sessions;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Adds a listener which is told about the progress.
+     *
+     * @param listener the listener
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Returns the last progress.
+     *
+     * @return the progress
+     */
+    public Progress getProgress() {
+        return progress;
+    }
+
+    /**
+     * Runs the download. Lists the files, then downloads the files which are
+     * missing over the sessions, and returns when all are done or the thread
+     * is interrupted.
+     */
+    @Override
+    public void run() {
+        startTime = System.currentTimeMillis();
+        TaskScope scope = new TaskScope("FtpDownloader");
+        try {
+            plan();
+            System.out.println("Downloading " + queue.size() + " of " + filesTotal + " files from "
+                    + IP + ":" + remoteFolder + " to " + localFolder);
+            int count = Math.min(sessions, queue.size());
+            for (int i = 0; i < count; i++) {
+                scope.fork("Session" + i, new Runnable() {
+                    @Override
+                    public void run() {
+                        runSession();
+                    }
+                });
+            }
+            long lastTime = System.currentTimeMillis();
+            long lastBytes = 0;
+            while (!scope.awaitTermination(PROGRESS_PERIOD)) {
+                long now = System.currentTimeMillis();
+                long bytes = bytesDone.get();
+                publish(now > lastTime ? (bytes - lastBytes) * 1000 / (now - lastTime) : 0, false);
+                lastTime = now;
+                lastBytes = bytes;
+            }
+        } catch (IOException ex) {
+            System.out.println("IOException in FtpDownloader.run(): " + ex.getMessage());
+        } catch (InterruptedException ex) {
+            System.out.println("Download from " + IP + " cancelled");
+        } finally {
+            scope.close();
+            long elapsed = System.currentTimeMillis() - startTime;
+            publish(elapsed > 0 ? bytesDone.get() * 1000 / elapsed : 0, true);
+            System.out.println("Download from " + IP + " finished: " + progress);
+        }
+    }
+
+    /**
+     * Lists the files on the server and queues those which are not
+     * downloaded.
+     *
+     * @throws IOException if the files could not be listed
+     */
+    private void plan() throws IOException {
+        if (!localFolder.isDirectory() && !localFolder.mkdirs()) {
+            throw new IOException("Directory creation failed: " + localFolder);
+        }
+        FtpClient client = new FtpClient(IP);
+        List<FTPFile> files;
+        try {
+            client.open();
+            files = client.listFiles(remoteFolder);
+        } finally {
+            client.close();
+        }
+        for (FTPFile file : files) {
+            filesTotal++;
+            File local = new File(localFolder, file.getName());
+            if (local.isFile() && local.length() == file.getSize()) {
+                filesSkipped++;
+                continue;
+            }
+            File part = new File(localFolder, file.getName() + PART);
+            if (part.length() > file.getSize()) {
+                Files.delete(part.toPath());
+            }
+            bytesTotal.addAndGet(file.getSize() - part.length());
+            queue.add(file);
+        }
+    }
+
+    /**
+     * Runs one FTP session, which downloads files from the queue until it is
+     * empty. The session is opened again after an error.
+     */
+    private void runSession() {
+        FtpClient client = new FtpClient(IP);
+        try {
+            FTPFile file;
+            while ((file = queue.poll()) != null && !Thread.currentThread().isInterrupted()) {
+                if (download(client, file)) {
+                    filesDone.incrementAndGet();
+                    metrics.counter("ftp.files").incrementAndGet();
+                } else {
+                    filesFailed.incrementAndGet();
+                }
+            }
+        } finally {
+            client.close();
+        }
+    }
+
+    /**
+     * Downloads one file, resuming the part already downloaded, and tries
+     * again after an error. A permanent (5xx) reply from the server is not
+     * tried again.
+     *
+     * @param client the session
+     * @param file the file on the server
+     * @return true if the file was downloaded with the right size
+     */
+    private boolean download(FtpClient client, FTPFile file) {
+        File local = new File(localFolder, file.getName());
+        File part = new File(localFolder, file.getName() + PART);
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            try {
+                if (!client.isConnected()) {
+                    client.open();
+                }
+                long start = System.nanoTime();
+                long received = client.downloadFile(remoteFolder + file.getName(), part, bytesDone);
+                metrics.counter("ftp.bytes").addAndGet(received);
+                if (part.length() != file.getSize()) {
+                    // Start over, the part on disk can not be trusted. The
+                    // bytes received stay done, the whole file is to do again
+                    String error = file.getName() + " has " + part.length()
+                            + " bytes, the server has " + file.getSize();
+                    bytesTotal.addAndGet(part.length());
+                    Files.delete(part.toPath());
+                    throw new IOException(error);
+                }
+                Files.move(part.toPath(), local.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                metrics.histogram("ftp.file").record(System.nanoTime() - start);
+                return true;
+            } catch (InterruptedIOException ex) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (IOException ex) {
+                if (ex instanceof FtpClient.ReplyException && ((FtpClient.ReplyException) ex).isPermanent()) {
+                    // The server will refuse it again, and the session is
+                    // still good for the next file
+                    System.out.println("Download of " + file.getName() + " refused: " + ex.getMessage());
+                    return false;
+                }
+                System.out.println("Download of " + file.getName() + " failed (attempt " + attempt + "): "
+                        + ex.getMessage());
+                client.disconnect();
+                try {
+                    Thread.sleep(RETRY_DELAY);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Makes a new progress and gives it to the listeners.
+     *
+     * @param bytesPerSecond the throughput
+     * @param finished true if the download has stopped
+     */
+    private void publish(long bytesPerSecond, boolean finished) {
+        progress = new Progress(filesTotal, filesDone.get(), filesSkipped, filesFailed.get(), bytesTotal.get(),
+                bytesDone.get(), bytesPerSecond, System.currentTimeMillis() - startTime, finished);
+        for (Listener listener : listeners) {
+            listener.progress(progress);
+        }
+    }
+}
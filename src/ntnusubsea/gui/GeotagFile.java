@@ -0,0 +1,225 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package ntnusubsea.gui;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The file photos.csv in a photo folder, with the time and the position of
+ * the ROV for each photo in the folder. It is written when the photos are
+ * saved, and read by the photo browser, so the photos can be found by depth
+ * and position without opening them.
+ */
+public final class GeotagFile {
+
+    /**
+     * The name of the file.
+     */
+    public static final String NAME = "photos.csv";
+
+    private static final String HEADER = "File,Time,Time source,Latitude,Longitude,Depth (m),Heading";
+    private static final String DATE_FORMAT = "yyyy-MM-dd HH:mm:ss.SSS";
+
+    /**
+     * The time and position of one photo.
+     */
+    public static final class Tag {
+
+        private final String name;
+        private final long time;
+        private final String source;
+        private final double latitude;
+        private final double longitude;
+        private final double depth;
+        private final double heading;
+
+        /**
+         * The constructor of the Tag class. Use NaN for the values which are
+         * not known.
+         *
+         * @param name the file name of the photo
+         * @param time the time the photo was taken in milliseconds
+         * @param source where the time is from
+         * @param latitude the latitude in degrees
+         * @param longitude the longitude in degrees
+         * @param depth the depth in meters
+         * @param heading the heading in degrees
+         */
+        public Tag(String name, long time, String source, double latitude, double longitude,
+                double depth, double heading) {
+            this.name = name;
+            this.time = time;
+            this.source = source;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.depth = depth;
+            this.heading = heading;
+        }
+
+        /**
+         * Returns the file name of the photo.
+         *
+         * @return the name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the time the photo was taken.
+         *
+         * @return the time in milliseconds
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * Returns where the time is from.
+         *
+         * @return the source of the time
+         */
+        public String getSource() {
+            return source;
+        }
+
+        /**
+         * Returns the latitude.
+         *
+         * @return the latitude in degrees, or NaN if not known
+         */
+        public double getLatitude() {
+            return latitude;
+        }
+
+        /**
+         * Returns the longitude.
+         *
+         * @return the longitude in degrees, or NaN if not known
+         */
+        public double getLongitude() {
+            return longitude;
+        }
+
+        /**
+         * Returns the depth.
+         *
+         * @return the depth in meters, or NaN if not known
+         */
+        public double getDepth() {
+            return depth;
+        }
+
+        /**
+         * Returns the heading.
+         *
+         * @return the heading in degrees, or NaN if not known
+         */
+        public double getHeading() {
+            return heading;
+        }
+    }
+
+    /**
+     * Only static methods.
+     */
+    private GeotagFile() {
+    }
+
+    /**
+     * Adds the tag of a photo to the file in the folder.
+     *
+     * @param folder the folder of the photo
+     * @param tag the tag
+     */
+    public static synchronized void append(File folder, Tag tag) {
+        File file = new File(folder, NAME);
+        boolean header = !file.exists();
+        try (PrintWriter out = new PrintWriter(new FileWriter(file, true))) {
+            if (header) {
+                out.println(HEADER);
+            }
+            out.println(tag.name + "," + new SimpleDateFormat(DATE_FORMAT).format(new Date(tag.time)) + ","
+                    + tag.source + "," + format("%.6f", tag.latitude) + "," + format("%.6f", tag.longitude)
+                    + "," + format("%.2f", tag.depth) + "," + format("%.1f", tag.heading));
+        } catch (IOException ex) {
+            System.out.println("IOException in GeotagFile.append(): " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Reads the tags of the photos in a folder.
+     *
+     * @param folder the folder
+     * @return the tags by file name, empty if the folder has no file
+     */
+    public static Map<String, Tag> read(File folder) {
+        Map<String, Tag> tags = new HashMap<>();
+        File file = new File(folder, NAME);
+        if (!file.isFile()) {
+            return tags;
+        }
+        SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_FORMAT);
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            String line = in.readLine();
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split(",", -1);
+                if (fields.length < 7) {
+                    continue;
+                }
+                try {
+                    tags.put(fields[0], new Tag(fields[0], dateFormat.parse(fields[1]).getTime(), fields[2],
+                            parse(fields[3]), parse(fields[4]), parse(fields[5]), parse(fields[6])));
+                } catch (ParseException | NumberFormatException ex) {
+                    System.out.println("Bad line in " + file + ": " + line);
+                }
+            }
+        } catch (IOException ex) {
+            System.out.println("IOException in GeotagFile.read(): " + ex.getMessage());
+        }
+        return tags;
+    }
+
+    /**
+     * Formats a value, or an empty field if it is not known.
+     *
+     * @param format the format of the value
+     * @param value the value
+     * @return the field
+     */
+    private static String format(String format, double value) {
+        return Double.isNaN(value) ? "" : String.format(Locale.US, format, value);
+    }
+
+    /**
+     * Parses a field, NaN if it is empty.
+     *
+     * @param field the field
+     * @return the value
+     */
+    private static double parse(String field) {
+        return field.isEmpty() ? Double.NaN : Double.parseDouble(field);
+    }
+}
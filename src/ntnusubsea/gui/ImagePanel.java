@@ -13,6 +13,7 @@
  */
 package ntnusubsea.gui;
 
+import basestation_rov.Metrics;
 import java.awt.Graphics;
 import java.awt.image.BufferedImage;
 import javax.swing.JPanel;
@@ -26,6 +27,9 @@ public class ImagePanel extends JPanel {
 
     private BufferedImage image;
     private int width, height;
+    private volatile long imageTime = 0;
+    private long paintedTime = 0;
+    private Metrics metrics = null;
 
     /**
      * Constructor used to create the Sheet object
@@ -44,11 +48,34 @@ public class ImagePanel extends JPanel {
      * @param img Image to display in the component
      */
     public void paintSheet(BufferedImage img) {
+        paintSheet(img, 0);
+    }
+
+    /**
+     * This methods updates the sheet to display the image used as a input
+     * parameter, and records the time from the image was received until it
+     * is painted.
+     *
+     * @param img Image to display in the component
+     * @param receivedTime the System.nanoTime the image was received, or 0
+     */
+    public void paintSheet(BufferedImage img, long receivedTime) {
         image = null;
         image = img;
+        imageTime = receivedTime;
         repaint();
     }
 
+    /**
+     * Sets the metrics the paint latency is recorded in, as
+     * "video.receiveToPaint".
+     *
+     * @param metrics the metrics
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
     /**
      * Uses the the paintComponent method of the super class and makes the
      * component compatible with bufferedImage
@@ -59,5 +86,12 @@ public class ImagePanel extends JPanel {
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
         g.drawImage(image, 0, 0, this);
+        long time = imageTime;
+        if (metrics != null && time != 0 && time != paintedTime) {
+            // Only the first paint of each frame counts
+            paintedTime = time;
+            metrics.histogram("video.receiveToPaint").record(System.nanoTime() - time);
+            metrics.counter("video.painted").incrementAndGet();
+        }
     }
 }
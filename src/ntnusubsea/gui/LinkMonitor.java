@@ -0,0 +1,396 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package ntnusubsea.gui;
+
+import basestation_rov.LatencyHistogram;
+import basestation_rov.LinkStatistics;
+import basestation_rov.Metrics;
+import basestation_rov.IoReactor;
+import basestation_rov.RequestConnection;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Monitors the link to the ROV RPi, replacing the old TCPpinger. Each run
+ * sends one probe, and the answers are kept in a sliding window of
+ * LinkStatistics, so the state of the link is decided from the loss, the
+ * round trip percentiles and the jitter, with hysteresis, instead of from
+ * one sample.
+ *
+ * By default the probes are "ping" commands on the TCP connection to the ROV
+ * server which the telemetry and the commands also use, so the statistics
+ * describe the link the data is on. The connection hands every answer to the
+ * probe it belongs to, so a late answer is never mistaken for a newer one.
+ * If an echo port is set, the probes are UDP datagrams with a sequence
+ * number and a timestamp which the RPi sends back unchanged, so several
+ * probes can be in flight. Schedule the monitor at the probe interval.
+ *
+ * @author Towed ROV 2019 https://ntnuopen.ntnu.no/ntnu-xmlui/handle/11250/2564356
+ */
+public class LinkMonitor implements Runnable, RequestConnection.Listener {
+
+    private static final int WINDOW_SIZE = 50;
+    private static final int DOWN_AFTER_LOSSES = 5;
+    private static final int UP_AFTER_SUCCESSES = 10;
+    private static final double DEGRADED_LOSS = 0.1;
+    private static final double DEGRADED_RTT_MILLIS = 500;
+    private static final int MAX_PENDING = 64;
+    private static final String PROBE_PREFIX = "probe:";
+
+    private final String IP;
+    private final int echoPort;
+    private final long probeInterval;
+    private final long timeoutMillis;
+    private final Data data;
+    private final LinkStatistics statistics = new LinkStatistics(WINDOW_SIZE,
+            DOWN_AFTER_LOSSES, UP_AFTER_SUCCESSES, DEGRADED_LOSS, DEGRADED_RTT_MILLIS);
+    private final LatencyHistogram rttHistogram;
+    private volatile boolean running = false;
+
+    // TCP probes
+    private final RequestConnection connection;
+    private boolean tcpConnected = false;
+    // The send time of the unanswered TCP probe, or -1
+    private long tcpProbeTime = -1;
+    // Counts the TCP probes, so the answer to a probe counted as lost is
+    // not taken as the answer to the next one
+    private long tcpProbeCount = 0;
+
+    // UDP probes, indexed by the sequence number modulo MAX_PENDING
+    private DatagramChannel echoChannel;
+    private InetSocketAddress echoAddress;
+    private final ByteBuffer echoBuffer = ByteBuffer.allocate(128);
+    private final long[] pendingSeq = new long[MAX_PENDING];
+    private final long[] pendingTime = new long[MAX_PENDING];
+    private long nextSeq = 0;
+
+    /**
+     * The constructor of the LinkMonitor class.
+     *
+     * @param IP the IP of the ROV RPi
+     * @param echoPort the UDP echo port of the RPi, or 0 to probe over TCP
+     * @param probeInterval the time between each probe in milliseconds
+     * @param timeoutMillis the time before a probe is counted as lost
+     * @param data the shared resource Data class
+     * @param connection the connection to the ROV server, shared with the
+     * TCPClient and used for TCP probes
+     */
+    public LinkMonitor(String IP, int echoPort, long probeInterval, long timeoutMillis,
+            Data data, RequestConnection connection) {
+        this.IP = IP;
+        this.echoPort = echoPort;
+        this.probeInterval = probeInterval;
+        this.timeoutMillis = timeoutMillis;
+        this.data = data;
+        this.connection = connection;
+        this.tcpConnected = connection.isConnected();
+        connection.addListener(this);
+        this.rttHistogram = data.getMetrics().histogram("link.rov.rtt");
+        data.getMetrics().gauge("link.rov.lossPercent", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return Math.round(statistics.getLossRatio() * 100);
+            }
+        });
+        Arrays.fill(pendingSeq, -1);
+    }
+
+    /**
+     * Starts monitoring. The statistics start from scratch. The TCP
+     * connection is opened and closed by the TCPClient.
+     */
+    public synchronized void start() {
+        statistics.reset();
+        running = true;
+    }
+
+    /**
+     * Stops monitoring.
+     */
+    public synchronized void stop() {
+        running = false;
+        tcpProbeTime = -1;
+        if (echoChannel != null) {
+            try {
+                echoChannel.close();
+            } catch (IOException ex) {
+                System.out.println("IOException in LinkMonitor: " + ex.getMessage());
+            }
+            echoChannel = null;
+        }
+        statistics.reset();
+        data.setRovPing(999.99);
+    }
+
+    /**
+     * Sends one probe, or counts an unanswered one as lost. The answers are
+     * received on the IoReactor thread, so this never blocks.
+     */
+    @Override
+    public void run() {
+        if (!running) {
+            return;
+        }
+        try {
+            if (echoPort > 0) {
+                probeUdp();
+            } else {
+                probeTcp();
+            }
+        } catch (Exception ex) {
+            System.out.println("Exception in LinkMonitor: " + ex.getMessage());
+        }
+        data.setRovPing(statistics.getState() == LinkStatistics.State.DOWN
+                ? 0.00 : Math.max(0, statistics.getPercentileMillis(50)));
+    }
+
+    /**
+     * Sends a "ping" over the TCP connection, answered by "<ping:true>" on the
+     * IoReactor thread. A probe not answered within the timeout is lost, and
+     * its answer is ignored if it comes later. The connection itself is made
+     * again by the RequestConnection if the server stops answering. While the
+     * connection is down, every probe is lost.
+     */
+    private synchronized void probeTcp() {
+        if (!tcpConnected) {
+            statistics.addLoss();
+            return;
+        }
+        long now = System.nanoTime();
+        if (tcpProbeTime >= 0) {
+            if (now - tcpProbeTime < timeoutMillis * 1000000) {
+                // Still waiting for the answer
+                return;
+            }
+            tcpProbeTime = -1;
+            statistics.addLoss();
+        }
+        final long probe = ++tcpProbeCount;
+        try {
+            connection.send("ping", new RequestConnection.ReplyHandler() {
+                @Override
+                public void onReply(String line) {
+                    probeAnswered(probe, line);
+                }
+
+                @Override
+                public void onNoReply() {
+                    // Every probe is lost while the connection is down
+                }
+            });
+            tcpProbeTime = now;
+        } catch (IOException ex) {
+            statistics.addLoss();
+        }
+    }
+
+    /**
+     * Handles the answer to a TCP probe on the IoReactor thread.
+     *
+     * @param probe the number of the probe
+     * @param line the answer
+     */
+    private void probeAnswered(long probe, String line) {
+        long receiveTime = System.nanoTime();
+        long sendTime;
+        synchronized (this) {
+            if (probe != tcpProbeCount || tcpProbeTime < 0) {
+                // Already counted as lost
+                return;
+            }
+            sendTime = tcpProbeTime;
+            tcpProbeTime = -1;
+            if (!line.equals("<ping:true>")) {
+                statistics.addLoss();
+                return;
+            }
+        }
+        addSample(receiveTime - sendTime);
+    }
+
+    /**
+     * Called when the connection to the ROV server is made.
+     */
+    @Override
+    public synchronized void onConnected() {
+        tcpProbeTime = -1;
+        tcpConnected = true;
+    }
+
+    /**
+     * Called when the connection to the ROV server is lost.
+     */
+    @Override
+    public synchronized void onDisconnected() {
+        tcpProbeTime = -1;
+        tcpConnected = false;
+    }
+
+    /**
+     * Counts the UDP probes which are not answered within the timeout as
+     * lost, and sends a new probe.
+     *
+     * @throws IOException if the probe could not be sent
+     */
+    private void probeUdp() throws IOException {
+        DatagramChannel channel = openEchoChannel();
+        long now = System.nanoTime();
+        long timeoutNanos = timeoutMillis * 1000000;
+        synchronized (this) {
+            for (int i = 0; i < MAX_PENDING; i++) {
+                if (pendingSeq[i] >= 0 && now - pendingTime[i] > timeoutNanos) {
+                    pendingSeq[i] = -1;
+                    statistics.addLoss();
+                }
+            }
+            int slot = (int) (nextSeq % MAX_PENDING);
+            if (pendingSeq[slot] >= 0) {
+                // Still waiting after MAX_PENDING probes
+                statistics.addLoss();
+            }
+            pendingSeq[slot] = nextSeq;
+            pendingTime[slot] = now;
+        }
+        byte[] probe = (PROBE_PREFIX + nextSeq + ":" + now).getBytes(StandardCharsets.US_ASCII);
+        nextSeq++;
+        channel.send(ByteBuffer.wrap(probe), echoAddress);
+    }
+
+    /**
+     * Opens the UDP channel and registers it with the IoReactor, which
+     * receives the echoes.
+     *
+     * @return the channel
+     * @throws IOException if the channel could not be opened
+     */
+    private synchronized DatagramChannel openEchoChannel() throws IOException {
+        if (echoChannel == null) {
+            final DatagramChannel channel = DatagramChannel.open();
+            channel.configureBlocking(false);
+            echoAddress = new InetSocketAddress(IP, echoPort);
+            echoChannel = channel;
+            final IoReactor reactor = connection.getReactor();
+            reactor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        reactor.register(channel, SelectionKey.OP_READ, new IoReactor.ChannelHandler() {
+                            @Override
+                            public void ready(SelectionKey key) {
+                                receiveEchoes(channel);
+                            }
+                        });
+                    } catch (IOException ex) {
+                        System.out.println("IOException in LinkMonitor: " + ex.getMessage());
+                    }
+                }
+            });
+        }
+        return echoChannel;
+    }
+
+    /**
+     * Receives the echoed probes waiting on the channel. Runs on the
+     * IoReactor thread.
+     *
+     * @param channel the channel to receive on
+     */
+    private void receiveEchoes(DatagramChannel channel) {
+        while (channel.isOpen()) {
+            try {
+                echoBuffer.clear();
+                if (channel.receive(echoBuffer) == null) {
+                    return;
+                }
+                long receiveTime = System.nanoTime();
+                echoBuffer.flip();
+                String echo = StandardCharsets.US_ASCII.decode(echoBuffer).toString();
+                if (!echo.startsWith(PROBE_PREFIX)) {
+                    continue;
+                }
+                String[] fields = echo.substring(PROBE_PREFIX.length()).trim().split(":");
+                long seq = Long.parseLong(fields[0]);
+                long sendTime = Long.parseLong(fields[1]);
+                synchronized (this) {
+                    int slot = (int) (seq % MAX_PENDING);
+                    if (pendingSeq[slot] != seq) {
+                        // Already counted as lost
+                        continue;
+                    }
+                    pendingSeq[slot] = -1;
+                }
+                addSample(receiveTime - sendTime);
+            } catch (IOException ex) {
+                if (channel.isOpen()) {
+                    System.out.println("IOException in LinkMonitor: " + ex.getMessage());
+                }
+                return;
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+                System.out.println("Invalid echo in LinkMonitor");
+            }
+        }
+    }
+
+    /**
+     * Adds an answered probe to the statistics and the metrics.
+     *
+     * @param rttNanos the round trip time in nanoseconds
+     */
+    private void addSample(long rttNanos) {
+        statistics.addSample(rttNanos);
+        rttHistogram.record(rttNanos);
+    }
+
+    /**
+     * Returns the time between each probe, the rate the monitor should be
+     * scheduled at.
+     *
+     * @return the probe interval in milliseconds
+     */
+    public long getProbeInterval() {
+        return probeInterval;
+    }
+
+    /**
+     * Returns true while monitoring.
+     *
+     * @return true if monitoring
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Returns the state of the link.
+     *
+     * @return the state of the link
+     */
+    public LinkStatistics.State getState() {
+        return statistics.getState();
+    }
+
+    /**
+     * Returns the statistics of the link.
+     *
+     * @return the statistics
+     */
+    public LinkStatistics getStatistics() {
+        return statistics;
+    }
+}
@@ -13,10 +13,15 @@
  */
 package ntnusubsea.gui;
 
+import basestation_rov.ConnectionManager;
+import basestation_rov.IoReactor;
 import basestation_rov.LogFileHandler;
+import basestation_rov.Metrics;
 import basestation_rov.SerialDataHandler;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import basestation_rov.TaskScope;
+import basestation_rov.calibrationClasses.StepperHealth;
+import java.io.File;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import javax.swing.SwingUtilities;
 
@@ -35,15 +40,23 @@ public class NTNUSubseaGUI {
 //    private static Thread ROVDummyThread;
 
     private static Thread InputControllerThread;
-    private static Thread comPortFinderThread;
 
     protected static String ipAddress = "localHost";
     protected static int sendPort = 5057;
-    protected static String IP_ROV = "192.168.0.101";
-    protected static String IP_camera = "192.168.0.102";
-    protected static int Port_ROV = 8088;
-    protected static int Port_cameraStream = 8083;
-    protected static int Port_cameraCom = 9006;
+    // Can be overridden with -Dtowedrov.rov.ip=localhost etc. to connect to
+    // the simulator in the simulator package
+    protected static String IP_ROV = System.getProperty("towedrov.rov.ip", "192.168.0.101");
+    protected static String IP_camera = System.getProperty("towedrov.camera.ip", "192.168.0.102");
+    protected static String vehicleName = System.getProperty("towedrov.name", "rov");
+    protected static int Port_ROV = Integer.getInteger("towedrov.rov.port", 8088);
+    protected static int Port_cameraStream = Integer.getInteger("towedrov.camera.streamPort", 8083);
+    protected static int Port_cameraCom = Integer.getInteger("towedrov.camera.port", 9006);
+    // A UDP echo port on the ROV RPi for the link monitor, 0 to ping over TCP
+    protected static int Port_ROVecho = Integer.getInteger("towedrov.rov.echoPort", 0);
+    protected static int linkProbeInterval = Integer.getInteger("towedrov.link.interval", 200);
+    protected static int linkProbeTimeout = Integer.getInteger("towedrov.link.timeout", 1000);
+    protected static int connectTimeout = Integer.getInteger("towedrov.connectTimeout", 2000);
+    protected static int dataUpdatePeriod = Integer.getInteger("towedrov.dataUpdatePeriod", 100);
     protected static ROVFrame frame;
 
     /**
@@ -55,36 +68,94 @@ public class NTNUSubseaGUI {
     public static void main(String[] args) {
 
         Data data = new Data();
-        Sounder sounder = new Sounder();
+        Sounder sounder = new Sounder(data.getMetrics());
         SerialDataHandler sdh = new SerialDataHandler(data);
         EchoSounderFrame sonar = new EchoSounderFrame(data);
         LogFileHandler lgh = new LogFileHandler(data);
-        TCPpinger client_Pinger = new TCPpinger(IP_ROV, Port_ROV, data);
-        TCPClient client_ROV = new TCPClient(IP_ROV, Port_ROV, data);
-        TCPClient client_Camera = new TCPClient(IP_camera, Port_cameraCom, data);
-        UDPServer stream = new UDPServer(Port_cameraStream, data);
+        IoReactor reactor = new IoReactor("IoReactor");
+        ConnectionManager connections = new ConnectionManager(reactor, connectTimeout, 500, 8000);
+        VehicleConfig mainConfig = new VehicleConfig(vehicleName, IP_ROV, Port_ROV, Port_ROVecho,
+                IP_camera, Port_cameraCom, Port_cameraStream);
+        Vehicle vehicle = new Vehicle(mainConfig, data, connections, linkProbeInterval, linkProbeTimeout);
+        LinkMonitor linkMonitor = vehicle.getLinkMonitor();
+        TCPClient client_ROV = vehicle.getRovClient();
+        TCPClient client_Camera = vehicle.getCameraClient();
+        UDPServer stream = vehicle.getVideoServer();
         IOControlFrame io = new IOControlFrame(data, client_ROV);
-        frame = new ROVFrame(sonar, data, io, client_Pinger, client_ROV, client_Camera, stream, sounder, lgh);
-        DataUpdater dataUpdater = new DataUpdater(client_ROV, client_Camera, data);
+        SeabedPlanner seabedPlanner = new SeabedPlanner(data, vehicle.getCommandChannel());
+        StepperHealth stepperHealth = new StepperHealth(data, vehicle.getCommandChannel(), new File("Stepper Health.csv"));
+        AlarmEngine alarmEngine = new AlarmEngine(data, linkMonitor, stepperHealth, sounder);
+        PhotoSync photoSync = new PhotoSync(data, FtpDownloader.CAMERA_FOLDER, new File(FtpDownloader.PHOTO_FOLDER));
+        frame = new ROVFrame(sonar, data, io, linkMonitor, client_ROV, vehicle.getCommandChannel(), seabedPlanner, stepperHealth, client_Camera, stream, alarmEngine, photoSync, lgh);
+        connections.addListener(new ConnectionManager.StateListener() {
+            @Override
+            public void stateChanged(ConnectionManager.Connection connection,
+                    ConnectionManager.State oldState, ConnectionManager.State newState) {
+                frame.updateConnectionStatus();
+            }
+        });
 
-        ScheduledExecutorService executor
-                = Executors.newScheduledThreadPool(8);
+        // The tasks which block, or loop forever, each run in a thread of
+        // their own in the app scope. The pool only runs the short logging
+        // task.
+        final TaskScope tasks = new TaskScope("app");
+        final ScheduledThreadPoolExecutor executor
+                = new ScheduledThreadPoolExecutor(1);
+        data.getMetrics().startGcMonitor();
+        data.getMetrics().gauge("executor.active", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return executor.getActiveCount();
+            }
+        });
+        data.getMetrics().gauge("executor.queue", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return executor.getQueue().size();
+            }
+        });
+        data.getMetrics().gauge("tasks.active", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return tasks.getActiveCount();
+            }
+        });
         SwingUtilities.invokeLater(frame);
         SwingUtilities.invokeLater(io);
         sonar.setVisible(false);
         data.addObserver(sonar);
         data.addObserver(frame);
         data.addObserver(io);
+        data.addObserver(stepperHealth);
+        data.addObserver(photoSync);
         executor.scheduleAtFixedRate(lgh,
                 0, 100, TimeUnit.MILLISECONDS);
-        executor.scheduleAtFixedRate(sonar,
-                0, 100, TimeUnit.MILLISECONDS);
-        executor.scheduleAtFixedRate(dataUpdater,
-                1000, 100, TimeUnit.MILLISECONDS);
+        // Loads the alarm tones at once, so they are ready before an alarm
+        tasks.fork("Sounder", sounder);
+        tasks.fork("EchoSounder", sonar);
+        tasks.repeat("SeabedPlanner", seabedPlanner, SeabedPlanner.PLAN_PERIOD);
+        tasks.repeat("AlarmEngine", alarmEngine, AlarmEngine.TICK_PERIOD);
+        tasks.repeat("PhotoSync", photoSync, PhotoSync.SYNC_PERIOD);
+        // The first vehicle is connected from the ROVFrame, the extra
+        // vehicles are connected at once
+        Fleet fleet = new Fleet(tasks, dataUpdatePeriod, data.getMetrics());
+        fleet.add(vehicle);
+        for (VehicleConfig config : VehicleConfig.loadExtraVehicles(mainConfig)) {
+            Vehicle extraVehicle = new Vehicle(config, new Data(), connections,
+                    linkProbeInterval, linkProbeTimeout);
+            fleet.add(extraVehicle);
+            fleet.connect(extraVehicle);
+        }
 
-        comPortFinderThread = new Thread(new ComPortFinder(sdh, data));
-        comPortFinderThread.start();
-        comPortFinderThread.setName("ComPortFinder");
+        String replayFile = System.getProperty("towedrov.replay");
+        if (replayFile != null) {
+            // Play back a recorded session instead of reading the sensors
+            SessionPlayer player = new SessionPlayer(new File(replayFile), data,
+                    Double.parseDouble(System.getProperty("towedrov.replay.speed", "1")));
+            tasks.fork("SessionPlayer", player);
+        } else {
+            tasks.fork("ComPortFinder", new ComPortFinder(sdh, data, tasks));
+        }
 
 //        // Start searching for com ports:
 //        long timeDifference = 0;
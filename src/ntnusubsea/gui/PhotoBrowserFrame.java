@@ -0,0 +1,508 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package ntnusubsea.gui;
+
+import basestation_rov.TaskScope;
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Desktop;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.Graphics;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import javax.swing.BoxLayout;
+import javax.swing.JButton;
+import javax.swing.JFileChooser;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+import javax.swing.JViewport;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+/**
+ * Shows the photos in the picture folder as a grid of thumbnails, with the
+ * number and depth of each photo. The photos can be filtered by depth and by
+ * distance from a position, which is done on the PhotoIndex without opening
+ * the photos. The grid paints only the cells on the screen, and only their
+ * thumbnails are loaded, so it scrolls smoothly through thousands of photos.
+ * A double click opens the photo.
+ *
+ * @author Towed ROV 2019 https://ntnuopen.ntnu.no/ntnu-xmlui/handle/11250/2564356
+ */
+public class PhotoBrowserFrame extends JFrame {
+
+    private static final int CELL_WIDTH = ThumbnailCache.WIDTH + 10;
+    private static final int CELL_HEIGHT = ThumbnailCache.HEIGHT + 26;
+    private static final Color PLACEHOLDER = new Color(60, 60, 60);
+
+    /**
+     * The grid of thumbnails. Paints the cells in the clip only.
+     */
+    private final class Grid extends JPanel implements Scrollable {
+
+        /**
+         * Creates the grid.
+         */
+        Grid() {
+            setBackground(Color.BLACK);
+            setForeground(Color.WHITE);
+            // Turns the tool tips on, the text is given per photo
+            setToolTipText("");
+            addMouseListener(new MouseAdapter() {
+                @Override
+                public void mouseClicked(MouseEvent e) {
+                    PhotoIndex.Photo photo = getPhoto(e);
+                    if (photo != null && e.getClickCount() == 2) {
+                        open(photo.getFile());
+                    }
+                }
+            });
+        }
+
+        /**
+         * Returns the number of columns at the width of the grid.
+         *
+         * @return the number of columns
+         */
+        int getColumns() {
+            return Math.max(1, getWidth() / CELL_WIDTH);
+        }
+
+        /**
+         * Returns the photo under the mouse.
+         *
+         * @param e the mouse event
+         * @return the photo, or null if none
+         */
+        PhotoIndex.Photo getPhoto(MouseEvent e) {
+            int column = e.getX() / CELL_WIDTH;
+            int index = e.getY() / CELL_HEIGHT * getColumns() + column;
+            if (column >= getColumns() || index < 0 || index >= shown.size()) {
+                return null;
+            }
+            return shown.get(index);
+        }
+
+        /**
+         * Returns the size of the grid, all rows at the width of the
+         * viewport.
+         *
+         * @return the size
+         */
+        @Override
+        public Dimension getPreferredSize() {
+            int width = getParent() instanceof JViewport ? getParent().getWidth() : getWidth();
+            int columns = Math.max(1, width / CELL_WIDTH);
+            int rows = (shown.size() + columns - 1) / columns;
+            return new Dimension(CELL_WIDTH * columns, rows * CELL_HEIGHT);
+        }
+
+        /**
+         * Paints the cells in the clip.
+         *
+         * @param g the graphics
+         */
+        @Override
+        protected void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            Rectangle clip = g.getClipBounds();
+            int columns = getColumns();
+            int firstRow = clip.y / CELL_HEIGHT;
+            int lastRow = (clip.y + clip.height - 1) / CELL_HEIGHT;
+            List<PhotoIndex.Photo> photos = shown;
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = 0; column < columns; column++) {
+                    int index = row * columns + column;
+                    if (index >= photos.size()) {
+                        return;
+                    }
+                    paintCell(g, photos.get(index), column * CELL_WIDTH, row * CELL_HEIGHT);
+                }
+            }
+        }
+
+        /**
+         * Paints the thumbnail and the caption of a photo.
+         *
+         * @param g the graphics
+         * @param photo the photo
+         * @param x the left of the cell
+         * @param y the top of the cell
+         */
+        private void paintCell(Graphics g, PhotoIndex.Photo photo, int x, int y) {
+            int left = x + (CELL_WIDTH - ThumbnailCache.WIDTH) / 2;
+            int top = y + 5;
+            BufferedImage thumbnail = cache.get(photo.getFile());
+            if (thumbnail != null) {
+                g.drawImage(thumbnail, left + (ThumbnailCache.WIDTH - thumbnail.getWidth()) / 2,
+                        top + (ThumbnailCache.HEIGHT - thumbnail.getHeight()) / 2, null);
+            } else {
+                g.setColor(PLACEHOLDER);
+                g.fillRect(left, top, ThumbnailCache.WIDTH, ThumbnailCache.HEIGHT);
+                if (cache.isFailed(photo.getFile())) {
+                    g.setColor(Color.RED);
+                    g.drawString("Can not be read", left + 8, top + ThumbnailCache.HEIGHT / 2);
+                }
+            }
+            g.setColor(getForeground());
+            g.drawString(getCaption(photo), left, top + ThumbnailCache.HEIGHT + 15);
+        }
+
+        /**
+         * Returns the details of the photo under the mouse.
+         *
+         * @param e the mouse event
+         * @return the text, or null if no photo
+         */
+        @Override
+        public String getToolTipText(MouseEvent e) {
+            PhotoIndex.Photo photo = getPhoto(e);
+            if (photo == null) {
+                return null;
+            }
+            String text = "<html>" + photo.getFile().getName() + "<br>"
+                    + new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(photo.getTime()));
+            if (photo.hasPosition()) {
+                text += String.format(Locale.US, "<br>%.6f, %.6f", photo.getLatitude(), photo.getLongitude());
+            }
+            if (!Double.isNaN(photo.getDepth())) {
+                text += String.format(Locale.US, "<br>Depth %.1f m", photo.getDepth());
+            }
+            return text + "</html>";
+        }
+
+        /**
+         * Returns the preferred size of the viewport.
+         *
+         * @return the size
+         */
+        @Override
+        public Dimension getPreferredScrollableViewportSize() {
+            return new Dimension(CELL_WIDTH * 5, CELL_HEIGHT * 4);
+        }
+
+        /**
+         * Returns the distance to scroll for one click of the arrows.
+         *
+         * @param visibleRect the visible part of the grid
+         * @param orientation the direction
+         * @param direction up or down
+         * @return the distance in pixels
+         */
+        @Override
+        public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+            return orientation == SwingConstants.VERTICAL ? CELL_HEIGHT / 3 : 10;
+        }
+
+        /**
+         * Returns the distance to scroll for one page.
+         *
+         * @param visibleRect the visible part of the grid
+         * @param orientation the direction
+         * @param direction up or down
+         * @return the distance in pixels
+         */
+        @Override
+        public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+            return orientation == SwingConstants.VERTICAL ? visibleRect.height : visibleRect.width;
+        }
+
+        /**
+         * The grid has the width of the viewport.
+         *
+         * @return true
+         */
+        @Override
+        public boolean getScrollableTracksViewportWidth() {
+            return true;
+        }
+
+        /**
+         * The grid scrolls vertically.
+         *
+         * @return false
+         */
+        @Override
+        public boolean getScrollableTracksViewportHeight() {
+            return false;
+        }
+    }
+
+    private final ThumbnailCache cache;
+    private final TaskScope scope = new TaskScope("photoBrowser");
+    private final JTextField folderField = new JTextField(PhotoIndex.PICTURE_FOLDER, 20);
+    private final JTextField minDepthField = new JTextField(4);
+    private final JTextField maxDepthField = new JTextField(4);
+    private final JTextField latitudeField = new JTextField(8);
+    private final JTextField longitudeField = new JTextField(8);
+    private final JTextField radiusField = new JTextField(4);
+    private final JLabel statusLabel = new JLabel(" ");
+    private final Grid grid = new Grid();
+    private final JScrollPane scrollPane = new JScrollPane(grid);
+    private volatile PhotoIndex index = new PhotoIndex(new File(PhotoIndex.PICTURE_FOLDER));
+    private volatile List<PhotoIndex.Photo> shown = Collections.emptyList();
+
+    /**
+     * Creates the photo browser frame.
+     *
+     * @param data the shared resource Data class
+     */
+    public PhotoBrowserFrame(Data data) {
+        super("Photo browser");
+        this.cache = new ThumbnailCache(data.getMetrics());
+        setDefaultCloseOperation(JFrame.HIDE_ON_CLOSE);
+        setSize(900, 700);
+
+        JPanel top = new JPanel();
+        top.setLayout(new BoxLayout(top, BoxLayout.Y_AXIS));
+        JPanel folderPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        folderPanel.add(new JLabel("Folder:"));
+        folderPanel.add(folderField);
+        JButton browseButton = new JButton("Browse...");
+        browseButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                browse();
+            }
+        });
+        folderPanel.add(browseButton);
+        JButton reloadButton = new JButton("Reload");
+        reloadButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                reload();
+            }
+        });
+        folderPanel.add(reloadButton);
+        top.add(folderPanel);
+
+        JPanel filterPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        filterPanel.add(new JLabel("Depth from"));
+        filterPanel.add(minDepthField);
+        filterPanel.add(new JLabel("to"));
+        filterPanel.add(maxDepthField);
+        filterPanel.add(new JLabel("m, within"));
+        filterPanel.add(radiusField);
+        filterPanel.add(new JLabel("m of latitude"));
+        filterPanel.add(latitudeField);
+        filterPanel.add(new JLabel("longitude"));
+        filterPanel.add(longitudeField);
+        ActionListener filterListener = new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                applyFilter();
+            }
+        };
+        JButton filterButton = new JButton("Filter");
+        filterButton.addActionListener(filterListener);
+        for (JTextField field : new JTextField[]{minDepthField, maxDepthField, latitudeField, longitudeField,
+            radiusField}) {
+            field.addActionListener(filterListener);
+        }
+        filterPanel.add(filterButton);
+        JButton clearButton = new JButton("Clear");
+        clearButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                for (JTextField field : new JTextField[]{minDepthField, maxDepthField, latitudeField,
+                    longitudeField, radiusField}) {
+                    field.setText("");
+                }
+                applyFilter();
+            }
+        });
+        filterPanel.add(clearButton);
+        top.add(filterPanel);
+        add(top, BorderLayout.NORTH);
+
+        scrollPane.getVerticalScrollBar().setUnitIncrement(CELL_HEIGHT / 3);
+        scrollPane.getViewport().addChangeListener(new ChangeListener() {
+            @Override
+            public void stateChanged(ChangeEvent e) {
+                updateWanted();
+            }
+        });
+        add(scrollPane, BorderLayout.CENTER);
+        add(statusLabel, BorderLayout.SOUTH);
+
+        cache.setListener(new ThumbnailCache.Listener() {
+            @Override
+            public void thumbnailLoaded(File file) {
+                // Repaints are merged by Swing, safe from any thread
+                grid.repaint();
+            }
+        });
+    }
+
+    /**
+     * Shows or hides the frame. The index is read again when the frame is
+     * shown, to find the photos added since.
+     *
+     * @param visible true to show the frame
+     */
+    @Override
+    public void setVisible(boolean visible) {
+        if (visible && !isVisible()) {
+            reload();
+        }
+        super.setVisible(visible);
+    }
+
+    /**
+     * Lets the operator choose the picture folder.
+     */
+    private void browse() {
+        JFileChooser chooser = new JFileChooser(folderField.getText());
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+            folderField.setText(chooser.getSelectedFile().getPath());
+            reload();
+        }
+    }
+
+    /**
+     * Reads the index of the picture folder on a thread of its own, and
+     * shows the photos when done.
+     */
+    private void reload() {
+        final PhotoIndex newIndex = new PhotoIndex(new File(folderField.getText().trim()));
+        statusLabel.setText("Reading " + newIndex.getRoot() + "...");
+        cache.refresh();
+        scope.fork("PhotoIndex", new Runnable() {
+            @Override
+            public void run() {
+                newIndex.load();
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        index = newIndex;
+                        applyFilter();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Shows the photos of the index which pass the filter.
+     */
+    private void applyFilter() {
+        double minDepth;
+        double maxDepth;
+        double latitude;
+        double longitude;
+        double radius;
+        try {
+            minDepth = parse(minDepthField);
+            maxDepth = parse(maxDepthField);
+            latitude = parse(latitudeField);
+            longitude = parse(longitudeField);
+            radius = parse(radiusField);
+        } catch (NumberFormatException ex) {
+            JOptionPane.showMessageDialog(this, "The filter must be numbers, like 12.5",
+                    "Photo browser", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        long start = System.nanoTime();
+        shown = index.filter(minDepth, maxDepth, latitude, longitude, radius);
+        long millis = (System.nanoTime() - start) / 1000000;
+        statusLabel.setText(" " + shown.size() + " of " + index.getPhotos().size() + " photos in "
+                + index.getRoot() + " (filtered in " + millis + " ms)");
+        grid.revalidate();
+        grid.repaint();
+        scrollPane.getViewport().setViewPosition(new Point(0, 0));
+        updateWanted();
+    }
+
+    /**
+     * Asks the cache for the thumbnails on the screen, and one screen below
+     * it, so they are ready when the operator scrolls down.
+     */
+    private void updateWanted() {
+        Rectangle view = scrollPane.getViewport().getViewRect();
+        int columns = grid.getColumns();
+        int firstRow = Math.max(0, view.y / CELL_HEIGHT);
+        int lastRow = (view.y + 2 * view.height) / CELL_HEIGHT;
+        List<PhotoIndex.Photo> photos = shown;
+        int from = Math.min(photos.size(), firstRow * columns);
+        int to = Math.min(photos.size(), (lastRow + 1) * columns);
+        List<File> files = new ArrayList<>(to - from);
+        for (PhotoIndex.Photo photo : photos.subList(from, to)) {
+            files.add(photo.getFile());
+        }
+        cache.setWanted(files);
+    }
+
+    /**
+     * Opens a photo in the viewer of the system.
+     *
+     * @param file the photo
+     */
+    private void open(File file) {
+        try {
+            Desktop.getDesktop().open(file);
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException ex) {
+            JOptionPane.showMessageDialog(this, "Could not open " + file + ": " + ex.getMessage(),
+                    "Photo browser", JOptionPane.WARNING_MESSAGE);
+        }
+    }
+
+    /**
+     * Returns the caption of a photo: its number and depth, or its time.
+     *
+     * @param photo the photo
+     * @return the caption
+     */
+    private static String getCaption(PhotoIndex.Photo photo) {
+        String caption = photo.getNumber() >= 0 ? "#" + photo.getNumber() + "  "
+                : new SimpleDateFormat("HH:mm:ss").format(new Date(photo.getTime())) + "  ";
+        if (!Double.isNaN(photo.getDepth())) {
+            caption += String.format(Locale.US, "%.1f m", photo.getDepth());
+        }
+        return caption;
+    }
+
+    /**
+     * Reads a number from a field.
+     *
+     * @param field the field
+     * @return the number, or NaN if the field is empty
+     * @throws NumberFormatException if the field is not a number
+     */
+    private static double parse(JTextField field) {
+        String text = field.getText().trim().replace(',', '.');
+        return text.isEmpty() ? Double.NaN : Double.parseDouble(text);
+    }
+}
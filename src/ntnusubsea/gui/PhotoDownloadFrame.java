@@ -0,0 +1,170 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package ntnusubsea.gui;
+
+import basestation_rov.TaskScope;
+import java.awt.BorderLayout;
+import java.awt.GridBagConstraints;
+import java.awt.GridBagLayout;
+import java.awt.Insets;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JFileChooser;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.JSpinner;
+import javax.swing.JTextField;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.SwingUtilities;
+
+/**
+ * Downloads the photos from the camera RPi after a dive, with the
+ * FtpDownloader, and shows the progress and the throughput. Photos which are
+ * already downloaded are skipped, so a cancelled download can be started
+ * again.
+ *
+ * @author Towed ROV 2019 https://ntnuopen.ntnu.no/ntnu-xmlui/handle/11250/2564356
+ */
+public class PhotoDownloadFrame extends JFrame {
+
+    private final Data data;
+    private final JTextField remoteFolderField = new JTextField(FtpDownloader.CAMERA_FOLDER, 30);
+    private final JTextField localFolderField = new JTextField(FtpDownloader.PHOTO_FOLDER, 30);
+    private final JSpinner sessionsSpinner = new JSpinner(
+            new SpinnerNumberModel(FtpDownloader.DEFAULT_SESSIONS, 1, 16, 1));
+    private final JProgressBar progressBar = new JProgressBar(0, 1000);
+    private final JLabel statusLabel = new JLabel(" ");
+    private final JButton startButton = new JButton("Download");
+    private TaskScope downloadScope;
+
+    /**
+     * Creates the photo download frame.
+     *
+     * @param data the shared resource Data class
+     */
+    public PhotoDownloadFrame(Data data) {
+        super("Download photos from camera");
+        this.data = data;
+        setDefaultCloseOperation(JFrame.HIDE_ON_CLOSE);
+
+        JPanel fields = new JPanel(new GridBagLayout());
+        fields.setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
+        GridBagConstraints c = new GridBagConstraints();
+        c.insets = new Insets(2, 2, 2, 2);
+        c.anchor = GridBagConstraints.WEST;
+        c.gridy = 0;
+        fields.add(new JLabel("Folder on camera:"), c);
+        fields.add(remoteFolderField, c);
+        c.gridy = 1;
+        fields.add(new JLabel("Save to:"), c);
+        fields.add(localFolderField, c);
+        JButton browseButton = new JButton("Browse...");
+        browseButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                browse();
+            }
+        });
+        fields.add(browseButton, c);
+        c.gridy = 2;
+        fields.add(new JLabel("Parallel sessions:"), c);
+        fields.add(sessionsSpinner, c);
+        add(fields, BorderLayout.NORTH);
+
+        JPanel status = new JPanel(new BorderLayout(4, 4));
+        status.setBorder(BorderFactory.createEmptyBorder(0, 8, 8, 8));
+        progressBar.setStringPainted(true);
+        status.add(progressBar, BorderLayout.NORTH);
+        status.add(statusLabel, BorderLayout.CENTER);
+        startButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (downloadScope == null) {
+                    start();
+                } else {
+                    cancel();
+                }
+            }
+        });
+        status.add(startButton, BorderLayout.EAST);
+        add(status, BorderLayout.SOUTH);
+        pack();
+    }
+
+    /**
+     * Lets the operator choose the folder to save the photos in.
+     */
+    private void browse() {
+        JFileChooser chooser = new JFileChooser(localFolderField.getText());
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+            localFolderField.setText(chooser.getSelectedFile().getPath());
+        }
+    }
+
+    /**
+     * Starts the download.
+     */
+    private void start() {
+        FtpDownloader downloader = new FtpDownloader(data.getIP_Camera(), remoteFolderField.getText().trim(),
+                new File(localFolderField.getText().trim()), (Integer) sessionsSpinner.getValue(),
+                data.getMetrics());
+        downloader.addListener(new FtpDownloader.Listener() {
+            @Override
+            public void progress(final FtpDownloader.Progress progress) {
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        showProgress(progress);
+                    }
+                });
+            }
+        });
+        downloadScope = new TaskScope("photoDownload");
+        downloadScope.fork("FtpDownloader", downloader);
+        startButton.setText("Cancel");
+        progressBar.setValue(0);
+        statusLabel.setText("Listing the photos on " + data.getIP_Camera() + "...");
+    }
+
+    /**
+     * Cancels the download. The files which are partly downloaded are
+     * resumed by the next download.
+     */
+    private void cancel() {
+        downloadScope.close();
+        statusLabel.setText("Cancelling...");
+    }
+
+    /**
+     * Shows the progress of the download.
+     *
+     * @param progress the progress
+     */
+    private void showProgress(FtpDownloader.Progress progress) {
+        progressBar.setValue((int) (progress.getFraction() * 1000));
+        progressBar.setString(Math.round(progress.getFraction() * 100) + " %");
+        statusLabel.setText(progress.toString());
+        if (progress.isFinished()) {
+            downloadScope.close();
+            downloadScope = null;
+            startButton.setText("Download");
+        }
+    }
+}
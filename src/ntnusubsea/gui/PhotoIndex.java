@@ -0,0 +1,295 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package ntnusubsea.gui;
+
+import java.io.File;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The index of the photos in the picture folder and its sub folders: the
+ * number, time, position and depth of each photo, from the GeotagFile of
+ * each folder. Photos which are not in a GeotagFile get the time from the
+ * file name of the video photos, or from the file. The photos are never
+ * opened, so the index of thousands of photos is made and filtered at once.
+ */
+public class PhotoIndex {
+
+    /**
+     * The folder the photos are saved in.
+     */
+    public static final String PICTURE_FOLDER = "D://TowedRovPicture/";
+
+    // The video photos are saved as <date>/image_<number>_Time_<time>.png
+    private static final Pattern NUMBER = Pattern.compile("(\\d+)");
+    private static final Pattern VIDEO_TIME = Pattern.compile("_Time_(\\d\\d_\\d\\d_\\d\\d)");
+    private static final double METERS_PER_DEGREE = 111320;
+
+    /**
+     * One photo in the index.
+     */
+    public static final class Photo {
+
+        private final File file;
+        private final int number;
+        private final long time;
+        private final double latitude;
+        private final double longitude;
+        private final double depth;
+
+        /**
+         * The constructor of the Photo class.
+         *
+         * @param file the file of the photo
+         * @param number the number of the photo, or -1 if not known
+         * @param time the time the photo was taken in milliseconds
+         * @param latitude the latitude in degrees, or NaN if not known
+         * @param longitude the longitude in degrees, or NaN if not known
+         * @param depth the depth in meters, or NaN if not known
+         */
+        Photo(File file, int number, long time, double latitude, double longitude, double depth) {
+            this.file = file;
+            this.number = number;
+            this.time = time;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.depth = depth;
+        }
+
+        /**
+         * Returns the file of the photo.
+         *
+         * @return the file
+         */
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * Returns the number of the photo, from its file name.
+         *
+         * @return the number, or -1 if not known
+         */
+        public int getNumber() {
+            return number;
+        }
+
+        /**
+         * Returns the time the photo was taken.
+         *
+         * @return the time in milliseconds
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * Returns the latitude.
+         *
+         * @return the latitude in degrees, or NaN if not known
+         */
+        public double getLatitude() {
+            return latitude;
+        }
+
+        /**
+         * Returns the longitude.
+         *
+         * @return the longitude in degrees, or NaN if not known
+         */
+        public double getLongitude() {
+            return longitude;
+        }
+
+        /**
+         * Returns the depth of the ROV.
+         *
+         * @return the depth in meters, or NaN if not known
+         */
+        public double getDepth() {
+            return depth;
+        }
+
+        /**
+         * Returns true if the position of the photo is known.
+         *
+         * @return true if known
+         */
+        public boolean hasPosition() {
+            return !Double.isNaN(latitude) && !Double.isNaN(longitude);
+        }
+    }
+
+    private final File root;
+    private volatile List<Photo> photos = Collections.emptyList();
+
+    /**
+     * The constructor of the PhotoIndex class.
+     *
+     * @param root the picture folder
+     */
+    public PhotoIndex(File root) {
+        this.root = root;
+    }
+
+    /**
+     * Returns the picture folder.
+     *
+     * @return the folder
+     */
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     * Reads the index of the picture folder and its sub folders again. The
+     * photos are sorted by time.
+     */
+    public void load() {
+        List<Photo> found = new ArrayList<>();
+        addFolder(root, found);
+        File[] folders = root.listFiles();
+        if (folders != null) {
+            Arrays.sort(folders);
+            for (File folder : folders) {
+                if (folder.isDirectory() && !folder.getName().startsWith(".")) {
+                    addFolder(folder, found);
+                }
+            }
+        }
+        Collections.sort(found, new Comparator<Photo>() {
+            @Override
+            public int compare(Photo a, Photo b) {
+                return Long.compare(a.getTime(), b.getTime());
+            }
+        });
+        photos = Collections.unmodifiableList(found);
+    }
+
+    /**
+     * Returns all photos, sorted by time.
+     *
+     * @return the photos
+     */
+    public List<Photo> getPhotos() {
+        return photos;
+    }
+
+    /**
+     * Returns the photos within a depth range and near a position. Use NaN
+     * for the limits not used. A photo which does not have the value a limit
+     * is on is left out.
+     *
+     * @param minDepth the smallest depth in meters
+     * @param maxDepth the largest depth in meters
+     * @param latitude the latitude of the position in degrees
+     * @param longitude the longitude of the position in degrees
+     * @param radius the max distance from the position in meters
+     * @return the photos, sorted by time
+     */
+    public List<Photo> filter(double minDepth, double maxDepth, double latitude, double longitude, double radius) {
+        boolean near = !Double.isNaN(latitude) && !Double.isNaN(longitude) && !Double.isNaN(radius);
+        double cosLatitude = Math.cos(Math.toRadians(latitude));
+        List<Photo> result = new ArrayList<>();
+        for (Photo photo : photos) {
+            double depth = photo.getDepth();
+            if ((!Double.isNaN(minDepth) || !Double.isNaN(maxDepth)) && Double.isNaN(depth)) {
+                continue;
+            }
+            if (depth < minDepth || depth > maxDepth) {
+                continue;
+            }
+            if (near) {
+                if (!photo.hasPosition()) {
+                    continue;
+                }
+                // Flat earth, good enough for the size of a survey
+                double north = (photo.getLatitude() - latitude) * METERS_PER_DEGREE;
+                double east = (photo.getLongitude() - longitude) * METERS_PER_DEGREE * cosLatitude;
+                if (north * north + east * east > radius * radius) {
+                    continue;
+                }
+            }
+            result.add(photo);
+        }
+        return result;
+    }
+
+    /**
+     * Adds the photos in a folder.
+     *
+     * @param folder the folder
+     * @param found the list to add the photos to
+     */
+    private void addFolder(File folder, List<Photo> found) {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return;
+        }
+        Map<String, GeotagFile.Tag> tags = GeotagFile.read(folder);
+        for (File file : files) {
+            String name = file.getName().toLowerCase(Locale.ROOT);
+            if (!file.isFile() || !(name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".png"))) {
+                continue;
+            }
+            Matcher number = NUMBER.matcher(file.getName());
+            int photoNumber = -1;
+            if (number.find()) {
+                try {
+                    photoNumber = Integer.parseInt(number.group(1));
+                } catch (NumberFormatException ex) {
+                    // Too long to be a photo number
+                }
+            }
+            GeotagFile.Tag tag = tags.get(file.getName());
+            if (tag != null) {
+                found.add(new Photo(file, photoNumber, tag.getTime(), tag.getLatitude(), tag.getLongitude(),
+                        tag.getDepth()));
+            } else {
+                found.add(new Photo(file, photoNumber, findTime(folder, file), Double.NaN, Double.NaN,
+                        Double.NaN));
+            }
+        }
+    }
+
+    /**
+     * Returns the time of a photo which is not tagged: from the folder and
+     * file name of a video photo, else the time the file was written.
+     *
+     * @param folder the folder of the photo
+     * @param file the photo
+     * @return the time in milliseconds
+     */
+    private static long findTime(File folder, File file) {
+        Matcher time = VIDEO_TIME.matcher(file.getName());
+        if (time.find()) {
+            try {
+                return new SimpleDateFormat("yyyy.MM.dd HH_mm_ss").parse(folder.getName() + " " + time.group(1))
+                        .getTime();
+            } catch (ParseException ex) {
+                // Not in a date folder
+            }
+        }
+        return file.lastModified();
+    }
+}
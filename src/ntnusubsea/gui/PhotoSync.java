@@ -0,0 +1,474 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package ntnusubsea.gui;
+
+import basestation_rov.Metrics;
+import basestation_rov.Track;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.net.ftp.FTPFile;
+
+/**
+ * Copies the photos from the camera RPi to the base station during the dive,
+ * so they are all on the laptop when the survey ends. Every sync period the
+ * photo folder on the camera is listed over FTP, and the photos which are
+ * new are downloaded, one at a time over one session, with a bandwidth limit
+ * and on a low priority thread so the live video keeps the link. A photo is
+ * only downloaded when it has the same size in two lists in a row, so photos
+ * the camera is still writing are left until the next sync.
+ *
+ * The position, depth and heading of the ROV are kept in a track, and each
+ * photo is tagged with where the ROV was when it was taken, in the
+ * GeotagFile next to the photos. The track is in the time of the laptop, and
+ * the camera has its own clock. The offset between the two is measured from
+ * the photos: a photo which was not in one list but is in the next was
+ * written between the two, and its time from the camera (MDTM) gives bounds
+ * on the offset. The time from the camera, corrected by the offset, is used
+ * once the offset is measured and if the track has a position for it, else
+ * the time the photo was first listed.
+ */
+public class PhotoSync implements Runnable, Observer {
+
+    /**
+     * The time between two syncs in milliseconds.
+     */
+    public static final long SYNC_PERIOD = 5000;
+
+    /**
+     * The default bandwidth limit in bytes per second.
+     */
+    public static final long DEFAULT_BANDWIDTH = 256 * 1024;
+
+    private static final String PART = ".sync" + FtpDownloader.PART;
+    private static final long TRACK_PERIOD = 200;
+    // Six hours at five samples a second
+    private static final int TRACK_CAPACITY = 6 * 3600 * 5;
+    private static final long MAX_GAP = 2000;
+    private static final int MAX_ATTEMPTS = 3;
+    // Some servers only give whole seconds in MDTM
+    private static final long MDTM_RESOLUTION = 1000;
+    private static final long OFFSET_LOG_CHANGE = 1000;
+
+    private final Data data;
+    private final String remoteFolder;
+    private final File localFolder;
+    private final Track track = new Track(TRACK_CAPACITY, MAX_GAP);
+    private final AtomicLong lastTrackTime = new AtomicLong();
+
+    private final Map<String, Long> listedSizes = new HashMap<>();
+    private final Map<String, Long> firstListed = new HashMap<>();
+    private final Map<String, Long> createdAfter = new HashMap<>();
+    private final Map<String, Long> sizeListed = new HashMap<>();
+    private final Map<String, Integer> failures = new HashMap<>();
+    private long lastListStart = 0;
+    // The laptop time minus the camera time lies between these
+    private long offsetLow = Long.MIN_VALUE;
+    private long offsetHigh = Long.MAX_VALUE;
+    private long loggedOffset = 0;
+    private volatile boolean offsetMeasured = false;
+    private volatile long clockOffset = 0;
+    private Set<String> done;
+    private FtpClient client;
+    private boolean connected = false;
+
+    private volatile boolean enabled = true;
+    private volatile long bandwidthLimit = DEFAULT_BANDWIDTH;
+    private volatile int pending = 0;
+
+    /**
+     * The constructor of the PhotoSync class.
+     *
+     * @param data the shared resource Data class
+     * @param remoteFolder the folder on the camera RPi with the photos
+     * @param localFolder the folder to put the photos in
+     */
+    public PhotoSync(Data data, String remoteFolder, File localFolder) {
+        this.data = data;
+        this.remoteFolder = remoteFolder.endsWith("/") ? remoteFolder : remoteFolder + "/";
+        this.localFolder = localFolder;
+        data.getMetrics().gauge("photosync.pending", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return pending;
+            }
+        });
+    }
+
+    /**
+     * Turns the sync on or off. A photo being downloaded is finished first.
+     *
+     * @param enabled true to sync
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns true if the sync is on.
+     *
+     * @return true if on
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets the bandwidth limit of the downloads. Used from the next sync.
+     *
+     * @param bytesPerSecond the max speed in bytes per second, or 0 for no
+     * limit
+     */
+    public void setBandwidthLimit(long bytesPerSecond) {
+        this.bandwidthLimit = bytesPerSecond;
+    }
+
+    /**
+     * Returns the number of photos on the camera which are not downloaded
+     * yet.
+     *
+     * @return the number of photos
+     */
+    public int getPending() {
+        return pending;
+    }
+
+    /**
+     * Returns the track of the ROV the photos are tagged from.
+     *
+     * @return the track
+     */
+    public Track getTrack() {
+        return track;
+    }
+
+    /**
+     * Returns the time of the laptop minus the time of the camera, as
+     * measured from the photos.
+     *
+     * @return the offset in milliseconds, or 0 if not measured yet
+     */
+    public long getClockOffset() {
+        return clockOffset;
+    }
+
+    /**
+     * Returns true once the clock offset of the camera is measured.
+     *
+     * @return true if measured
+     */
+    public boolean isClockOffsetMeasured() {
+        return offsetMeasured;
+    }
+
+    /**
+     * Adds the position of the ROV to the track, at most five times a
+     * second. Called when the data is updated.
+     *
+     * @param o the observable
+     * @param arg the argument
+     */
+    @Override
+    public void update(Observable o, Object arg) {
+        long now = System.currentTimeMillis();
+        long last = lastTrackTime.get();
+        if (now - last < TRACK_PERIOD || !lastTrackTime.compareAndSet(last, now)) {
+            return;
+        }
+        float latitude = data.getLatitude();
+        float longitude = data.getLongitude();
+        if (latitude == 0 && longitude == 0) {
+            // No GPS fix yet
+            return;
+        }
+        track.add(now, latitude, longitude, data.getRovDepth(), data.getHeading());
+    }
+
+    /**
+     * Runs one sync: lists the photos on the camera and downloads those which
+     * are new and complete. The session to the camera is kept open between
+     * the syncs, and opened again after an error.
+     */
+    @Override
+    public void run() {
+        Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+        if (!enabled) {
+            if (client != null) {
+                client.close();
+                client = null;
+                connected = false;
+            }
+            return;
+        }
+        try {
+            if (done == null) {
+                done = findDownloaded();
+            }
+            if (client == null || !client.isConnected()) {
+                client = new FtpClient(data.getIP_Camera());
+                client.open();
+                // Nothing is known about what changed while disconnected
+                lastListStart = 0;
+                if (!connected) {
+                    System.out.println("Photo sync connected to the camera at " + data.getIP_Camera());
+                    connected = true;
+                }
+            }
+            client.setBandwidthLimit(bandwidthLimit);
+            long listStart = System.currentTimeMillis();
+            for (FTPFile file : findComplete(client.listFiles(remoteFolder), listStart)) {
+                if (!enabled || Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                download(file);
+            }
+        } catch (InterruptedIOException ex) {
+            Thread.currentThread().interrupt();
+        } catch (IOException ex) {
+            if (connected) {
+                System.out.println("Photo sync lost the camera: " + ex.getMessage());
+                connected = false;
+            }
+            if (client != null) {
+                client.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Returns the names of the photos already in the local folder.
+     *
+     * @return the names
+     * @throws IOException if the folder could not be made
+     */
+    private Set<String> findDownloaded() throws IOException {
+        if (!localFolder.isDirectory() && !localFolder.mkdirs()) {
+            throw new IOException("Directory creation failed: " + localFolder);
+        }
+        Set<String> names = new HashSet<>();
+        File[] files = localFolder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile() && !file.getName().endsWith(FtpDownloader.PART)) {
+                    names.add(file.getName());
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Compares the list with the last list, and returns the new photos which
+     * have the same size in both, the oldest first. Also notes when each
+     * photo was written at the latest and, if it was not in the last list,
+     * at the earliest, for the clock offset.
+     *
+     * @param files the files on the camera
+     * @param listStart the time the list was asked for
+     * @return the photos to download
+     */
+    private List<FTPFile> findComplete(List<FTPFile> files, long listStart) {
+        long now = System.currentTimeMillis();
+        List<FTPFile> complete = new ArrayList<>();
+        int count = 0;
+        for (FTPFile file : files) {
+            String name = file.getName();
+            if (done.contains(name)) {
+                continue;
+            }
+            count++;
+            if (!firstListed.containsKey(name)) {
+                firstListed.put(name, now);
+                if (lastListStart > 0) {
+                    createdAfter.put(name, lastListStart);
+                }
+            }
+            Long lastSize = listedSizes.put(name, file.getSize());
+            if (lastSize == null || lastSize != file.getSize()) {
+                sizeListed.put(name, now);
+            } else if (file.getSize() > 0) {
+                complete.add(file);
+            }
+        }
+        lastListStart = listStart;
+        pending = count;
+        Collections.sort(complete, new Comparator<FTPFile>() {
+            @Override
+            public int compare(FTPFile a, FTPFile b) {
+                return Long.compare(firstListed.get(a.getName()), firstListed.get(b.getName()));
+            }
+        });
+        return complete;
+    }
+
+    /**
+     * Downloads a photo, resuming a part downloaded before, and tags it. A
+     * photo the camera refuses or sends with the wrong size too many times is
+     * given up, so it does not block the others. An error of the session,
+     * like a dropped link, is not counted against the photo: the session is
+     * opened again and the photo resumed at the next sync.
+     *
+     * @param file the photo on the camera
+     * @throws IOException if the session failed
+     */
+    private void download(FTPFile file) throws IOException {
+        String name = file.getName();
+        File part = new File(localFolder, name + PART);
+        if (part.length() > file.getSize()) {
+            Files.delete(part.toPath());
+        }
+        long received;
+        try {
+            received = client.downloadFile(remoteFolder + name, part, null);
+        } catch (FtpClient.ReplyException ex) {
+            if (!ex.isPermanent()) {
+                throw ex;
+            }
+            failed(name, ex.getMessage());
+            return;
+        }
+        if (part.length() != file.getSize()) {
+            Files.delete(part.toPath());
+            failed(name, "got " + part.length() + " bytes, the camera has " + file.getSize());
+            return;
+        }
+        long takenTime = -1;
+        try {
+            takenTime = client.getModificationTime(remoteFolder + name);
+        } catch (InterruptedIOException ex) {
+            throw ex;
+        } catch (IOException ex) {
+            // Tagged with the time it was listed
+        }
+        Files.move(part.toPath(), new File(localFolder, name).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        done.add(name);
+        pending--;
+        listedSizes.remove(name);
+        failures.remove(name);
+        long listedTime = firstListed.remove(name);
+        Long after = createdAfter.remove(name);
+        Long sizeTime = sizeListed.remove(name);
+        if (takenTime > 0 && sizeTime != null) {
+            measureOffset(takenTime, after, sizeTime);
+        }
+        tag(name, takenTime, listedTime);
+        Metrics metrics = data.getMetrics();
+        metrics.counter("photosync.files").incrementAndGet();
+        metrics.counter("photosync.bytes").addAndGet(received);
+        metrics.histogram("photosync.delay").record((System.currentTimeMillis() - listedTime) * 1000000);
+    }
+
+    /**
+     * Counts a failed download of a photo, and gives the photo up after too
+     * many.
+     *
+     * @param name the name of the photo
+     * @param reason the reason it failed
+     */
+    private void failed(String name, String reason) {
+        Integer count = failures.get(name);
+        count = count == null ? 1 : count + 1;
+        failures.put(name, count);
+        System.out.println("Photo sync of " + name + " failed (attempt " + count + "): " + reason);
+        if (count >= MAX_ATTEMPTS) {
+            System.out.println("Photo sync gives up " + name);
+            done.add(name);
+            pending--;
+        }
+    }
+
+    /**
+     * Narrows the clock offset of the camera with a downloaded photo. The
+     * photo was written before its last size was listed, and after the list
+     * before the one it was first in. If the photo does not fit the offset
+     * measured so far, the camera clock was set, and the offset is measured
+     * again from this photo.
+     *
+     * @param takenTime the time from the camera
+     * @param createdAfter the start of the list before the one the photo was
+     * first in, or null if not known
+     * @param sizeTime the time its last size was first listed
+     */
+    private void measureOffset(long takenTime, Long createdAfter, long sizeTime) {
+        long high = sizeTime - takenTime;
+        long low = Long.MIN_VALUE;
+        if (createdAfter != null) {
+            // A time in whole seconds may be up to a second early
+            low = createdAfter - takenTime - (takenTime % MDTM_RESOLUTION == 0 ? MDTM_RESOLUTION : 0);
+        }
+        if (low > offsetHigh || high < offsetLow) {
+            System.out.println("Photo sync: the camera clock was set, measuring its offset again");
+            offsetLow = Long.MIN_VALUE;
+            offsetHigh = Long.MAX_VALUE;
+            offsetMeasured = false;
+        }
+        offsetLow = Math.max(offsetLow, low);
+        offsetHigh = Math.min(offsetHigh, high);
+        if (offsetLow == Long.MIN_VALUE) {
+            return;
+        }
+        clockOffset = offsetLow + (offsetHigh - offsetLow) / 2;
+        if (!offsetMeasured || Math.abs(clockOffset - loggedOffset) > OFFSET_LOG_CHANGE) {
+            System.out.println("Photo sync: camera clock offset " + clockOffset + " ms (laptop minus camera, +-"
+                    + (offsetHigh - offsetLow) / 2 + " ms)");
+            loggedOffset = clockOffset;
+        }
+        offsetMeasured = true;
+    }
+
+    /**
+     * Writes the position of the ROV when the photo was taken to the geotag
+     * file.
+     *
+     * @param name the name of the photo
+     * @param takenTime the time from the camera, or -1 if not known
+     * @param listedTime the time the photo was first listed
+     */
+    private void tag(String name, long takenTime, long listedTime) {
+        long time = listedTime;
+        String source = "listed";
+        if (takenTime > 0 && offsetMeasured) {
+            time = takenTime + clockOffset;
+            source = "camera";
+        }
+        Track.Position position = track.getPosition(time);
+        if (position == null && time != listedTime) {
+            Track.Position listedPosition = track.getPosition(listedTime);
+            if (listedPosition != null) {
+                position = listedPosition;
+                source = "listed";
+            }
+        }
+        if (position == null) {
+            GeotagFile.append(localFolder, new GeotagFile.Tag(name, time, source,
+                    Double.NaN, Double.NaN, Double.NaN, Double.NaN));
+        } else {
+            GeotagFile.append(localFolder, new GeotagFile.Tag(name, position.getTime(), source,
+                    position.getLatitude(), position.getLongitude(), position.getDepth(), position.getHeading()));
+        }
+    }
+}
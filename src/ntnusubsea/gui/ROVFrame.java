@@ -13,7 +13,13 @@
  */
 package ntnusubsea.gui;
 
+import basestation_rov.LinkStatistics;
 import basestation_rov.LogFileHandler;
+import basestation_rov.Metrics;
+import basestation_rov.TaskScope;
+import basestation_rov.calibrationClasses.ActuatorCalibration;
+import basestation_rov.calibrationClasses.CalibrationResult;
+import basestation_rov.calibrationClasses.StepperHealth;
 import java.awt.Color;
 import java.awt.GraphicsEnvironment;
 import java.awt.Image;
@@ -21,23 +27,26 @@ import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
 import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
 import java.text.DecimalFormat;
 import java.text.ParseException;
 import java.util.Observable;
 import java.util.Observer;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.imageio.ImageIO;
 import javax.swing.AbstractAction;
 import javax.swing.Action;
 import javax.swing.ImageIcon;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
+import javax.swing.JProgressBar;
 import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
 
 /**
  * Main frame of the application. Lets the user connect, watch the video stream,
@@ -57,20 +66,29 @@ public class ROVFrame extends javax.swing.JFrame implements Runnable, Observer {
     private int targetMode = 0;
     private EchoSounderFrame echoSounder;
     private OptionsFrame options;
-    private Thread sounderThread;
-    private TCPpinger client_Pinger;
+    private DiagnosticsFrame diagnostics;
+    private PhotoDownloadFrame photoDownload;
+    private PhotoBrowserFrame photoBrowser;
+    private LinkMonitor linkMonitor;
+    private LinkStatistics.State lastLinkState = LinkStatistics.State.UNKNOWN;
     private TCPClient client_ROV;
+    private CommandChannel commandChannel;
+    private SeabedPlanner seabedPlanner;
+    private StepperHealth stepperHealth;
+    private JCheckBoxMenuItem jMenuSeabedPlanner;
     private TCPClient client_Camera;
     private UDPServer udpServer;
-    private Sounder sounder;
+    private AlarmEngine alarmEngine;
+    private PhotoSync photoSync;
     private LogFileHandler lgh;
     private VideoEncoder encoder;
-    private ScheduledExecutorService clientThreadExecutor;
-    private ScheduledExecutorService encoderThreadExecutor;
+    private TaskScope connectionScope;
+    private TaskScope loggingScope;
     private IOControlFrame io;
     private int cameraPitchValue = 0;
     private double photoModeDelay = 1.0;
     private static DecimalFormat df2 = new DecimalFormat("#.##");
+    private static final long CONNECT_WAIT = 3000;
     private boolean debugMode = false;
 
     private int cmd_stepper = 0;
@@ -80,27 +98,35 @@ public class ROVFrame extends javax.swing.JFrame implements Runnable, Observer {
      *
      * @param echoSounder Echo sounder frame to show graphs
      * @param data Data containing shared variables
-     * @param client_Pinger the ping TCP client
+     * @param linkMonitor the monitor of the link to the ROV RPi
      * @param io I/O frame to control inputs and outputs
      * @param client_ROV the ROV TCP client
+     * @param commandChannel the prioritized command channel to the ROV RPi
+     * @param seabedPlanner the planner of the depth in seafloor mode
+     * @param stepperHealth the health of the steppers
      * @param client_Camera the camera TCP client
-     * @param sounder the alarm sounder
+     * @param alarmEngine the engine evaluating the alarms
+     * @param photoSync the sync of the photos from the camera
      * @param udpServer the camera UDP server
      * @param lgh the log file handler
      */
-    public ROVFrame(EchoSounderFrame echoSounder, Data data, IOControlFrame io, TCPpinger client_Pinger, TCPClient client_ROV, TCPClient client_Camera, UDPServer udpServer, Sounder sounder, LogFileHandler lgh) {
-        this.clientThreadExecutor = null;
-        this.encoderThreadExecutor = null;
+    public ROVFrame(EchoSounderFrame echoSounder, Data data, IOControlFrame io, LinkMonitor linkMonitor, TCPClient client_ROV, CommandChannel commandChannel, SeabedPlanner seabedPlanner, StepperHealth stepperHealth, TCPClient client_Camera, UDPServer udpServer, AlarmEngine alarmEngine, PhotoSync photoSync, LogFileHandler lgh) {
+        this.connectionScope = null;
+        this.loggingScope = null;
         initComponents();
         this.data = data;
         this.echoSounder = echoSounder;
-        this.client_Pinger = client_Pinger;
+        this.linkMonitor = linkMonitor;
         this.client_ROV = client_ROV;
+        this.commandChannel = commandChannel;
+        this.seabedPlanner = seabedPlanner;
+        this.stepperHealth = stepperHealth;
         this.client_Camera = client_Camera;
         this.udpServer = udpServer;
         this.options = new OptionsFrame(this.data, this.client_ROV);
         this.io = io;
-        this.sounder = sounder;
+        this.alarmEngine = alarmEngine;
+        this.photoSync = photoSync;
         this.lgh = lgh;
         this.getContentPane().setBackground(new Color(39, 44, 50));
         this.setExtendedState(JFrame.MAXIMIZED_BOTH);
@@ -112,6 +138,77 @@ public class ROVFrame extends javax.swing.JFrame implements Runnable, Observer {
         fullscreenVideoSheet.setOpaque(false);
         cameraPanel.add(videoSheet);
         cameraPanel1.add(fullscreenVideoSheet);
+        videoSheet.setMetrics(data.getMetrics());
+        fullscreenVideoSheet.setMetrics(data.getMetrics());
+        final Metrics metrics = data.getMetrics();
+        metrics.gauge("video.skipped", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                // Frames replaced by a newer frame before they were painted
+                return metrics.counter("video.received").get() - metrics.counter("video.painted").get();
+            }
+        });
+        this.diagnostics = new DiagnosticsFrame(data);
+        JMenuItem jMenuDiagnostics = new JMenuItem("Diagnostics");
+        jMenuDiagnostics.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                diagnostics.setVisible(true);
+            }
+        });
+        jMenuTools.add(jMenuDiagnostics, jMenuTools.getMenuComponentCount() - 1);
+        this.photoDownload = new PhotoDownloadFrame(data);
+        JMenuItem jMenuPhotoDownload = new JMenuItem("Download photos from camera");
+        jMenuPhotoDownload.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                photoDownload.setVisible(true);
+            }
+        });
+        jMenuTools.add(jMenuPhotoDownload, jMenuTools.getMenuComponentCount() - 1);
+        this.photoBrowser = new PhotoBrowserFrame(data);
+        JMenuItem jMenuPhotoBrowser = new JMenuItem("Photo browser");
+        jMenuPhotoBrowser.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                photoBrowser.setVisible(true);
+            }
+        });
+        jMenuTools.add(jMenuPhotoBrowser, jMenuTools.getMenuComponentCount() - 1);
+        final JCheckBoxMenuItem jMenuPhotoSync = new JCheckBoxMenuItem("Sync photos during dive", photoSync.isEnabled());
+        jMenuPhotoSync.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                ROVFrame.this.photoSync.setEnabled(jMenuPhotoSync.isSelected());
+            }
+        });
+        jMenuTools.add(jMenuPhotoSync, jMenuTools.getMenuComponentCount() - 1);
+        jMenuSeabedPlanner = new JCheckBoxMenuItem("Plan seafloor mode from boat echo sounder");
+        jMenuSeabedPlanner.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                if (targetMode == 1) {
+                    // Switch between the planned and the plain seafloor mode
+                    double height = jMenuSeabedPlanner.isSelected()
+                            ? data.getDepthBeneathRov() : ROVFrame.this.seabedPlanner.getTargetHeight();
+                    targetDistanceTextField.setText(String.valueOf(height));
+                    sendSeafloorMode(height);
+                }
+            }
+        });
+        jMenuTools.add(jMenuSeabedPlanner, jMenuTools.getMenuComponentCount() - 1);
+        alarmEngine.addListener(new AlarmEngine.Listener() {
+            @Override
+            public void alarmChanged(AlarmRule rule) {
+            }
+
+            @Override
+            public void emergencyStarted(final AlarmRule cause) {
+                // Stop the ROV at once, the GUI follows when the EDT is free
+                sendEmergencyStop();
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        showEmergency(cause.getName());
+                    }
+                });
+            }
+        });
         setpointLabel.setText("Current setpoint: " + setpoint + "m");
         exitFullscreenButton.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0), "exitFullscreen");
 //        depthInputTextField.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, 0), "sendInput");
@@ -190,9 +287,9 @@ public class ROVFrame extends javax.swing.JFrame implements Runnable, Observer {
     public void showImage(BufferedImage image) {
         if (fullscreen.isVisible()) {
             fullscreenVideoSheet.setSize(cameraPanel1.getSize());
-            fullscreenVideoSheet.paintSheet(ImageUtils.resize(image, fullscreenVideoSheet.getParent().getWidth(), fullscreenVideoSheet.getParent().getHeight()));
+            fullscreenVideoSheet.paintSheet(ImageUtils.resize(image, fullscreenVideoSheet.getParent().getWidth(), fullscreenVideoSheet.getParent().getHeight()), data.getVideoImageTime());
         } else {
-            videoSheet.paintSheet(ImageUtils.resize(image, videoSheet.getParent().getWidth(), videoSheet.getParent().getHeight()));
+            videoSheet.paintSheet(ImageUtils.resize(image, videoSheet.getParent().getWidth(), videoSheet.getParent().getHeight()), data.getVideoImageTime());
             videoSheet.setSize(cameraPanel.getSize());
         }
     }
@@ -1811,22 +1908,12 @@ public class ROVFrame extends javax.swing.JFrame implements Runnable, Observer {
     }//GEN-LAST:event_fullscreenKeyPressed
 
     private void stepperPSPosBarStateChanged(javax.swing.event.ChangeEvent evt) {//GEN-FIRST:event_stepperPSPosBarStateChanged
-        int stepperTime1 = stepperPSPosBar.getValue();
-        if (stepperTime1 <= 2000) {
-//            actuatorPSPosBar.setForeground(new Color(actuatorTime1, 255, 0));
-            stepperPSPosBar.setForeground(new Color(77, 192, 99));
-            warningLabel1.setText("");
-            warningLabel1.setBackground(new Color(42, 48, 57));
-        } else {
-            stepperPSPosBar.setForeground(new Color(255, 255 + (2000 - stepperTime1), 0));
-            warningLabel1.setText("Warning!");
-            warningLabel1.setBackground(Color.red);
-        }
+        showStepperHealth(stepperHealth.getPS(), stepperPSPosBar, warningLabel1);
     }//GEN-LAST:event_stepperPSPosBarStateChanged
 
     private void seafloorModeButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_seafloorModeButtonActionPerformed
 
-        double d = data.getRovDepth();
+        double d = jMenuSeabedPlanner.isSelected() ? data.getDepthBeneathRov() : data.getRovDepth();
         targetDistanceTextField.setText(String.valueOf(d));
         /* actuatorControlPS.setValue(127);
         actuatorControlSB.setValue(127);
@@ -1837,17 +1924,34 @@ public class ROVFrame extends javax.swing.JFrame implements Runnable, Observer {
             this.targetMode = 1;
             System.out.println("Mode 1 - Distance from seafloor");
             data.setManualMode(false);
-            try {
-                this.client_ROV.sendCommand("cmd_targetMode:" + String.valueOf(this.targetMode));
-                this.client_ROV.sendCommand("cmd_targetDistance:" + String.valueOf(d));
-            } catch (IOException ex) {
-                System.out.println("IOException: " + ex.getMessage());
-            }
+            sendSeafloorMode(d);
         } else {
             System.out.println("Already in seafloor mode.");
         }
     }//GEN-LAST:event_seafloorModeButtonActionPerformed
 
+    /**
+     * Puts the ROV in seafloor mode. With the seabed planner selected the ROV
+     * is put in depth mode, and the planner sends the depth which keeps the
+     * ROV at the given height above the seabed ahead of it.
+     *
+     * @param height the height above the seabed in meters
+     */
+    private void sendSeafloorMode(double height) {
+        try {
+            if (jMenuSeabedPlanner.isSelected()) {
+                this.client_ROV.sendCommand("cmd_targetMode:0");
+                seabedPlanner.start(height);
+            } else {
+                seabedPlanner.stop();
+                this.client_ROV.sendCommand("cmd_targetMode:1");
+                this.client_ROV.sendCommand("cmd_targetDistance:" + String.valueOf(height));
+            }
+        } catch (IOException ex) {
+            System.out.println("IOException: " + ex.getMessage());
+        }
+    }
+
     private void lightSwitchActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_lightSwitchActionPerformed
         if (lightSwitch.isSelected()) {
             try {
@@ -1877,31 +1981,53 @@ public class ROVFrame extends javax.swing.JFrame implements Runnable, Observer {
         setpointLabel.setText("EMERGENCY STOP: " + targetDistanceTextField.getText() + "m");
         setpointLabel.setBackground(new Color(255, 0, 0));
         manualControlButton.doClick();
-        try {
-            this.client_ROV.sendCommand("cmd_targetMode:2");
-            this.client_ROV.sendCommand("cmd_stepper:1000");
-        } catch (IOException ex) {
-            System.out.println("IOException in emergencyStopButtonActionPerformed: " + ex.getMessage());
-        }
+        sendEmergencyStop();
     }//GEN-LAST:event_emergencyStopButtonActionPerformed
 
+    /**
+     * Shows an emergency started by an alarm, and puts the GUI in manual
+     * mode like the ROV.
+     *
+     * @param cause the name of the alarm
+     */
+    private void showEmergency(String cause) {
+        targetDistanceTextField.setText("0.00");
+        setpointLabel.setText("EMERGENCY STOP (" + cause + "): 0.00m");
+        setpointLabel.setBackground(new Color(255, 0, 0));
+        if (targetMode != 2) {
+            manualControlButton.doClick();
+        }
+    }
+
+    /**
+     * Sends the emergency stop on the command channel, before any other
+     * command. Never blocks, it is called from the alarm engine: if the
+     * channel is not connected, the safety commands are kept and sent as
+     * soon as it is connected again.
+     */
+    private void sendEmergencyStop() {
+        seabedPlanner.stop();
+        commandChannel.submit("cmd_targetMode:2", CommandChannel.Priority.SAFETY);
+        commandChannel.submit("cmd_stepper:1000", CommandChannel.Priority.SAFETY);
+    }
+
     private void jMenuItemConnectActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jMenuItemConnectActionPerformed
 //        String ip = (String) JOptionPane.showInputDialog(this, "Enter IP", "Connection", JOptionPane.PLAIN_MESSAGE, null, null, data.getIP_Rov());
         try {
 
-            this.clientThreadExecutor = Executors.newScheduledThreadPool(4);
-            clientThreadExecutor.scheduleAtFixedRate(client_ROV,
-                    0, 100, TimeUnit.MILLISECONDS);
-            clientThreadExecutor.scheduleAtFixedRate(client_Camera,
-                    0, 100, TimeUnit.MILLISECONDS);
-            clientThreadExecutor.scheduleAtFixedRate(udpServer,
-                    0, 20, TimeUnit.MILLISECONDS);
-            Thread.sleep(500);
+            this.connectionScope = new TaskScope("connection");
+            client_ROV.start();
+            commandChannel.start();
+            client_Camera.start();
+            udpServer.start();
+            // Both connects run at the same time, wait for the first attempts
+            client_ROV.awaitConnected(CONNECT_WAIT);
+            client_Camera.awaitConnected(CONNECT_WAIT);
 
             if (client_ROV.isConnected() && client_Camera.isConnected()) {
                 // ROV RPi:
-                clientThreadExecutor.scheduleAtFixedRate(client_Pinger,
-                        0, 1000, TimeUnit.MILLISECONDS);
+                linkMonitor.start();
+                connectionScope.repeat("LinkMonitor", linkMonitor, linkMonitor.getProbeInterval());
                 lightSwitch_lbl.setEnabled(true);
                 emergencyStopButton.setEnabled(true);
                 targetDistanceTextField.setEnabled(true);
@@ -1939,8 +2065,8 @@ public class ROVFrame extends javax.swing.JFrame implements Runnable, Observer {
                         JOptionPane.PLAIN_MESSAGE);
             } else if (client_ROV.isConnected() && !client_Camera.isConnected()) {
                 // ROV RPi:
-                clientThreadExecutor.scheduleAtFixedRate(client_Pinger,
-                        0, 1000, TimeUnit.MILLISECONDS);
+                linkMonitor.start();
+                connectionScope.repeat("LinkMonitor", linkMonitor, linkMonitor.getProbeInterval());
                 emergencyStopButton.setEnabled(true);
                 targetDistanceTextField.setEnabled(true);
                 depthModeButton.setEnabled(true);
@@ -1991,13 +2117,15 @@ public class ROVFrame extends javax.swing.JFrame implements Runnable, Observer {
                         "Error: Could not connect to either the ROV RPi nor the camera RPi.",
                         "Error: Could not connect",
                         JOptionPane.PLAIN_MESSAGE);
-                client_Pinger.disconnect();
+                linkMonitor.stop();
                 client_ROV.disconnect();
+                commandChannel.stop();
                 client_Camera.disconnect();
+                udpServer.stop();
 
-                if (clientThreadExecutor != null) {
-                    clientThreadExecutor.shutdown();
-                    clientThreadExecutor = null;
+                if (connectionScope != null) {
+                    connectionScope.close();
+                    connectionScope = null;
                 }
             }
 
@@ -2018,13 +2146,16 @@ public class ROVFrame extends javax.swing.JFrame implements Runnable, Observer {
     private void jMenuItemDisconnectActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jMenuItemDisconnectActionPerformed
 
         try {
-            client_Pinger.disconnect();
+            linkMonitor.stop();
             client_ROV.disconnect();
+            commandChannel.stop();
             client_Camera.disconnect();
+            udpServer.stop();
             jMenuPing.setText("Ping (ROV): Not connected");
 
-            if (clientThreadExecutor != null) {
-                clientThreadExecutor.shutdown();
+            if (connectionScope != null) {
+                connectionScope.close();
+                connectionScope = null;
             }
             // ROV RPi:
             emergencyStopButton.setEnabled(false);
@@ -2084,16 +2215,7 @@ public class ROVFrame extends javax.swing.JFrame implements Runnable, Observer {
     }//GEN-LAST:event_jMenuAboutActionPerformed
 
     private void stepperSBPosBarStateChanged(javax.swing.event.ChangeEvent evt) {//GEN-FIRST:event_stepperSBPosBarStateChanged
-        int stepperTime2 = stepperSBPosBar.getValue();
-        if (stepperTime2 <= 2000) {
-            stepperSBPosBar.setForeground(new Color(77, 192, 99));
-            warningLabel2.setText("");
-            warningLabel2.setBackground(new Color(42, 48, 57));
-        } else {
-            stepperSBPosBar.setForeground(new Color(255, 255 + (2000 - stepperTime2), 0));
-            warningLabel2.setText("Warning!");
-            warningLabel2.setBackground(Color.red);
-        }
+        showStepperHealth(stepperHealth.getSB(), stepperSBPosBar, warningLabel2);
     }//GEN-LAST:event_stepperSBPosBarStateChanged
 
     private void jMenuOptionsActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jMenuOptionsActionPerformed
@@ -2110,6 +2232,7 @@ public class ROVFrame extends javax.swing.JFrame implements Runnable, Observer {
         jButtonManualDown.setEnabled(false);
         if (this.targetMode != 0) {
             this.targetMode = 0;
+            seabedPlanner.stop();
             data.setManualMode(false);
             System.out.println("Mode 0 - Depth");
             try {
@@ -2247,6 +2370,7 @@ public class ROVFrame extends javax.swing.JFrame implements Runnable, Observer {
             jButtonManualUp.setEnabled(true);
             data.setManualMode(true);
             this.targetMode = 2;
+            seabedPlanner.stop();
             System.out.println("Mode 2 - Manual wing control");
             try {
                 this.client_ROV.sendCommand("cmd_targetMode:" + String.valueOf(this.targetMode));
@@ -2293,9 +2417,15 @@ public class ROVFrame extends javax.swing.JFrame implements Runnable, Observer {
 //                    previousSetpoint = setpoint;
 //                    setpoint = newSetpoint;
 //                    depthInputTextField.setValue(null);
-                    setpointLabel.setText("Current setpoint: " + newSetpoint + "m");
-                    System.out.println("targetDistance set to " + String.valueOf(newSetpoint));
-                    this.client_ROV.sendCommand("cmd_targetDistance:" + String.valueOf(newSetpoint));
+                    if (seabedPlanner.isActive()) {
+                        // The planner turns the height into depth setpoints
+                        setpointLabel.setText("Current setpoint: " + newSetpoint + "m above planned seafloor");
+                        seabedPlanner.setTargetHeight(newSetpoint);
+                    } else {
+                        setpointLabel.setText("Current setpoint: " + newSetpoint + "m");
+                        System.out.println("targetDistance set to " + String.valueOf(newSetpoint));
+                        this.client_ROV.sendCommand("cmd_targetDistance:" + String.valueOf(newSetpoint));
+                    }
                 } else {
                     targetDistanceTextField.setValue(null);
                     targetDistanceTextField.setText("");
@@ -2339,16 +2469,96 @@ public class ROVFrame extends javax.swing.JFrame implements Runnable, Observer {
 
     private void calibrateMenuItemActionPerformed(java.awt.event.ActionEvent evt)//GEN-FIRST:event_calibrateMenuItemActionPerformed
     {//GEN-HEADEREND:event_calibrateMenuItemActionPerformed
+        if (!commandChannel.isConnected()) {
+            JOptionPane.showMessageDialog(this,
+                    "Connect to the ROV before calibrating.",
+                    "Not connected",
+                    JOptionPane.PLAIN_MESSAGE);
+            return;
+        }
+        calibrateMenuItem.setEnabled(false);
+        jMenuCalibrate.setText("Calibrating...");
+        new ActuatorCalibration(data, commandChannel, new ActuatorCalibration.Listener() {
+            @Override
+            public void calibrationDone(final CalibrationResult result) {
+                stepperHealth.addCalibration(result);
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        calibrationDone(result);
+                    }
+                });
+            }
+        }).start();
+    }//GEN-LAST:event_calibrateMenuItemActionPerformed
+
+    /**
+     * Shows the result of the actuator calibration in the calibrate menu.
+     *
+     * @param result the result of the calibration
+     */
+    private void calibrationDone(CalibrationResult result) {
+        calibrateMenuItem.setEnabled(true);
         try {
-            // TODO add your handling code here:
-            // Kjør kalibrering!
-            jMenuCalibrate.setText("Calibrated!");
-            jMenuCalibrate.setIcon(new ImageIcon(ImageIO.read(getClass().getResource("/ntnusubsea/gui/Images/Calibrated.gif"))));
+            if (result.isOk()) {
+                jMenuCalibrate.setText("Calibrated!");
+                jMenuCalibrate.setIcon(new ImageIcon(ImageIO.read(getClass().getResource("/ntnusubsea/gui/Images/Calibrated.gif"))));
+                if (stepperHealth.hasWarning()) {
+                    // Within the loss from the last run, but not from the trend
+                    JOptionPane.showMessageDialog(this,
+                            "<html>Check the steppers before diving:<br/>"
+                            + getStepperWarning(stepperHealth.getPS()) + "<br/>"
+                            + getStepperWarning(stepperHealth.getSB()) + "</html>",
+                            "Stepper health",
+                            JOptionPane.WARNING_MESSAGE);
+                }
+            } else {
+                jMenuCalibrate.setText("Calibration failed");
+                jMenuCalibrate.setIcon(new ImageIcon(ImageIO.read(getClass().getResource("/ntnusubsea/gui/Images/NotCalibrated.gif"))));
+                JOptionPane.showMessageDialog(this,
+                        "Calibration of the actuators failed: " + result,
+                        "Calibration failed",
+                        JOptionPane.WARNING_MESSAGE);
+            }
         } catch (IOException ex) {
             System.out.println("IOException when calibrating: " + ex.getMessage());
+        }
+    }
 
+    /**
+     * Returns the warning of a stepper, or its statistics if it is healthy.
+     *
+     * @param stepper the health of the stepper
+     * @return the text
+     */
+    private String getStepperWarning(StepperHealth.Stepper stepper) {
+        if (stepper.getState() == StepperHealth.State.WARNING) {
+            return stepper.getName() + ": " + stepper.getWarning();
         }
-    }//GEN-LAST:event_calibrateMenuItemActionPerformed
+        return stepper.getSummary();
+    }
+
+    /**
+     * Shows the health of a stepper in its position bar and in the warning
+     * label under it.
+     *
+     * @param stepper the health of the stepper
+     * @param bar the position bar
+     * @param label the warning label
+     */
+    private void showStepperHealth(StepperHealth.Stepper stepper, JProgressBar bar, JLabel label) {
+        if (stepper.getState() == StepperHealth.State.WARNING) {
+            bar.setForeground(new Color(255, 170, 0));
+            label.setText("Warning!");
+            label.setToolTipText(stepper.getWarning());
+            label.setBackground(Color.red);
+        } else {
+            bar.setForeground(new Color(77, 192, 99));
+            label.setText("");
+            label.setToolTipText(stepper.getSummary());
+            label.setBackground(new Color(42, 48, 57));
+        }
+    }
 
     private void InputControllerButtonActionPerformed(java.awt.event.ActionEvent evt)//GEN-FIRST:event_InputControllerButtonActionPerformed
     {//GEN-HEADEREND:event_InputControllerButtonActionPerformed
@@ -2367,11 +2577,15 @@ public class ROVFrame extends javax.swing.JFrame implements Runnable, Observer {
     private void jMenuItemStartLoggingActionPerformed(java.awt.event.ActionEvent evt)//GEN-FIRST:event_jMenuItemStartLoggingActionPerformed
     {//GEN-HEADEREND:event_jMenuItemStartLoggingActionPerformed
         this.data.setStartLogging(true);
+        try {
+            this.data.getSessionRecorder().start(new File(lgh.getLogStorageLocation()));
+        } catch (IOException ex) {
+            System.out.println("Error starting the session recording: " + ex.getMessage());
+        }
         encoder = new VideoEncoder(this.data);
         this.data.addObserver(encoder);
-        this.encoderThreadExecutor = Executors.newScheduledThreadPool(1);
-        encoderThreadExecutor.scheduleAtFixedRate(encoder,
-                0, 40, TimeUnit.MILLISECONDS);
+        this.loggingScope = new TaskScope("logging");
+        loggingScope.repeat("VideoEncoder", encoder, 40);
 
         Runtime.getRuntime()
                 .addShutdownHook(new Thread(new Runnable() {
@@ -2380,8 +2594,9 @@ public class ROVFrame extends javax.swing.JFrame implements Runnable, Observer {
                         if (encoder != null) {
                             encoder.finishVideo();
                         }
-                        if (encoderThreadExecutor != null) {
-                            encoderThreadExecutor.shutdown();
+                        data.getSessionRecorder().stop();
+                        if (loggingScope != null) {
+                            loggingScope.close();
                         }
                     }
                 },
@@ -2400,9 +2615,10 @@ public class ROVFrame extends javax.swing.JFrame implements Runnable, Observer {
     {//GEN-HEADEREND:event_jMenuItemStopLoggingActionPerformed
         this.data.setStartLogging(false);
         this.lgh.closeLog();
-        encoderThreadExecutor.shutdown();
+        this.data.getSessionRecorder().stop();
+        loggingScope.close();
         encoder.finishVideo();
-        encoderThreadExecutor = null;
+        loggingScope = null;
         encoder = null;
         jMenuLogger.setText("Not logging");
         jMenuItemStopLogging.setEnabled(false);
@@ -2660,6 +2876,29 @@ public class ROVFrame extends javax.swing.JFrame implements Runnable, Observer {
 //        }
     }
 
+    /**
+     * Shows how many of the RPis are connected in the connect menu. Called by
+     * the ConnectionManager when a connection is lost or made again.
+     */
+    public void updateConnectionStatus() {
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                if (!jMenuItemDisconnect.isEnabled()) {
+                    return;
+                }
+                int connected = (client_ROV.isConnected() ? 1 : 0) + (client_Camera.isConnected() ? 1 : 0);
+                jMenuConnect.setText("Connected " + connected + "/2");
+                try {
+                    String icon = connected == 2 ? "Calibrated.gif" : "NotCalibrated.gif";
+                    jMenuConnect.setIcon(new ImageIcon(ImageIO.read(getClass().getResource("/ntnusubsea/gui/Images/" + icon))));
+                } catch (IOException ex) {
+                    System.out.println("Error: " + ex.getMessage());
+                }
+            }
+        });
+    }
+
     /**
      * Updates the GUI by observing the shared resource Data class.
      *
@@ -2673,29 +2912,6 @@ public class ROVFrame extends javax.swing.JFrame implements Runnable, Observer {
         if (data.getVideoImage() != null) {
             this.showImage(data.getVideoImage());
         }
-        if (this.sounderThread == null) {
-            this.sounderThread = new Thread(this.sounder);
-        }
-        if (data.isEmergencyMode() && !this.sounderThread.isAlive()) {
-
-            targetDistanceTextField.setText("0.00");
-            setpointLabel.setText("EMERGENCY STOP: " + targetDistanceTextField.getText() + "m");
-            setpointLabel.setBackground(new Color(255, 0, 0));
-            manualControlButton.doClick();
-            try {
-                this.client_ROV.sendCommand("cmd_targetMode:2");
-                this.client_ROV.sendCommand("cmd_stepper:1000");
-            } catch (IOException ex) {
-                System.out.println("IOException in emergencyStopButtonActionPerformed: " + ex.getMessage());
-            }
-
-            if (!this.sounder.isAlive()) {
-                this.sounderThread = new Thread(this.sounder);
-                this.sounderThread.setName("Sounder");
-            }
-            this.sounderThread.start();
-        }
-
         rollLabel.setText("Roll Angle: " + data.getRollAngle());
         pitchLabel.setText("Pitch Angle: " + data.getPitchAngle());
         wingLabel.setText("Wing Angle: " + data.getWingAngle());
@@ -2712,11 +2928,14 @@ public class ROVFrame extends javax.swing.JFrame implements Runnable, Observer {
         stepperSBPosLabel.setText("SB Position: " + data.getFb_stepperSBPos());
         stepperPSPosBar.setValue(data.getFb_stepperPSPos());
         stepperSBPosBar.setValue(data.getFb_stepperSBPos());
+        // The bars only tell about a new position, a stopped stepper is
+        // shown here
+        showStepperHealth(stepperHealth.getPS(), stepperPSPosBar, warningLabel1);
+        showStepperHealth(stepperHealth.getSB(), stepperSBPosBar, warningLabel2);
 
         if (data.isI2cError()) {
             i2cErrorLabel.setText("I²C: ERROR!");
             i2cErrorLabel.setBackground(Color.red);
-            data.setEmergencyMode(true);
         } else {
             i2cErrorLabel.setText("I²C: OK");
         }
@@ -2725,7 +2944,6 @@ public class ROVFrame extends javax.swing.JFrame implements Runnable, Observer {
 
             leakLabel.setText("LEAK DETECTED!");
             leakLabel.setBackground(Color.red);
-            data.setEmergencyMode(true);
         } else {
             leakLabel.setText("No leak detected");
             leakLabel.setBackground(new Color(39, 46, 54));
@@ -2757,7 +2975,6 @@ public class ROVFrame extends javax.swing.JFrame implements Runnable, Observer {
             } catch (IOException ex) {
                 System.out.println("Error: " + ex.getMessage());
             }
-            data.setEmergencyMode(true);
         } else if (data.getVoltage() > 28.00) {
             jMenuVoltage.setText("Voltage: " + data.getVoltage() + " V");
             try {
@@ -2767,22 +2984,25 @@ public class ROVFrame extends javax.swing.JFrame implements Runnable, Observer {
             }
         }
 
-        if (this.client_Pinger.isConnected() && (data.getRovPing() == 0.00)) {
-            data.setEmergencyMode(true);
+        LinkStatistics link = linkMonitor.getStatistics();
+        LinkStatistics.State linkState = linkMonitor.isRunning() ? link.getState() : LinkStatistics.State.UNKNOWN;
+        if (linkState == LinkStatistics.State.DOWN) {
             jMenuPing.setText("Ping (ROV): Lost connection...");
+        } else if (linkState != LinkStatistics.State.UNKNOWN) {
+            jMenuPing.setText("Ping (ROV): " + df2.format(link.getPercentileMillis(50))
+                    + " ms, jitter " + df2.format(link.getJitterMillis())
+                    + " ms, loss " + Math.round(link.getLossRatio() * 100) + " %"
+                    + (linkState == LinkStatistics.State.DEGRADED ? " (degraded)" : ""));
+        }
+        if (linkState != lastLinkState && linkState != LinkStatistics.State.UNKNOWN) {
             try {
-                jMenuPing.setIcon(new ImageIcon(ImageIO.read(getClass().getResource("/ntnusubsea/gui/Images/NotCalibrated.gif"))));
-            } catch (IOException ex) {
-                System.out.println("Error: " + ex.getMessage());
-            }
-        } else if (this.client_Pinger.isConnected() && (data.getRovPing() != 999.99)) {
-            jMenuPing.setText("Ping (ROV): " + String.valueOf(data.getRovPing()) + " ms");
-            try {
-                jMenuPing.setIcon(new ImageIcon(ImageIO.read(getClass().getResource("/ntnusubsea/gui/Images/Calibrated.gif"))));
+                String icon = linkState == LinkStatistics.State.UP ? "Calibrated.gif" : "NotCalibrated.gif";
+                jMenuPing.setIcon(new ImageIcon(ImageIO.read(getClass().getResource("/ntnusubsea/gui/Images/" + icon))));
             } catch (IOException ex) {
                 System.out.println("Error: " + ex.getMessage());
             }
         }
+        lastLinkState = linkState;
 
         photoModeDelay_FB_Label.setText(String.valueOf(df2.format(data.getPhotoModeDelay_FB())) + " s");
         imageNumberLabel.setText(data.getImageNumber() + "");
@@ -0,0 +1,182 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package ntnusubsea.gui;
+
+import basestation_rov.Metrics;
+import basestation_rov.TimeSeries;
+
+/**
+ * Plans the depth of the ROV from the seabed measured by the echo sounder of
+ * the boat. The ROV passes the seabed under the boat timeBetweenBoatAndRov
+ * seconds later, so the seabed the ROV will reach in the next meters is
+ * already known. Every tick the planner finds the shallowest seabed in a
+ * look-ahead distance in front of the ROV, converted to time with the speed
+ * of the boat, and sends a smoothed depth setpoint which keeps the ROV at the
+ * target height above it. The ROV runs in depth mode while the planner is
+ * active, so it climbs before a rise instead of after it.
+ *
+ * The profile is recorded all the time, so it is ready when the planner is
+ * activated.
+ */
+public class SeabedPlanner implements Runnable {
+
+    /**
+     * The time between two ticks in milliseconds.
+     */
+    public static final long PLAN_PERIOD = 200;
+
+    private static final double KNOTS_TO_MPS = 0.514444;
+    private static final double LOOK_AHEAD_DISTANCE = 20;
+    private static final double MIN_LOOK_AHEAD_TIME = 1;
+    private static final double MIN_SPEED = 0.2;
+    // The time constant of the setpoint filter in seconds
+    private static final double SMOOTHING_TIME = 2;
+    // The max change of the setpoint in m/s
+    private static final double MAX_RATE = 0.5;
+    private static final double MAX_DEPTH = 50;
+    private static final double MIN_CHANGE = 0.05;
+    private static final long RESEND_PERIOD = 2000;
+
+    private final Data data;
+    private final CommandChannel commandChannel;
+    // The seabed under the boat over time, in positive meters like the depth
+    // of the ROV, 10 minutes of samples
+    private final TimeSeries profile = new TimeSeries((int) (600000 / PLAN_PERIOD));
+
+    private volatile boolean active = false;
+    private volatile double targetHeight = 0;
+    private volatile double seabedAhead = Double.NaN;
+    private double setpoint = Double.NaN;
+    private double sentSetpoint = Double.NaN;
+    private long sentTime = 0;
+
+    /**
+     * The constructor of the SeabedPlanner class.
+     *
+     * @param data the shared resource Data class
+     * @param commandChannel the command channel to the ROV RPi
+     */
+    public SeabedPlanner(Data data, CommandChannel commandChannel) {
+        this.data = data;
+        this.commandChannel = commandChannel;
+        data.getMetrics().gauge("planner.seabedAheadCm", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                double depth = seabedAhead;
+                return Double.isNaN(depth) ? -1 : Math.round(depth * 100);
+            }
+        });
+        data.getMetrics().gauge("planner.setpointCm", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                double depth = sentSetpoint;
+                return !active || Double.isNaN(depth) ? -1 : Math.round(depth * 100);
+            }
+        });
+    }
+
+    /**
+     * Starts planning the depth of the ROV. The ROV must be put in depth
+     * mode.
+     *
+     * @param height the height above the seabed to keep, in meters
+     */
+    public void start(double height) {
+        targetHeight = height;
+        active = true;
+    }
+
+    /**
+     * Stops planning. Nothing more is sent to the ROV.
+     */
+    public void stop() {
+        active = false;
+    }
+
+    /**
+     * Returns true while the planner sends the setpoints.
+     *
+     * @return true if active
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Sets the height above the seabed to keep.
+     *
+     * @param height the height in meters
+     */
+    public void setTargetHeight(double height) {
+        targetHeight = height;
+    }
+
+    /**
+     * Returns the height above the seabed kept.
+     *
+     * @return the height in meters
+     */
+    public double getTargetHeight() {
+        return targetHeight;
+    }
+
+    /**
+     * Runs one tick. Records the seabed under the boat, and sends a new depth
+     * setpoint if active.
+     */
+    @Override
+    public void run() {
+        long now = System.currentTimeMillis();
+        // The depth beneath the boat is stored negative, the profile has it
+        // positive like the depth of the ROV
+        double boatSeabed = -data.getDepthBeneathBoat();
+        if (boatSeabed > 0) {
+            profile.add(now, boatSeabed);
+        }
+
+        // The ROV is over the seabed the boat passed lag seconds ago, and
+        // reaches the seabed the boat passed lag - lookAhead seconds ago
+        double lag = data.getTimeBetweenBoatAndRov();
+        double speed = data.getSpeed() * KNOTS_TO_MPS;
+        double lookAhead = speed > MIN_SPEED ? LOOK_AHEAD_DISTANCE / speed : MIN_LOOK_AHEAD_TIME;
+        lookAhead = Math.max(MIN_LOOK_AHEAD_TIME, Math.min(lag, lookAhead));
+        long from = now - (long) (lag * 1000);
+        seabedAhead = profile.getMin(from, from + (long) (lookAhead * 1000), 0);
+
+        if (!active) {
+            setpoint = Double.NaN;
+            sentSetpoint = Double.NaN;
+            return;
+        }
+        if (Double.isNaN(seabedAhead)) {
+            // No seabed measured ahead, keep the last setpoint
+            return;
+        }
+        double target = Math.max(0, Math.min(MAX_DEPTH, seabedAhead - targetHeight));
+        if (Double.isNaN(setpoint)) {
+            setpoint = data.getRovDepth();
+        }
+        double dt = PLAN_PERIOD / 1000.0;
+        double change = (target - setpoint) * Math.min(1, dt / SMOOTHING_TIME);
+        setpoint += Math.max(-MAX_RATE * dt, Math.min(MAX_RATE * dt, change));
+
+        if (Double.isNaN(sentSetpoint) || Math.abs(setpoint - sentSetpoint) >= MIN_CHANGE
+                || now - sentTime >= RESEND_PERIOD) {
+            double rounded = Math.round(setpoint * 100) / 100.0;
+            commandChannel.submit("cmd_targetDistance:" + rounded, CommandChannel.Priority.CONTROL);
+            sentSetpoint = rounded;
+            sentTime = now;
+        }
+    }
+}
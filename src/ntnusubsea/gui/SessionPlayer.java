@@ -0,0 +1,238 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package ntnusubsea.gui;
+
+import basestation_rov.ReadSerialData;
+import basestation_rov.SessionReader;
+import basestation_rov.SessionRecorder;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import javax.imageio.ImageIO;
+
+/**
+ * Plays back a session recorded by the SessionRecorder into the shared
+ * resource Data class, so the GUI shows the dive as it happened. The
+ * responses from the RPis go through TCPClient, the serial data through
+ * ReadSerialData and the video frames are decoded like in the UDPServer. The
+ * commands sent during the dive are printed.
+ *
+ * Start the GUI with -Dtowedrov.replay=file.trs and optionally
+ * -Dtowedrov.replay.speed=10 to play back a session instead of connecting to
+ * the ROV, or run this class to play a session without the GUI, for example
+ * to measure the performance on real survey traffic.
+ */
+public class SessionPlayer implements Runnable {
+
+    private final File file;
+    private final Data data;
+    private volatile double speed;
+    private volatile long startAt = 0;
+    private volatile boolean running = true;
+    private final HashMap<String, TCPClient> tcpClients = new HashMap<>();
+    private final HashMap<String, ReadSerialData> serialReaders = new HashMap<>();
+    private final HashMap<String, String> lastCommands = new HashMap<>();
+    private long records = 0;
+    private long maxLagNanos = 0;
+
+    /**
+     * The constructor of the SessionPlayer class.
+     *
+     * @param file the session file to play
+     * @param data the shared resource Data class
+     * @param speed how much faster than real time to play, 0 for as fast as
+     * possible
+     */
+    public SessionPlayer(File file, Data data, double speed) {
+        this.file = file;
+        this.data = data;
+        this.speed = speed;
+    }
+
+    /**
+     * Plays the session.
+     */
+    @Override
+    public void run() {
+        try (SessionReader reader = new SessionReader(file)) {
+            if (startAt > 0) {
+                reader.seek(startAt);
+            }
+            System.out.println("Playing session " + file + " at " + speed + "x");
+            SessionReader.Record record;
+            long firstTime = -1;
+            long startNanos = System.nanoTime();
+            double startSpeed = speed;
+            while (running && (record = reader.next()) != null) {
+                if (firstTime < 0) {
+                    firstTime = record.getTime();
+                }
+                if (speed != startSpeed) {
+                    // Continue from here at the new speed
+                    firstTime = record.getTime();
+                    startNanos = System.nanoTime();
+                    startSpeed = speed;
+                }
+                if (startSpeed > 0) {
+                    long due = startNanos + (long) ((record.getTime() - firstTime) / startSpeed);
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                    } else {
+                        maxLagNanos = Math.max(maxLagNanos, -wait);
+                    }
+                }
+                play(record);
+                records++;
+            }
+            System.out.println("Session played: " + records + " records, max lag "
+                    + String.format("%.1f", maxLagNanos / 1e6) + " ms");
+        } catch (IOException ex) {
+            System.out.println("Error playing session: " + ex.getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        running = false;
+    }
+
+    /**
+     * Plays one record into the Data class.
+     *
+     * @param record the record to play
+     */
+    private void play(SessionReader.Record record) {
+        String channel = record.getChannel();
+        switch (record.getType()) {
+            case SessionRecorder.TYPE_COMMAND:
+                lastCommands.put(channel, record.getText());
+                System.out.println(String.format("%10.3f", record.getTime() / 1e9)
+                        + " " + channel + " <" + record.getText() + ">");
+                break;
+            case SessionRecorder.TYPE_RESPONSE:
+                // Only the data requests are handled, like in TCPClient.sendCommand
+                String command = lastCommands.get(channel);
+                if ("fb_allData".equals(command) || "getData".equals(command)) {
+                    getTcpClient(channel).handleDataFromRemote(record.getText());
+                }
+                break;
+            case SessionRecorder.TYPE_SERIAL:
+                getSerialReader(channel).handleData(record.getPayload());
+                break;
+            case SessionRecorder.TYPE_VIDEO:
+                try {
+                    data.setVideoImage(ImageIO.read(new ByteArrayInputStream(record.getPayload())));
+                } catch (IOException ex) {
+                    System.out.println("Error decoding video frame: " + ex.getMessage());
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Returns the TCPClient which handles the responses of a channel.
+     *
+     * @param channel the address of the RPi, like "192.168.0.101:8088"
+     * @return the client
+     */
+    private TCPClient getTcpClient(String channel) {
+        TCPClient client = tcpClients.get(channel);
+        if (client == null) {
+            int separator = channel.lastIndexOf(':');
+            int port = 0;
+            try {
+                port = Integer.parseInt(channel.substring(separator + 1));
+            } catch (NumberFormatException | StringIndexOutOfBoundsException ex) {
+            }
+            client = new TCPClient(separator > 0 ? channel.substring(0, separator) : channel, port, data);
+            tcpClients.put(channel, client);
+        }
+        return client;
+    }
+
+    /**
+     * Returns the ReadSerialData which handles the data of a channel.
+     *
+     * @param channel the name of the device
+     * @return the reader
+     */
+    private ReadSerialData getSerialReader(String channel) {
+        ReadSerialData reader = serialReaders.get(channel);
+        if (reader == null) {
+            reader = new ReadSerialData(data, channel, 0, channel);
+            serialReaders.put(channel, reader);
+        }
+        return reader;
+    }
+
+    /**
+     * Sets the speed of the playback.
+     *
+     * @param speed how much faster than real time to play, 0 for as fast as
+     * possible
+     */
+    public void setSpeed(double speed) {
+        this.speed = speed;
+    }
+
+    /**
+     * Sets where in the session to start. Must be called before the playback
+     * is started.
+     *
+     * @param seconds the time since the start of the session in seconds
+     */
+    public void setStartAt(double seconds) {
+        this.startAt = (long) (seconds * 1e9);
+    }
+
+    /**
+     * Stops the playback.
+     */
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Returns true until the playback is done or stopped.
+     *
+     * @return true if playing
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Plays a session without the GUI.
+     *
+     * @param args the session file, the speed (default 1, 0 for max) and the
+     * time to start at in seconds (default 0)
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: SessionPlayer file [speed] [start seconds]");
+            System.exit(1);
+        }
+        SessionPlayer player = new SessionPlayer(new File(args[0]), new Data(),
+                args.length > 1 ? Double.parseDouble(args[1]) : 1);
+        if (args.length > 2) {
+            player.setStartAt(Double.parseDouble(args[2]));
+        }
+        long start = System.nanoTime();
+        player.run();
+        System.out.println("Played in " + String.format("%.3f", (System.nanoTime() - start) / 1e9) + " s");
+        System.exit(0);
+    }
+}
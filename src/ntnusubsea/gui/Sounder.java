@@ -13,61 +13,259 @@
  */
 package ntnusubsea.gui;
 
-import java.io.FileInputStream;
-import java.io.InputStream;
+import basestation_rov.Metrics;
+import java.awt.Toolkit;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Clip;
+import javax.sound.sampled.LineEvent;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.UnsupportedAudioFileException;
 
 /**
- * Responsible for playing an audio file representing an alarm. This class is
- * needed for the GUI not to freeze while loading and playing the audio file.
+ * Plays the alarm tones. The tones are decoded once, when the sounder thread
+ * starts, into clips which are kept open, so a tone starts a few milliseconds
+ * after it is asked for. The emergency tone is the warning WAV file, read
+ * from the classpath, and the warning tone is two short beeps made in
+ * memory. Playing never blocks: the requests are queued to the sounder
+ * thread. A tone does not stop a more important tone which is playing.
+ *
+ * If there is no audio device, the system beep is used instead.
  *
  * @author Towed ROV 2019
  * https://ntnuopen.ntnu.no/ntnu-xmlui/handle/11250/2564356
  */
 public class Sounder implements Runnable {
 
-    private boolean isAlive = false;
+    /**
+     * The alarm tones, the first is the most important.
+     */
+    public enum Tone {
+        /**
+         * The ROV is in emergency mode.
+         */
+        EMERGENCY,
+        /**
+         * A warning the operator should look at.
+         */
+        WARNING
+    }
+
+    private static final String EMERGENCY_FILE = "/ntnusubsea/gui/audio/Emergency_Warning_06.wav";
+    private static final float SAMPLE_RATE = 44100;
+    private static final int BEEP_HZ = 880;
+    private static final int BEEP_MILLIS = 150;
+    private static final int PAUSE_MILLIS = 100;
+
+    /**
+     * A request to the sounder thread.
+     */
+    private static final class Request {
+
+        private final Tone tone;
+        private final boolean repeat;
+        private final long time = System.nanoTime();
+
+        /**
+         * Creates a request.
+         *
+         * @param tone the tone to play, or null to stop
+         * @param repeat true to play the tone until stopped
+         */
+        Request(Tone tone, boolean repeat) {
+            this.tone = tone;
+            this.repeat = repeat;
+        }
+    }
+
+    private final Metrics metrics;
+    private final LinkedBlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+    private final Map<Tone, Clip> clips = new EnumMap<>(Tone.class);
+    private volatile boolean ready = false;
+    private volatile Tone playing = null;
+    private volatile long startRequested = 0;
+
+    /**
+     * The constructor of the Sounder class. The tones are loaded when the
+     * sounder thread starts.
+     *
+     * @param metrics the metrics to put the start time of the tones in
+     */
+    public Sounder(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Plays a tone, unless a more important tone is playing. Never blocks.
+     *
+     * @param tone the tone
+     * @param repeat true to play the tone until {@link #stop()} is called
+     */
+    public void play(Tone tone, boolean repeat) {
+        requests.add(new Request(tone, repeat));
+    }
+
+    /**
+     * Stops the tone which is playing. Never blocks.
+     */
+    public void stop() {
+        requests.add(new Request(null, false));
+    }
+
+    /**
+     * Returns true when the tones are loaded.
+     *
+     * @return true if ready
+     */
+    public boolean isReady() {
+        return ready;
+    }
 
     /**
-     * The constructor of the Sounder class.
+     * Returns the tone which is playing.
+     *
+     * @return the tone, or null if none
      */
-    public Sounder() {
-        this.isAlive = true;
+    public Tone getPlaying() {
+        return playing;
     }
 
     /**
-     * Runs the Sounder thread. Plays the audio file.
+     * Runs the sounder thread. Loads the tones, and then plays the requested
+     * tones until interrupted.
      */
     @Override
     public void run() {
+        load();
         try {
-            String gongFile = "src/ntnusubsea/gui/audio/Emergency_Warning_06.wav";
-            InputStream in = new FileInputStream(gongFile);
-            // AudioStream audioStream = new AudioStream(in);
-            // AudioPlayer.player.start(audioStream);
-            Thread.sleep(15000);
-
-        } catch (Exception e) {
-            System.out.println("Error while trying to play an audio file: " + e.getMessage());
+            while (!Thread.currentThread().isInterrupted()) {
+                handle(requests.take());
+            }
+        } catch (InterruptedException ex) {
+            // Closed with the task scope
+        } finally {
+            for (Clip clip : clips.values()) {
+                clip.close();
+            }
         }
-        this.setAlive(false);
     }
 
     /**
-     * Sets the state of the thread.
+     * Decodes the tones into open clips.
+     */
+    private void load() {
+        try {
+            URL url = Sounder.class.getResource(EMERGENCY_FILE);
+            if (url == null) {
+                throw new IOException(EMERGENCY_FILE + " is not on the classpath");
+            }
+            try (AudioInputStream in = AudioSystem.getAudioInputStream(new BufferedInputStream(url.openStream()))) {
+                Clip clip = AudioSystem.getClip();
+                clip.open(in);
+                addClip(Tone.EMERGENCY, clip);
+            }
+            AudioFormat format = new AudioFormat(SAMPLE_RATE, 16, 1, true, false);
+            byte[] beeps = createBeeps();
+            Clip clip = AudioSystem.getClip();
+            clip.open(format, beeps, 0, beeps.length);
+            addClip(Tone.WARNING, clip);
+            ready = true;
+        } catch (IOException | UnsupportedAudioFileException | LineUnavailableException
+                | IllegalArgumentException | SecurityException ex) {
+            System.out.println("Error while loading the alarm tones, using the system beep: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Keeps a loaded clip, and measures the time from the request until the
+     * clip starts.
      *
-     * @param bool the status to set
+     * @param tone the tone of the clip
+     * @param clip the open clip
      */
-    public void setAlive(boolean bool) {
-        this.isAlive = bool;
+    private void addClip(final Tone tone, Clip clip) {
+        clip.addLineListener(new LineListener() {
+            @Override
+            public void update(LineEvent event) {
+                if (event.getType() == LineEvent.Type.START && startRequested != 0) {
+                    metrics.histogram("sounder.start").record(System.nanoTime() - startRequested);
+                    startRequested = 0;
+                } else if (event.getType() == LineEvent.Type.STOP && playing == tone) {
+                    playing = null;
+                }
+            }
+        });
+        clips.put(tone, clip);
     }
 
     /**
-     * Returns the alive status of the thread
+     * Handles a request on the sounder thread.
      *
-     * @return the thread alive status
+     * @param request the request
      */
-    public boolean isAlive() {
-        return this.isAlive;
+    private void handle(Request request) {
+        Tone current = playing;
+        if (request.tone == null) {
+            if (current != null && clips.containsKey(current)) {
+                clips.get(current).stop();
+            }
+            playing = null;
+            return;
+        }
+        if (current != null && current.compareTo(request.tone) < 0) {
+            // A more important tone is playing
+            return;
+        }
+        if (current == request.tone) {
+            return;
+        }
+        Clip clip = clips.get(request.tone);
+        if (clip == null) {
+            Toolkit.getDefaultToolkit().beep();
+            return;
+        }
+        if (current != null && current != request.tone) {
+            clips.get(current).stop();
+        }
+        playing = request.tone;
+        startRequested = request.time;
+        clip.setFramePosition(0);
+        if (request.repeat) {
+            clip.loop(Clip.LOOP_CONTINUOUSLY);
+        } else {
+            clip.start();
+        }
     }
 
+    /**
+     * Makes the warning tone: two short beeps, 16 bit mono. The beeps fade in
+     * and out, so they do not click.
+     *
+     * @return the samples
+     */
+    private static byte[] createBeeps() {
+        int beep = (int) (SAMPLE_RATE * BEEP_MILLIS / 1000);
+        int pause = (int) (SAMPLE_RATE * PAUSE_MILLIS / 1000);
+        int fade = beep / 10;
+        byte[] samples = new byte[(2 * beep + pause) * 2];
+        for (int n = 0; n < 2; n++) {
+            int offset = n * (beep + pause);
+            for (int i = 0; i < beep; i++) {
+                double envelope = Math.min(1.0, Math.min(i, beep - i) / (double) fade);
+                short value = (short) (Math.sin(2 * Math.PI * BEEP_HZ * i / SAMPLE_RATE)
+                        * envelope * Short.MAX_VALUE * 0.8);
+                samples[(offset + i) * 2] = (byte) value;
+                samples[(offset + i) * 2 + 1] = (byte) (value >> 8);
+            }
+        }
+        return samples;
+    }
 }
@@ -13,10 +13,17 @@
  */
 package ntnusubsea.gui;
 
-import java.io.*;
-import java.net.*;
-import java.util.HashMap;
-import java.util.Map;
+import basestation_rov.ConnectionManager;
+import basestation_rov.FrameParser;
+import basestation_rov.LatencyHistogram;
+import basestation_rov.Metrics;
+import basestation_rov.RequestConnection;
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Client class that handles the connection to the server, retrieves the video
@@ -26,86 +33,128 @@ import java.util.Map;
  * https://ntnuopen.ntnu.no/ntnu-xmlui/handle/11250/2564356 edited 2020, added
  * feedback for stepper positions
  */
-public class TCPClient implements Runnable {
+public class TCPClient implements RequestConnection.Listener, FrameParser.FrameListener {
+
+    private static final int KEY_STEPPER_PS_POS = 0;
+    private static final int KEY_STEPPER_SB_POS = 1;
+    private static final int KEY_ROLL_ANGLE = 2;
+    private static final int KEY_PITCH_ANGLE = 3;
+    private static final int KEY_DEPTH_TO_SEABED_ECHO = 4;
+    private static final int KEY_DEPTH_BELOW_TRANSDUSER = 5;
+    private static final int KEY_DEPTH_BENEATH_ROV = 6;
+    private static final int KEY_TEMP_EL_BOX_FRONT = 7;
+    private static final int KEY_TEMP_EL_BOX_REAR = 8;
+    private static final int KEY_ROV_READY = 9;
+    private static final int KEY_ERROR_I2C = 10;
+    private static final int KEY_LEAK_ALARM = 11;
+    private static final int KEY_DEPTH = 12;
+    private static final int KEY_PRESSURE = 13;
+    private static final int KEY_OUTSIDE_TEMP = 14;
+    private static final int KEY_INSIDE_TEMP = 15;
+    private static final int KEY_HUMIDITY = 16;
+
+    private static final long RESPONSE_TIMEOUT = RequestConnection.DEFAULT_REPLY_TIMEOUT;
 
-    boolean connectionResetError = false;
-    private boolean connected = false;
-    private static String sentence;
+    /**
+     * The keys sent by the ROV RPi and the camera RPi, in the order of the
+     * KEY_ ids above.
+     */
+    private static final FrameParser.KeyTable REMOTE_KEYS = new FrameParser.KeyTable(
+            "Fb_stepperPSPos", "Fb_stepperSBPos", "Fb_rollAngle",
+            "Fb_pitchAngle", "Fb_depthToSeabedEcho", "Fb_depthBelowTransduser",
+            "Fb_depthBeneathROV", "Fb_tempElBoxFront", "Fb_tempElBoxRear",
+            "Fb_ROVReady", "ERROR_I2C", "leakAlarm", "depth", "pressure",
+            "outsideTemp", "insideTemp", "humidity");
+
+    private volatile boolean connected = false;
     private static String serverResponse;
-    private Socket clientSocket;
-    private InputStream inputStream;
-    private OutputStream outputStream;
     private int port;
     private String IP;
     private Data data;
+    private final RequestConnection connection;
+    // The metrics of the server, looked up once
+    private final String channel;
+    private final LatencyHistogram roundTripHistogram;
+    private final LatencyHistogram requestToDataHistogram;
+    private final AtomicLong notReadyCounter;
+    private final AtomicLong incompleteCounter;
+
+    private final FrameParser parser = new FrameParser(REMOTE_KEYS, this);
 
-    String start_char = "<";
-    String end_char = ">";
-    String sep_char = ":";
+    /**
+     * The answer to one request, handed over by the IoReactor thread.
+     */
+    private static final class Reply implements RequestConnection.ReplyHandler {
 
-    BufferedReader inFromServer;
-    PrintWriter outToServer;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile String line = null;
+
+        @Override
+        public void onReply(String line) {
+            this.line = line;
+            done.countDown();
+        }
+
+        @Override
+        public void onNoReply() {
+            done.countDown();
+        }
+    }
 
     /**
-     * The constructor of the TCPClient.
+     * The constructor of the TCPClient. A client made with this constructor
+     * never connects, it only parses data given to it.
      *
      * @param IP the given IP to connect to
      * @param port the given port to connect to
      * @param data the shared resource Data class
      */
     public TCPClient(String IP, int port, Data data) {
-        this.data = data;
-        this.port = port;
-        this.IP = IP;
+        this(IP, port, data, (RequestConnection) null);
     }
 
     /**
-     * Runs the TCPClient thread. Connects to the TCP server, and reconnects if
-     * the connection is lost.
+     * The constructor of the TCPClient.
+     *
+     * @param IP the given IP to connect to
+     * @param port the given port to connect to
+     * @param data the shared resource Data class
+     * @param connectionManager the manager making the connection
      */
-    @Override
-    public void run() {
-        while (!this.connected) {
-            try {
-                this.connect(this.IP, this.port);
-            } catch (Exception e1) {
-                //System.out.println("Could not connect to server (" + this.IP + ":" + this.port + "): " + e1.getMessage());
-                long sec = 5000;
-                //System.out.println("Trying to reconnect in " + sec + " ms...");
-                try {
-                    Thread.sleep(sec);
-                } catch (Exception e2) {
-                }
-            }
-        }
-
-        boolean finished = false;
-
-        while (!finished) {
-            try {
-                //Run
+    public TCPClient(String IP, int port, Data data, ConnectionManager connectionManager) {
+        this(IP, port, data, new RequestConnection(connectionManager, "server", IP, port, RESPONSE_TIMEOUT));
+    }
 
-                if (this.connectionResetError && !isConnected()) {
-                    int sec = 5000;
-                    System.out.println("Trying to reconnect (" + this.IP + ":" + this.port + ") in " + sec + " sec...");
-                    Thread.sleep(sec);
-                    this.connect(this.IP, this.port);
-                }
-            } catch (SocketTimeoutException ex) {
-                System.out.println("Error: Read timed out");
-                this.connectionResetError = true;
-                this.connected = false;
-            } catch (SocketException ex) {
-                System.out.println("An error occured: Connection reset");
-                this.connectionResetError = true;
-                this.connected = false;
-            } catch (Exception e) {
-                System.out.println("An error occured: " + e);
-                this.connectionResetError = true;
-                this.connected = false;
-            }
+    /**
+     * The constructor of the TCPClient, on a connection shared with other
+     * users of the same server, like the command channel.
+     *
+     * @param IP the given IP to connect to
+     * @param port the given port to connect to
+     * @param data the shared resource Data class
+     * @param connection the connection to the server, or null to never
+     * connect
+     */
+    public TCPClient(String IP, int port, Data data, RequestConnection connection) {
+        this.data = data;
+        this.port = port;
+        this.IP = IP;
+        this.connection = connection;
+        if (connection != null) {
+            connection.addListener(this);
         }
-
+        this.channel = IP + ":" + port;
+        Metrics metrics = data.getMetrics();
+        this.roundTripHistogram = metrics.histogram("tcp." + channel + ".roundTrip");
+        this.requestToDataHistogram = metrics.histogram("tcp." + channel + ".requestToData");
+        this.notReadyCounter = metrics.counter("tcp." + channel + ".notReady");
+        this.incompleteCounter = metrics.counter("tcp." + channel + ".incomplete");
+        metrics.gauge("tcp." + channel + ".parseErrors", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return parser.getParseErrors() + parser.getDroppedFrames();
+            }
+        });
     }
 
     /**
@@ -119,42 +168,26 @@ public class TCPClient implements Runnable {
             if (isConnected()) {
 
                 String commandString = "<" + cmd + ">";
-                outToServer.println(commandString);
+                data.getSessionRecorder().recordCommand(channel, cmd);
+                long sendTime = System.nanoTime();
+                String serverResponse = exchange(commandString);
 //                System.out.println("Cmd sent: " + commandString);
 
                 if (cmd.contains("stepper")) {
                     System.out.println("Stepper Cmd sent: " + commandString);
                 }
 
-                outToServer.flush();
-
-                String serverResponse = inFromServer.readLine();
+                roundTripHistogram.record(System.nanoTime() - sendTime);
+                data.getSessionRecorder().recordResponse(channel, serverResponse);
                 if (serverResponse.contains("not ready")) {
                     System.out.println("Server not ready!");
+                    notReadyCounter.incrementAndGet();
                 } else {
                     //System.out.println("Server response: " + serverResponse);
                     if (cmd.equals("fb_allData") || cmd.equals("getData")) {
-                        HashMap<String, String> newDataList = new HashMap<>();
-                        String key = "";
-                        String value = "";
-                        if (serverResponse.contains("<") && serverResponse.contains(">")) {
-                            serverResponse = serverResponse.substring(serverResponse.indexOf(start_char) + 1);
-                            serverResponse = serverResponse.substring(0, serverResponse.indexOf(end_char));
-                            serverResponse = serverResponse.replace("?", "");
-                            if (serverResponse.contains(":")) {
-                                String[] dataArray = serverResponse.split(sep_char);
-                                for (int i = 0; i < dataArray.length; i += 2) {
-                                    newDataList.put(dataArray[i], dataArray[i + 1]);
-                                }
-                            } else {
-                                System.out.println(serverResponse);
-                            }
-
-                        } else {
-                            System.out.println("The data string which was received was not complete...");
-                        }
-
-                        this.handleDataFromRemote(newDataList);
+                        this.handleDataFromRemote(serverResponse);
+                        // How old the values are when they reach Data
+                        requestToDataHistogram.record(System.nanoTime() - sendTime);
                     }
                 }
 
@@ -164,16 +197,13 @@ public class TCPClient implements Runnable {
 
         } catch (SocketTimeoutException ex) {
             System.out.println("Error: Read timed out");
-            this.connectionResetError = true;
-            this.connected = false;
+            connectionLost("read timed out");
         } catch (SocketException ex) {
             System.out.println("An error occured: Connection reset");
-            this.connectionResetError = true;
-            this.connected = false;
+            connectionLost("connection reset");
         } catch (Exception e) {
             System.out.println("An error occured: " + e);
-            this.connectionResetError = true;
-            this.connected = false;
+            connectionLost(String.valueOf(e));
         }
 
     }
@@ -188,38 +218,96 @@ public class TCPClient implements Runnable {
     }
 
     /**
-     * Connects the client to the server through a socket and saves the IP and
-     * port to the global variables IP and port
+     * Starts connecting to the server. The ConnectionManager keeps the
+     * connection open, and connects again with a backoff if it is lost,
+     * until {@link #disconnect()} is called.
+     */
+    public void start() {
+        if (connection != null) {
+            connection.open();
+        }
+    }
+
+    /**
+     * Waits until the client is connected, or the first connect attempt has
+     * failed.
      *
-     * @param IP IP of the server to connect to
-     * @param port
-     * @throws IOException Throws an IOException when the connection is
-     * unsuccessful
+     * @param timeoutMillis the max time to wait in milliseconds
+     * @return true if connected
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitConnected(long timeoutMillis) throws InterruptedException {
+        if (connection == null) {
+            return isConnected();
+        }
+        return connection.awaitConnected(timeoutMillis);
+    }
+
+    /**
+     * Sends a line to the server and waits for the answer line. The
+     * connection hands every answer to the request it belongs to, so a late
+     * answer is never taken for the answer to a later request.
+     *
+     * @param line the line to send
+     * @return the answer from the server
+     * @throws IOException if not connected, or no answer came in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private String exchange(String line) throws IOException, InterruptedException {
+        if (connection == null) {
+            throw new IOException("Not connected to server");
+        }
+        Reply reply = new Reply();
+        connection.send(line, reply);
+        if (!reply.done.await(RESPONSE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+            throw new SocketTimeoutException("No answer within " + RESPONSE_TIMEOUT + " ms");
+        }
+        if (reply.line == null) {
+            throw new SocketException("Connection lost before the answer");
+        }
+        return reply.line;
+    }
+
+    /**
+     * Called when connected to the server.
      */
-    public void connect(String IP, int port) throws IOException {
-        clientSocket = new Socket(IP, port);
-//        this.inputStream = clientSocket.getInputStream();
-//        this.outputStream = clientSocket.getOutputStream();
-        outToServer = new PrintWriter(
-                clientSocket.getOutputStream(), true);
-        inFromServer = new BufferedReader(new InputStreamReader(
-                clientSocket.getInputStream()));
-        System.out.println("Success! Connected to server " + this.IP + ":" + this.port);
+    @Override
+    public void onConnected() {
         this.connected = true;
-        this.connectionResetError = false;
     }
 
     /**
-     * Closes the socket if the client is currently connected
+     * Called when the connection is lost or closed.
+     */
+    @Override
+    public void onDisconnected() {
+        this.connected = false;
+    }
+
+    /**
+     * Marks the connection as lost, so the ConnectionManager connects again.
+     *
+     * @param reason the reason, for the log
+     */
+    private void connectionLost(String reason) {
+        this.connected = false;
+        if (connection != null) {
+            connection.failed(reason);
+        }
+    }
+
+    /**
+     * Closes the socket if the client is currently connected, and stops
+     * connecting again.
      *
      * @throws IOException Throws IOException if there is a problem with the
      * connection
      */
     public void disconnect() throws IOException {
-        if (clientSocket != null) {
-            clientSocket.close();
-        }
         connected = false;
+        if (connection != null) {
+            connection.close();
+        }
     }
 
     /**
@@ -230,10 +318,8 @@ public class TCPClient implements Runnable {
      */
     public synchronized String sendData(String sentence) {
         try {
-            outToServer.println(sentence);
+            serverResponse = exchange(sentence);
             //System.out.println("Data is sent...");
-            outToServer.flush();
-            serverResponse = inFromServer.readLine();
 
         } catch (Exception e) {
         }
@@ -279,7 +365,8 @@ public class TCPClient implements Runnable {
     }
 
     /**
-     * Sets the port of the server
+     * Sets the port of the server. The connection and the metrics keep the
+     * port given to the constructor.
      *
      * @param port the port of the server
      */
@@ -297,7 +384,8 @@ public class TCPClient implements Runnable {
     }
 
     /**
-     * Sets the IP of the server
+     * Sets the IP of the server. The connection and the metrics keep the IP
+     * given to the constructor.
      *
      * @param IP the IP of the server
      */
@@ -305,77 +393,90 @@ public class TCPClient implements Runnable {
         this.IP = IP;
     }
 
+    /**
+     * Parses a response from remote and puts the values into the shared
+     * resource Data class.
+     *
+     * @param serverResponse the response line from the server
+     */
+    void handleDataFromRemote(String serverResponse) {
+        if (parser.feed(serverResponse) == 0) {
+            System.out.println("The data string which was received was not complete...");
+            incompleteCounter.incrementAndGet();
+        }
+    }
+
     /**
      * Compare keys to control values coming in from remote, and puts the
      * correct value to correct variable in the shared resource Data class.
      *
-     * @param newDataList the data list
+     * @param key the id of the key in REMOTE_KEYS
+     * @param parser the parser holding the value
      */
-    public void handleDataFromRemote(HashMap<String, String> newDataList) {
-        for (Map.Entry e : newDataList.entrySet()) {
-            String key = (String) e.getKey();
-            String value = (String) e.getValue();
-
-            switch (key) {
-                // From ROV RPi:
-                case "Fb_stepperPSPos":
-                    data.setFb_stepperPSPos(Integer.parseInt(value));
-                    break;
-                case "Fb_stepperSBPos":
-                    data.setFb_stepperSBPos(Integer.parseInt(value));
-                    break;
-                case "Fb_rollAngle":
-                    data.setRollAngle(Double.parseDouble(value));
-                    break;
-                case "Fb_pitchAngle":
-                    data.setPitchAngle(Double.parseDouble(value));
-                    break;
-                case "Fb_depthToSeabedEcho":
-                    data.setDepthBeneathRov(Double.parseDouble(value));
-                    break;
-                case "Fb_depthBelowTransduser":
-                    data.setDepthBeneathRov(Double.parseDouble(value));
-                    break;
-                case "Fb_depthBeneathROV":
-                    data.setDepthBeneathRov(Double.parseDouble(value));
-                    break;
-                case "Fb_tempElBoxFront":
-                    data.setFb_tempElBoxFront(Double.parseDouble(value));
-                    break;
-                case "Fb_tempElBoxRear":
-                    data.setFb_tempElBoxRear(Double.parseDouble(value));
-                    break;
-                case "Fb_ROVReady":
-                    data.setRovReady(Boolean.parseBoolean(value));
-                    break;
-                case "ERROR_I2C":
-                    data.setI2cError(Boolean.parseBoolean(value));
-                    break;
-
-                // From Camera RPi:
-                case "leakAlarm":
-                    if (value.equals("1")) {
-                        data.setLeakStatus(true);
-                    } else if (equals("0")) {
-                        data.setLeakStatus(false);
-                    }
-                    break;
-                case "depth":
-                    data.setRovDepth(Double.parseDouble(value));
-                    break;
-                case "pressure":
-                    data.setPressure(Double.parseDouble(value));
-                    break;
-                case "outsideTemp":
-                    data.setOutsideTemp(Double.parseDouble(value));
-                    break;
-                case "insideTemp":
-                    data.setInsideTemp(Double.parseDouble(value));
-                    break;
-                case "humidity":
-                    data.setHumidity(Double.parseDouble(value));
-                    break;
-            }
+    @Override
+    public void onField(int key, FrameParser parser) {
+        switch (key) {
+            // From ROV RPi:
+            case KEY_STEPPER_PS_POS:
+                data.setFb_stepperPSPos(parser.valueAsInt());
+                break;
+            case KEY_STEPPER_SB_POS:
+                data.setFb_stepperSBPos(parser.valueAsInt());
+                break;
+            case KEY_ROLL_ANGLE:
+                data.setRollAngle(parser.valueAsDouble());
+                break;
+            case KEY_PITCH_ANGLE:
+                data.setPitchAngle(parser.valueAsDouble());
+                break;
+            case KEY_DEPTH_TO_SEABED_ECHO:
+            case KEY_DEPTH_BELOW_TRANSDUSER:
+            case KEY_DEPTH_BENEATH_ROV:
+                data.setDepthBeneathRov(parser.valueAsDouble());
+                break;
+            case KEY_TEMP_EL_BOX_FRONT:
+                data.setFb_tempElBoxFront(parser.valueAsDouble());
+                break;
+            case KEY_TEMP_EL_BOX_REAR:
+                data.setFb_tempElBoxRear(parser.valueAsDouble());
+                break;
+            case KEY_ROV_READY:
+                data.setRovReady(parser.valueAsBoolean());
+                break;
+            case KEY_ERROR_I2C:
+                data.setI2cError(parser.valueAsBoolean());
+                break;
+
+            // From Camera RPi:
+            case KEY_LEAK_ALARM:
+                if (parser.valueEquals("1")) {
+                    data.setLeakStatus(true);
+                } else if (parser.valueEquals("0")) {
+                    data.setLeakStatus(false);
+                }
+                break;
+            case KEY_DEPTH:
+                data.setRovDepth(parser.valueAsDouble());
+                break;
+            case KEY_PRESSURE:
+                data.setPressure(parser.valueAsDouble());
+                break;
+            case KEY_OUTSIDE_TEMP:
+                data.setOutsideTemp(parser.valueAsDouble());
+                break;
+            case KEY_INSIDE_TEMP:
+                data.setInsideTemp(parser.valueAsDouble());
+                break;
+            case KEY_HUMIDITY:
+                data.setHumidity(parser.valueAsDouble());
+                break;
         }
     }
+
+    /**
+     * Called when a complete frame from remote has been handled.
+     */
+    @Override
+    public void onFrameEnd() {
+    }
 }
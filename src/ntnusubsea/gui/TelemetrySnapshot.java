@@ -0,0 +1,105 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package ntnusubsea.gui;
+
+import basestation_rov.LinkStatistics;
+
+/**
+ * The values the alarms are evaluated against, copied at one time so every
+ * rule of a tick sees the same telemetry.
+ */
+public final class TelemetrySnapshot {
+
+    private final long time;
+    private final boolean leak;
+    private final boolean i2cError;
+    private final double voltage;
+    private final LinkStatistics.State linkState;
+    private final boolean stepperWarning;
+
+    /**
+     * The constructor of the TelemetrySnapshot class.
+     *
+     * @param time the time of the snapshot in milliseconds
+     * @param leak true if a leak is detected
+     * @param i2cError true if the ROV has an I2C error
+     * @param voltage the voltage of the ROV
+     * @param linkState the state of the link to the ROV, UNKNOWN if not
+     * monitored
+     * @param stepperWarning true if a stepper has a health warning
+     */
+    public TelemetrySnapshot(long time, boolean leak, boolean i2cError, double voltage,
+            LinkStatistics.State linkState, boolean stepperWarning) {
+        this.time = time;
+        this.leak = leak;
+        this.i2cError = i2cError;
+        this.voltage = voltage;
+        this.linkState = linkState;
+        this.stepperWarning = stepperWarning;
+    }
+
+    /**
+     * Returns the time of the snapshot.
+     *
+     * @return the time in milliseconds
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Returns true if a leak is detected.
+     *
+     * @return the leak status
+     */
+    public boolean isLeak() {
+        return leak;
+    }
+
+    /**
+     * Returns true if the ROV has an I2C error.
+     *
+     * @return the I2C error status
+     */
+    public boolean isI2cError() {
+        return i2cError;
+    }
+
+    /**
+     * Returns the voltage of the ROV.
+     *
+     * @return the voltage
+     */
+    public double getVoltage() {
+        return voltage;
+    }
+
+    /**
+     * Returns the state of the link to the ROV.
+     *
+     * @return the link state, UNKNOWN if not monitored
+     */
+    public LinkStatistics.State getLinkState() {
+        return linkState;
+    }
+
+    /**
+     * Returns true if a stepper has a health warning.
+     *
+     * @return the stepper warning status
+     */
+    public boolean isStepperWarning() {
+        return stepperWarning;
+    }
+}
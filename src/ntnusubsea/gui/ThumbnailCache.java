@@ -0,0 +1,312 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package ntnusubsea.gui;
+
+import basestation_rov.Metrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * The thumbnails of the photos. A thumbnail is made once and saved in the
+ * folder .thumbnails next to the photo, and the thumbnails shown lately are
+ * kept in memory. The thumbnails are made in a fork-join pool with a few
+ * threads, leaving a core for the video and the GUI. The photo is decoded
+ * at a lower resolution, so making a thumbnail does not decode the whole
+ * photo.
+ *
+ * Only the thumbnails which are wanted, those on the screen, are made: when
+ * the operator scrolls past photos before their thumbnails are made, they
+ * are skipped.
+ */
+public class ThumbnailCache {
+
+    /**
+     * The width of a thumbnail.
+     */
+    public static final int WIDTH = 160;
+
+    /**
+     * The height of a thumbnail.
+     */
+    public static final int HEIGHT = 120;
+
+    private static final String FOLDER = ".thumbnails";
+    private static final int MEMORY_CAPACITY = 500;
+    // The photos one task makes thumbnails for before it splits
+    private static final int SPLIT = 4;
+
+    /**
+     * Is told when a thumbnail is ready. Called on a thread of the pool.
+     */
+    public interface Listener {
+
+        /**
+         * Called when the thumbnail of a photo is in memory.
+         *
+         * @param file the photo
+         */
+        void thumbnailLoaded(File file);
+    }
+
+    /**
+     * Makes or reads the thumbnails of a list of photos, split over the
+     * threads of the pool.
+     */
+    private final class LoadAction extends RecursiveAction {
+
+        private final List<File> files;
+
+        /**
+         * Creates the action.
+         *
+         * @param files the photos
+         */
+        LoadAction(List<File> files) {
+            this.files = files;
+        }
+
+        /**
+         * Loads the thumbnails, or splits the list in two.
+         */
+        @Override
+        protected void compute() {
+            if (files.size() > SPLIT) {
+                int middle = files.size() / 2;
+                invokeAll(new LoadAction(files.subList(0, middle)),
+                        new LoadAction(files.subList(middle, files.size())));
+                return;
+            }
+            for (File file : files) {
+                try {
+                    if (wanted.contains(file)) {
+                        load(file);
+                    }
+                } finally {
+                    loading.remove(file);
+                }
+            }
+        }
+    }
+
+    private final Metrics metrics;
+    private final ForkJoinPool pool;
+    private final Map<File, BufferedImage> memory = new LinkedHashMap<File, BufferedImage>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, BufferedImage> eldest) {
+            return size() > MEMORY_CAPACITY;
+        }
+    };
+    private final Set<File> loading = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+    private final Set<File> failed = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+    private volatile Set<File> wanted = Collections.emptySet();
+    private Listener listener;
+
+    /**
+     * The constructor of the ThumbnailCache class. The pool has one thread
+     * less than the number of cores, at least one and at most four.
+     *
+     * @param metrics the metrics to put the time to make a thumbnail in
+     */
+    public ThumbnailCache(Metrics metrics) {
+        this.metrics = metrics;
+        this.pool = new ForkJoinPool(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1)));
+    }
+
+    /**
+     * Sets the listener which is told when a thumbnail is ready.
+     *
+     * @param listener the listener
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the thumbnail of a photo, if it is in memory.
+     *
+     * @param file the photo
+     * @return the thumbnail, or null if not loaded
+     */
+    public BufferedImage get(File file) {
+        synchronized (memory) {
+            return memory.get(file);
+        }
+    }
+
+    /**
+     * Returns true if no thumbnail could be made for the photo.
+     *
+     * @param file the photo
+     * @return true if failed
+     */
+    public boolean isFailed(File file) {
+        return failed.contains(file);
+    }
+
+    /**
+     * Sets the photos which are wanted, those on the screen. The thumbnails
+     * of these which are not in memory are loaded, the photos which were
+     * wanted before and are still waiting are skipped.
+     *
+     * @param files the photos, in the order to load them
+     */
+    public void setWanted(Collection<File> files) {
+        wanted = new HashSet<>(files);
+        List<File> missing = new ArrayList<>();
+        synchronized (memory) {
+            for (File file : files) {
+                if (!memory.containsKey(file) && !failed.contains(file) && loading.add(file)) {
+                    missing.add(file);
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            pool.execute(new LoadAction(missing));
+        }
+    }
+
+    /**
+     * Forgets the photos which failed, so they are tried again, and the
+     * thumbnails in memory of photos which have changed.
+     */
+    public void refresh() {
+        failed.clear();
+        synchronized (memory) {
+            Iterator<File> files = memory.keySet().iterator();
+            while (files.hasNext()) {
+                File file = files.next();
+                if (!getThumbnailFile(file).isFile() || file.lastModified() > getThumbnailFile(file).lastModified()) {
+                    files.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the pool. Thumbnails being made are finished.
+     */
+    public void close() {
+        pool.shutdown();
+    }
+
+    /**
+     * Loads the thumbnail of a photo into memory, from the thumbnail folder
+     * if it is there and newer than the photo, else it is made.
+     *
+     * @param file the photo
+     */
+    private void load(File file) {
+        long start = System.nanoTime();
+        File thumbnailFile = getThumbnailFile(file);
+        BufferedImage thumbnail = null;
+        try {
+            if (thumbnailFile.isFile() && thumbnailFile.lastModified() >= file.lastModified()) {
+                thumbnail = ImageIO.read(thumbnailFile);
+                metrics.histogram("thumbnails.read").record(System.nanoTime() - start);
+            }
+            if (thumbnail == null) {
+                thumbnail = create(file);
+                File folder = thumbnailFile.getParentFile();
+                if (!folder.isDirectory() && !folder.mkdirs()) {
+                    throw new IOException("Directory creation failed: " + folder);
+                }
+                ImageIO.write(thumbnail, "jpg", thumbnailFile);
+                metrics.histogram("thumbnails.create").record(System.nanoTime() - start);
+            }
+        } catch (IOException | RuntimeException ex) {
+            System.out.println("Could not make a thumbnail of " + file + ": " + ex.getMessage());
+        }
+        if (thumbnail == null) {
+            failed.add(file);
+        } else {
+            synchronized (memory) {
+                memory.put(file, thumbnail);
+            }
+        }
+        Listener current = listener;
+        if (current != null) {
+            current.thumbnailLoaded(file);
+        }
+    }
+
+    /**
+     * Makes the thumbnail of a photo. The photo is decoded with only every
+     * n-th pixel, for the largest n which still gives enough pixels, and then
+     * scaled to fit in the thumbnail.
+     *
+     * @param file the photo
+     * @return the thumbnail
+     * @throws IOException if the photo could not be read
+     */
+    private static BufferedImage create(File file) throws IOException {
+        BufferedImage image;
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            if (in == null) {
+                throw new IOException("Could not open the file");
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("Not an image");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int step = Math.max(1, Math.min(reader.getWidth(0) / WIDTH, reader.getHeight(0) / HEIGHT));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                image = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+        double scale = Math.min(WIDTH / (double) image.getWidth(), HEIGHT / (double) image.getHeight());
+        int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+        BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = thumbnail.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(image, 0, 0, width, height, null);
+        g.dispose();
+        return thumbnail;
+    }
+
+    /**
+     * Returns the file the thumbnail of a photo is saved in.
+     *
+     * @param file the photo
+     * @return the thumbnail file
+     */
+    private static File getThumbnailFile(File file) {
+        return new File(new File(file.getParentFile(), FOLDER), file.getName() + ".jpg");
+    }
+}
@@ -13,104 +13,194 @@
  */
 package ntnusubsea.gui;
 
+import basestation_rov.IoReactor;
+import basestation_rov.Metrics;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.SocketException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import javax.imageio.ImageIO;
 
 /**
- * This class handles incoming images from a DatagramPacket. It receives the
- * image on a DatagramSocket and returns it as a BufferedImage.
+ * This class handles incoming images from the camera RPi. The datagrams are
+ * received on the IoReactor thread and handed to a decoder thread, which
+ * decodes them to a BufferedImage. If the decoder falls behind, the oldest
+ * waiting frame is dropped so the video never lags.
  *
  * @author Towed ROV 2019
  * https://ntnuopen.ntnu.no/ntnu-xmlui/handle/11250/2564356
  */
-public class UDPServer implements Runnable {
+public class UDPServer {
+
+    private static final int MAX_FRAME_SIZE = 60000;
+    private static final int DECODE_QUEUE_SIZE = 2;
 
-    static BufferedImage videoImage;
-    //static Socket videoSocket;
     private int photoNumber = 1;
     boolean lastPhotoMode = false;
     private boolean debug = false;
     private Data data;
-    private int test = 0;
-    //private String IP;
     private int port;
-    private DatagramSocket videoSocket;
-    private long timer = System.currentTimeMillis();
+    private final IoReactor reactor;
+    private volatile DatagramChannel videoChannel;
     private File photoDirectory;
-    private DatagramPacket receivePacket;
-    private InetAddress returnIP;
-    private int returnPort;
+    private volatile SocketAddress returnAddress;
     private boolean connected = false;
     private double endTime;
-    private double startTime;
+    private double startTime = System.currentTimeMillis();
+    // Only used on the reactor thread
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocate(MAX_FRAME_SIZE);
+    private final ThreadPoolExecutor decoder;
 
     /**
      * |
-     * The constructor of the UDPServer class. Sets up a DatagramSocket at the
+     * The constructor of the UDPServer class. Sets up a DatagramChannel at the
      * given port.
      *
      * @param port the given port
      * @param data the shared resource class Data
+     * @param reactor the reactor receiving the datagrams
      */
-    public UDPServer(int port, Data data) {
+    public UDPServer(int port, Data data, IoReactor reactor) {
+        this.data = data;
+        this.port = port;
+        this.reactor = reactor;
+        final Metrics metrics = data.getMetrics();
+        this.decoder = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(DECODE_QUEUE_SIZE),
+                new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable);
+                thread.setName("VideoDecoder");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable frame, ThreadPoolExecutor executor) {
+                // Drop the oldest frame rather than the newest
+                executor.getQueue().poll();
+                metrics.counter("video.queueDropped").incrementAndGet();
+                executor.getQueue().offer(frame);
+            }
+        });
         try {
-            this.data = data;
-            this.port = port;
-            //this.IP = IP;
-            videoSocket = new DatagramSocket(this.port);
             Date today = new Date();
             SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy.MM.dd");
             String time = dateFormat.format(today);
             photoDirectory = new File("D://TowedRovPicture/" + time + "/");
+            final Data metricsData = data;
+            metrics.gauge("video.frameAgeMs", new Metrics.Gauge() {
+                @Override
+                public long getValue() {
+                    long imageTime = metricsData.getVideoImageTime();
+                    return imageTime == 0 ? -1 : (System.nanoTime() - imageTime) / 1000000;
+                }
+            });
+            metrics.gauge("video.decodeQueue", new Metrics.Gauge() {
+                @Override
+                public long getValue() {
+                    return decoder.getQueue().size();
+                }
+            });
         } catch (Exception e) {
             System.out.println("Error setting up UDP server: " + e.getMessage());
         }
     }
 
     /**
-     * Sends the photo mode delay value to the UDP client
+     * Opens the channel at the port and starts receiving the video stream.
      */
-    public void sendDelayCommand() {
-        try {
-            String message = "photoDelay:" + String.valueOf(data.getPhotoModeDelay());
-            byte arr[] = message.getBytes();
-            DatagramPacket sendPacket = new DatagramPacket(arr, arr.length, this.returnIP, this.returnPort);
-            videoSocket.send(sendPacket);
-            System.out.println("Delay command sent to Camera RPi!");
+    public void start() {
+        reactor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (videoChannel != null) {
+                    return;
+                }
+                try {
+                    final DatagramChannel channel = DatagramChannel.open();
+                    channel.bind(new InetSocketAddress(port));
+                    videoChannel = channel;
+                    reactor.register(channel, SelectionKey.OP_READ, new IoReactor.ChannelHandler() {
+                        @Override
+                        public void ready(SelectionKey key) throws IOException {
+                            receiveFrames(channel);
+                        }
+                    });
+                    connected = true;
+                    data.setStreaming(true);
+                } catch (IOException ex) {
+                    System.out.println("Error setting up UDP server: " + ex.getMessage());
+                }
+            }
+        });
+    }
 
-        } catch (SocketException ex) {
-            System.out.println("SocketException in UDPServer: " + ex.getMessage());
+    /**
+     * Closes the channel and stops receiving the video stream.
+     */
+    public void stop() {
+        reactor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (videoChannel != null) {
+                    try {
+                        videoChannel.close();
+                    } catch (IOException ex) {
+                        System.out.println("IOException in UDPServer: " + ex.getMessage());
+                    }
+                    videoChannel = null;
+                }
+                connected = false;
+                data.setStreaming(false);
+            }
+        });
+    }
 
-        } catch (IOException ex) {
-            System.out.println("IOException in UDPServer: " + ex.getMessage());
-        } catch (Exception ex) {
-            System.out.println("Exception in UDPServer: " + ex.getMessage());
-        }
+    /**
+     * Sends the photo mode delay value to the UDP client
+     */
+    public void sendDelayCommand() {
+        sendToCamera("photoDelay:" + String.valueOf(data.getPhotoModeDelay()));
+        System.out.println("Delay command sent to Camera RPi!");
     }
 
     /**
      * Sends the reset image number command to the UDP client
      */
     public void sendResetIMGcommand() {
-        try {
-            String message = "resetImgNumber";
-            byte arr[] = message.getBytes();
-            DatagramPacket sendPacket = new DatagramPacket(arr, arr.length, this.returnIP, this.returnPort);
-            videoSocket.send(sendPacket);
-            System.out.println("resetImgNumber command sent to Camera RPi!");
-
-        } catch (SocketException ex) {
-            System.out.println("SocketException in UDPServer: " + ex.getMessage());
+        sendToCamera("resetImgNumber");
+        System.out.println("resetImgNumber command sent to Camera RPi!");
+    }
 
+    /**
+     * Sends a message to the camera RPi, at the address the video comes from.
+     *
+     * @param message the message to send
+     */
+    private void sendToCamera(String message) {
+        try {
+            DatagramChannel channel = videoChannel;
+            SocketAddress address = returnAddress;
+            if (channel == null || address == null) {
+                System.out.println("Exception in UDPServer: no video received yet");
+                return;
+            }
+            channel.send(ByteBuffer.wrap(message.getBytes()), address);
         } catch (IOException ex) {
             System.out.println("IOException in UDPServer: " + ex.getMessage());
         } catch (Exception ex) {
@@ -119,95 +209,92 @@ public class UDPServer implements Runnable {
     }
 
     /**
-     * Runs the UDPServer thread. Receives the image frames from the video
-     * stream.
+     * Receives the datagrams waiting on the channel and hands them to the
+     * decoder. Runs on the reactor thread.
+     *
+     * @param channel the channel to receive on
+     * @throws IOException if the receive failed
      */
-    @Override
-    public void run() {
-        try {
-            if (System.currentTimeMillis() - timer > 60000) {
-                videoSocket.close();
-                videoSocket = new DatagramSocket(this.port);
-                timer = System.currentTimeMillis();
-                //System.out.println("Reconnected");
-                this.connected = true;
-                this.data.setStreaming(true);
+    private void receiveFrames(DatagramChannel channel) throws IOException {
+        while (true) {
+            receiveBuffer.clear();
+            SocketAddress sender = channel.receive(receiveBuffer);
+            if (sender == null) {
+                return;
             }
-
-            //Creates new DatagramSocket for reciving DatagramPackets
-            //Creating new DatagramPacket form the packet recived on the videoSocket
-            byte[] receivedData = new byte[60000];
-            receivePacket = new DatagramPacket(receivedData,
-                    receivedData.length);
-            this.connected = true;
-            this.data.setStreaming(true);
-            if (receivePacket.getLength() > 0) {
-                startTime = System.currentTimeMillis();
-                //Updates the videoImage from the received DatagramPacket
-                videoSocket.receive(receivePacket);
-                this.returnIP = receivePacket.getAddress();
-                this.returnPort = receivePacket.getPort();
-                endTime = System.currentTimeMillis();
-                data.setPhotoModeDelay_FB((endTime - startTime) / 1000);
-                if (debug) {
-                    System.out.println("Videopackage received");
+            final long receivedTime = System.nanoTime();
+            returnAddress = sender;
+            final byte[] frame = Arrays.copyOf(receiveBuffer.array(), receiveBuffer.position());
+            data.getMetrics().counter("video.received").incrementAndGet();
+            data.getSessionRecorder().recordVideo("video:" + port, frame, frame.length);
+            decoder.execute(new Runnable() {
+                @Override
+                public void run() {
+                    handleFrame(frame, receivedTime);
                 }
-                //Reads incomming byte array into a BufferedImage
-                ByteArrayInputStream bais = new ByteArrayInputStream(receivedData);
-                videoImage = ImageIO.read(bais);
-                data.setVideoImage(videoImage);
+            });
+        }
+    }
 
-                if (lastPhotoMode && (endTime - startTime) > 500) {
-                    data.increaseImageNumberByOne();
-                }
+    /**
+     * Decodes a received frame and puts it into Data. Saves it to disk in
+     * photo mode. Runs on the decoder thread.
+     *
+     * @param receivedData the frame
+     * @param receivedTime the time the frame was received, from nanoTime
+     */
+    void handleFrame(byte[] receivedData, long receivedTime) {
+        try {
+            endTime = System.currentTimeMillis();
+            data.setPhotoModeDelay_FB((endTime - startTime) / 1000);
+            if (debug) {
+                System.out.println("Videopackage received");
+            }
+            //Reads incomming byte array into a BufferedImage
+            ByteArrayInputStream bais = new ByteArrayInputStream(receivedData);
+            BufferedImage videoImage = ImageIO.read(bais);
+            if (videoImage == null) {
+                data.getMetrics().counter("video.decodeFailures").incrementAndGet();
+            }
+            data.setVideoImage(videoImage, receivedTime);
+            data.getMetrics().histogram("video.receiveToData").record(System.nanoTime() - receivedTime);
 
-                // Saves the photo to disk if photo mode is true
-                if (data.isPhotoMode()) {
-                    try {
-                        if (this.photoDirectory.exists() && this.photoDirectory.isDirectory()) {
-                            Date now = new Date();
-                            SimpleDateFormat dateFormat = new SimpleDateFormat("HH_mm_ss");
-                            String time2 = dateFormat.format(now);
-                            ImageIO.write(videoImage, "jpg", new File(this.photoDirectory.toString() + "/image_" + this.photoNumber + "_Time_" + time2 + ".png"));
-                            this.photoNumber++;
-                        } else {
-                            System.out.println("No directory found, creating a new one at C://TowedROV/ROV_Photos/");
-                            this.photoDirectory.mkdir();
-                        }
+            if (lastPhotoMode && (endTime - startTime) > 500) {
+                data.increaseImageNumberByOne();
+            }
+            startTime = endTime;
 
-                    } catch (Exception e) {
-                        System.out.println("Exception occured :" + e.getMessage());
+            // Saves the photo to disk if photo mode is true
+            if (data.isPhotoMode()) {
+                try {
+                    if (this.photoDirectory.exists() && this.photoDirectory.isDirectory()) {
+                        Date now = new Date();
+                        SimpleDateFormat dateFormat = new SimpleDateFormat("HH_mm_ss");
+                        String time2 = dateFormat.format(now);
+                        String name = "image_" + this.photoNumber + "_Time_" + time2 + ".png";
+                        ImageIO.write(videoImage, "jpg", new File(this.photoDirectory.toString() + "/" + name));
+                        GeotagFile.append(this.photoDirectory, new GeotagFile.Tag(name, now.getTime(), "video",
+                                data.getLatitude(), data.getLongitude(), data.getRovDepth(), data.getHeading()));
+                        this.photoNumber++;
+                    } else {
+                        System.out.println("No directory found, creating a new one at C://TowedROV/ROV_Photos/");
+                        this.photoDirectory.mkdir();
                     }
-                    System.out.println("Image were saved to disk succesfully at C://TowedROV/ROV_Photos");
-                }
-                // Sends the command to the ROV
-                if (data.isPhotoMode() != lastPhotoMode) {
-                    String message = "photoMode:" + String.valueOf(data.isPhotoMode());
-                    byte arr[] = message.getBytes();
-                    DatagramPacket sendPacket = new DatagramPacket(arr, arr.length, this.returnIP, this.returnPort);
-                    videoSocket.send(sendPacket);
-                    lastPhotoMode = data.isPhotoMode();
-                }
 
-                receivedData = null;
-                bais = null;
-                test++;
-                //System.out.println(endTime - startTime);
+                } catch (Exception e) {
+                    System.out.println("Exception occured :" + e.getMessage());
+                }
+                System.out.println("Image were saved to disk succesfully at C://TowedROV/ROV_Photos");
+            }
+            // Sends the command to the ROV
+            if (data.isPhotoMode() != lastPhotoMode) {
+                sendToCamera("photoMode:" + String.valueOf(data.isPhotoMode()));
+                lastPhotoMode = data.isPhotoMode();
             }
-
-        } catch (SocketException sex) {
-            System.out.println("SocketException: " + sex.getMessage());
-            this.connected = false;
-            this.data.setStreaming(false);
-
         } catch (IOException ioex) {
             System.out.println("IOException: " + ioex.getMessage());
-            this.connected = false;
-            this.data.setStreaming(false);
         } catch (Exception ex) {
             System.out.println("Exception: " + ex.getMessage());
-            this.connected = false;
-            this.data.setStreaming(false);
         }
     }
 }
@@ -0,0 +1,181 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new 
+ * sensors. There will also be a video stream from the ROV.
+ * 
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package ntnusubsea.gui;
+
+import basestation_rov.ConnectionManager;
+import basestation_rov.RequestConnection;
+
+/**
+ * One towed vehicle with its own connections, telemetry and video. Each
+ * vehicle has its own Data, TCP clients to its ROV RPi and camera RPi, a
+ * command channel to the ROV RPi, video server and link monitor, so several
+ * vehicles can be run from the same vessel. The TCP client, command channel
+ * and link monitor of the ROV RPi share one connection, so the RPi has one
+ * client per vehicle. The sockets of all vehicles share the IoReactor of the
+ * ConnectionManager.
+ */
+public class Vehicle {
+
+    private final VehicleConfig config;
+    private final Data data;
+    private final RequestConnection rovConnection;
+    private final TCPClient rovClient;
+    private final CommandChannel commandChannel;
+    private final TCPClient cameraClient;
+    private final UDPServer videoServer;
+    private final LinkMonitor linkMonitor;
+    private final DataUpdater dataUpdater;
+
+    /**
+     * The constructor of the Vehicle class.
+     *
+     * @param config the network settings of the vehicle
+     * @param data the telemetry store of the vehicle
+     * @param connections the manager making the connections
+     * @param linkProbeInterval the time between link probes in milliseconds
+     * @param linkProbeTimeout the time before a probe is lost in milliseconds
+     */
+    public Vehicle(VehicleConfig config, Data data, ConnectionManager connections,
+            long linkProbeInterval, long linkProbeTimeout) {
+        this.config = config;
+        this.data = data;
+        this.rovConnection = new RequestConnection(connections, "server", config.getRovIP(),
+                config.getRovPort(), RequestConnection.DEFAULT_REPLY_TIMEOUT);
+        this.rovClient = new TCPClient(config.getRovIP(), config.getRovPort(), data, rovConnection);
+        this.commandChannel = new CommandChannel(config.getRovIP(), config.getRovPort(), data, rovConnection);
+        this.linkMonitor = new LinkMonitor(config.getRovIP(), config.getRovEchoPort(),
+                linkProbeInterval, linkProbeTimeout, data, rovConnection);
+        this.cameraClient = new TCPClient(config.getCameraIP(), config.getCameraPort(), data, connections);
+        this.videoServer = new UDPServer(config.getVideoPort(), data, connections.getReactor());
+        this.dataUpdater = new DataUpdater(rovClient, cameraClient, data);
+    }
+
+    /**
+     * Starts connecting to the RPis and receiving video. The connections
+     * are made again if lost, until {@link #disconnect()} is called. The
+     * link monitor must be scheduled at its probe interval.
+     */
+    public void connect() {
+        rovClient.start();
+        commandChannel.start();
+        cameraClient.start();
+        videoServer.start();
+        linkMonitor.start();
+    }
+
+    /**
+     * Closes the connections and stops the video.
+     */
+    public void disconnect() {
+        linkMonitor.stop();
+        commandChannel.stop();
+        try {
+            rovClient.disconnect();
+            cameraClient.disconnect();
+        } catch (Exception ex) {
+            System.out.println("Error disconnecting " + config.getName() + ": " + ex.getMessage());
+        }
+        videoServer.stop();
+    }
+
+    /**
+     * Returns the number of RPis of the vehicle that are connected.
+     *
+     * @return 0, 1 or 2
+     */
+    public int getConnectedCount() {
+        return (rovClient.isConnected() ? 1 : 0) + (cameraClient.isConnected() ? 1 : 0);
+    }
+
+    /**
+     * Returns the name of the vehicle.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return config.getName();
+    }
+
+    /**
+     * Returns the network settings of the vehicle.
+     *
+     * @return the settings
+     */
+    public VehicleConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Returns the telemetry store of the vehicle.
+     *
+     * @return the Data of the vehicle
+     */
+    public Data getData() {
+        return data;
+    }
+
+    /**
+     * Returns the TCP client of the ROV RPi.
+     *
+     * @return the ROV client
+     */
+    public TCPClient getRovClient() {
+        return rovClient;
+    }
+
+    /**
+     * Returns the prioritized command channel to the ROV RPi.
+     *
+     * @return the command channel
+     */
+    public CommandChannel getCommandChannel() {
+        return commandChannel;
+    }
+
+    /**
+     * Returns the TCP client of the camera RPi.
+     *
+     * @return the camera client
+     */
+    public TCPClient getCameraClient() {
+        return cameraClient;
+    }
+
+    /**
+     * Returns the server receiving the video of the vehicle.
+     *
+     * @return the video server
+     */
+    public UDPServer getVideoServer() {
+        return videoServer;
+    }
+
+    /**
+     * Returns the monitor of the link to the ROV RPi.
+     *
+     * @return the link monitor
+     */
+    public LinkMonitor getLinkMonitor() {
+        return linkMonitor;
+    }
+
+    /**
+     * Returns the task polling the telemetry from the RPis.
+     *
+     * @return the data updater
+     */
+    public DataUpdater getDataUpdater() {
+        return dataUpdater;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new 
+ * sensors. There will also be a video stream from the ROV.
+ * 
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package ntnusubsea.gui;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The network settings of one towed vehicle: the addresses of its ROV RPi and
+ * camera RPi, and the local port its video is received on.
+ *
+ * The first vehicle is set with the towedrov.rov.ip, towedrov.camera.ip etc.
+ * system properties. More vehicles are listed by name in towedrov.vehicles,
+ * like -Dtowedrov.vehicles=body2, and set with the same properties under
+ * their name, like towedrov.body2.rov.ip. Each vehicle needs its own video
+ * port.
+ */
+public class VehicleConfig {
+
+    private static final String PREFIX = "towedrov.";
+
+    private final String name;
+    private final String rovIP;
+    private final int rovPort;
+    private final int rovEchoPort;
+    private final String cameraIP;
+    private final int cameraPort;
+    private final int videoPort;
+
+    /**
+     * The constructor of the VehicleConfig class.
+     *
+     * @param name the name of the vehicle
+     * @param rovIP the IP of the ROV RPi
+     * @param rovPort the TCP port of the ROV RPi
+     * @param rovEchoPort the UDP echo port of the ROV RPi, or 0
+     * @param cameraIP the IP of the camera RPi
+     * @param cameraPort the TCP port of the camera RPi
+     * @param videoPort the local UDP port the video is received on
+     */
+    public VehicleConfig(String name, String rovIP, int rovPort, int rovEchoPort,
+            String cameraIP, int cameraPort, int videoPort) {
+        this.name = name;
+        this.rovIP = rovIP;
+        this.rovPort = rovPort;
+        this.rovEchoPort = rovEchoPort;
+        this.cameraIP = cameraIP;
+        this.cameraPort = cameraPort;
+        this.videoPort = videoPort;
+    }
+
+    /**
+     * Reads the settings of the extra vehicles listed in towedrov.vehicles.
+     * Vehicles without a ROV IP are skipped. The video port defaults to the
+     * port of the first vehicle plus the position in the list.
+     *
+     * @param first the settings of the first vehicle
+     * @return the settings of the extra vehicles
+     */
+    public static VehicleConfig[] loadExtraVehicles(VehicleConfig first) {
+        String list = System.getProperty(PREFIX + "vehicles", "").trim();
+        if (list.isEmpty()) {
+            return new VehicleConfig[0];
+        }
+        String[] names = list.split("\\s*,\\s*");
+        List<VehicleConfig> vehicles = new ArrayList<>();
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i];
+            String prefix = PREFIX + name + ".";
+            String rovIP = System.getProperty(prefix + "rov.ip");
+            if (name.equals(first.getName())) {
+                System.out.println("Skipping vehicle " + name + ": the name is used by the first vehicle");
+                continue;
+            }
+            if (rovIP == null) {
+                System.out.println("Skipping vehicle " + name + ": no " + prefix + "rov.ip set");
+                continue;
+            }
+            vehicles.add(new VehicleConfig(name, rovIP,
+                    Integer.getInteger(prefix + "rov.port", first.getRovPort()),
+                    Integer.getInteger(prefix + "rov.echoPort", first.getRovEchoPort()),
+                    System.getProperty(prefix + "camera.ip", rovIP),
+                    Integer.getInteger(prefix + "camera.port", first.getCameraPort()),
+                    Integer.getInteger(prefix + "camera.streamPort", first.getVideoPort() + i + 1)));
+        }
+        return vehicles.toArray(new VehicleConfig[vehicles.size()]);
+    }
+
+    /**
+     * Returns the name of the vehicle.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the IP of the ROV RPi.
+     *
+     * @return the IP
+     */
+    public String getRovIP() {
+        return rovIP;
+    }
+
+    /**
+     * Returns the TCP port of the ROV RPi.
+     *
+     * @return the port
+     */
+    public int getRovPort() {
+        return rovPort;
+    }
+
+    /**
+     * Returns the UDP echo port of the ROV RPi, 0 if the link is probed
+     * over TCP.
+     *
+     * @return the echo port
+     */
+    public int getRovEchoPort() {
+        return rovEchoPort;
+    }
+
+    /**
+     * Returns the IP of the camera RPi.
+     *
+     * @return the IP
+     */
+    public String getCameraIP() {
+        return cameraIP;
+    }
+
+    /**
+     * Returns the TCP port of the camera RPi.
+     *
+     * @return the port
+     */
+    public int getCameraPort() {
+        return cameraPort;
+    }
+
+    /**
+     * Returns the local UDP port the video is received on.
+     *
+     * @return the video port
+     */
+    public int getVideoPort() {
+        return videoPort;
+    }
+
+    /**
+     * Returns the settings as text, for the log.
+     *
+     * @return the settings
+     */
+    @Override
+    public String toString() {
+        return name + " (ROV " + rovIP + ":" + rovPort + ", camera " + cameraIP + ":" + cameraPort
+                + ", video port " + videoPort + ")";
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package simulator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Simulates the TCP server of the ROV RPi (port 8088) or the camera RPi (port
+ * 9006). Like the RPis it reads one "<command>" per line and answers with one
+ * line: "<ping:true>" to ping, a data frame to fb_allData and getData, and the
+ * command itself to everything else. Each client gets its own thread, and
+ * every answer is delayed by the network conditions.
+ */
+public class CommandServer implements Runnable {
+
+    private final String name;
+    private final int port;
+    private final TelemetryModel model;
+    private final NetworkConditions conditions;
+    private final AtomicLong requests = new AtomicLong();
+    private volatile boolean running = true;
+    private ServerSocket serverSocket;
+
+    /**
+     * The constructor of the CommandServer class.
+     *
+     * @param name the name used in the log, like "ROV" or "Camera"
+     * @param port the port to listen on
+     * @param model the model producing the telemetry
+     * @param conditions the network conditions to simulate
+     */
+    public CommandServer(String name, int port, TelemetryModel model, NetworkConditions conditions) {
+        this.name = name;
+        this.port = port;
+        this.model = model;
+        this.conditions = conditions;
+    }
+
+    /**
+     * Accepts clients until the server is stopped.
+     */
+    @Override
+    public void run() {
+        try (ServerSocket server = new ServerSocket(port)) {
+            serverSocket = server;
+            System.out.println(name + " simulator listening on port " + port);
+            while (running) {
+                Socket client = server.accept();
+                client.setTcpNoDelay(true);
+                Thread clientThread = new Thread(new ClientHandler(client));
+                clientThread.setName(name + "Client-" + client.getPort());
+                clientThread.setDaemon(true);
+                clientThread.start();
+            }
+        } catch (IOException ex) {
+            if (running) {
+                System.out.println(name + " simulator stopped: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stops accepting new clients.
+     */
+    public void stop() {
+        running = false;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException ex) {
+            System.out.println("Error closing the " + name + " simulator: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Returns the number of requests answered since the start.
+     *
+     * @return the number of requests
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * Returns the answer to a single request line.
+     *
+     * @param line the line received from the client
+     * @return the answer to send back
+     */
+    String answer(String line) {
+        String command = line.trim();
+        if (command.startsWith("<") && command.endsWith(">")) {
+            command = command.substring(1, command.length() - 1);
+        }
+        if (command.equalsIgnoreCase("ping")) {
+            return "<ping:true>";
+        }
+        if (command.equals("fb_allData")) {
+            return model.getRovFrame();
+        }
+        if (command.equals("getData")) {
+            return model.getCameraFrame();
+        }
+        int separator = command.indexOf(':');
+        if (separator > 0) {
+            model.handleCommand(command.substring(0, separator), command.substring(separator + 1));
+        } else {
+            model.handleCommand(command, "");
+        }
+        return "<" + command + ">";
+    }
+
+    /**
+     * Answers the requests from one connected client.
+     */
+    private class ClientHandler implements Runnable {
+
+        private final Socket socket;
+
+        /**
+         * The constructor of the ClientHandler class.
+         *
+         * @param socket the socket of the client
+         */
+        ClientHandler(Socket socket) {
+            this.socket = socket;
+        }
+
+        /**
+         * Reads lines from the client and answers them until it disconnects.
+         */
+        @Override
+        public void run() {
+            System.out.println(name + " simulator: client connected from " + socket.getRemoteSocketAddress());
+            try (Socket client = socket;
+                    BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
+                    PrintWriter out = new PrintWriter(client.getOutputStream(), true)) {
+                String line;
+                while (running && (line = in.readLine()) != null) {
+                    String response = answer(line);
+                    conditions.delay();
+                    out.println(response);
+                    requests.incrementAndGet();
+                }
+            } catch (SocketException ex) {
+                // The client disconnected
+            } catch (IOException ex) {
+                System.out.println(name + " simulator: " + ex.getMessage());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            System.out.println(name + " simulator: client disconnected");
+        }
+    }
+}
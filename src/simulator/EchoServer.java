@@ -0,0 +1,109 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package simulator;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A UDP echo server used by the LinkMonitor of the base station to measure
+ * the round trip time, jitter and loss of the link. Every datagram is sent
+ * back unchanged after the latency and jitter of the network conditions,
+ * unless it is lost.
+ */
+public class EchoServer implements Runnable {
+
+    private static final int MAX_PROBE_SIZE = 512;
+
+    private final int port;
+    private final NetworkConditions conditions;
+    private final ScheduledExecutorService executor;
+    private final AtomicLong echoed = new AtomicLong();
+    private volatile boolean running = true;
+    private DatagramSocket socket;
+
+    /**
+     * The constructor of the EchoServer class.
+     *
+     * @param port the UDP port to listen on
+     * @param conditions the network conditions to simulate
+     * @param executor the executor sending the delayed answers
+     */
+    public EchoServer(int port, NetworkConditions conditions, ScheduledExecutorService executor) {
+        this.port = port;
+        this.conditions = conditions;
+        this.executor = executor;
+    }
+
+    /**
+     * Echoes datagrams until the server is stopped.
+     */
+    @Override
+    public void run() {
+        try (DatagramSocket server = new DatagramSocket(port)) {
+            socket = server;
+            System.out.println("Echo simulator listening on UDP port " + port);
+            byte[] buffer = new byte[MAX_PROBE_SIZE];
+            while (running) {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                server.receive(packet);
+                if (conditions.dropPacket()) {
+                    continue;
+                }
+                final byte[] payload = Arrays.copyOf(packet.getData(), packet.getLength());
+                final SocketAddress sender = packet.getSocketAddress();
+                executor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            socket.send(new DatagramPacket(payload, payload.length, sender));
+                            echoed.incrementAndGet();
+                        } catch (IOException ex) {
+                            System.out.println("Error echoing a probe: " + ex.getMessage());
+                        }
+                    }
+                }, conditions.nextDelayMillis(), TimeUnit.MILLISECONDS);
+            }
+        } catch (IOException ex) {
+            if (running) {
+                System.out.println("Echo simulator stopped: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns the number of datagrams echoed.
+     *
+     * @return the number of echoed datagrams
+     */
+    public long getEchoed() {
+        return echoed.get();
+    }
+
+    /**
+     * Stops the server.
+     */
+    public void stop() {
+        running = false;
+        if (socket != null) {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package simulator;
+
+import java.util.Random;
+
+/**
+ * The network conditions the simulators add to everything they send: a fixed
+ * latency, a random jitter on top of it, and a probability of losing a UDP
+ * packet. The values can be changed while the simulators are running.
+ */
+public class NetworkConditions {
+
+    private volatile long latencyMillis = 0;
+    private volatile long jitterMillis = 0;
+    private volatile double packetLoss = 0;
+    private final Random random = new Random();
+
+    /**
+     * Waits for the latency plus a random part of the jitter.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void delay() throws InterruptedException {
+        long delay = nextDelayMillis();
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+    }
+
+    /**
+     * Returns the latency plus a random part of the jitter, for code which
+     * schedules the sending instead of waiting.
+     *
+     * @return the delay in milliseconds
+     */
+    public long nextDelayMillis() {
+        long delay = latencyMillis;
+        if (jitterMillis > 0) {
+            synchronized (random) {
+                delay += (long) (random.nextDouble() * jitterMillis);
+            }
+        }
+        return delay;
+    }
+
+    /**
+     * Decides if the next packet should be lost.
+     *
+     * @return true if the packet should be dropped
+     */
+    public boolean dropPacket() {
+        if (packetLoss <= 0) {
+            return false;
+        }
+        synchronized (random) {
+            return random.nextDouble() < packetLoss;
+        }
+    }
+
+    /**
+     * Returns the fixed latency
+     *
+     * @return the latency in milliseconds
+     */
+    public long getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    /**
+     * Sets the fixed latency
+     *
+     * @param latencyMillis the latency in milliseconds
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Returns the max random jitter
+     *
+     * @return the jitter in milliseconds
+     */
+    public long getJitterMillis() {
+        return jitterMillis;
+    }
+
+    /**
+     * Sets the max random jitter
+     *
+     * @param jitterMillis the jitter in milliseconds
+     */
+    public void setJitterMillis(long jitterMillis) {
+        this.jitterMillis = jitterMillis;
+    }
+
+    /**
+     * Returns the probability of losing a UDP packet
+     *
+     * @return the probability, from 0 to 1
+     */
+    public double getPacketLoss() {
+        return packetLoss;
+    }
+
+    /**
+     * Sets the probability of losing a UDP packet
+     *
+     * @param packetLoss the probability, from 0 to 1
+     */
+    public void setPacketLoss(double packetLoss) {
+        this.packetLoss = packetLoss;
+    }
+}
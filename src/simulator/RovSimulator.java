@@ -0,0 +1,228 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package simulator;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a simulator of the ROV RPi and the camera RPi on localhost, so the base
+ * station can be tested and load tested without the ROV. Start the base
+ * station with -Dtowedrov.rov.ip=localhost -Dtowedrov.camera.ip=localhost to
+ * connect to it.
+ *
+ * To simulate a second towed vehicle, start another simulator with other
+ * ports, like --rov-port 8188 --camera-port 9106 --video-port 8084
+ * --echo-port 8189, and start the base station with -Dtowedrov.vehicles=body2
+ * -Dtowedrov.body2.rov.ip=localhost -Dtowedrov.body2.rov.port=8188
+ * -Dtowedrov.body2.camera.port=9106.
+ *
+ * Options, all optional:
+ * <pre>
+ * --host NAME        the host running the base station (localhost)
+ * --rov-port N       the port of the ROV server (8088)
+ * --camera-port N    the port of the camera server (9006)
+ * --video-port N     the port of the UDPServer of the base station (8083)
+ * --echo-port N      the UDP echo port for the LinkMonitor (8089)
+ * --fps N            the video frame rate (10)
+ * --width N          the width of the video frames (640)
+ * --height N         the height of the video frames (480)
+ * --quality N        the JPEG quality from 0 to 1 (0.7)
+ * --telemetry-hz N   how often the telemetry changes (10)
+ * --rate N           multiplies the frame rate and the telemetry rate (1)
+ * --latency MS       the latency added to every answer and frame (0)
+ * --jitter MS        the max random jitter added to the latency (0)
+ * --loss P           the probability of losing a video frame or a link probe (0)
+ * --no-video         do not send video
+ * </pre>
+ */
+public class RovSimulator {
+
+    private static final long STATUS_INTERVAL = 5000;
+
+    private String host = "localhost";
+    private int rovPort = 8088;
+    private int cameraPort = 9006;
+    private int videoPort = 8083;
+    private int echoPort = 8089;
+    private double fps = 10;
+    private int width = 640;
+    private int height = 480;
+    private float quality = 0.7f;
+    private double telemetryRate = 10;
+    private double rate = 1;
+    private boolean video = true;
+    private final NetworkConditions conditions = new NetworkConditions();
+
+    /**
+     * Starts the simulator.
+     *
+     * @param args the command line options
+     */
+    public static void main(String[] args) {
+        RovSimulator simulator = new RovSimulator();
+        try {
+            simulator.parseArguments(args);
+            simulator.start();
+        } catch (IllegalArgumentException ex) {
+            System.out.println(ex.getMessage());
+            System.exit(1);
+        } catch (IOException ex) {
+            System.out.println("Could not start the simulator: " + ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Reads the command line options.
+     *
+     * @param args the command line options
+     */
+    private void parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--no-video")) {
+                video = false;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            String value = args[++i];
+            try {
+                switch (option) {
+                    case "--host":
+                        host = value;
+                        break;
+                    case "--rov-port":
+                        rovPort = Integer.parseInt(value);
+                        break;
+                    case "--camera-port":
+                        cameraPort = Integer.parseInt(value);
+                        break;
+                    case "--video-port":
+                        videoPort = Integer.parseInt(value);
+                        break;
+                    case "--echo-port":
+                        echoPort = Integer.parseInt(value);
+                        break;
+                    case "--fps":
+                        fps = Double.parseDouble(value);
+                        break;
+                    case "--width":
+                        width = Integer.parseInt(value);
+                        break;
+                    case "--height":
+                        height = Integer.parseInt(value);
+                        break;
+                    case "--quality":
+                        quality = Float.parseFloat(value);
+                        break;
+                    case "--telemetry-hz":
+                        telemetryRate = Double.parseDouble(value);
+                        break;
+                    case "--rate":
+                        rate = Double.parseDouble(value);
+                        break;
+                    case "--latency":
+                        conditions.setLatencyMillis(Long.parseLong(value));
+                        break;
+                    case "--jitter":
+                        conditions.setJitterMillis(Long.parseLong(value));
+                        break;
+                    case "--loss":
+                        conditions.setPacketLoss(Double.parseDouble(value));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + option);
+                }
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Invalid value for " + option + ": " + value);
+            }
+        }
+        if (fps * rate <= 0 || telemetryRate * rate <= 0) {
+            throw new IllegalArgumentException("The rates must be larger than 0");
+        }
+    }
+
+    /**
+     * Starts the servers, the video and the telemetry updates.
+     *
+     * @throws IOException if the video could not be started
+     */
+    private void start() throws IOException {
+        final TelemetryModel model = new TelemetryModel();
+        final CommandServer rovServer = new CommandServer("ROV", rovPort, model, conditions);
+        final CommandServer cameraServer = new CommandServer("Camera", cameraPort, model, conditions);
+        ScheduledExecutorService executor = Executors.newScheduledThreadPool(4);
+
+        final long telemetryPeriod = (long) (1000000 / (telemetryRate * rate));
+        executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                model.update(telemetryPeriod / 1000000.0);
+            }
+        }, 0, telemetryPeriod, TimeUnit.MICROSECONDS);
+
+        startThread(rovServer, "ROVSimulator");
+        startThread(cameraServer, "CameraSimulator");
+        final EchoServer echoServer = new EchoServer(echoPort, conditions, executor);
+        startThread(echoServer, "EchoSimulator");
+
+        final VideoSender videoSender;
+        if (video) {
+            videoSender = new VideoSender(host, videoPort, width, height, quality, conditions, executor);
+            executor.scheduleAtFixedRate(videoSender, 0, (long) (1000000 / (fps * rate)), TimeUnit.MICROSECONDS);
+            startThread(new Runnable() {
+                @Override
+                public void run() {
+                    videoSender.listen();
+                }
+            }, "VideoSimulatorListener");
+            System.out.println("Sending " + (fps * rate) + " frames/s of " + videoSender.getFrameSize()
+                    + " bytes to " + host + ":" + videoPort);
+        } else {
+            videoSender = null;
+        }
+
+        executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                String status = "Simulator: ROV requests: " + rovServer.getRequests()
+                        + ", camera requests: " + cameraServer.getRequests()
+                        + ", probes echoed: " + echoServer.getEchoed()
+                        + ", telemetry updates: " + model.getUpdates();
+                if (videoSender != null) {
+                    status += ", frames sent: " + videoSender.getSentFrames()
+                            + ", frames dropped: " + videoSender.getDroppedFrames();
+                }
+                System.out.println(status);
+            }
+        }, STATUS_INTERVAL, STATUS_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts a named thread.
+     *
+     * @param runnable the code to run
+     * @param name the name of the thread
+     */
+    private static void startThread(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable);
+        thread.setName(name);
+        thread.start();
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package simulator;
+
+/**
+ * A simple model of the ROV and the camera RPi which produces the telemetry
+ * sent to the base station. The steppers move towards the commanded positions,
+ * the ROV follows the commanded depth, and the seabed, roll and pitch change
+ * slowly over time. All methods are synchronized since the model is shared by
+ * the command servers and the update task.
+ */
+public class TelemetryModel {
+
+    private static final double STEPPER_SPEED = 40;
+    private static final double DEPTH_SPEED = 0.5;
+
+    private double time = 0;
+    private double stepperPSPos = 0;
+    private double stepperSBPos = 0;
+    private double stepperPSTarget = 0;
+    private double stepperSBTarget = 0;
+    private double rovDepth = 5;
+    private double targetDepth = 5;
+    private double targetDistance = 10;
+    private int targetMode = 0;
+    private double seabedDepth = 40;
+    private boolean leak = false;
+    private long updates = 0;
+
+    /**
+     * Moves the model forward in time.
+     *
+     * @param seconds the time since the last update
+     */
+    public synchronized void update(double seconds) {
+        time += seconds;
+        updates++;
+        stepperPSPos = approach(stepperPSPos, stepperPSTarget, STEPPER_SPEED * seconds);
+        stepperSBPos = approach(stepperSBPos, stepperSBTarget, STEPPER_SPEED * seconds);
+        seabedDepth = 40 + 8 * Math.sin(time / 30) + 2 * Math.sin(time / 7);
+        // Mode 0 is depth, 1 is distance from the seafloor and 2 is manual
+        if (targetMode == 0) {
+            rovDepth = approach(rovDepth, Math.max(0, targetDepth), DEPTH_SPEED * seconds);
+        } else if (targetMode == 1) {
+            rovDepth = approach(rovDepth, Math.max(0, seabedDepth - targetDistance), DEPTH_SPEED * seconds);
+        }
+    }
+
+    /**
+     * Handles a command sent from the base station, like "cmd_actuatorPS".
+     * Unknown commands are ignored.
+     *
+     * @param key the command
+     * @param value the value of the command
+     */
+    public synchronized void handleCommand(String key, String value) {
+        try {
+            switch (key) {
+                case "cmd_actuatorPS":
+                    stepperPSTarget = Double.parseDouble(value);
+                    break;
+                case "cmd_actuatorSB":
+                    stepperSBTarget = Double.parseDouble(value);
+                    break;
+                case "cmd_stepper":
+                    stepperPSTarget = Double.parseDouble(value);
+                    stepperSBTarget = stepperPSTarget;
+                    break;
+                case "cmd_rovDepth":
+                    targetDepth = Double.parseDouble(value);
+                    break;
+                case "cmd_targetDistance":
+                    targetDistance = Double.parseDouble(value);
+                    break;
+                case "cmd_targetMode":
+                    targetMode = Integer.parseInt(value);
+                    break;
+                case "cmd_leak":
+                    leak = value.equals("1") || value.equals("true");
+                    break;
+                default:
+                    break;
+            }
+        } catch (NumberFormatException ex) {
+            System.out.println("Simulator: invalid value for " + key + ": " + value);
+        }
+    }
+
+    /**
+     * Returns the answer of the ROV RPi to the fb_allData command.
+     *
+     * @return the data frame
+     */
+    public synchronized String getRovFrame() {
+        double roll = 3 * Math.sin(time / 2) + (stepperPSPos - stepperSBPos) / 20;
+        double pitch = 2 * Math.sin(time / 3) + (stepperPSPos + stepperSBPos) / 40;
+        return "<Fb_stepperPSPos:" + Math.round(stepperPSPos)
+                + ":Fb_stepperSBPos:" + Math.round(stepperSBPos)
+                + ":Fb_rollAngle:" + format(roll)
+                + ":Fb_pitchAngle:" + format(pitch)
+                + ":Fb_depthToSeabedEcho:" + format(seabedDepth)
+                + ":Fb_depthBelowTransduser:" + format(seabedDepth - rovDepth)
+                + ":Fb_depthBeneathROV:" + format(seabedDepth - rovDepth)
+                + ":Fb_tempElBoxFront:" + format(24 + Math.sin(time / 60))
+                + ":Fb_tempElBoxRear:" + format(26 + Math.sin(time / 60))
+                + ":Fb_ROVReady:true"
+                + ":ERROR_I2C:false>";
+    }
+
+    /**
+     * Returns the answer of the camera RPi to the getData command.
+     *
+     * @return the data frame
+     */
+    public synchronized String getCameraFrame() {
+        return "<leakAlarm:" + (leak ? "1" : "0")
+                + ":depth:" + format(rovDepth)
+                + ":pressure:" + format(1013.25 + rovDepth * 100.5)
+                + ":outsideTemp:" + format(8 + Math.sin(time / 90))
+                + ":insideTemp:" + format(22 + Math.sin(time / 60))
+                + ":humidity:" + format(35 + 2 * Math.sin(time / 120)) + ">";
+    }
+
+    /**
+     * Returns the number of times the model has been updated.
+     *
+     * @return the number of updates
+     */
+    public synchronized long getUpdates() {
+        return updates;
+    }
+
+    /**
+     * Moves a value towards a target by at most the given step.
+     *
+     * @param value the current value
+     * @param target the target value
+     * @param step the max change
+     * @return the new value
+     */
+    private static double approach(double value, double target, double step) {
+        if (Math.abs(target - value) <= step) {
+            return target;
+        }
+        return value + Math.signum(target - value) * step;
+    }
+
+    /**
+     * Formats a value with two decimals, like the RPis do.
+     *
+     * @param value the value to format
+     * @return the formatted value
+     */
+    private static String format(double value) {
+        return String.valueOf(Math.round(value * 100) / 100.0);
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * This code is for the bachelor thesis named "Towed-ROV".
+ * The purpose is to build a ROV which will be towed behind a surface vessel
+ * and act as a multi-sensor platform, were it shall be easy to place new
+ * sensors. There will also be a video stream from the ROV.
+ *
+ * The system consists of two Raspberry Pis in the ROV that is connected to
+ * several Arduino micro controllers. These micro controllers are connected to
+ * feedback from the actuators, the echo sounder and extra optional sensors.
+ * The external computer which is on the surface vessel is connected to a GPS,
+ * echo sounder over USB, and the ROV over ethernet. It will present and
+ * log data in addition to handle user commands for controlling the ROV.
+ */
+package simulator;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Simulates the video stream of the camera RPi. Sends one JPEG per datagram
+ * to the UDPServer of the base station, and listens for the photoMode,
+ * photoDelay and resetImgNumber commands it sends back. The frames are
+ * encoded once at start-up, so the sender itself hardly uses any CPU.
+ */
+public class VideoSender implements Runnable {
+
+    /**
+     * The size of the receive buffer in UDPServer.
+     */
+    public static final int RECEIVER_BUFFER_SIZE = 60000;
+
+    private static final int MAX_DATAGRAM_SIZE = 65507;
+    private static final int FRAME_COUNT = 25;
+
+    private final InetAddress address;
+    private final int port;
+    private final NetworkConditions conditions;
+    private final ScheduledExecutorService executor;
+    private final byte[][] frames;
+    private final DatagramSocket socket;
+    private final AtomicLong sentFrames = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private volatile boolean photoMode = false;
+    private volatile long photoDelay = 1000;
+    private long lastPhoto = 0;
+    private volatile int frameNumber = 0;
+
+    /**
+     * The constructor of the VideoSender class. Encodes the frames which will
+     * be sent.
+     *
+     * @param host the host running the base station
+     * @param port the port of the UDPServer
+     * @param width the width of the frames
+     * @param height the height of the frames
+     * @param quality the JPEG quality, from 0 to 1
+     * @param conditions the network conditions to simulate
+     * @param executor the executor used to delay the frames
+     * @throws IOException if the socket could not be opened or a frame could
+     * not be encoded
+     */
+    public VideoSender(String host, int port, int width, int height, float quality,
+            NetworkConditions conditions, ScheduledExecutorService executor) throws IOException {
+        this.address = InetAddress.getByName(host);
+        this.port = port;
+        this.conditions = conditions;
+        this.executor = executor;
+        this.frames = new byte[FRAME_COUNT][];
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            frames[i] = encode(drawFrame(width, height, i), quality);
+        }
+        if (frames[0].length > RECEIVER_BUFFER_SIZE) {
+            System.out.println("Warning: the frames are " + frames[0].length
+                    + " bytes, larger than the " + RECEIVER_BUFFER_SIZE
+                    + " byte buffer of the UDPServer");
+        }
+        this.socket = new DatagramSocket();
+        this.socket.setSoTimeout(500);
+    }
+
+    /**
+     * Sends the next frame. Meant to be scheduled at the frame rate. In photo
+     * mode a frame is only sent every photo delay, like the camera RPi does.
+     */
+    @Override
+    public void run() {
+        long now = System.currentTimeMillis();
+        if (photoMode) {
+            if (now - lastPhoto < photoDelay) {
+                return;
+            }
+            lastPhoto = now;
+        }
+        final byte[] frame = frames[frameNumber++ % frames.length];
+        if (frame.length > MAX_DATAGRAM_SIZE || conditions.dropPacket()) {
+            droppedFrames.incrementAndGet();
+            return;
+        }
+        long delay = conditions.nextDelayMillis();
+        if (delay > 0) {
+            executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    send(frame);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } else {
+            send(frame);
+        }
+    }
+
+    /**
+     * Listens for the commands from the base station until the socket is
+     * closed. Meant to be run in its own thread.
+     */
+    public void listen() {
+        byte[] buffer = new byte[256];
+        while (!socket.isClosed()) {
+            try {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                socket.receive(packet);
+                handleCommand(new String(packet.getData(), 0, packet.getLength()).trim());
+            } catch (SocketTimeoutException ex) {
+                // Check if the socket is closed
+            } catch (IOException ex) {
+                if (!socket.isClosed()) {
+                    System.out.println("Video simulator: " + ex.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Handles a command from the UDPServer.
+     *
+     * @param command the command, like "photoMode:true"
+     */
+    private void handleCommand(String command) {
+        System.out.println("Video simulator received: " + command);
+        try {
+            if (command.startsWith("photoMode:")) {
+                photoMode = Boolean.parseBoolean(command.substring("photoMode:".length()));
+            } else if (command.startsWith("photoDelay:")) {
+                photoDelay = (long) (Double.parseDouble(command.substring("photoDelay:".length())) * 1000);
+            } else if (command.equals("resetImgNumber")) {
+                frameNumber = 0;
+            }
+        } catch (NumberFormatException ex) {
+            System.out.println("Video simulator: invalid command " + command);
+        }
+    }
+
+    /**
+     * Sends a frame to the base station.
+     *
+     * @param frame the encoded frame
+     */
+    private void send(byte[] frame) {
+        try {
+            socket.send(new DatagramPacket(frame, frame.length, address, port));
+            sentFrames.incrementAndGet();
+        } catch (IOException ex) {
+            droppedFrames.incrementAndGet();
+            if (!socket.isClosed()) {
+                System.out.println("Video simulator: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Closes the socket.
+     */
+    public void stop() {
+        socket.close();
+    }
+
+    /**
+     * Returns the number of frames sent.
+     *
+     * @return the number of frames sent
+     */
+    public long getSentFrames() {
+        return sentFrames.get();
+    }
+
+    /**
+     * Returns the number of frames dropped by the simulated packet loss or
+     * because they were too large.
+     *
+     * @return the number of dropped frames
+     */
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    /**
+     * Returns the size of the encoded frames.
+     *
+     * @return the size in bytes
+     */
+    public int getFrameSize() {
+        return frames[0].length;
+    }
+
+    /**
+     * Draws a test frame with some noise, so it compresses like a picture
+     * from the sea and not like a flat test image.
+     *
+     * @param width the width of the frame
+     * @param height the height of the frame
+     * @param number the number of the frame
+     * @return the frame
+     */
+    private static BufferedImage drawFrame(int width, int height, int number) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(number);
+        for (int y = 0; y < height; y++) {
+            int blue = 80 + 100 * y / height;
+            for (int x = 0; x < width; x++) {
+                int noise = random.nextInt(24);
+                image.setRGB(x, y, (10 + noise) << 16 | (60 + noise) << 8 | Math.min(255, blue + noise));
+            }
+        }
+        Graphics2D g = image.createGraphics();
+        double angle = 2 * Math.PI * number / FRAME_COUNT;
+        int size = Math.min(width, height) / 4;
+        g.setColor(Color.ORANGE);
+        g.setStroke(new BasicStroke(Math.max(1, size / 10)));
+        g.drawOval((int) (width / 2 + Math.cos(angle) * width / 4) - size / 2,
+                (int) (height / 2 + Math.sin(angle) * height / 4) - size / 2, size, size);
+        g.setColor(Color.WHITE);
+        g.setFont(new Font(Font.MONOSPACED, Font.BOLD, Math.max(10, height / 20)));
+        g.drawString("SIMULATOR " + number, width / 20, height / 10);
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * Encodes an image as JPEG.
+     *
+     * @param image the image to encode
+     * @param quality the JPEG quality, from 0 to 1
+     * @return the JPEG bytes
+     * @throws IOException if the image could not be encoded
+     */
+    private static byte[] encode(BufferedImage image, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(ios);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+}